@@ -9,36 +9,62 @@ import org.matsim.api.core.v01.network.NetworkFactory;
 import org.matsim.api.core.v01.network.Node;
 import org.matsim.contrib.bicycle.BicycleUtils;
 import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.collections.QuadTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * Merges a network of bike highways into a network. Links of the bike highways are broken up into pieces of less than
+ * 200m and every end of a link is connected to the nearest node of the network within 100m which is not a pt node.
+ * <p>
+ * By default every end is looked up on its own and new nodes and links get random ids. With batch snapping all nodes of
+ * the network which may be connected are put into one spatial index, the ends of all links are looked up in parallel
+ * and every end is connected once. New nodes and links get sequential ids, skipping the ids which are already part of
+ * the network, so that merging the same networks always leads to the same result, also if several networks of bike
+ * highways are merged one after the other. This is meant for larger networks of bike highways.
+ */
 class BikeNetworkMerger {
 
 	private static final double MAX_LINK_LENGTH = 200;
+	private static final double SNAPPING_DISTANCE = 100;
 	private static final String ID_PREFIX = "bike-highway_";
 	private static Logger logger = LoggerFactory.getLogger(BikeNetworkMerger.class);
 	private final Network originalNetwork;
+	private final boolean batchSnapping;
 	private final List<Link> brokenUpLinksToAdd = new ArrayList<>();
 	private final List<Link> longLinksToRemove = new ArrayList<>();
+	private long idCounter = 0;
 
 	BikeNetworkMerger(Network originalNetwork) {
+		this(originalNetwork, false);
+	}
+
+	/**
+	 * @param batchSnapping whether the ends of the bike highways are connected to the network in one batch with
+	 *                      sequential ids
+	 */
+	BikeNetworkMerger(Network originalNetwork, boolean batchSnapping) {
 		this.originalNetwork = originalNetwork;
+		this.batchSnapping = batchSnapping;
 	}
 
 	Network mergeBikeHighways(Network bikeHighways) {
 
 		// break up links into parts < 200m
 		this.breakLinksIntoSmallerPieces(bikeHighways);
+
+		if (batchSnapping) return mergeWithBatchSnapping(bikeHighways);
+
 		this.copyNodesIntoNetwork(bikeHighways);
 
 		bikeHighways.getLinks().values().forEach(link -> {
 
 			// copy link and give it some id
-			Link newLink = copyWithUUID(originalNetwork.getFactory(), link);
-			Link newReverseLink = copyWithUUIDAndReverseDirection(originalNetwork.getFactory(), link);
+			Link newLink = copyWithNewId(originalNetwork.getFactory(), link);
+			Link newReverseLink = copyWithNewIdAndReverseDirection(originalNetwork.getFactory(), link);
 
 			connectNodeToNetwork(originalNetwork, bikeHighways.getNodes(), newLink.getFromNode());
 			connectNodeToNetwork(originalNetwork, bikeHighways.getNodes(), newLink.getToNode());
@@ -51,11 +77,98 @@ class BikeNetworkMerger {
 		return originalNetwork;
 	}
 
+	private Network mergeWithBatchSnapping(Network bikeHighways) {
+
+		// the index is built before the nodes of the bike highways are copied, so they are never candidates
+		QuadTree<Node> candidates = createIndexOfCandidates(bikeHighways.getNodes());
+		this.copyNodesIntoNetwork(bikeHighways);
+
+		Set<Node> ends = new LinkedHashSet<>();
+		for (Link link : bikeHighways.getLinks().values()) {
+			ends.add(link.getFromNode());
+			ends.add(link.getToNode());
+		}
+		List<Node> endList = new ArrayList<>(ends);
+		List<Node> nearestNodes = endList.parallelStream()
+				.map(end -> findNearestNode(candidates, end))
+				.collect(Collectors.toList());
+
+		// links are added in the order of the bike highways, so that the ids don't depend on the order of the lookups
+		Map<Node, Node> nearestNodeOfEnd = new HashMap<>();
+		for (int i = 0; i < endList.size(); i++) {
+			nearestNodeOfEnd.put(endList.get(i), nearestNodes.get(i));
+		}
+		Set<Node> connectedEnds = new HashSet<>();
+		int connections = 0;
+		for (Link link : bikeHighways.getLinks().values()) {
+			originalNetwork.addLink(copyWithNewId(originalNetwork.getFactory(), link));
+			originalNetwork.addLink(copyWithNewIdAndReverseDirection(originalNetwork.getFactory(), link));
+
+			for (Node end : Arrays.asList(link.getFromNode(), link.getToNode())) {
+				Node nearNode = nearestNodeOfEnd.get(end);
+				if (nearNode != null && connectedEnds.add(end)) {
+					originalNetwork.addLink(createLinkWithAttributes(originalNetwork.getFactory(), end, nearNode));
+					originalNetwork.addLink(createLinkWithAttributes(originalNetwork.getFactory(), nearNode, end));
+					connections++;
+				}
+			}
+		}
+		logger.info("Merged " + bikeHighways.getLinks().size() + " links of bike highways with " + connections + " connections to the network");
+		return originalNetwork;
+	}
+
+	private QuadTree<Node> createIndexOfCandidates(Map<Id<Node>, ? extends Node> nodesToAvoid) {
+
+		List<Node> nodes = originalNetwork.getNodes().values().stream()
+				.filter(node -> !nodesToAvoid.containsKey(node.getId()))
+				.filter(node -> !node.getId().toString().startsWith("pt"))
+				.collect(Collectors.toList());
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (Node node : nodes) {
+			minX = Math.min(minX, node.getCoord().getX());
+			minY = Math.min(minY, node.getCoord().getY());
+			maxX = Math.max(maxX, node.getCoord().getX());
+			maxY = Math.max(maxY, node.getCoord().getY());
+		}
+		if (nodes.isEmpty()) {
+			minX = minY = maxX = maxY = 0;
+		}
+
+		QuadTree<Node> index = new QuadTree<>(minX, minY, maxX, maxY);
+		nodes.forEach(node -> index.put(node.getCoord().getX(), node.getCoord().getY(), node));
+		return index;
+	}
+
+	/**
+	 * @return the nearest candidate within 100m or null. Of several candidates with the same distance, the one with the
+	 * smallest id is taken.
+	 */
+	private static Node findNearestNode(QuadTree<Node> candidates, Node node) {
+		return candidates.getDisk(node.getCoord().getX(), node.getCoord().getY(), SNAPPING_DISTANCE).stream()
+				.min(Comparator.<Node>comparingDouble(nearNode -> NetworkUtils.getEuclideanDistance(nearNode.getCoord(), node.getCoord()))
+						.thenComparing(nearNode -> nearNode.getId().toString()))
+				.orElse(null);
+	}
+
 	private void breakLinksIntoSmallerPieces(Network bikeHighways) {
 
 		bikeHighways.getLinks().values().forEach(link -> breakUpLinkIntoSmallerPieces(bikeHighways, link));
 		this.longLinksToRemove.forEach(link -> bikeHighways.removeLink(link.getId()));
 		this.brokenUpLinksToAdd.forEach(bikeHighways::addLink);
+		logger.info("Broke up " + longLinksToRemove.size() + " links of bike highways into " + brokenUpLinksToAdd.size() + " pieces");
+	}
+
+	private String createId() {
+		if (!batchSnapping) return ID_PREFIX + UUID.randomUUID().toString();
+
+		// the network may already contain the ids of an earlier merge, which are skipped
+		String id;
+		do {
+			id = ID_PREFIX + idCounter++;
+		} while (originalNetwork.getLinks().containsKey(Id.createLinkId(id)) || originalNetwork.getNodes().containsKey(Id.createNodeId(id)));
+		return id;
 	}
 
 	private void breakUpLinkIntoSmallerPieces(Network bikeHighways, Link link) {
@@ -74,8 +187,7 @@ class BikeNetworkMerger {
 			double deltaY = toNode.getCoord().getY() - fromNode.getCoord().getY();
 			Node currentNode = fromNode;
 
-			logger.info("link length: " + length);
-			logger.info("splitting link into " + numberOfParts + " parts");
+			logger.debug("splitting link with length {} into {} parts", length, numberOfParts);
 
 			while (numberOfParts > 1) {
 
@@ -85,14 +197,13 @@ class BikeNetworkMerger {
 						currentNode.getCoord().getY() + deltaY * lengthFraction
 				);
 				Node newNode = bikeHighways.getFactory().createNode(
-						Id.createNodeId(ID_PREFIX + UUID.randomUUID().toString()), newCoord
+						Id.createNodeId(createId()), newCoord
 				);
 				bikeHighways.addNode(newNode);
-				logger.info("added node with id: " + newNode.getId().toString());
 
 				// connect current and new node with a link and add it to the network
 				Link newLink = bikeHighways.getFactory().createLink(
-						Id.createLinkId(ID_PREFIX + UUID.randomUUID().toString()),
+						Id.createLinkId(createId()),
 						currentNode, newNode
 				);
 				brokenUpLinksToAdd.add(newLink);
@@ -104,7 +215,7 @@ class BikeNetworkMerger {
 
 			// last link to be inserted must be connected to currentNode and toNode
 			Link lastLink = bikeHighways.getFactory().createLink(
-					Id.createLinkId(ID_PREFIX + UUID.randomUUID().toString()),
+					Id.createLinkId(createId()),
 					currentNode, toNode
 			);
 			brokenUpLinksToAdd.add(lastLink);
@@ -115,18 +226,18 @@ class BikeNetworkMerger {
 		fromNetwork.getNodes().values().forEach(originalNetwork::addNode);
 	}
 
-	private Link copyWithUUID(NetworkFactory factory, Link link) {
+	private Link copyWithNewId(NetworkFactory factory, Link link) {
 		return createLinkWithAttributes(factory, link.getFromNode(), link.getToNode());
 	}
 
-	private Link copyWithUUIDAndReverseDirection(NetworkFactory factory, Link link) {
+	private Link copyWithNewIdAndReverseDirection(NetworkFactory factory, Link link) {
 		return createLinkWithAttributes(factory, link.getToNode(), link.getFromNode());
 	}
 
 	private Link createLinkWithAttributes(NetworkFactory factory, Node fromNode, Node toNode) {
 
 		Link result = factory.createLink(
-				Id.createLinkId("bike-highway_" + UUID.randomUUID().toString()),
+				Id.createLinkId(createId()),
 				fromNode, toNode
 		);
 		result.setAllowedModes(new HashSet<>(Collections.singletonList(TransportMode.bike)));
@@ -158,8 +269,8 @@ class BikeNetworkMerger {
 
 	private Collection<Node> getNearestNodes(Network network, Node node) {
 
-		final double distance = 100; // search nodes in a 100m radius
-		return NetworkUtils.getNearestNodes(network, node.getCoord(), distance).stream()
+		// search nodes in a 100m radius
+		return NetworkUtils.getNearestNodes(network, node.getCoord(), SNAPPING_DISTANCE).stream()
 				.filter(n -> !n.getId().toString().startsWith("pt")).collect(Collectors.toList());
 	}
 }
\ No newline at end of file
@@ -3,7 +3,6 @@ package org.matsim.nemo;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.Point;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
@@ -18,9 +17,9 @@ import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.network.io.MatsimNetworkReader;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.utils.collections.Tuple;
-import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.gis.ShapeFileReader;
 import org.matsim.core.utils.io.MatsimXmlWriter;
+import org.matsim.nemo.util.ZoneIndex;
 import org.opengis.feature.simple.SimpleFeature;
 
 import java.io.IOException;
@@ -48,12 +47,12 @@ public class CreateDrtVehicles {
 	private static final String outputPath = "projects\\nemo_mercator\\data\\matsim_input\\supply\\smartCity\\drt_vehicles.xml.gz";
 
 	private final Network network;
-	private final Collection<Geometry> serviceArea;
+	private final ZoneIndex serviceArea;
 	private final Path output;
 
     private CreateDrtVehicles(Network network, Collection<Geometry> geometries, Path output) {
 		this.network = network;
-		this.serviceArea = geometries;
+		this.serviceArea = new ZoneIndex(geometries);
 		this.output = output;
 	}
 
@@ -96,10 +95,7 @@ public class CreateDrtVehicles {
 	}
 
 	private boolean isInServiceArea(Link link) {
-
-		Point centerOfLink = MGC.coord2Point(link.getCoord());
-		return serviceArea.stream().anyMatch(geometry -> geometry.contains(centerOfLink));
-
+		return serviceArea.contains(link.getCoord());
 	}
 
 	private static class InputArguments {
@@ -4,18 +4,14 @@ package org.matsim.nemo;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import org.locationtech.jts.geom.Geometry;
-import org.matsim.api.core.v01.Coord;
-import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
-import org.matsim.api.core.v01.network.NetworkFactory;
 import org.matsim.api.core.v01.network.NetworkWriter;
 import org.matsim.contrib.accessibility.utils.MergeNetworks;
 import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.network.io.MatsimNetworkReader;
-import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.gis.ShapeFileReader;
 import org.matsim.core.utils.io.OsmNetworkReader;
 import org.matsim.counts.Counts;
@@ -23,6 +19,7 @@ import org.matsim.nemo.counts.*;
 import org.matsim.nemo.pt.CreatePtScheduleAndVehiclesFromGtfs;
 import org.matsim.nemo.pt.CreatePtScheduleAndVehiclesFromOsm;
 import org.matsim.nemo.pt.PtInput;
+import org.matsim.nemo.util.GeometryRasterMask;
 import org.matsim.nemo.util.NEMOUtils;
 import org.matsim.pt.transitSchedule.TransitScheduleWriterV2;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
@@ -34,7 +31,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * Script to create all the supply (network, counts, transit-vehicles and schedules). It takes the svn-directory and the
@@ -48,6 +47,9 @@ import java.util.logging.Logger;
 public class CreateSupply {
 
 	private static Logger logger = Logger.getLogger("CreateSupply");
+	private static final double MEDIAN = 0.5;
+	private static final double PERCENTILE_85 = 0.85;
+	private static final double SHAPE_CELL_SIZE = 100;
 
 	public static void main(String[] args) throws IOException {
 
@@ -63,7 +65,7 @@ public class CreateSupply {
 		Files.createDirectories(outputParams.getOutputNetworkDir().resolve(inputArguments.scenario));
 
 		// parse the osm network
-		Network network = createNetwork(inputArguments.svnDir, inputArguments.scenario, inputParams);
+		Network network = createNetwork(inputArguments, inputParams);
 
 		// if we are preparing the network for a scenario other than location choice we need a public transit network
 		if (!ScenarioName.locationChoice.equals(inputArguments.scenario)) {
@@ -79,8 +81,7 @@ public class CreateSupply {
 				.resolve("nemo_" + inputArguments.scenario + "_network.xml.gz").toString());
 
 		// create counts for calibration
-		createAndWriteCounts(inputArguments.svnDir,
-				inputArguments.scenario,
+		createAndWriteCounts(inputArguments,
 				network,
 				inputParams.getInputNetworkShapeFilter(),
 				outputParams.getOutputNetworkDir());
@@ -116,25 +117,40 @@ public class CreateSupply {
 			throw new RuntimeException(Paths.get(countsInput.getInputShorttermCountMapping()).toString() + "does not exist");
 	}
 
-	private static Network createNetwork(String svnDir, String scenarioName, NetworkInput inputParams) {
+	private static Network createNetwork(InputArguments inputArguments, NetworkInput inputParams) {
 
-		// create the network
-		NetworkCreator creator = new NetworkCreator.Builder()
+		String svnDir = inputArguments.svnDir;
+		String scenarioName = inputArguments.scenario;
+
+		// create the network. With a cache directory, all scenarios except location choice share the same base network,
+		// which is only parsed once and then read from the cache. The scenario specific changes below are applied to the
+		// copy from the cache.
+		NetworkCreator.Builder builder = new NetworkCreator.Builder()
 				.setNetworkCoordinateSystem(NEMOUtils.NEMO_EPSG)
 				.setSvnDir(svnDir)
 				.withByciclePaths()
 				.withRideOnCarLinks()
 				.withOsmFilter(getNetworkFilter(scenarioName, inputParams.getInputNetworkShapeFilter()))
 				.withCleaningModes(TransportMode.car, TransportMode.ride, TransportMode.bike)
-				.withRideOnCarLinks()
-				.build();
+				.withRideOnCarLinks();
+		if (inputArguments.cacheDir != null) {
+			String networkCacheDir = Paths.get(inputArguments.cacheDir, "network_cache").toString();
+			if (ScenarioName.locationChoice.equals(scenarioName)) {
+				builder.withNetworkCache(networkCacheDir, "level<=4");
+			} else {
+				builder.withNetworkCache(networkCacheDir, "fine", inputParams.getInputNetworkShapeFilter());
+			}
+		}
+		NetworkCreator creator = builder.build();
 
 		logger.info("Creating network. This may take some while");
 		Network network = creator.createNetwork();
 
+		NetworkModificationPipeline.Builder modifications = new NetworkModificationPipeline.Builder();
+
 		if (ScenarioName.healthyCity.equals(scenarioName)) {
 			logger.info("Banning cars from residential areas, as part of the healthy city scenario");
-			banCarfromResidentialAreasAndCreateBikeLinks(network, inputParams.getInputNetworkShapeFilter());
+			banCarfromResidentialAreasAndCreateBikeLinks(modifications, inputParams.getInputNetworkShapeFilter());
 		}
 
 		if (ScenarioName.bikeHighways.equals(scenarioName) || ScenarioName.bikeHighwaysWithBridge.equals(scenarioName)) {
@@ -151,10 +167,10 @@ public class CreateSupply {
 			}
 
 			new MatsimNetworkReader(highwayInput).readFile(inputNetwork);
-			BikeNetworkMerger merger = new BikeNetworkMerger(network);
-			network = merger.mergeBikeHighways(highwayInput);
+			modifications.addNetworkStage(baseNetwork -> new BikeNetworkMerger(baseNetwork, inputArguments.batchSnapping).mergeBikeHighways(highwayInput));
 		}
 
+		modifications.build().run(network);
 		return network;
 	}
 
@@ -190,31 +206,68 @@ public class CreateSupply {
 		return scenarioFromGtfsSchedule.getNetwork();
 	}
 
-	private static void createAndWriteCounts(String svnDir, String scenarioName, Network network, String filterShape, Path outputDir) {
+	private static void createAndWriteCounts(InputArguments inputArguments, Network network, String filterShape, Path outputDir) {
+
+		String svnDir = inputArguments.svnDir;
+		String scenarioName = inputArguments.scenario;
+
 		// create long term counts
 		Set<String> columnCombinations = new HashSet<>(Collections.singletonList(RawDataVehicleTypes.Pkw.toString()));
-		LongTermCountsCreator longTermCountsCreator = new LongTermCountsCreator.Builder()
+		LongTermCountsCreator.AbstractBuilder<LongTermCountsCreator> longTermBuilder = new LongTermCountsCreator.Builder()
 				.setSvnDir(svnDir)
 				.withNetwork(network)
 				.withColumnCombinations(columnCombinations)
 				.withStationIdsToOmit(5002L, 50025L)
 				.useCountsWithinGeometry(filterShape)
-				.build();
+				.withParallelIngestion(inputArguments.threads);
+		if (inputArguments.cacheDir != null) {
+			longTermBuilder
+					.withRawCountsCache(Paths.get(inputArguments.cacheDir, "raw_counts_cache").toString())
+					.withStationLinkCache(Paths.get(inputArguments.cacheDir, "station_link_cache").toString());
+		}
+		if (inputArguments.quantiles) {
+			longTermBuilder.withQuantiles(MEDIAN, PERCENTILE_85);
+		}
+		if (inputArguments.screening) {
+			longTermBuilder.withScreening(outputDir.resolve(scenarioName + "_rejected_counts.csv").toString());
+		}
+		LongTermCountsCreator longTermCountsCreator = longTermBuilder.build();
 		Map<String, Counts<Link>> longTermCounts = longTermCountsCreator.run();
 
-		// create short term counts
-		ShortTermCountsCreator shortTermCountsCreator = new ShortTermCountsCreator.Builder()
+		// create short term counts, optionally extrapolated to the annual average with the factors of the long term counts
+		LongTermCountsCreator.AbstractBuilder<ShortTermCountsCreator> shortTermBuilder = new ShortTermCountsCreator.Builder()
 				.setSvnDir(svnDir)
 				.withNetwork(network)
 				.withColumnCombinations(columnCombinations)
 				.withStationIdsToOmit(5002L, 5025L)
 				.useCountsWithinGeometry(filterShape)
-				.build();
+				.withParallelIngestion(inputArguments.threads);
+		if (inputArguments.cacheDir != null) {
+			shortTermBuilder.withStationLinkCache(Paths.get(inputArguments.cacheDir, "station_link_cache").toString());
+		}
+		if (inputArguments.readArchivesWithoutExtracting) {
+			shortTermBuilder.readArchivesWithoutExtracting();
+		}
+		if (inputArguments.quantiles) {
+			shortTermBuilder.withQuantiles(MEDIAN, PERCENTILE_85);
+		}
+		if (inputArguments.extrapolation) {
+			shortTermBuilder.withExtrapolation(longTermCountsCreator.computeSeasonalFactors());
+		}
+		ShortTermCountsCreator shortTermCountsCreator = shortTermBuilder.build();
 		Map<String, Counts<Link>> shortTermCounts = shortTermCountsCreator.run();
 
-		CombinedCountsWriter.writeCounts(outputDir
+		CombinedCountsWriter.writeCountsInParallel(outputDir
 						.resolve(scenarioName), scenarioName,
-				columnCombinations, longTermCounts, shortTermCounts);
+				columnCombinations, false, longTermCounts, shortTermCounts);
+
+		if (inputArguments.quantiles) {
+			// counts based on the median and the 85th percentile of the hourly volumes, which are less sensitive to outliers
+			CombinedCountsWriter.writeCountsInParallel(outputDir.resolve(scenarioName), scenarioName + "_median",
+					columnCombinations, false, longTermCountsCreator.getQuantileCounts(MEDIAN), shortTermCountsCreator.getQuantileCounts(MEDIAN));
+			CombinedCountsWriter.writeCountsInParallel(outputDir.resolve(scenarioName), scenarioName + "_p85",
+					columnCombinations, false, longTermCountsCreator.getQuantileCounts(PERCENTILE_85), shortTermCountsCreator.getQuantileCounts(PERCENTILE_85));
+		}
 	}
 
 	private static OsmNetworkReader.OsmFilter getNetworkFilter(String scenario, String pathToShapeFile) {
@@ -237,89 +290,19 @@ public class CreateSupply {
 		toBeMerged.getVehicles().values().forEach(vehicles::addVehicle);
 	}
 
-	private static void banCarfromResidentialAreasAndCreateBikeLinks(Network network, String shpFile) {
-
-		List<Geometry> geometries = new ArrayList<>();
-		ShapeFileReader.getAllFeatures(shpFile)
-				.forEach(feature -> geometries.add((Geometry) feature.getDefaultGeometry()));
-
-		NetworkFactory factory = network.getFactory();
-		List<Link> newBikeLinks = new ArrayList<>();
-
-		for (Link link : network.getLinks().values()) {
-			if (link.getAttributes().getAttribute("type").equals("residential") && linkIsInShape(link, geometries)) {
-				// link is residential and in shapeFile --> ban cars
-				Set<String> oldAllowedModes = link.getAllowedModes();
-				Set<String> newAllowedModes = new HashSet<>();
-				for (String mode : oldAllowedModes) {
-					if (!mode.equals("car") && !mode.equals("ride")) {
-						newAllowedModes.add(mode);
-					}
-				}
-				link.setAllowedModes(newAllowedModes);
-
-			} else { // all non-residential links and residential outside of shape --> bike capacity
-
-				double capacity = link.getCapacity();
-
-				// if capacity > 1000. extra bike link, if lower no bike link
-
-				if (capacity > 1000.) {
-					// new bike link
-					Id<Link> bikeLinkId = Id.createLinkId(link.getId() + "_bike");
-					Link bikeLink = factory.createLink(bikeLinkId, link.getFromNode(), link.getToNode());
-					Set<String> allowedModes = new HashSet<>();
-					allowedModes.add(TransportMode.bike);
-					bikeLink.setAllowedModes(allowedModes);
-					bikeLink.setLength(link.getLength());
-					bikeLink.setFreespeed(link.getFreespeed());
-					bikeLink.setNumberOfLanes(1);
-
-					Map<String, Object> attributes = link.getAttributes().getAsMap();
-					for (Map.Entry<String, Object> entry : attributes.entrySet()) {
-						bikeLink.getAttributes().putAttribute(entry.getKey(), entry.getValue());
-					}
-
-					// set capacity in new bike link and old link according to Copenhagen model
-					if (capacity < 2000) {
-						// 1000<cap<2000
-						bikeLink.setCapacity(capacity - 1000.);
-						link.setCapacity(1000);
-
-					} else {
-						// 2000<cap
-						bikeLink.setCapacity(1000);
-						link.setCapacity(capacity - 1000.);
-					}
-
-					newBikeLinks.add(bikeLink);
-
-					// remove bike from old link
-					Set<String> oldAllowedModes = link.getAllowedModes();
-					Set<String> newAllowedModes = new HashSet<>();
-					for (String mode : oldAllowedModes) {
-						if (!mode.equals(TransportMode.bike)) {
-							newAllowedModes.add(mode);
-						}
-					}
-					link.setAllowedModes(newAllowedModes);
-				}
-			}
-		}
-		for (Link bikeLink : newBikeLinks) {
-			network.addLink(bikeLink);
-		}
-	}
-
-	private static boolean linkIsInShape(Link link, List<Geometry> geometries) {
+	private static void banCarfromResidentialAreasAndCreateBikeLinks(NetworkModificationPipeline.Builder modifications, String shpFile) {
 
-		Coord fromCoord = link.getFromNode().getCoord();
-		Coord toCoord = link.getToNode().getCoord();
-		boolean fromCoordInShape = geometries.stream()
-				.anyMatch(geometry -> geometry.contains(MGC.coord2Point(fromCoord)));
-		boolean toCoordInShape = geometries.stream().anyMatch(geometry -> geometry.contains(MGC.coord2Point(toCoord)));
+		List<Geometry> geometries = ShapeFileReader.getAllFeatures(shpFile).stream()
+				.map(feature -> (Geometry) feature.getDefaultGeometry())
+				.collect(Collectors.toList());
+		Predicate<Link> residentialInShape = NetworkModifications.hasType("residential")
+				.and(NetworkModifications.hasNodesIn(new GeometryRasterMask(geometries, SHAPE_CELL_SIZE)));
 
-		return fromCoordInShape && toCoordInShape;
+		// residential links in the shape file --> ban cars
+		// all non-residential links and residential outside of shape --> bike capacity
+		modifications
+				.addLinkStage(NetworkModifications.banModes(residentialInShape, TransportMode.car, TransportMode.ride))
+				.addLinkStage(NetworkModifications.splitBikeCapacity(residentialInShape.negate()));
 	}
 
 	private static class InputArguments {
@@ -329,6 +312,27 @@ public class CreateSupply {
 
 		@Parameter(names = "-scenario", required = true)
 		private String scenario = "";
+
+		@Parameter(names = "-threads", description = "number of threads which read the count files")
+		private int threads = 1;
+
+		@Parameter(names = "-cacheDir", description = "directory of the network, raw counts and station link caches. No caches are used if not set")
+		private String cacheDir = null;
+
+		@Parameter(names = "-batchSnapping", description = "connect the bike highways to the network in one batch")
+		private boolean batchSnapping = false;
+
+		@Parameter(names = "-readArchivesWithoutExtracting", description = "read the short term count archives without extracting them")
+		private boolean readArchivesWithoutExtracting = false;
+
+		@Parameter(names = "-quantiles", description = "additionally write counts of the median and the 85th percentile of the hourly volumes")
+		private boolean quantiles = false;
+
+		@Parameter(names = "-screening", description = "leave out implausible hours of the long term counts")
+		private boolean screening = false;
+
+		@Parameter(names = "-extrapolation", description = "extrapolate the short term counts to the annual average")
+		private boolean extrapolation = false;
 	}
 
 	private static class ScenarioName {
@@ -2,19 +2,25 @@ package org.matsim.nemo;
 
 import org.locationtech.jts.geom.Geometry;
 import org.matsim.api.core.v01.Coord;
-import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.gis.ShapeFileReader;
 import org.matsim.core.utils.io.OsmNetworkReader;
+import org.matsim.nemo.util.GeometryRasterMask;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class FineNetworkFilter implements OsmNetworkReader.OsmFilter {
 
-    private final List<Geometry> geometries = new ArrayList<>();
+    // the filter is asked for every node of the osm file, so the shape is rasterized once
+    private static final double CELL_SIZE = 100;
+
+    private final GeometryRasterMask mask;
 
     FineNetworkFilter(String pathToShapeFile) {
-        ShapeFileReader.getAllFeatures(pathToShapeFile).forEach(feature -> geometries.add((Geometry) feature.getDefaultGeometry()));
+        List<Geometry> geometries = ShapeFileReader.getAllFeatures(pathToShapeFile).stream()
+                .map(feature -> (Geometry) feature.getDefaultGeometry())
+                .collect(Collectors.toList());
+        this.mask = new GeometryRasterMask(geometries, CELL_SIZE);
     }
 
     @Override
@@ -23,6 +29,6 @@ public class FineNetworkFilter implements OsmNetworkReader.OsmFilter {
         if (hierarchyLevel <= 4) return true;
 
         // if coord is within the supplied shape use every street with level higher than 8
-        return hierarchyLevel <= 8 && geometries.stream().anyMatch(geometry -> geometry.contains(MGC.coord2Point(coord)));
+        return hierarchyLevel <= 8 && mask.contains(coord);
     }
 }
@@ -0,0 +1,280 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Keeps a binary copy of networks which were parsed from osm, so that the network of another scenario with the same
+ * input doesn't have to be parsed again. A network is stored under a key which is the hash of the content of the
+ * input files and of all settings which influence the parsing, see {@link #createKey(List, String)}. So changed
+ * inputs lead to another entry instead of an outdated network. Old entries are not removed.
+ * <p>
+ * Nodes are stored with their id and coordinate, links with all their properties and attributes. Attribute values
+ * may be strings, doubles, integers, longs or booleans. A network with other attribute values is not stored. Entries
+ * are written to a temporary file first and then moved into place, so several processes may share one directory.
+ */
+final class NetworkCache {
+
+	private static final Logger logger = Logger.getLogger(NetworkCache.class);
+
+	private static final int MAGIC = 0x4e657443;
+	private static final int VERSION = 1;
+
+	private static final byte STRING = 0;
+	private static final byte DOUBLE = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte BOOLEAN = 4;
+
+	private final Path cacheDirectory;
+
+	NetworkCache(Path cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * @param files input files whose content is hashed, e.g. the osm file
+	 * @param settings all other settings which influence the network, e.g. the coordinate system
+	 * @return hex encoded SHA-256 hash of the files and the settings
+	 */
+	static String createKey(List<String> files, String settings) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		byte[] buffer = new byte[1 << 20];
+		for (String file : files) {
+			digest.update(file.getBytes(StandardCharsets.UTF_8));
+			try (InputStream in = new DigestInputStream(Files.newInputStream(Paths.get(file)), digest)) {
+				while (in.read(buffer) != -1) {
+					// the digest is updated while reading
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("could not hash " + file, e);
+			}
+		}
+		digest.update(settings.getBytes(StandardCharsets.UTF_8));
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return a new network which is read from the cache or null if there is no valid entry for the key
+	 */
+	Network load(String key) {
+		Path entry = getEntry(key);
+		if (Files.notExists(entry)) return null;
+
+		logger.info("Reading network from cache entry " + entry);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+				logger.warn("Cache entry " + entry + " is not valid. Parsing the network again.");
+				return null;
+			}
+			return readNetwork(in);
+		} catch (IOException | RuntimeException e) {
+			// e.g. a truncated entry if the disk was full
+			logger.warn("Could not read cache entry " + entry + ". Parsing the network again.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the network. Failures are logged only, since the network can always be parsed again.
+	 */
+	void save(String key, Network network) {
+		Path entry = getEntry(key);
+		try {
+			Files.createDirectories(cacheDirectory);
+			Path temporaryFile = Files.createTempFile(cacheDirectory, entry.getFileName().toString(), ".tmp");
+			try {
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16))) {
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeUTF(key);
+					writeNetwork(network, out);
+				}
+				Files.move(temporaryFile, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				logger.info("Wrote network to cache entry " + entry);
+			} finally {
+				Files.deleteIfExists(temporaryFile);
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Could not write network to cache entry " + entry, e);
+		}
+	}
+
+	private Path getEntry(String key) {
+		return cacheDirectory.resolve("network_" + key + ".bin");
+	}
+
+	private static void writeNetwork(Network network, DataOutputStream out) throws IOException {
+		out.writeDouble(network.getCapacityPeriod());
+		out.writeDouble(network.getEffectiveLaneWidth());
+
+		Map<Id<Node>, Integer> nodeIndices = new HashMap<>();
+		out.writeInt(network.getNodes().size());
+		for (Node node : network.getNodes().values()) {
+			nodeIndices.put(node.getId(), nodeIndices.size());
+			out.writeUTF(node.getId().toString());
+			out.writeDouble(node.getCoord().getX());
+			out.writeDouble(node.getCoord().getY());
+		}
+
+		// most links share one of a few sets of allowed modes
+		Map<Set<String>, Integer> modeSetIndices = new HashMap<>();
+		for (Link link : network.getLinks().values()) {
+			modeSetIndices.putIfAbsent(link.getAllowedModes(), modeSetIndices.size());
+		}
+		List<Set<String>> modeSets = new ArrayList<>(Collections.nCopies(modeSetIndices.size(), null));
+		modeSetIndices.forEach((modes, index) -> modeSets.set(index, modes));
+		out.writeInt(modeSets.size());
+		for (Set<String> modes : modeSets) {
+			out.writeInt(modes.size());
+			for (String mode : modes) {
+				out.writeUTF(mode);
+			}
+		}
+
+		out.writeInt(network.getLinks().size());
+		for (Link link : network.getLinks().values()) {
+			out.writeUTF(link.getId().toString());
+			out.writeInt(nodeIndices.get(link.getFromNode().getId()));
+			out.writeInt(nodeIndices.get(link.getToNode().getId()));
+			out.writeDouble(link.getLength());
+			out.writeDouble(link.getFreespeed());
+			out.writeDouble(link.getCapacity());
+			out.writeDouble(link.getNumberOfLanes());
+			out.writeInt(modeSetIndices.get(link.getAllowedModes()));
+
+			Map<String, Object> attributes = link.getAttributes().getAsMap();
+			out.writeInt(attributes.size());
+			for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+				out.writeUTF(attribute.getKey());
+				writeValue(attribute.getValue(), out);
+			}
+		}
+	}
+
+	private static void writeValue(Object value, DataOutputStream out) throws IOException {
+		if (value instanceof String) {
+			out.writeByte(STRING);
+			out.writeUTF((String) value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else {
+			throw new IllegalArgumentException("attribute values of type " + (value == null ? null : value.getClass()) + " can't be cached");
+		}
+	}
+
+	private static Network readNetwork(DataInputStream in) throws IOException {
+		Network network = NetworkUtils.createNetwork();
+		NetworkFactory factory = network.getFactory();
+		network.setCapacityPeriod(in.readDouble());
+		network.setEffectiveLaneWidth(in.readDouble());
+
+		Node[] nodes = new Node[in.readInt()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = factory.createNode(Id.createNodeId(in.readUTF()), new Coord(in.readDouble(), in.readDouble()));
+			network.addNode(nodes[i]);
+		}
+
+		List<Set<String>> modeSets = new ArrayList<>();
+		int numberOfModeSets = in.readInt();
+		for (int i = 0; i < numberOfModeSets; i++) {
+			Set<String> modes = new HashSet<>();
+			int numberOfModes = in.readInt();
+			for (int j = 0; j < numberOfModes; j++) {
+				modes.add(in.readUTF());
+			}
+			modeSets.add(modes);
+		}
+
+		int numberOfLinks = in.readInt();
+		for (int i = 0; i < numberOfLinks; i++) {
+			Link link = factory.createLink(Id.createLinkId(in.readUTF()), nodes[in.readInt()], nodes[in.readInt()]);
+			link.setLength(in.readDouble());
+			link.setFreespeed(in.readDouble());
+			link.setCapacity(in.readDouble());
+			link.setNumberOfLanes(in.readDouble());
+			// every link gets its own set, since the sets of links are modified by some of the scenarios
+			link.setAllowedModes(new HashSet<>(modeSets.get(in.readInt())));
+
+			int numberOfAttributes = in.readInt();
+			for (int j = 0; j < numberOfAttributes; j++) {
+				link.getAttributes().putAttribute(in.readUTF(), readValue(in));
+			}
+			network.addLink(link);
+		}
+		return network;
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+			case STRING:
+				return in.readUTF();
+			case DOUBLE:
+				return in.readDouble();
+			case INTEGER:
+				return in.readInt();
+			case LONG:
+				return in.readLong();
+			case BOOLEAN:
+				return in.readBoolean();
+			default:
+				throw new IllegalStateException("unknown attribute type " + type);
+		}
+	}
+}
@@ -23,6 +23,7 @@ import org.matsim.osmNetworkReader.LinkProperties;
 import org.matsim.osmNetworkReader.OsmTags;
 import org.matsim.osmNetworkReader.SupersonicOsmNetworkReader;
 
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -30,6 +31,9 @@ import java.util.stream.Collectors;
 class NetworkCreator {
 
     private static final double BIKE_PCU = 0.25;
+    // part of the key of cached networks. Increase it whenever a change of the code changes the created network, so
+    // that networks created by older versions are not taken from the cache
+    private static final int VERSION = 1;
     private Set<String> bicycleNotAllowed = new HashSet<>(Arrays.asList("motorway", "motorway_link", "trunk", "trunk_link"));
     private static Logger logger = Logger.getLogger(NetworkCreator.class);
 
@@ -40,9 +44,13 @@ class NetworkCreator {
     private final OsmNetworkReader.OsmFilter osmFilter;
     private final CoordinateTransformation transformation;
     private final Set<String> cleaningModes;
+    private final NetworkCache cache;
+    private final List<String> cacheKeyFiles;
+    private final String cacheKeySettings;
 
     private NetworkCreator(NetworkInput input, CountsInput countsInput, boolean withBicyclePaths, boolean withRideOnCarLinks,
-                           OsmNetworkReader.OsmFilter osmFilter, CoordinateTransformation ct, Set<String> cleaningModes) {
+                           OsmNetworkReader.OsmFilter osmFilter, CoordinateTransformation ct, Set<String> cleaningModes,
+                           NetworkCache cache, List<String> cacheKeyFiles, String cacheKeySettings) {
         this.input = input;
         this.countsInput = countsInput;
         this.withBicyclePaths = withBicyclePaths;
@@ -50,12 +58,32 @@ class NetworkCreator {
         this.osmFilter = osmFilter;
         this.transformation = ct;
         this.cleaningModes = cleaningModes;
+        this.cache = cache;
+        this.cacheKeyFiles = cacheKeyFiles;
+        this.cacheKeySettings = cacheKeySettings;
     }
 
+    /**
+     * @return a new network, which may be modified by the caller. If a cache is set, the network is read from the cache
+     * if the same inputs were parsed before.
+     */
     Network createNetwork() {
 
+        if (cache == null) return parseNetwork();
+
+        String key = NetworkCache.createKey(cacheKeyFiles, cacheKeySettings);
+        Network network = cache.load(key);
+        if (network == null) {
+            network = parseNetwork();
+            cache.save(key, network);
+        }
+        return network;
+    }
+
+    private Network parseNetwork() {
+
         Network network = createEmptyNetwork();
-        Set<Long> nodeIdsToKeep = readNodeIds(Arrays.asList(countsInput.getInputLongtermCountNodesMapping(), countsInput.getInputShorttermCountMapping()));
+        Set<Long> nodeIdsToKeep = readNodeIds(getNodeMappingFiles());
         // OsmNetworkReader networkReader = createNetworkReader(network, nodeIdsToKeep);
         // networkReader.parse(input.getInputOsmFile());
 
@@ -72,6 +100,10 @@ class NetworkCreator {
         return network;
     }
 
+    private List<String> getNodeMappingFiles() {
+        return Arrays.asList(countsInput.getInputLongtermCountNodesMapping(), countsInput.getInputShorttermCountMapping());
+    }
+
     private Network createEmptyNetwork() {
         Config config = ConfigUtils.createConfig();
         Scenario scenario = ScenarioUtils.createScenario(config);
@@ -206,7 +238,11 @@ class NetworkCreator {
         private boolean withBicyclePaths = false;
         private boolean withRideOnCarLinks = false;
         private CoordinateTransformation transformation;
-        private Set<String> cleaningModes = new HashSet<>();
+        private Set<String> cleaningModes = new LinkedHashSet<>();
+        private String networkCoordinateSystem;
+        private String cacheDirectory;
+        private String filterSettings;
+        private List<String> filterFiles = new ArrayList<>();
 
         /**
          * @param svnDir Path to the checked out https://svn.vsp.tu-berlin.de/repos/shared-svn root folder
@@ -233,6 +269,7 @@ class NetworkCreator {
          * @return Current Builder instance
          */
         Builder setNetworkCoordinateSystem(String networkCoordinateSystem) {
+            this.networkCoordinateSystem = networkCoordinateSystem;
             this.transformation =
                     TransformationFactory.getCoordinateTransformation(TransformationFactory.WGS84, networkCoordinateSystem);
             return this;
@@ -253,7 +290,24 @@ class NetworkCreator {
         }
 
         Builder withCleaningModes(String... modes) {
-            this.cleaningModes = new HashSet<>(Arrays.asList(modes));
+            // the modes are cleaned in the given order
+            this.cleaningModes = new LinkedHashSet<>(Arrays.asList(modes));
+            return this;
+        }
+
+        /**
+         * Keep parsed networks in a cache, so that the osm file is only parsed again if one of the inputs has changed.
+         * The osm filter can't be compared itself, so it has to be described by the filter settings and files.
+         *
+         * @param cacheDirectory directory of the cache entries
+         * @param filterSettings description of the osm filter, e.g. "level<=4"
+         * @param filterFiles files the osm filter depends on, e.g. its shape file
+         * @return Current Builder instance
+         */
+        Builder withNetworkCache(String cacheDirectory, String filterSettings, String... filterFiles) {
+            this.cacheDirectory = cacheDirectory;
+            this.filterSettings = filterSettings;
+            this.filterFiles = Arrays.asList(filterFiles);
             return this;
         }
 
@@ -263,14 +317,36 @@ class NetworkCreator {
         public NetworkCreator build() {
 
             NetworkInput input = new NetworkInput(svnDir);
+            CountsInput countsInput = new CountsInput(svnDir);
+
+            NetworkCache cache = null;
+            List<String> cacheKeyFiles = new ArrayList<>();
+            String cacheKeySettings = null;
+            if (cacheDirectory != null) {
+                cache = new NetworkCache(Paths.get(cacheDirectory));
+                cacheKeyFiles.add(input.getInputOsmFile());
+                cacheKeyFiles.add(countsInput.getInputLongtermCountNodesMapping());
+                cacheKeyFiles.add(countsInput.getInputShorttermCountMapping());
+                cacheKeyFiles.addAll(filterFiles);
+                cacheKeySettings = "version=" + VERSION
+                        + ";crs=" + networkCoordinateSystem
+                        + ";bicyclePaths=" + withBicyclePaths
+                        + ";rideOnCarLinks=" + withRideOnCarLinks
+                        + ";cleaningModes=" + new TreeSet<>(cleaningModes)
+                        + ";filter=" + filterSettings;
+            }
+
             return new NetworkCreator(
                     input,
-                    new CountsInput(svnDir),
+                    countsInput,
                     withBicyclePaths,
                     withRideOnCarLinks,
 					osmFilter != null ? osmFilter : new FineNetworkFilter(input.getInputNetworkShapeFilter()),
                     transformation,
-                    cleaningModes
+                    cleaningModes,
+                    cache,
+                    cacheKeyFiles,
+                    cacheKeySettings
             );
         }
     }
@@ -0,0 +1,152 @@
+package org.matsim.nemo;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.core.network.algorithms.MultimodalNetworkCleaner;
+import org.matsim.core.network.algorithms.NetworkCleaner;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Applies a list of modifications to a network, e.g. to derive a scenario variant from the base network. Modifications
+ * of single links are registered as {@link LinkStage}s, modifications which need the whole network, e.g. inserting nodes
+ * or merging another network, as {@link NetworkStage}s. Some common stages are created by {@link NetworkModifications}.
+ * <p>
+ * The stages are applied in the order of registration. All link stages between two network stages are fused into one
+ * parallel pass over the links, in which every link runs through all of these link stages one after the other. Links
+ * which are created by a link stage run through the following link stages of the same pass and are added to the network
+ * after the pass. So the result is the same as walking the network once per stage. The network is cleaned once, after
+ * all stages.
+ */
+public final class NetworkModificationPipeline {
+
+	private static final Logger logger = Logger.getLogger(NetworkModificationPipeline.class);
+
+	private final List<List<LinkStage>> passes;
+	private final List<NetworkStage> networkStages;
+	private final Set<String> cleaningModes;
+	private final boolean withCleaning;
+
+	private NetworkModificationPipeline(List<List<LinkStage>> passes, List<NetworkStage> networkStages, Set<String> cleaningModes, boolean withCleaning) {
+		this.passes = passes;
+		this.networkStages = networkStages;
+		this.cleaningModes = cleaningModes;
+		this.withCleaning = withCleaning;
+	}
+
+	/**
+	 * Modifies the network in place.
+	 */
+	public void run(Network network) {
+
+		// passes and network stages take turns, starting and ending with a (possibly empty) pass
+		for (int i = 0; i < passes.size(); i++) {
+			runPass(network, passes.get(i));
+			if (i < networkStages.size()) {
+				networkStages.get(i).modify(network);
+			}
+		}
+
+		if (withCleaning) {
+			logger.info("Cleaning network");
+			if (cleaningModes.isEmpty())
+				new NetworkCleaner().run(network);
+			else
+				cleaningModes.forEach(mode -> new MultimodalNetworkCleaner(network).run(Collections.singleton(mode)));
+		}
+	}
+
+	private static void runPass(Network network, List<LinkStage> stages) {
+		if (stages.isEmpty()) return;
+
+		logger.info("Modifying " + network.getLinks().size() + " links with " + stages.size() + " stages in one pass");
+		NetworkFactory factory = network.getFactory();
+		List<Link> newLinks = new ArrayList<>(network.getLinks().values()).parallelStream()
+				.flatMap(link -> {
+					List<Link> created = new ArrayList<>(0);
+					modify(link, 0, stages, factory, created);
+					return created.stream();
+				})
+				.collect(Collectors.toList());
+
+		logger.info("Adding " + newLinks.size() + " new links to the network");
+		for (Link link : newLinks) {
+			network.addLink(link);
+		}
+	}
+
+	private static void modify(Link link, int firstStage, List<LinkStage> stages, NetworkFactory factory, List<Link> created) {
+		for (int i = firstStage; i < stages.size(); i++) {
+			List<Link> createdByStage = new ArrayList<>(0);
+			stages.get(i).modify(link, factory, createdByStage::add);
+			for (Link newLink : createdByStage) {
+				modify(newLink, i + 1, stages, factory, created);
+				created.add(newLink);
+			}
+		}
+	}
+
+	/**
+	 * Modification of a single link. Links are modified in parallel, so a stage must only change the link it is called
+	 * with and must not change shared state.
+	 */
+	@FunctionalInterface
+	public interface LinkStage {
+
+		/**
+		 * @param factory factory of the network, to create new links
+		 * @param newLinks takes links which should be added to the network, e.g. a parallel bike link
+		 */
+		void modify(Link link, NetworkFactory factory, Consumer<Link> newLinks);
+	}
+
+	/**
+	 * Modification which needs the whole network, e.g. inserting nodes and links or merging another network.
+	 */
+	@FunctionalInterface
+	public interface NetworkStage {
+
+		void modify(Network network);
+	}
+
+	public static class Builder {
+
+		private final List<List<LinkStage>> passes = new ArrayList<>(Collections.singletonList(new ArrayList<>()));
+		private final List<NetworkStage> networkStages = new ArrayList<>();
+		private Set<String> cleaningModes = new LinkedHashSet<>();
+		private boolean withCleaning = false;
+
+		public Builder addLinkStage(LinkStage stage) {
+			passes.get(passes.size() - 1).add(stage);
+			return this;
+		}
+
+		public Builder addNetworkStage(NetworkStage stage) {
+			networkStages.add(stage);
+			passes.add(new ArrayList<>());
+			return this;
+		}
+
+		/**
+		 * Clean the network after all stages. Without modes the NetworkCleaner is used, otherwise the network is
+		 * cleaned with the MultimodalNetworkCleaner for each of the modes, in the given order. The order matters, since
+		 * cleaning one mode changes the network the next mode is cleaned on.
+		 *
+		 * @return Current Builder instance
+		 */
+		public Builder withCleaningModes(String... modes) {
+			this.withCleaning = true;
+			this.cleaningModes = new LinkedHashSet<>(Arrays.asList(modes));
+			return this;
+		}
+
+		public NetworkModificationPipeline build() {
+			List<List<LinkStage>> passesCopy = passes.stream().map(ArrayList::new).collect(Collectors.toList());
+			return new NetworkModificationPipeline(passesCopy, new ArrayList<>(networkStages), new LinkedHashSet<>(cleaningModes), withCleaning);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package org.matsim.nemo;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.nemo.NetworkModificationPipeline.LinkStage;
+import org.matsim.nemo.util.GeometryRasterMask;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Stages and link selections which are used by several scenarios, see {@link NetworkModificationPipeline}.
+ */
+public final class NetworkModifications {
+
+	private static final double BIKE_LINK_CAPACITY = 1000;
+
+	private static final String LINK_ID = "linkId";
+	private static final String LENGTH = "length";
+	private static final String FREESPEED = "freespeed";
+	private static final String CAPACITY = "capacity";
+	private static final String NUMBER_OF_LANES = "numberOfLanes";
+
+	private NetworkModifications() {
+	}
+
+	/**
+	 * Removes the modes from the allowed modes of all selected links, e.g. car and ride to ban cars.
+	 */
+	public static LinkStage banModes(Predicate<Link> selection, String... modes) {
+		Set<String> bannedModes = new HashSet<>(Arrays.asList(modes));
+		return (link, factory, newLinks) -> {
+			if (!selection.test(link)) return;
+			link.setAllowedModes(link.getAllowedModes().stream()
+					.filter(mode -> !bannedModes.contains(mode))
+					.collect(Collectors.toSet()));
+		};
+	}
+
+	/**
+	 * Moves bicycles of selected links with a capacity of more than 1000 to a new parallel bike link with the id
+	 * {@code <linkId>_bike}. Following the Copenhagen model the bike link gets a capacity of 1000 and the original link
+	 * keeps the rest. Links with a capacity below 2000 keep 1000 and the bike link gets the rest.
+	 */
+	public static LinkStage splitBikeCapacity(Predicate<Link> selection) {
+		return (link, factory, newLinks) -> {
+			if (link.getCapacity() <= BIKE_LINK_CAPACITY || !selection.test(link)) return;
+
+			Link bikeLink = factory.createLink(Id.createLinkId(link.getId() + "_bike"), link.getFromNode(), link.getToNode());
+			bikeLink.setAllowedModes(new HashSet<>(Collections.singletonList(TransportMode.bike)));
+			bikeLink.setLength(link.getLength());
+			bikeLink.setFreespeed(link.getFreespeed());
+			bikeLink.setNumberOfLanes(1);
+			for (Map.Entry<String, Object> entry : link.getAttributes().getAsMap().entrySet()) {
+				bikeLink.getAttributes().putAttribute(entry.getKey(), entry.getValue());
+			}
+
+			double capacity = link.getCapacity();
+			if (capacity < 2 * BIKE_LINK_CAPACITY) {
+				bikeLink.setCapacity(capacity - BIKE_LINK_CAPACITY);
+				link.setCapacity(BIKE_LINK_CAPACITY);
+			} else {
+				bikeLink.setCapacity(BIKE_LINK_CAPACITY);
+				link.setCapacity(capacity - BIKE_LINK_CAPACITY);
+			}
+
+			link.setAllowedModes(link.getAllowedModes().stream()
+					.filter(mode -> !mode.equals(TransportMode.bike))
+					.collect(Collectors.toSet()));
+			newLinks.accept(bikeLink);
+		};
+	}
+
+	/**
+	 * Overrides properties of the links listed in a csv file. The file has a header with the column {@code linkId} and
+	 * any of the columns {@code length}, {@code freespeed}, {@code capacity} and {@code numberOfLanes}. All other
+	 * columns are set as string attributes of the links. Empty cells are left out.
+	 */
+	public static LinkStage overrideFromCsv(String csvFile) {
+		Map<Id<Link>, List<Consumer<Link>>> overrides = new HashMap<>();
+		try (Reader reader = Files.newBufferedReader(Paths.get(csvFile))) {
+			for (CSVRecord record : CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(reader)) {
+				List<Consumer<Link>> overridesOfLink = overrides.computeIfAbsent(Id.createLinkId(record.get(LINK_ID)), id -> new ArrayList<>());
+				for (Map.Entry<String, String> column : record.toMap().entrySet()) {
+					if (!column.getKey().equals(LINK_ID) && !column.getValue().isEmpty()) {
+						overridesOfLink.add(createOverride(column.getKey(), column.getValue()));
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("could not read link overrides from " + csvFile, e);
+		}
+
+		return (link, factory, newLinks) -> {
+			List<Consumer<Link>> overridesOfLink = overrides.get(link.getId());
+			if (overridesOfLink != null) overridesOfLink.forEach(override -> override.accept(link));
+		};
+	}
+
+	private static Consumer<Link> createOverride(String column, String value) {
+		switch (column) {
+			case LENGTH:
+				double length = Double.parseDouble(value);
+				return link -> link.setLength(length);
+			case FREESPEED:
+				double freespeed = Double.parseDouble(value);
+				return link -> link.setFreespeed(freespeed);
+			case CAPACITY:
+				double capacity = Double.parseDouble(value);
+				return link -> link.setCapacity(capacity);
+			case NUMBER_OF_LANES:
+				double numberOfLanes = Double.parseDouble(value);
+				return link -> link.setNumberOfLanes(numberOfLanes);
+			default:
+				return link -> link.getAttributes().putAttribute(column, value);
+		}
+	}
+
+	/**
+	 * @return selection of links whose from and to node are both within the mask
+	 */
+	public static Predicate<Link> hasNodesIn(GeometryRasterMask mask) {
+		return link -> mask.contains(link.getFromNode().getCoord()) && mask.contains(link.getToNode().getCoord());
+	}
+
+	/**
+	 * @return selection of links whose center is within the mask
+	 */
+	public static Predicate<Link> hasCenterIn(GeometryRasterMask mask) {
+		return link -> mask.contains(link.getCoord());
+	}
+
+	/**
+	 * @return selection of links with one of the osm highway types, which are stored in the attribute "type"
+	 */
+	public static Predicate<Link> hasType(String... types) {
+		Set<String> selectedTypes = new HashSet<>(Arrays.asList(types));
+		return link -> selectedTypes.contains(link.getAttributes().getAttribute("type"));
+	}
+
+	/**
+	 * @return selection of links which allow all of the modes
+	 */
+	public static Predicate<Link> allows(String... modes) {
+		List<String> requiredModes = Arrays.asList(modes);
+		return link -> link.getAllowedModes().containsAll(requiredModes);
+	}
+}
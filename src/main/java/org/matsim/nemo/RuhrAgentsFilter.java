@@ -21,14 +21,13 @@ package org.matsim.nemo;
 
 
 import org.apache.log4j.Logger;
-import org.locationtech.jts.geom.Geometry;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.utils.collections.Tuple;
-import org.matsim.core.utils.geometry.geotools.MGC;
+import org.matsim.nemo.util.ZoneIndex;
 import org.opengis.feature.simple.SimpleFeature;
 import playground.vsp.cadyts.marginals.AgentFilter;
 
@@ -49,6 +48,7 @@ public class RuhrAgentsFilter implements AgentFilter {
     public RuhrAgentsFilter(Scenario scenario, Collection<SimpleFeature> shape) {
 
         final Function<Activity, Coord> coordProvider = getCoordProvider(scenario);
+        final ZoneIndex zones = ZoneIndex.fromFeatures(shape);
 
         logger.info("testing for all agents whether they have their home coord within the supplied shape");
         // go for the giant stream statement here, since the isInside shape test is expensive and we can parallelize this way
@@ -58,7 +58,7 @@ public class RuhrAgentsFilter implements AgentFilter {
                 .filter(person -> (person.getSelectedPlan().getPlanElements().get(0) instanceof Activity))
                 .map(person -> Tuple.of(person.getId(), (Activity) person.getSelectedPlan().getPlanElements().get(0)))
                 .filter(personActivity -> personActivity.getSecond().getType().startsWith("home"))
-                .collect(Collectors.toMap(Tuple::getFirst, personActivity -> isActivityInside(coordProvider.apply(personActivity.getSecond()), shape)));
+                .collect(Collectors.toMap(Tuple::getFirst, personActivity -> zones.contains(coordProvider.apply(personActivity.getSecond()))));
     }
 
     private static Function<Activity, Coord> getCoordProvider(Scenario scenario) {
@@ -70,13 +70,6 @@ public class RuhrAgentsFilter implements AgentFilter {
         }
     }
 
-    private static boolean isActivityInside(Coord coord, Collection<? extends SimpleFeature> features) {
-
-        return features.stream()
-                .map(feature -> (Geometry) feature.getDefaultGeometry())
-                .anyMatch(geometry -> geometry.contains(MGC.coord2Point(coord)));
-    }
-
     @Override
     public boolean includeAgent(Id<Person> id) {
         return personIdMap.getOrDefault(id, false);
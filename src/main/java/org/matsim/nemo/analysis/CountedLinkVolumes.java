@@ -0,0 +1,102 @@
+package org.matsim.nemo.analysis;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.*;
+
+/**
+ * Counts the vehicles entering a fixed set of links per hour and network mode. The volumes are kept in one
+ * {@code int[link][hour]} array per mode, so the memory only depends on the number of counted links. The mode of a
+ * vehicle is taken from its {@link VehicleEntersTrafficEvent} and only remembered while the vehicle is in traffic.
+ * <p>
+ * Hours are numbered from 1 to 24 like the volumes of counts. Vehicles entering a link after 24:00 are not counted.
+ */
+public class CountedLinkVolumes implements LinkEnterEventHandler, VehicleEntersTrafficEventHandler, VehicleLeavesTrafficEventHandler {
+
+	private static final int HOURS = 24;
+
+	private final Map<Id<Link>, Integer> linkIndices = new HashMap<>();
+	private final Map<String, int[][]> volumesPerMode = new HashMap<>();
+	private final Map<Id<Vehicle>, int[][]> volumesOfVehiclesInTraffic = new HashMap<>();
+	private long linkEntersAfterLastHour = 0;
+
+	/**
+	 * @param countedLinks links whose volumes are counted
+	 * @param modes network modes which are counted separately, e.g. car and bike
+	 */
+	public CountedLinkVolumes(Collection<Id<Link>> countedLinks, Collection<String> modes) {
+		for (Id<Link> linkId : countedLinks) {
+			linkIndices.putIfAbsent(linkId, linkIndices.size());
+		}
+		for (String mode : modes) {
+			volumesPerMode.put(mode, new int[linkIndices.size()][HOURS]);
+		}
+	}
+
+	@Override
+	public void handleEvent(VehicleEntersTrafficEvent event) {
+		int[][] volumes = volumesPerMode.get(event.getNetworkMode());
+		if (volumes != null) {
+			volumesOfVehiclesInTraffic.put(event.getVehicleId(), volumes);
+		}
+	}
+
+	@Override
+	public void handleEvent(VehicleLeavesTrafficEvent event) {
+		volumesOfVehiclesInTraffic.remove(event.getVehicleId());
+	}
+
+	@Override
+	public void handleEvent(LinkEnterEvent event) {
+		Integer linkIndex = linkIndices.get(event.getLinkId());
+		if (linkIndex == null) return;
+		int[][] volumes = volumesOfVehiclesInTraffic.get(event.getVehicleId());
+		if (volumes == null) return;
+
+		int hour = (int) (event.getTime() / 3600);
+		if (hour >= HOURS) {
+			linkEntersAfterLastHour++;
+			return;
+		}
+		volumes[linkIndex][hour]++;
+	}
+
+	@Override
+	public void reset(int iteration) {
+		for (int[][] volumes : volumesPerMode.values()) {
+			for (int[] volumesOfLink : volumes) {
+				Arrays.fill(volumesOfLink, 0);
+			}
+		}
+		volumesOfVehiclesInTraffic.clear();
+		linkEntersAfterLastHour = 0;
+	}
+
+	/**
+	 * @param hour hour from 1 to 24
+	 * @return number of vehicles of the mode which entered the link within the hour
+	 * @throws IllegalArgumentException if the link or mode is not counted
+	 */
+	public int getVolume(String mode, Id<Link> linkId, int hour) {
+		int[][] volumes = volumesPerMode.get(mode);
+		Integer linkIndex = linkIndices.get(linkId);
+		if (volumes == null || linkIndex == null)
+			throw new IllegalArgumentException("volumes of mode " + mode + " on link " + linkId + " are not counted");
+		return volumes[linkIndex][hour - 1];
+	}
+
+	/**
+	 * @return number of link enter events of counted links and modes after 24:00, which are not part of any hour
+	 */
+	public long getLinkEntersAfterLastHour() {
+		return linkEntersAfterLastHour;
+	}
+}
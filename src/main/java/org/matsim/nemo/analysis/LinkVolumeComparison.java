@@ -0,0 +1,259 @@
+package org.matsim.nemo.analysis;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.counts.Count;
+import org.matsim.counts.Counts;
+import org.matsim.counts.MatsimCountsReader;
+import org.matsim.counts.Volume;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Compares the simulated link volumes of an events file with the car counts of the LongTermCountsCreator and the bike
+ * counts of the BikeCountsCreator. The events are read in a single pass, only the volumes of the counted links are kept,
+ * see {@link CountedLinkVolumes}.
+ * <p>
+ * Two csv files are written. {@code <outputPrefix>_hours.csv} holds the count, the scaled simulated volume, their ratio
+ * and the GEH statistic per mode, station and hour. {@code <outputPrefix>_stations.csv} sums up the hours of each
+ * station and holds the root mean squared error of the hourly volumes and the share of hours with a GEH below 5.
+ * Hours with an invalid count, i.e. a negative volume, are left out.
+ */
+public class LinkVolumeComparison {
+
+	private static final Logger logger = Logger.getLogger(LinkVolumeComparison.class);
+
+	private static final double GEH_THRESHOLD = 5;
+
+	@Parameter(names = {"-eventFile", "-ef"}, required = true)
+	private String eventFile = "";
+
+	@Parameter(names = {"-carCounts", "-cc"})
+	private String carCountsFile;
+
+	@Parameter(names = {"-bikeCounts", "-bc"})
+	private String bikeCountsFile;
+
+	@Parameter(names = {"-scalingFactor", "-sf"})
+	private double scalingFactor = 1;
+
+	@Parameter(names = {"-outputPrefix", "-op"}, required = true)
+	private String outputPrefix;
+
+	public static void main(String[] args) throws IOException {
+
+		LinkVolumeComparison comparison = new LinkVolumeComparison();
+		JCommander.newBuilder().addObject(comparison).build().parse(args);
+		comparison.run();
+	}
+
+	private void run() throws IOException {
+
+		Map<String, Counts<Link>> countsPerMode = new LinkedHashMap<>();
+		if (carCountsFile != null) countsPerMode.put(TransportMode.car, readCounts(carCountsFile));
+		if (bikeCountsFile != null) countsPerMode.put(TransportMode.bike, readCounts(bikeCountsFile));
+		if (countsPerMode.isEmpty()) throw new IllegalArgumentException("at least one of car counts and bike counts must be set");
+
+		Set<Id<Link>> countedLinks = new HashSet<>();
+		countsPerMode.values().forEach(counts -> countedLinks.addAll(counts.getCounts().keySet()));
+		CountedLinkVolumes volumes = new CountedLinkVolumes(countedLinks, countsPerMode.keySet());
+
+		logger.info("Reading volumes of " + countedLinks.size() + " counted links from " + eventFile);
+		EventsManager manager = EventsUtils.createEventsManager();
+		manager.addHandler(volumes);
+		new MatsimEventsReader(manager).readFile(eventFile);
+		if (volumes.getLinkEntersAfterLastHour() > 0) {
+			logger.info(volumes.getLinkEntersAfterLastHour() + " vehicles entered a counted link after 24:00 and are not compared");
+		}
+
+		List<HourComparison> hours = compare(countsPerMode, volumes, scalingFactor);
+		List<StationComparison> stations = summarize(hours);
+		logSummary(hours);
+		writeHours(hours, outputPrefix + "_hours.csv");
+		writeStations(stations, outputPrefix + "_stations.csv");
+	}
+
+	private static Counts<Link> readCounts(String file) {
+		Counts<Link> counts = new Counts<>();
+		new MatsimCountsReader(counts).readFile(file);
+		return counts;
+	}
+
+	/**
+	 * @param scalingFactor factor the simulated volumes are multiplied with, e.g. 100 for a 1% sample
+	 * @return one comparison per mode, station and hour with a valid count, ordered by mode, station and hour
+	 */
+	static List<HourComparison> compare(Map<String, Counts<Link>> countsPerMode, CountedLinkVolumes volumes, double scalingFactor) {
+		List<HourComparison> hours = new ArrayList<>();
+		for (Map.Entry<String, Counts<Link>> countsOfMode : countsPerMode.entrySet()) {
+			List<Count<Link>> counts = new ArrayList<>(countsOfMode.getValue().getCounts().values());
+			counts.sort(Comparator.comparing(Count::getCsLabel, Comparator.nullsFirst(Comparator.naturalOrder())));
+			for (Count<Link> count : counts) {
+				for (Volume volume : count.getVolumes().values()) {
+					int hour = volume.getHourOfDayStartingWithOne();
+					if (volume.getValue() < 0 || hour < 1 || hour > 24) continue;
+					double simulated = volumes.getVolume(countsOfMode.getKey(), count.getId(), hour) * scalingFactor;
+					hours.add(new HourComparison(countsOfMode.getKey(), count.getId(), count.getCsLabel(), hour, volume.getValue(), simulated));
+				}
+			}
+		}
+		return hours;
+	}
+
+	/**
+	 * @return the GEH statistic of a simulated and a counted hourly volume, 0 if both are 0
+	 */
+	static double geh(double simulated, double counted) {
+		if (simulated + counted <= 0) return 0;
+		double difference = simulated - counted;
+		return Math.sqrt(2 * difference * difference / (simulated + counted));
+	}
+
+	/**
+	 * @param hours comparisons ordered by mode and station, like the result of {@link #compare(Map, CountedLinkVolumes, double)}
+	 */
+	static List<StationComparison> summarize(List<HourComparison> hours) {
+		List<StationComparison> stations = new ArrayList<>();
+		StationComparison station = null;
+		for (HourComparison hour : hours) {
+			if (station == null || !station.mode.equals(hour.mode) || !station.linkId.equals(hour.linkId)) {
+				station = new StationComparison(hour.mode, hour.linkId, hour.station);
+				stations.add(station);
+			}
+			station.add(hour);
+		}
+		return stations;
+	}
+
+	private static void logSummary(List<HourComparison> hours) {
+		Map<String, StationComparison> totalPerMode = new LinkedHashMap<>();
+		for (HourComparison hour : hours) {
+			totalPerMode.computeIfAbsent(hour.mode, mode -> new StationComparison(mode, null, "all")).add(hour);
+		}
+		for (StationComparison total : totalPerMode.values()) {
+			logger.info(total.mode + ": " + total.numberOfHours + " hours compared. Simulated / counted volume: " + total.getRatio()
+					+ ", RMSE: " + total.getRootMeanSquaredError() + ", share of hours with GEH < " + GEH_THRESHOLD + ": " + total.getShareOfGehBelowThreshold());
+		}
+	}
+
+	private static void writeHours(List<HourComparison> hours, String file) throws IOException {
+		logger.info("Writing hourly comparison to: " + file);
+		try (Writer writer = Files.newBufferedWriter(Paths.get(file)); CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT)) {
+			printer.printRecord("mode", "linkId", "station", "hour", "count", "simulated", "ratio", "geh");
+			for (HourComparison hour : hours) {
+				printer.printRecord(hour.mode, hour.linkId, hour.station, hour.hour, hour.count, hour.simulated, hour.getRatio(), hour.getGeh());
+			}
+		}
+	}
+
+	private static void writeStations(List<StationComparison> stations, String file) throws IOException {
+		logger.info("Writing comparison per station to: " + file);
+		try (Writer writer = Files.newBufferedWriter(Paths.get(file)); CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT)) {
+			printer.printRecord("mode", "linkId", "station", "hours", "count", "simulated", "ratio", "rmse", "shareGehBelow" + (int) GEH_THRESHOLD);
+			for (StationComparison station : stations) {
+				printer.printRecord(station.mode, station.linkId, station.station, station.numberOfHours, station.count, station.simulated,
+						station.getRatio(), station.getRootMeanSquaredError(), station.getShareOfGehBelowThreshold());
+			}
+		}
+	}
+
+	static class HourComparison {
+
+		private final String mode;
+		private final Id<Link> linkId;
+		private final String station;
+		private final int hour;
+		private final double count;
+		private final double simulated;
+
+		HourComparison(String mode, Id<Link> linkId, String station, int hour, double count, double simulated) {
+			this.mode = mode;
+			this.linkId = linkId;
+			this.station = station;
+			this.hour = hour;
+			this.count = count;
+			this.simulated = simulated;
+		}
+
+		int getHour() {
+			return hour;
+		}
+
+		double getCount() {
+			return count;
+		}
+
+		double getSimulated() {
+			return simulated;
+		}
+
+		/**
+		 * @return simulated / counted volume or NaN if the count is 0
+		 */
+		double getRatio() {
+			return count > 0 ? simulated / count : Double.NaN;
+		}
+
+		double getGeh() {
+			return geh(simulated, count);
+		}
+	}
+
+	static class StationComparison {
+
+		private final String mode;
+		private final Id<Link> linkId;
+		private final String station;
+		private int numberOfHours = 0;
+		private int numberOfHoursWithGehBelowThreshold = 0;
+		private double count = 0;
+		private double simulated = 0;
+		private double squaredErrors = 0;
+
+		StationComparison(String mode, Id<Link> linkId, String station) {
+			this.mode = mode;
+			this.linkId = linkId;
+			this.station = station;
+		}
+
+		private void add(HourComparison hour) {
+			numberOfHours++;
+			if (hour.getGeh() < GEH_THRESHOLD) numberOfHoursWithGehBelowThreshold++;
+			count += hour.count;
+			simulated += hour.simulated;
+			squaredErrors += (hour.simulated - hour.count) * (hour.simulated - hour.count);
+		}
+
+		int getNumberOfHours() {
+			return numberOfHours;
+		}
+
+		/**
+		 * @return simulated / counted volume of all hours or NaN if the sum of the counts is 0
+		 */
+		double getRatio() {
+			return count > 0 ? simulated / count : Double.NaN;
+		}
+
+		double getRootMeanSquaredError() {
+			return numberOfHours > 0 ? Math.sqrt(squaredErrors / numberOfHours) : Double.NaN;
+		}
+
+		double getShareOfGehBelowThreshold() {
+			return numberOfHours > 0 ? (double) numberOfHoursWithGehBelowThreshold / numberOfHours : Double.NaN;
+		}
+	}
+}
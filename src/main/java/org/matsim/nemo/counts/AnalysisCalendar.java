@@ -0,0 +1,131 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.Year;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The days of the analysis period which are taken into account, i.e. which are within the analysis window, within the
+ * range of week days and not ignored explicitly. Additionally, the days of each {@link DayProfile} within the analysis
+ * window are stored. Per day of the year, bit 0 of a mask marks an analysis day and bit i the days of the i-th profile,
+ * so that checking a date of a count row doesn't need any date objects.
+ */
+final class AnalysisCalendar {
+
+	private static final int[] FIRST_DAY_OF_MONTH = {1, 32, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335};
+	private static final int[] FIRST_DAY_OF_MONTH_LEAP_YEAR = {1, 32, 61, 92, 122, 153, 183, 214, 245, 275, 306, 336};
+
+	private final int firstYear;
+	private final int lastYear;
+	private final int lastDayOfYearOfLastYear;
+	private final int[][] profilesPerYear;
+
+	/**
+	 * @param firstDay first day of the analysis window
+	 * @param lastDay last day of the analysis window
+	 * @param weekDayMin first day of the week to include. 1 = Monday, 2 = Tuesday, etc.
+	 * @param weekDayMax last day of the week to include. 1 = Monday, 2 = Tuesday, etc.
+	 * @param datesToIgnore days within the window which should be excluded
+	 */
+	AnalysisCalendar(LocalDate firstDay, LocalDate lastDay, int weekDayMin, int weekDayMax, Collection<LocalDate> datesToIgnore) {
+		this(firstDay, lastDay, weekDayMin, weekDayMax, datesToIgnore, Collections.emptyList());
+	}
+
+	/**
+	 * @param profiles additional types of days. The range of week days and the ignored dates don't apply to them
+	 */
+	AnalysisCalendar(LocalDate firstDay, LocalDate lastDay, int weekDayMin, int weekDayMax, Collection<LocalDate> datesToIgnore,
+					 List<DayProfile> profiles) {
+
+		if (profiles.size() > 30) throw new IllegalArgumentException("at most 30 day profiles are supported");
+
+		this.firstYear = firstDay.getYear();
+		this.lastYear = lastDay.getYear();
+		this.lastDayOfYearOfLastYear = lastDay.getDayOfYear();
+		this.profilesPerYear = new int[Math.max(0, lastYear - firstYear + 1)][367];
+
+		for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+			int[] profilesOfYear = profilesPerYear[day.getYear() - firstYear];
+			int dayOfWeek = day.getDayOfWeek().getValue();
+			if (dayOfWeek >= weekDayMin && dayOfWeek <= weekDayMax) {
+				profilesOfYear[day.getDayOfYear()] |= 1;
+			}
+			for (int i = 0; i < profiles.size(); i++) {
+				if (profiles.get(i).contains(day)) {
+					profilesOfYear[day.getDayOfYear()] |= 1 << (i + 1);
+				}
+			}
+		}
+		for (LocalDate day : datesToIgnore) {
+			if (day.getYear() >= firstYear && day.getYear() <= lastYear) {
+				profilesPerYear[day.getYear() - firstYear][day.getDayOfYear()] &= ~1;
+			}
+		}
+	}
+
+	/**
+	 * @return whether counts of this day are taken into account
+	 * @throws DateTimeException if the date is not valid
+	 */
+	boolean isAnalysisDay(int year, int month, int dayOfMonth) {
+		return (getProfiles(year, month, dayOfMonth) & 1) != 0;
+	}
+
+	/**
+	 * @return bit 0 is set if counts of this day are taken into account, bit i if the day belongs to the i-th profile.
+	 * 0 if the day is not of interest at all
+	 * @throws DateTimeException if the date is not valid
+	 */
+	int getProfiles(int year, int month, int dayOfMonth) {
+		int dayOfYear = getDayOfYear(year, month, dayOfMonth);
+		return year >= firstYear && year <= lastYear ? profilesPerYear[year - firstYear][dayOfYear] : 0;
+	}
+
+	/**
+	 * @return whether the day is after the last day of the analysis window
+	 * @throws DateTimeException if the date is not valid
+	 */
+	boolean isAfterAnalysisWindow(int year, int month, int dayOfMonth) {
+		int dayOfYear = getDayOfYear(year, month, dayOfMonth);
+		return year > lastYear || (year == lastYear && dayOfYear > lastDayOfYearOfLastYear);
+	}
+
+	/**
+	 * @return day of the year, starting with 1
+	 * @throws DateTimeException if the date is not valid
+	 */
+	static int getDayOfYear(int year, int month, int dayOfMonth) {
+		if (month < 1 || month > 12) {
+			throw new DateTimeException("Invalid month " + month);
+		}
+		boolean isLeap = Year.isLeap(year);
+		int[] firstDayOfMonth = isLeap ? FIRST_DAY_OF_MONTH_LEAP_YEAR : FIRST_DAY_OF_MONTH;
+		int firstDayOfNextMonth = month == 12 ? (isLeap ? 367 : 366) : firstDayOfMonth[month];
+		int dayOfYear = firstDayOfMonth[month - 1] + dayOfMonth - 1;
+		if (dayOfMonth < 1 || dayOfYear >= firstDayOfNextMonth) {
+			throw new DateTimeException("Invalid date " + year + "-" + month + "-" + dayOfMonth);
+		}
+		return dayOfYear;
+	}
+}
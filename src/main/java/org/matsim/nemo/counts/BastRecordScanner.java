@@ -0,0 +1,213 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Scans a count file in BASt "Bestandsbandformat" (one station, one month). The file is memory mapped and the data
+ * rows are tokenized directly on the bytes, so stepping through the rows does not create any String or boxed objects.
+ * <p>
+ * The three header lines are decoded with the windows-1256 charset, as the station names contain umlauts. The data rows
+ * only contain ascii characters. A row starts with the date (yymmdd) followed by the edit flag at position 6, the
+ * second token holds the hour (hhmm) and the following tokens hold the volumes per lane and vehicle class. A volume is
+ * only valid if it ends with '-'.
+ * <p>
+ * Tokens are separated by whitespace and numbered like the result of {@code line.split("\\s+")}.
+ */
+final class BastRecordScanner implements BastRecordSource {
+
+	private static final Charset HEADER_CHARSET = Charset.forName("windows-1256");
+	private static final int NUMBER_OF_HEADER_LINES = 3;
+
+	private final ByteBuffer buffer;
+	private final String[] headerLines = new String[NUMBER_OF_HEADER_LINES];
+
+	private int position;
+	private int lineStart;
+	private int numberOfTokens;
+	private int[] tokenStarts = new int[64];
+	private int[] tokenEnds = new int[64];
+
+	BastRecordScanner(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.position = buffer.position();
+		for (int i = 0; i < NUMBER_OF_HEADER_LINES; i++) {
+			headerLines[i] = readHeaderLine();
+		}
+	}
+
+	static BastRecordScanner open(Path countFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(countFile, StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			return new BastRecordScanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	@Override
+	public String getHeaderOne() {
+		return headerLines[0];
+	}
+
+	@Override
+	public String getHeaderTwo() {
+		return headerLines[1];
+	}
+
+	@Override
+	public String getHeaderThree() {
+		return headerLines[2];
+	}
+
+	@Override
+	public boolean next() {
+		int limit = buffer.limit();
+		while (position < limit) {
+			lineStart = position;
+			int lineEnd = lineStart;
+			while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			position = lineEnd + 1;
+			if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+			if (lineEnd > lineStart) {
+				tokenize(lineEnd);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public char getEditFlag() {
+		return (char) buffer.get(lineStart + 6);
+	}
+
+	@Override
+	public int getMonth() {
+		return parseTwoDigits(lineStart + 2);
+	}
+
+	@Override
+	public int getDayOfMonth() {
+		return parseTwoDigits(lineStart + 4);
+	}
+
+	@Override
+	public int getHour() {
+		return parseTwoDigits(tokenStarts[1]);
+	}
+
+	@Override
+	public int getNumberOfTokens() {
+		return numberOfTokens;
+	}
+
+	@Override
+	public double getVolume(int token) {
+		if (token >= numberOfTokens) {
+			throw new ArrayIndexOutOfBoundsException("Row has only " + numberOfTokens + " tokens. Requested token " + token);
+		}
+		int start = tokenStarts[token];
+		int end = tokenEnds[token];
+		if (buffer.get(end - 1) != '-') {
+			return Double.NaN;
+		}
+		if (end - 1 == start) {
+			throw new NumberFormatException("Token " + token + " contains no digits");
+		}
+		long value = 0;
+		for (int i = start; i < end - 1; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Token " + token + " contains a non digit character at position " + (i - start));
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private void tokenize(int lineEnd) {
+		numberOfTokens = 0;
+		int i = lineStart;
+		// String.split yields an empty first token if the line starts with whitespace
+		if (isWhitespace(buffer.get(i))) {
+			addToken(i, i);
+		}
+		while (i < lineEnd) {
+			while (i < lineEnd && isWhitespace(buffer.get(i))) i++;
+			if (i == lineEnd) break;
+			int start = i;
+			while (i < lineEnd && !isWhitespace(buffer.get(i))) i++;
+			addToken(start, i);
+		}
+	}
+
+	private void addToken(int start, int end) {
+		if (numberOfTokens == tokenStarts.length) {
+			tokenStarts = Arrays.copyOf(tokenStarts, numberOfTokens * 2);
+			tokenEnds = Arrays.copyOf(tokenEnds, numberOfTokens * 2);
+		}
+		tokenStarts[numberOfTokens] = start;
+		tokenEnds[numberOfTokens] = end;
+		numberOfTokens++;
+	}
+
+	private int parseTwoDigits(int index) {
+		int tens = buffer.get(index) - '0';
+		int ones = buffer.get(index + 1) - '0';
+		if (tens < 0 || tens > 9 || ones < 0 || ones > 9) {
+			throw new NumberFormatException("Expected two digits at position " + (index - lineStart) + " of the current row");
+		}
+		return tens * 10 + ones;
+	}
+
+	private String readHeaderLine() {
+		int limit = buffer.limit();
+		if (position >= limit) {
+			return null;
+		}
+		int start = position;
+		int end = start;
+		while (end < limit && buffer.get(end) != '\n') {
+			end++;
+		}
+		position = end + 1;
+		if (end > start && buffer.get(end - 1) == '\r') {
+			end--;
+		}
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, HEADER_CHARSET);
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+}
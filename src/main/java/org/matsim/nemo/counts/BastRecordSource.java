@@ -0,0 +1,65 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+/**
+ * Row wise access to the data of one BASt count file (one station, one month). The three header lines are available
+ * right away, the data rows are visited one after another by calling {@link #next()}.
+ * <p>
+ * Tokens are numbered like the result of {@code line.split("\\s+")}: token 0 holds the date, token 1 the hour and the
+ * following tokens hold the volumes per lane and vehicle class.
+ */
+interface BastRecordSource {
+
+	String getHeaderOne();
+
+	String getHeaderTwo();
+
+	String getHeaderThree();
+
+	/**
+	 * Moves to the next non empty data row.
+	 *
+	 * @return false if the end of the file is reached
+	 */
+	boolean next();
+
+	/**
+	 * @return the character at position 6 of the current row. 'i' marks rows which were edited after investigation.
+	 */
+	char getEditFlag();
+
+	int getMonth();
+
+	int getDayOfMonth();
+
+	/**
+	 * @return the hour of the current row, starting with 1 for the interval 0:00 - 1:00
+	 */
+	int getHour();
+
+	int getNumberOfTokens();
+
+	/**
+	 * @param token index of the token within the current row
+	 * @return the volume of the token, or NaN if the token is not marked as valid by a trailing '-'
+	 * @throws NumberFormatException if a valid token contains something else than digits
+	 */
+	double getVolume(int token);
+}
@@ -36,6 +36,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.util.*;
@@ -68,6 +69,7 @@ public class BikeCountsCreator {
 	private Map<String, HourlyCountData> countDataMap = new HashMap<>();
 	private Map<String, Id<Link>> linkIDsOfCounts = new HashMap<>();
 	private String output;
+	private final CountsDiagnostics diagnostics;
 	/**
 	 * 
 	 */
@@ -84,6 +86,7 @@ public class BikeCountsCreator {
 			outputDir.mkdirs();
 		}
 		this.output = outputDir.getAbsolutePath() + "/";
+		this.diagnostics = new CountsDiagnostics(this.output + "diagnostics_" + new SimpleDateFormat("YY_MM_dd_HHmmss").format(Calendar.getInstance().getTime()));
 	}
 
 	private void readNetwork(String networkFile) {
@@ -95,12 +98,21 @@ public class BikeCountsCreator {
 	
 	public static void main(String[] args){
 		BikeCountsCreator creator = new BikeCountsCreator(COUNT_DATA_FILE, COUNT_LOCALISATION_FILE, outputPath);
-		creator.initializeLogger();
-		creator.readNetwork(NETWORK_FILE);
-		creator.readCountData();
-		creator.readCountLocation();
-		creator.convertDataToMATSimCounts();
-		creator.finish();
+		creator.run(NETWORK_FILE);
+	}
+
+	private void run(String networkFile) {
+		initializeLogger();
+		try {
+			readNetwork(networkFile);
+			readCountData();
+			readCountLocation();
+			convertDataToMATSimCounts();
+			finish();
+		} finally {
+			// the diagnostics writer is started in the constructor, it must not outlive a failed run
+			diagnostics.close();
+		}
 	}
 	
 	private void convertDataToMATSimCounts() {
@@ -140,17 +152,15 @@ public class BikeCountsCreator {
 					countDirTwo = container.createAndAddCount(linkIDDirectionTwo, dataObject.getId() + "_R2" );
 
 				for(int i = 0; i < 24; i++) {
-					Double valueDirOne = dataObject.getR1Values().get(i);
-					Double valueDirTwo = dataObject.getR2Values().get(i);
+					double valueDirOne = dataObject.getAverageVolume(true, i);
+					double valueDirTwo = dataObject.getAverageVolume(false, i);
 
-					if(valueDirOne == null){
-						String problem = "station " + stationID + " has a non-valid entry for hour " + i +" in direction one. Please check this. The value in the count file is set to -1."; 
-						log.warning( problem + " Error occured at creation nr " + cnt);
+					if(!dataObject.hasVolume(true, i)){
+						diagnostics.report(stationID, 1, i + 1, CountsDiagnostics.Reason.INVALID_HOUR, null);
 						valueDirOne = -1.;
 					}
-					if(valueDirTwo == null){
-						String problem = "station " + stationID + " has a non-valid entry for hour " + i +" in direction two. Please check this. The value in the count file is set to -1."; 
-						log.warning( problem + " Error occured at creation nr " + cnt);
+					if(!dataObject.hasVolume(false, i)){
+						diagnostics.report(stationID, 2, i + 1, CountsDiagnostics.Reason.INVALID_HOUR, null);
 						valueDirTwo = -1.0;
 					}
 						if(countDirOne != null)	countDirOne.createVolume(i+1, Math.ceil(valueDirOne));
@@ -161,6 +171,7 @@ public class BikeCountsCreator {
 				
 			} catch(Exception e){
 				e.printStackTrace();
+				diagnostics.report(stationID, CountsDiagnostics.Reason.CONVERSION_FAILED, e.getMessage());
 				continue;
 			}
 		}
@@ -190,8 +201,36 @@ public class BikeCountsCreator {
 	}
 
 	private void readCountLocation() {
+		StationLinkCache stationLinkCache = new StationLinkCache(Paths.get(this.output, countLocalisationFile.getName() + ".links"));
+		String fingerprint = StationLinkCache.createFingerprint(network, countLocalisationFile.toPath());
+		Map<String, StationLinkCache.StationLink> stationLinks = stationLinkCache.load(fingerprint);
+		if (stationLinks == null) {
+			stationLinks = matchCountLocations();
+			stationLinkCache.save(fingerprint, stationLinks);
+		}
+		stationLinks.forEach((stationID, stationLink) -> {
+			if (stationLink.getStatus() == StationLinkCache.Status.COMMENTED) {
+				diagnostics.report(stationID, CountsDiagnostics.Reason.COMMENTED, stationLink.getProblem());
+			} else if (stationLink.getStatus() == StationLinkCache.Status.NODE_MISSING) {
+				diagnostics.report(stationID, CountsDiagnostics.Reason.NODE_MISSING, stationLink.getProblem());
+			} else if (stationLink.getStatus() == StationLinkCache.Status.NO_PATH) {
+				diagnostics.report(stationID, CountsDiagnostics.Reason.NO_PATH, stationLink.getProblem());
+			}
+		});
+		// commented stations are still matched in both directions, their entry only holds the comment
+		stationLinks.forEach((stationID, stationLink) -> {
+			if (stationLink.getStatus() != StationLinkCache.Status.COMMENTED) {
+				linkIDsOfCounts.put(stationID, stationLink.getLinkId());
+			}
+		});
+		log.info("-----------------------------------------------------");
+		log.info("read in " + linkIDsOfCounts.size() + " link-id's");
+	}
+
+	private Map<String, StationLinkCache.StationLink> matchCountLocations() {
 	log.info("...start reading node id's from localisation input file");
 		
+		Map<String, StationLinkCache.StationLink> stationLinks = new LinkedHashMap<>();
 		TabularFileParserConfig config = new TabularFileParserConfig();
         config.setDelimiterTags(new String[] {";"});
         config.setFileName(countLocalisationFile.getAbsolutePath());
@@ -205,21 +244,17 @@ public class BikeCountsCreator {
 				if(!header){
 					//direction one
 					if(row.length >= 6){
-						log.severe("station " + row[0] + " is commented like this in the map matching csv file: " + row[5]);
+						stationLinks.put(row[0], new StationLinkCache.StationLink(StationLinkCache.Status.COMMENTED, null, row[5]));
 					}
 					String stationID = row[0] + "_R1";
-					Id<Link> countLinkID = findLinkId(stationID, row[1],row[2],linkFinder);
-					linkIDsOfCounts.put(stationID, countLinkID);
+					stationLinks.put(stationID, findLinkId(stationID, row[1],row[2],linkFinder));
 					
 					stationID = row[0] + "_R2";
-					countLinkID = findLinkId(stationID, row[3],row[4],linkFinder);
-					linkIDsOfCounts.put(stationID, countLinkID);
+					stationLinks.put(stationID, findLinkId(stationID, row[3],row[4],linkFinder));
 				}
 				header = false;
 			}
         });
-        log.info("-----------------------------------------------------");
-        log.info("read in " + linkIDsOfCounts.size() + " link-id's");
         log.info("number of node-id-mappings that were not directly connected by a link, but a path could be calculated: " + linkFinder.getNrOfFoundPaths());
         
         if(linkFinder.getNrOfFoundPaths() >= 1){
@@ -227,24 +262,21 @@ public class BikeCountsCreator {
     		SimpleDateFormat format = new SimpleDateFormat("YY_MM_dd_HH_mm");
         	linkFinder.writeNetworkThatShowsAllFoundPaths(this.output + "visNetOfReconstructedPaths_" + format.format(Calendar.getInstance().getTime()) + ".xml");
         }
+        return stationLinks;
 	}
 	
-	private Id<Link> findLinkId (String stationID, String fromNodeID, String toNodeID, CountLinkFinder linkFinder){
+	private StationLinkCache.StationLink findLinkId (String stationID, String fromNodeID, String toNodeID, CountLinkFinder linkFinder){
 		Id<Link> countLinkID = null;
 
 		Node fromNode = network.getNodes().get(Id.createNodeId(Long.parseLong(fromNodeID)));
 		Node toNode = network.getNodes().get(Id.createNodeId(Long.parseLong(toNodeID)));
 		if(fromNode == null){
 			String problem = "could not find fromNode " + fromNodeID + ". station id= " + stationID;
-			log.warning(problem);
-			log.warning("setting a non-valid link id: " + "noFromNode"  + stationID);
-			return Id.createLinkId("noFromNode_" + stationID);
+			return new StationLinkCache.StationLink(StationLinkCache.Status.NODE_MISSING, Id.createLinkId("noFromNode_" + stationID), problem);
 		}
 		if(toNode == null){
 			String problem = "could not find toNode with id=" + toNodeID + ". station id=" + stationID;
-			log.warning(problem);
-			log.warning("setting a non-valid link id: " + "noToNode"  + stationID);
-			return Id.createLinkId("noToNode_" + stationID);
+			return new StationLinkCache.StationLink(StationLinkCache.Status.NODE_MISSING, Id.createLinkId("noToNode_" + stationID), problem);
 		}
 		for(Link outlink : fromNode.getOutLinks().values()){
 			if(outlink.getToNode().getId().equals(toNode.getId())){
@@ -252,18 +284,14 @@ public class BikeCountsCreator {
 			}
 		}
 		if(countLinkID == null){
-			String problem;
-			problem = "could not find a link directly leading from node " + fromNode.getId() + " to node " + toNode.getId();
-			log.severe(problem);
-			
+			// no direct link, so the first link of the path between both nodes is used
 			countLinkID = linkFinder.getFirstLinkOnTheWayFromNodeToNode(fromNode, toNode);
 			if(countLinkID == null){
-				problem = "COULD FIND NO PATH LEADING FROM NODE " + fromNode.getId() + " TO NODE " + toNode.getId();
-				log.severe(problem);
-				countLinkID = Id.createLinkId("pathCouldNotBeCreated_" + stationID);
+				String problem = "COULD FIND NO PATH LEADING FROM NODE " + fromNode.getId() + " TO NODE " + toNode.getId();
+				return new StationLinkCache.StationLink(StationLinkCache.Status.NO_PATH, Id.createLinkId("pathCouldNotBeCreated_" + stationID), problem);
 			}
 		}	
-		return countLinkID;
+		return new StationLinkCache.StationLink(StationLinkCache.Status.MATCHED, countLinkID, null);
 	}
 
 	private void readCountData() {
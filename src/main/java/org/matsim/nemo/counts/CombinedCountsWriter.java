@@ -1,6 +1,8 @@
 package org.matsim.nemo.counts;
 
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
+import org.matsim.counts.Count;
 import org.matsim.counts.Counts;
 import org.matsim.counts.CountsWriter;
 import org.slf4j.Logger;
@@ -8,6 +10,8 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 public class CombinedCountsWriter<T> {
 
@@ -28,6 +32,90 @@ public class CombinedCountsWriter<T> {
         });
     }
 
+    /**
+     * Same files as {@link #writeCounts(Path, String, Set, Map[])}, but the files of all column combinations are written
+     * at the same time. The counts of the maps are not copied into a new container. Instead, the sorted counts of all
+     * maps are merged while writing, so the counts are sorted by link id like in the other mode. If several maps have a
+     * count on the same link, the count of the last map is written.
+     *
+     * @param gzip whether the files are compressed. Their names end with .xml.gz then
+     */
+    @SafeVarargs
+    public static void writeCountsInParallel(Path directory, String filenamePrefix, Set<String> columnCombinations, boolean gzip,
+                                             Map<String, Counts<Link>>... countsMaps) {
+
+        logger.info("writing counts of " + columnCombinations.size() + " column combinations to folder: " + directory.toString());
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(columnCombinations.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            pool.submit(() -> columnCombinations.parallelStream().forEach(combination -> {
+                List<Counts<Link>> countsOfCombination = new ArrayList<>();
+                Arrays.stream(countsMaps).forEach(map -> countsOfCombination.add(map.get(combination)));
+                String filename = directory.resolve("nemo_" + filenamePrefix + "_counts_" + combination + (gzip ? ".xml.gz" : ".xml")).toString();
+                new CountsStreamWriter<Link>().write(filename, new Counts<>(), mergeSorted(countsOfCombination));
+            })).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error while writing the counts to " + directory, e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the counts of all containers sorted by link id. For equal link ids, only the count of the last container
+     * is returned, like when putting all counts into one map
+     */
+    static <T> Iterator<Count<T>> mergeSorted(List<Counts<T>> countsList) {
+        // each source is the sorted count map of one container. Equal ids are ordered by the index of the container
+        PriorityQueue<Source<T>> sources = new PriorityQueue<>(Comparator.<Source<T>, Id<T>>comparing(source -> source.current.getKey())
+                .thenComparingInt(source -> source.index));
+        for (int i = 0; i < countsList.size(); i++) {
+            Source<T> source = new Source<>(i, countsList.get(i).getCounts().entrySet().iterator());
+            if (source.advance()) sources.add(source);
+        }
+
+        return new Iterator<Count<T>>() {
+            @Override
+            public boolean hasNext() {
+                return !sources.isEmpty();
+            }
+
+            @Override
+            public Count<T> next() {
+                if (sources.isEmpty()) throw new NoSuchElementException();
+                Count<T> next = poll();
+                // later containers overwrite the counts of earlier ones
+                while (!sources.isEmpty() && sources.peek().current.getKey().equals(next.getId())) {
+                    next = poll();
+                }
+                return next;
+            }
+
+            private Count<T> poll() {
+                Source<T> source = sources.poll();
+                Count<T> count = source.current.getValue();
+                if (source.advance()) sources.add(source);
+                return count;
+            }
+        };
+    }
+
+    private static final class Source<T> {
+
+        private final int index;
+        private final Iterator<Map.Entry<Id<T>, Count<T>>> iterator;
+        private Map.Entry<Id<T>, Count<T>> current;
+
+        private Source(int index, Iterator<Map.Entry<Id<T>, Count<T>>> iterator) {
+            this.index = index;
+            this.iterator = iterator;
+        }
+
+        private boolean advance() {
+            current = iterator.hasNext() ? iterator.next() : null;
+            return current != null;
+        }
+    }
+
 	public void write(String filename) {
 
 		Counts<T> combinedCounts = new Counts<>();
@@ -23,69 +23,168 @@ package org.matsim.nemo.counts;
 
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.*;
-import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.router.DijkstraFactory;
-import org.matsim.core.router.util.LeastCostPathCalculator;
-import org.matsim.core.router.util.LeastCostPathCalculator.Path;
-import org.matsim.core.router.util.TravelDisutility;
-import org.matsim.core.router.util.TravelTime;
-import org.matsim.vehicles.Vehicle;
+import org.matsim.core.utils.geometry.CoordUtils;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 /**
+ * Finds the link of a counting station if its from and to node are not connected directly. The shortest path (by
+ * length) from the from node to the to node is searched and its first link is taken. As the nodes of a station are only
+ * a few hundred meters apart, the search is stopped once all paths are longer than {@link #maxSearchDistance}.
+ * <p>
+ * The search keeps its state per call, so one instance may be used by several threads at once.
+ *
  * @author tschlenther
  *
  */
 public class CountLinkFinder {
 
-	private Network network;
-	private List<Path> allFoundPaths = new ArrayList<Path>();
-	private LeastCostPathCalculator dijkstra;
+	public static final double DEFAULT_MAX_SEARCH_DISTANCE = 5000.;
+
+	private final Network network;
+	private final double maxSearchDistance;
+	// only the link ids are kept to write the visualisation network, not the whole paths. The paths are sorted by
+	// station, so that the visualisation network doesn't depend on the order in which the threads find them
+	private final Map<String, Id<Link>[]> allFoundPaths = new ConcurrentSkipListMap<>();
+
+	public CountLinkFinder(Network net) {
+		this(net, DEFAULT_MAX_SEARCH_DISTANCE);
+	}
+
 	/**
-	 * 
+	 * @param maxSearchDistance paths longer than this are not considered
 	 */
-	public CountLinkFinder(Network net) {
+	public CountLinkFinder(Network net, double maxSearchDistance) {
 		this.network = net;
-		SimpleTravelDistanceDisutility travelDistance = new SimpleTravelDistanceDisutility();
-		dijkstra = new DijkstraFactory().createPathCalculator(network, travelDistance, travelDistance);
+		this.maxSearchDistance = maxSearchDistance;
 	}
 	
 	
 	public Id<Link> getFirstLinkOnTheWayFromNodeToNode(Node from, Node to){
-		
-		Path path = dijkstra.calcLeastCostPath(from, to, 1.0, null, null);
-		if(path == null || path.links.isEmpty()){
+		Match match = findMatch(from, to);
+		return match == null ? null : match.getFirstLinkId();
+	}
+
+	/**
+	 * Searches the paths of several stations with the given number of threads.
+	 *
+	 * @param fromAndToNodes from and to node per station id
+	 * @return the match per station id, in the order of the given map. Stations without a path within the search distance are mapped to null
+	 */
+	public Map<String, Match> findMatches(Map<String, Node[]> fromAndToNodes, int numberOfThreads) {
+
+		List<String> stations = new ArrayList<>(fromAndToNodes.keySet());
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, numberOfThreads));
+		try {
+			// collecting an ordered parallel stream keeps the order of the stations
+			List<Match> matches = pool.submit(() -> stations.parallelStream()
+					.map(station -> findMatch(station, fromAndToNodes.get(station)[0], fromAndToNodes.get(station)[1]))
+					.collect(Collectors.toList())
+			).get();
+			Map<String, Match> result = new LinkedHashMap<>();
+			for (int i = 0; i < stations.size(); i++) {
+				result.put(stations.get(i), matches.get(i));
+			}
+			return result;
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Error while searching the paths of the counting stations", e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return the shortest path from one node to the other, or null if there is no path within the search distance
+	 */
+	public Match findMatch(Node from, Node to) {
+		return findMatch(from.getId() + "-" + to.getId(), from, to);
+	}
+
+	/**
+	 * @param key key of the path in the visualisation network, e.g. the station id
+	 */
+	private Match findMatch(String key, Node from, Node to) {
+
+		if (from.getId().equals(to.getId())) {
 			return null;
 		}
-		this.allFoundPaths.add(path);
-		return path.links.get(0).getId();
+
+		Map<Id<Node>, Double> distances = new HashMap<>();
+		Map<Id<Node>, Link> reachedBy = new HashMap<>();
+		PriorityQueue<NodeEntry> queue = new PriorityQueue<>();
+		distances.put(from.getId(), 0.);
+		queue.add(new NodeEntry(from, 0.));
+
+		while (!queue.isEmpty()) {
+			NodeEntry entry = queue.poll();
+			if (entry.distance > distances.get(entry.node.getId())) {
+				// outdated entry, the node was reached on a shorter path in the meantime
+				continue;
+			}
+			if (entry.distance > maxSearchDistance) {
+				return null;
+			}
+			if (entry.node.getId().equals(to.getId())) {
+				return createMatch(key, from, to, entry.distance, reachedBy);
+			}
+			for (Link link : entry.node.getOutLinks().values()) {
+				Node next = link.getToNode();
+				double distance = entry.distance + link.getLength();
+				Double knownDistance = distances.get(next.getId());
+				if (knownDistance == null || distance < knownDistance) {
+					distances.put(next.getId(), distance);
+					reachedBy.put(next.getId(), link);
+					queue.add(new NodeEntry(next, distance));
+				}
+			}
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Match createMatch(String key, Node from, Node to, double pathLength, Map<Id<Node>, Link> reachedBy) {
+
+		LinkedList<Id<Link>> linkIds = new LinkedList<>();
+		Node current = to;
+		do {
+			Link link = reachedBy.get(current.getId());
+			linkIds.addFirst(link.getId());
+			current = link.getFromNode();
+		} while (!current.getId().equals(from.getId()));
+
+		Id<Link>[] path = linkIds.toArray(new Id[0]);
+		this.allFoundPaths.put(key, path);
+		double beelineDistance = CoordUtils.calcEuclideanDistance(from.getCoord(), to.getCoord());
+		return new Match(path[0], path.length, pathLength, beelineDistance);
 	}
 	
 	public void writeNetworkThatShowsAllFoundPaths(String outputPath){
 		Network netCopy = NetworkUtils.createNetwork();
 		NetworkFactory fac = netCopy.getFactory();
-		for(Path currentPath : this.allFoundPaths){
-			for(int i = 0; i < currentPath.links.size(); i++){
-				Link l = currentPath.links.get(i);
+		for (Id<Link>[] currentPath : this.allFoundPaths.values()) {
+			for (int i = 0; i < currentPath.length; i++) {
+				Link l = network.getLinks().get(currentPath[i]);
 				Id<Link> linkID = l.getId();
-				if(netCopy.getLinks().containsKey(linkID)){
-					String id = linkID.toString() + "_v2";
-					linkID = Id.createLinkId(id);
+				// links on several paths are copied with the suffix _v2, _v3 and so on
+				for (int version = 2; netCopy.getLinks().containsKey(linkID); version++) {
+					linkID = Id.createLinkId(l.getId() + "_v" + version);
 				}
 				Node from = netCopy.getNodes().get(l.getFromNode().getId());
-				if(from == null){
+				if (from == null) {
 					from = fac.createNode(l.getFromNode().getId(), l.getFromNode().getCoord());
 					netCopy.addNode(from);
 				}
 				Node to = netCopy.getNodes().get(l.getToNode().getId());
-				if(to == null){
+				if (to == null) {
 					to = fac.createNode(l.getToNode().getId(), l.getToNode().getCoord());
 					netCopy.addNode(to);
 				}
-				Link linkCopy =  fac.createLink(linkID, from, to);
+				Link linkCopy = fac.createLink(linkID, from, to);
 				linkCopy.setCapacity(i);
 				linkCopy.setLength(l.getLength());
 				netCopy.addLink(linkCopy);
@@ -98,35 +197,65 @@ public class CountLinkFinder {
 	public int getNrOfFoundPaths(){
 		return this.allFoundPaths.size();
 	}
-	
-	private static final class SimpleTravelDistanceDisutility implements TravelTime, TravelDisutility {
-
-		/**
-		 * 
-		 * @param link
-		 * @return travel distance
-		 */
-		private double calcTravelDistance(Link link) {
-			return link.getLength();
+
+	/**
+	 * The path found for a counting station. The detour factor compares the length of the path with the beeline
+	 * distance of the two nodes, a high value hints at a wrong mapping of the station.
+	 */
+	public static final class Match {
+
+		private final Id<Link> firstLinkId;
+		private final int numberOfLinks;
+		private final double pathLength;
+		private final double beelineDistance;
+
+		private Match(Id<Link> firstLinkId, int numberOfLinks, double pathLength, double beelineDistance) {
+			this.firstLinkId = firstLinkId;
+			this.numberOfLinks = numberOfLinks;
+			this.pathLength = pathLength;
+			this.beelineDistance = beelineDistance;
 		}
-		
-		@Override
-		public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
-			return this.calcTravelDistance(link);
+
+		public Id<Link> getFirstLinkId() {
+			return firstLinkId;
 		}
 
-		@Override
-		public double getLinkMinimumTravelDisutility(Link link) {
-			return this.calcTravelDistance(link);
+		public int getNumberOfLinks() {
+			return numberOfLinks;
 		}
 
-		@Override
-		public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
-			return this.calcTravelDistance(link);
+		public double getPathLength() {
+			return pathLength;
+		}
+
+		public double getBeelineDistance() {
+			return beelineDistance;
 		}
 
+		public double getDetourFactor() {
+			return beelineDistance > 0 ? pathLength / beelineDistance : Double.POSITIVE_INFINITY;
+		}
+
+		@Override
+		public String toString() {
+			return "first link " + firstLinkId + ", " + numberOfLinks + " links, path length " + pathLength
+					+ "m, beeline distance " + beelineDistance + "m, detour factor " + getDetourFactor();
+		}
 	}
 
-}
+	private static final class NodeEntry implements Comparable<NodeEntry> {
+
+		private final Node node;
+		private final double distance;
 
+		private NodeEntry(Node node, double distance) {
+			this.node = node;
+			this.distance = distance;
+		}
 
+		@Override
+		public int compareTo(NodeEntry other) {
+			return Double.compare(distance, other.distance);
+		}
+	}
+}
@@ -21,10 +21,6 @@ package org.matsim.nemo.counts;
 
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
-import org.matsim.api.core.v01.network.Network;
-import org.matsim.core.config.Config;
-import org.matsim.core.config.ConfigUtils;
-import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.counts.Counts;
 import org.matsim.counts.CountsReaderMatsimV1;
 import org.matsim.counts.CountsWriter;
@@ -57,15 +53,13 @@ public class CountsCleaner {
 
         System.out.println("Number of count stations are "+ counts.getCounts().size());
 
-        Config config = ConfigUtils.createConfig();
-        config.network().setInputFile(networkFile);
-
-        Network network = ScenarioUtils.loadScenario(config).getNetwork();
+        // only the link ids are needed, so the network is not loaded completely
+        NetworkLinkIds networkLinkIds = NetworkLinkIds.read(networkFile, false);
 
         Set<Id<Link>> countIds =  new HashSet<>();
 
         for(Id<Link> countId : counts.getCounts().keySet()) {
-            if (! network.getLinks().containsKey(countId)) {
+            if (! networkLinkIds.contains(countId.toString())) {
                 System.out.println("Count id "+countId+ "not found in network file.");
                 countIds.add(countId);
             }
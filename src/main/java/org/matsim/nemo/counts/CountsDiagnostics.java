@@ -0,0 +1,231 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Collects the problems found while creating counts, e.g. hours without valid data or stations which could not be
+ * located, instead of logging every single one of them. Problems are put into a lock-free queue, so they may be
+ * reported by several threads at once. A background thread writes them to a csv file with the columns
+ * <pre>
+ *     station;direction;hour;reason;detail
+ * </pre>
+ * where direction and hour are empty if the problem concerns the whole station. When the diagnostics are closed, the
+ * number of problems and of affected stations per reason are logged and written to a summary csv file.
+ */
+final class CountsDiagnostics {
+
+	private static final Logger log = Logger.getLogger(CountsDiagnostics.class.getName());
+
+	static final int ALL_DIRECTIONS = 0;
+	static final int ALL_HOURS = 0;
+
+	private static final String HEADER = "station;direction;hour;reason;detail";
+	private static final String SUMMARY_HEADER = "reason;problems;stations";
+	private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	enum Reason {
+		/** no valid volume for this hour, the volume is set to -1 */
+		INVALID_HOUR,
+		/** there is no entry for the station in the mapping file */
+		NOT_LOCATED,
+		/** the station is commented in the mapping file and thus not converted */
+		COMMENTED,
+		/** the from or to node of the station is not part of the network */
+		NODE_MISSING,
+		/** no path leads from the from node to the to node */
+		NO_PATH,
+		/** the count file does not distinguish cars from all other vehicle classes */
+		FEW_VEHICLE_CLASSES,
+		/** the count file does not distinguish heavy vehicles and is skipped */
+		NO_HEAVY_VEHICLES,
+		/** the station could not be converted into counts */
+		CONVERSION_FAILED,
+		/** a count file or archive could not be read and is skipped */
+		READ_FAILED
+	}
+
+	private final Path reportFile;
+	private final Path summaryFile;
+	private final ConcurrentLinkedQueue<Problem> queue = new ConcurrentLinkedQueue<>();
+	private final Thread writerThread;
+	private volatile boolean closed = false;
+
+	// only accessed by the writer thread until it is finished
+	private final long[] problemsPerReason = new long[Reason.values().length];
+	private final List<Set<String>> stationsPerReason = new ArrayList<>();
+
+	/**
+	 * @param filePrefix path and start of the file names. The problems are written to {@code filePrefix.csv} and the
+	 *                   summary to {@code filePrefix_summary.csv}
+	 */
+	CountsDiagnostics(String filePrefix) {
+		this.reportFile = Paths.get(filePrefix + ".csv");
+		this.summaryFile = Paths.get(filePrefix + "_summary.csv");
+		for (int i = 0; i < Reason.values().length; i++) {
+			stationsPerReason.add(new HashSet<>());
+		}
+		this.writerThread = new Thread(this::writeProblems, "counts-diagnostics");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * @param direction 1 or 2, or {@link #ALL_DIRECTIONS}
+	 * @param hour hour from 1 to 24, or {@link #ALL_HOURS}
+	 * @param detail further information or null
+	 */
+	void report(String station, int direction, int hour, Reason reason, String detail) {
+		queue.add(new Problem(station, direction, hour, reason, detail));
+	}
+
+	void report(String station, Reason reason, String detail) {
+		report(station, ALL_DIRECTIONS, ALL_HOURS, reason, detail);
+	}
+
+	/**
+	 * Waits until all reported problems are written and writes the summary. Problems reported afterwards are ignored.
+	 */
+	void close() {
+		if (closed) return;
+		closed = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while writing the diagnostics to " + reportFile, e);
+		}
+		writeSummary();
+	}
+
+	/**
+	 * @return number of reported problems of this reason. Complete after {@link #close()}
+	 */
+	long getNumberOfProblems(Reason reason) {
+		return problemsPerReason[reason.ordinal()];
+	}
+
+	/**
+	 * @return number of stations with at least one problem of this reason. Complete after {@link #close()}
+	 */
+	int getNumberOfStations(Reason reason) {
+		return stationsPerReason.get(reason.ordinal()).size();
+	}
+
+	private void writeProblems() {
+		try (BufferedWriter writer = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			while (true) {
+				Problem problem = queue.poll();
+				if (problem != null) {
+					write(writer, problem);
+				} else if (closed) {
+					// problems which were added right before closing
+					while ((problem = queue.poll()) != null) {
+						write(writer, problem);
+					}
+					return;
+				} else {
+					LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.severe("could not write diagnostics to " + reportFile + ". Only the summary is available.");
+			// keep counting, so that the summary is complete
+			while (!closed || !queue.isEmpty()) {
+				Problem problem = queue.poll();
+				if (problem != null) {
+					count(problem);
+				} else {
+					LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+				}
+			}
+		}
+	}
+
+	private void write(BufferedWriter writer, Problem problem) throws IOException {
+		count(problem);
+		writer.write(problem.station);
+		writer.write(';');
+		if (problem.direction != ALL_DIRECTIONS) writer.write(Integer.toString(problem.direction));
+		writer.write(';');
+		if (problem.hour != ALL_HOURS) writer.write(Integer.toString(problem.hour));
+		writer.write(';');
+		writer.write(problem.reason.name());
+		writer.write(';');
+		if (problem.detail != null) writer.write(problem.detail.replace(';', ',').replace('\n', ' '));
+		writer.newLine();
+	}
+
+	private void count(Problem problem) {
+		problemsPerReason[problem.reason.ordinal()]++;
+		stationsPerReason.get(problem.reason.ordinal()).add(problem.station);
+	}
+
+	private void writeSummary() {
+		StringBuilder summary = new StringBuilder("problems while creating counts, see " + reportFile + ":");
+		try (BufferedWriter writer = Files.newBufferedWriter(summaryFile, StandardCharsets.UTF_8)) {
+			writer.write(SUMMARY_HEADER);
+			writer.newLine();
+			for (Reason reason : Reason.values()) {
+				writer.write(reason.name() + ";" + getNumberOfProblems(reason) + ";" + getNumberOfStations(reason));
+				writer.newLine();
+				if (getNumberOfProblems(reason) > 0) {
+					summary.append("\n\t").append(reason).append(": ").append(getNumberOfProblems(reason))
+							.append(" problems at ").append(getNumberOfStations(reason)).append(" stations");
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.severe("could not write summary of the diagnostics to " + summaryFile);
+		}
+		log.info(summary.toString());
+	}
+
+	private static final class Problem {
+
+		private final String station;
+		private final int direction;
+		private final int hour;
+		private final Reason reason;
+		private final String detail;
+
+		private Problem(String station, int direction, int hour, Reason reason, String detail) {
+			this.station = station;
+			this.direction = direction;
+			this.hour = hour;
+			this.reason = reason;
+			this.detail = detail;
+		}
+	}
+}
@@ -0,0 +1,315 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Plausibility checks of the hourly volumes of long term counting stations. The total volume of all vehicles per
+ * direction is read into one array per station and year, with one entry per hour of the year. The following hours are
+ * rejected:
+ * <ul>
+ *     <li>zero runs: at least {@code minZeroRunHours} consecutive hours without any vehicle in one direction, which
+ *     usually means a broken loop</li>
+ *     <li>direction imbalance: all hours of a day whose daily volume of one direction is less than
+ *     {@code minDirectionRatio} times the volume of the other direction</li>
+ *     <li>outliers: hours whose robust z-score, i.e. the deviation from the median divided by the median absolute
+ *     deviation, exceeds {@code maxRobustZScore}. The hour is compared with the same hour and direction of the other
+ *     days of the year of the same type (working day, Saturday, Sunday)</li>
+ * </ul>
+ * Each hour is only rejected for the first reason found. Stations are screened in parallel.
+ */
+final class CountsScreening {
+
+	private static final Logger log = Logger.getLogger(CountsScreening.class.getName());
+
+	static final int DEFAULT_MIN_ZERO_RUN_HOURS = 6;
+	static final double DEFAULT_MIN_DIRECTION_RATIO = 0.25;
+	static final double DEFAULT_MIN_DAILY_VOLUME = 1000;
+	static final double DEFAULT_MAX_ROBUST_Z_SCORE = 3.5;
+
+	private static final int HOURS = StationYearVolumes.HOURS;
+	// the robust z-score of Iglewicz and Hoaglin, which is comparable to the usual z-score for normal distributions
+	private static final double MAD_SCALE = 0.6745;
+	// minimum number of days per hour and type of day to compute a robust z-score
+	private static final int MIN_SAMPLES = 8;
+
+	private final int minZeroRunHours;
+	private final double minDirectionRatio;
+	private final double minDailyVolume;
+	private final double maxRobustZScore;
+
+	CountsScreening() {
+		this(DEFAULT_MIN_ZERO_RUN_HOURS, DEFAULT_MIN_DIRECTION_RATIO, DEFAULT_MIN_DAILY_VOLUME, DEFAULT_MAX_ROBUST_Z_SCORE);
+	}
+
+	/**
+	 * @param minDailyVolume days with less vehicles in both directions are not checked for direction imbalance
+	 */
+	CountsScreening(int minZeroRunHours, double minDirectionRatio, double minDailyVolume, double maxRobustZScore) {
+		this.minZeroRunHours = minZeroRunHours;
+		this.minDirectionRatio = minDirectionRatio;
+		this.minDailyVolume = minDailyVolume;
+		this.maxRobustZScore = maxRobustZScore;
+	}
+
+	/**
+	 * Screens the count files and writes the rejections to the rejection list file. If the list was written by an
+	 * earlier run, only station years whose count files changed since then are screened again. The rejections of all
+	 * other station years are taken from the list as it is, including hand edits. A list without fingerprints of the
+	 * screened count files, e.g. one which was written by hand, is used as it is without any screening.
+	 *
+	 * @param countFilesPerStationYear the count files of one station and year per entry, e.g. the months of a year
+	 * @param rawCountsCache cache to read the count files from or null to parse them
+	 * @return all rejections of the list
+	 */
+	List<RejectionList.Rejection> screen(Path rejectionListFile, Map<Integer, List<List<File>>> countFilesPerStationYear,
+										 RawCountsCache rawCountsCache, int numberOfThreads) {
+		Path fingerprintFile = RejectionList.getFingerprintFile(rejectionListFile);
+		List<RejectionList.Rejection> previousRejections = Collections.emptyList();
+		Map<String, RejectionList.ScreenedCountFiles> previouslyScreened = Collections.emptyMap();
+		if (Files.exists(rejectionListFile)) {
+			try {
+				previousRejections = RejectionList.readRejections(rejectionListFile);
+				if (Files.notExists(fingerprintFile)) {
+					log.info(rejectionListFile + " has no fingerprints of screened count files. The list is used as it is. Delete it to screen the count files again.");
+					return previousRejections;
+				}
+				previouslyScreened = RejectionList.readFingerprints(fingerprintFile);
+			} catch (IOException | RuntimeException e) {
+				log.warning("could not read " + rejectionListFile + ". All count files are screened again. Error message: " + e.getMessage());
+				previousRejections = Collections.emptyList();
+				previouslyScreened = Collections.emptyMap();
+			}
+		}
+
+		List<RejectionList.ScreenedCountFiles> screened = new ArrayList<>();
+		Set<String> unchangedStationYears = new HashSet<>();
+		Map<Integer, List<List<File>>> changedCountFiles = new TreeMap<>();
+		for (Map.Entry<Integer, List<List<File>>> year : countFilesPerStationYear.entrySet()) {
+			for (List<File> countFiles : year.getValue()) {
+				RejectionList.ScreenedCountFiles previous = previouslyScreened.get(
+						RejectionList.ScreenedCountFiles.createKey(year.getKey(), countFiles.get(0).getName()));
+				if (previous != null && previous.getFingerprint() == CountsTimeSeriesStore.createFingerprint(countFiles)) {
+					screened.add(previous);
+					unchangedStationYears.add(previous.getStation() + ";" + year.getKey());
+				} else {
+					changedCountFiles.computeIfAbsent(year.getKey(), y -> new ArrayList<>()).add(countFiles);
+				}
+			}
+		}
+
+		// rejections of station years which are screened again or have no count files anymore are dropped
+		List<RejectionList.Rejection> rejections = previousRejections.stream()
+				.filter(rejection -> unchangedStationYears.contains(rejection.getStation() + ";" + rejection.getDate().getYear()))
+				.collect(Collectors.toCollection(ArrayList::new));
+		log.info("kept " + rejections.size() + " rejected hourly volumes of " + screened.size() + " unchanged station years");
+
+		List<ScreenedStationYear> screenedStationYears = screen(changedCountFiles, rawCountsCache, numberOfThreads);
+		for (ScreenedStationYear stationYear : screenedStationYears) {
+			// station years without any readable count file are screened again in the next run
+			if (stationYear.countFiles != null) screened.add(stationYear.countFiles);
+			rejections.addAll(stationYear.rejections);
+		}
+
+		try {
+			RejectionList.write(rejectionListFile, rejections);
+			RejectionList.writeFingerprints(fingerprintFile, screened);
+			log.info("wrote rejected hours to " + rejectionListFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.severe("could not write rejected hours to " + rejectionListFile);
+		}
+		return rejections;
+	}
+
+	private List<ScreenedStationYear> screen(Map<Integer, List<List<File>>> countFilesPerStationYear, RawCountsCache rawCountsCache,
+											 int numberOfThreads) {
+		List<ScreenedStationYear> screened = new ArrayList<>();
+		ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		try {
+			for (Map.Entry<Integer, List<List<File>>> year : countFilesPerStationYear.entrySet()) {
+				screened.addAll(pool.submit(() -> year.getValue().parallelStream()
+						.map(countFiles -> screenStationYear(year.getKey(), countFiles, rawCountsCache))
+						.collect(Collectors.toList())
+				).get());
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Error while screening the count files", e);
+		} finally {
+			pool.shutdown();
+		}
+		log.info("screened " + screened.size() + " station years, which rejected "
+				+ screened.stream().mapToInt(stationYear -> stationYear.rejections.size()).sum() + " hourly volumes");
+		return screened;
+	}
+
+	private ScreenedStationYear screenStationYear(int year, List<File> countFiles, RawCountsCache rawCountsCache) {
+		// the fingerprint is taken before reading, so that files which change meanwhile are screened again next time
+		long fingerprint = CountsTimeSeriesStore.createFingerprint(countFiles);
+		StationYearVolumes volumes = StationYearVolumes.read(year, countFiles, rawCountsCache);
+		if (volumes == null) return new ScreenedStationYear(null, Collections.emptyList());
+		return new ScreenedStationYear(new RejectionList.ScreenedCountFiles(year, countFiles.get(0).getName(), volumes.getStation(), fingerprint),
+				screen(volumes.getStation(), year, volumes.getVolumes()));
+	}
+
+	/**
+	 * @param volumes total volume per direction and hour of the year, i.e. index 0 is hour 1 of January 1st. NaN marks
+	 *                missing or invalid volumes
+	 */
+	List<RejectionList.Rejection> screen(String station, int year, double[][] volumes) {
+		String[][] reasons = new String[2][volumes[0].length];
+		findZeroRuns(volumes, reasons);
+		findDirectionImbalance(volumes, reasons);
+		findOutliers(year, volumes, reasons);
+
+		List<RejectionList.Rejection> rejections = new ArrayList<>();
+		LocalDate firstDay = LocalDate.of(year, 1, 1);
+		for (int direction = 0; direction < 2; direction++) {
+			for (int index = 0; index < reasons[direction].length; index++) {
+				if (reasons[direction][index] != null) {
+					rejections.add(new RejectionList.Rejection(station, firstDay.plusDays(index / HOURS), index % HOURS + 1,
+							direction + 1, reasons[direction][index]));
+				}
+			}
+		}
+		return rejections;
+	}
+
+	private void findZeroRuns(double[][] volumes, String[][] reasons) {
+		for (int direction = 0; direction < 2; direction++) {
+			double[] volumesOfDirection = volumes[direction];
+			int runStart = 0;
+			for (int index = 0; index <= volumesOfDirection.length; index++) {
+				if (index < volumesOfDirection.length && volumesOfDirection[index] == 0) continue;
+
+				int runLength = index - runStart;
+				if (runLength >= minZeroRunHours) {
+					String reason = "zero run of " + runLength + " hours";
+					for (int i = runStart; i < index; i++) {
+						reject(reasons, direction, i, reason);
+					}
+				}
+				runStart = index + 1;
+			}
+		}
+	}
+
+	private void findDirectionImbalance(double[][] volumes, String[][] reasons) {
+		for (int day = 0; day < volumes[0].length / HOURS; day++) {
+			double volumeDir1 = 0;
+			double volumeDir2 = 0;
+			// only hours which are valid in both directions are compared
+			for (int index = day * HOURS; index < (day + 1) * HOURS; index++) {
+				if (!Double.isNaN(volumes[0][index]) && !Double.isNaN(volumes[1][index])) {
+					volumeDir1 += volumes[0][index];
+					volumeDir2 += volumes[1][index];
+				}
+			}
+			if (volumeDir1 + volumeDir2 < minDailyVolume) continue;
+
+			double ratio = Math.min(volumeDir1, volumeDir2) / Math.max(volumeDir1, volumeDir2);
+			if (ratio < minDirectionRatio) {
+				String reason = String.format(Locale.US, "direction imbalance %.2f", ratio);
+				for (int index = day * HOURS; index < (day + 1) * HOURS; index++) {
+					reject(reasons, 0, index, reason);
+					reject(reasons, 1, index, reason);
+				}
+			}
+		}
+	}
+
+	private void findOutliers(int year, double[][] volumes, String[][] reasons) {
+		int numberOfDays = volumes[0].length / HOURS;
+		int[] typeOfDay = new int[numberOfDays];
+		LocalDate day = LocalDate.of(year, 1, 1);
+		for (int d = 0; d < numberOfDays; d++, day = day.plusDays(1)) {
+			typeOfDay[d] = day.getDayOfWeek() == DayOfWeek.SUNDAY ? 2 : day.getDayOfWeek() == DayOfWeek.SATURDAY ? 1 : 0;
+		}
+
+		double[] samples = new double[numberOfDays];
+		double[] deviations = new double[numberOfDays];
+		for (int direction = 0; direction < 2; direction++) {
+			for (int hour = 0; hour < HOURS; hour++) {
+				for (int type = 0; type < 3; type++) {
+					int numberOfSamples = 0;
+					for (int d = 0; d < numberOfDays; d++) {
+						double volume = volumes[direction][d * HOURS + hour];
+						if (typeOfDay[d] == type && !Double.isNaN(volume)) {
+							samples[numberOfSamples++] = volume;
+						}
+					}
+					if (numberOfSamples < MIN_SAMPLES) continue;
+
+					double median = median(samples, numberOfSamples);
+					for (int i = 0; i < numberOfSamples; i++) {
+						deviations[i] = Math.abs(samples[i] - median);
+					}
+					double medianAbsoluteDeviation = median(deviations, numberOfSamples);
+					if (medianAbsoluteDeviation == 0) continue;
+
+					for (int d = 0; d < numberOfDays; d++) {
+						double volume = volumes[direction][d * HOURS + hour];
+						if (typeOfDay[d] != type || Double.isNaN(volume)) continue;
+						double zScore = MAD_SCALE * (volume - median) / medianAbsoluteDeviation;
+						if (Math.abs(zScore) > maxRobustZScore) {
+							reject(reasons, direction, d * HOURS + hour, String.format(Locale.US, "robust z-score %.1f", zScore));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sorts the first values of the array
+	 */
+	private static double median(double[] values, int numberOfValues) {
+		Arrays.sort(values, 0, numberOfValues);
+		int middle = numberOfValues / 2;
+		return numberOfValues % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+	}
+
+	private static void reject(String[][] reasons, int direction, int index, String reason) {
+		if (reasons[direction][index] == null) {
+			reasons[direction][index] = reason;
+		}
+	}
+
+	private static final class ScreenedStationYear {
+
+		private final RejectionList.ScreenedCountFiles countFiles;
+		private final List<RejectionList.Rejection> rejections;
+
+		private ScreenedStationYear(RejectionList.ScreenedCountFiles countFiles, List<RejectionList.Rejection> rejections) {
+			this.countFiles = countFiles;
+			this.rejections = rejections;
+		}
+	}
+}
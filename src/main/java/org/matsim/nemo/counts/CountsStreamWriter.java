@@ -0,0 +1,64 @@
+package org.matsim.nemo.counts;
+
+import org.matsim.core.utils.collections.Tuple;
+import org.matsim.core.utils.io.MatsimXmlWriter;
+import org.matsim.counts.Count;
+import org.matsim.counts.Counts;
+import org.matsim.counts.Volume;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes counts in the same format as the counts writer of MATSim (counts_v1), but takes the single counts from an
+ * iterator instead of a {@link Counts} container, so that counts of several containers can be written without copying
+ * them into a new one. The counts are written in the order of the iterator. If the file name ends with .gz, the file
+ * is compressed.
+ */
+class CountsStreamWriter<T> extends MatsimXmlWriter {
+
+	private static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+
+	/**
+	 * @param header counts container whose name, description and year are written. Its counts are not written
+	 */
+	void write(String filename, Counts<T> header, Iterator<Count<T>> counts) {
+		openFile(filename);
+		try {
+			writeXmlHead();
+			List<Tuple<String, String>> attributes = new ArrayList<>();
+			attributes.add(new Tuple<>("xmlns:xsi", XSI_NAMESPACE));
+			attributes.add(new Tuple<>("xsi:noNamespaceSchemaLocation", DEFAULT_DTD_LOCATION + "counts_v1.xsd"));
+			if (header.getName() != null) attributes.add(new Tuple<>("name", header.getName()));
+			if (header.getDescription() != null) attributes.add(new Tuple<>("desc", header.getDescription()));
+			attributes.add(new Tuple<>("year", Integer.toString(header.getYear())));
+			writeStartTag("counts", attributes);
+
+			while (counts.hasNext()) {
+				writeCount(counts.next());
+			}
+			writeEndTag("counts");
+		} finally {
+			close();
+		}
+	}
+
+	private void writeCount(Count<T> count) {
+		List<Tuple<String, String>> attributes = new ArrayList<>();
+		attributes.add(new Tuple<>("loc_id", count.getId().toString()));
+		attributes.add(new Tuple<>("cs_id", count.getCsLabel()));
+		if (count.getCoord() != null) {
+			attributes.add(new Tuple<>("x", Double.toString(count.getCoord().getX())));
+			attributes.add(new Tuple<>("y", Double.toString(count.getCoord().getY())));
+		}
+		writeStartTag("count", attributes);
+		for (Volume volume : count.getVolumes().values()) {
+			List<Tuple<String, String>> volumeAttributes = new ArrayList<>();
+			volumeAttributes.add(new Tuple<>("h", Integer.toString(volume.getHourOfDayStartingWithOne())));
+			volumeAttributes.add(new Tuple<>("val", Double.toString(volume.getValue())));
+			writeStartTag("volume", volumeAttributes, true);
+		}
+		writeEndTag("count");
+	}
+}
@@ -0,0 +1,554 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.counts.Count;
+import org.matsim.counts.Counts;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the hourly volumes of every long term counting station, so that counts for another period or other week days
+ * can be created without parsing the count files again. There is one file per station, named like its count files,
+ * with a fixed layout: a header, followed by one float slot per year, day of the year, hour, direction and vehicle type
+ * of the store
+ * <pre>
+ *     slot = (((year - firstYear) * 366 + dayOfYear - 1) * 24 + hour - 1) * 2 + direction - 1) * numberOfVehicleTypes + vehicleType
+ * </pre>
+ * with the hour from 1 to 24 like in the count files. Hour 0 is stored as hour 24, like in {@link HourlyCountData}.
+ * Slots without valid data are NaN. The files are memory mapped, so a query only reads the days it asks for. The
+ * mappings are released as soon as a station is filled or aggregated.
+ * <p>
+ * The volume of a vehicle type is the sum of all lanes of a direction. Rows which were edited after investigation are
+ * left out, like in the counts creator. Hours rejected by a screening are not applied to the store.
+ * <p>
+ * For every year the header holds a fingerprint of the count files (path, size and last modification) which were
+ * read into it. Years whose files did not change are not read again. If the years or vehicle types of the store
+ * change, the station files are created anew.
+ */
+public final class CountsTimeSeriesStore {
+
+	private static final Logger log = Logger.getLogger(CountsTimeSeriesStore.class.getName());
+
+	private static final int MAGIC = 0x4e54534d;
+	private static final int VERSION = 1;
+	private static final int DAYS = 366;
+	private static final int HOURS = 24;
+	private static final int DIRECTIONS = 2;
+	private static final String FILE_SUFFIX = ".ts";
+
+	private final Path directory;
+	private final int firstYear;
+	private final int lastYear;
+	private final List<String> vehicleTypes;
+
+	/**
+	 * @param vehicleTypes vehicle types as named in the third header line of the count files, e.g. Pkw or SV
+	 */
+	CountsTimeSeriesStore(Path directory, int firstYear, int lastYear, Collection<String> vehicleTypes) {
+		this.directory = directory;
+		this.firstYear = firstYear;
+		this.lastYear = lastYear;
+		this.vehicleTypes = new ArrayList<>(vehicleTypes);
+	}
+
+	public int getFirstYear() {
+		return firstYear;
+	}
+
+	public int getLastYear() {
+		return lastYear;
+	}
+
+	public List<String> getVehicleTypes() {
+		return Collections.unmodifiableList(vehicleTypes);
+	}
+
+	/**
+	 * Reads the count files into the store. The files of one station are read by the same thread, different stations
+	 * in parallel.
+	 *
+	 * @param countFilesPerStationYear the count files of every station, grouped per year, e.g. the months of the year
+	 * @param rawCountsCache cache to read the count files from or null to parse them
+	 */
+	void fill(Map<Integer, List<List<File>>> countFilesPerStationYear, RawCountsCache rawCountsCache, int numberOfThreads) {
+		// the files of one station are named alike in every year
+		Map<String, Map<Integer, List<File>>> countFilesPerStation = new TreeMap<>();
+		countFilesPerStationYear.forEach((year, countFilesOfYear) -> {
+			if (year < firstYear || year > lastYear) return;
+			for (List<File> countFiles : countFilesOfYear) {
+				if (countFiles.isEmpty()) continue;
+				countFilesPerStation.computeIfAbsent(countFiles.get(0).getName(), name -> new TreeMap<>()).put(year, countFiles);
+			}
+		});
+
+		ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		try {
+			long readYears = pool.submit(() -> countFilesPerStation.values().parallelStream()
+					.mapToLong(countFilesPerYear -> fillStation(countFilesPerYear, rawCountsCache))
+					.sum()
+			).get();
+			log.info("read " + readYears + " station years into the time series store " + directory + ". Other station years were up to date.");
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Error while filling the time series store " + directory, e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return number of years which were read
+	 */
+	private long fillStation(Map<Integer, List<File>> countFilesPerYear, RawCountsCache rawCountsCache) {
+		String station = getStationName(countFilesPerYear.values().iterator().next().get(0));
+		StationFile stationFile;
+		try {
+			stationFile = open(station);
+		} catch (IOException e) {
+			log.warning("could not open the station file of " + station + " in the time series store. Error message: " + e.getMessage());
+			return 0;
+		}
+		long readYears = 0;
+		try {
+			for (Map.Entry<Integer, List<File>> year : countFilesPerYear.entrySet()) {
+				long fingerprint = createFingerprint(year.getValue());
+				// the fingerprint is compared before the count files are opened, so that unchanged years cost nothing
+				if (stationFile != null && stationFile.getFingerprint(year.getKey()) == fingerprint) continue;
+				boolean cleared = false;
+				boolean complete = true;
+				for (File countFile : year.getValue()) {
+					try {
+						BastRecordSource source = rawCountsCache != null ? rawCountsCache.open(countFile.toPath()) : BastRecordScanner.open(countFile.toPath());
+						if (stationFile == null) {
+							stationFile = create(station, source.getHeaderOne());
+						}
+						if (!cleared) {
+							// the data of the year is replaced completely, so that removed rows don't remain
+							stationFile.clear(year.getKey());
+							cleared = true;
+							readYears++;
+						}
+						read(source, year.getKey(), stationFile);
+					} catch (IOException | RuntimeException e) {
+						log.warning("could not read " + countFile.getAbsolutePath() + " into the time series store. Error message: " + e.getMessage());
+						complete = false;
+					}
+				}
+				// a year with unreadable files is read again in the next run
+				if (stationFile != null && complete) {
+					stationFile.setFingerprint(year.getKey(), fingerprint);
+				}
+			}
+			if (stationFile != null) {
+				stationFile.force();
+			}
+		} finally {
+			if (stationFile != null) {
+				stationFile.close();
+			}
+		}
+		return readYears;
+	}
+
+	private static String getStationName(File countFile) {
+		String name = countFile.getName();
+		int extension = name.lastIndexOf('.');
+		return extension < 0 ? name : name.substring(0, extension);
+	}
+
+	private void read(BastRecordSource source, int year, StationFile stationFile) {
+		int nrOfLanesDir1 = Integer.parseInt(source.getHeaderTwo().substring(1, 3));
+		int nrOfLanesDir2 = Integer.parseInt(source.getHeaderTwo().substring(4, 6));
+		int nrOfVehicleGroups = Integer.parseInt(source.getHeaderThree().substring(1, 3));
+		int nrOfVehicleTypes = Integer.parseInt(source.getHeaderThree().substring(4, 6));
+
+		// every vehicle type of the store is compiled as a combination of its own
+		Map<String, String[]> singleTypes = new LinkedHashMap<>();
+		for (String vehicleType : vehicleTypes) {
+			singleTypes.put(vehicleType, new String[]{vehicleType});
+		}
+		IngestPlan plan = IngestPlan.compile(source.getHeaderThree(), nrOfLanesDir1, nrOfLanesDir2, nrOfVehicleGroups, nrOfVehicleTypes,
+				singleTypes.keySet(), singleTypes);
+		int[] typeOfStore = new int[plan.getNumberOfCombinations()];
+		int[] typeOfPlan = new int[plan.getNumberOfCombinations()];
+		for (int c = 0; c < plan.getNumberOfCombinations(); c++) {
+			typeOfStore[c] = vehicleTypes.indexOf(plan.getCombination(c));
+			typeOfPlan[c] = plan.getVehicleTypesOfCombination(c)[0];
+		}
+
+		while (source.next()) {
+			if (source.getEditFlag() == 'i') continue;
+			int dayOfYear = AnalysisCalendar.getDayOfYear(year, source.getMonth(), source.getDayOfMonth());
+			// hour 0 is the same as hour 24, otherwise it would overwrite the previous day
+			int hour = source.getHour() == 0 ? HOURS : source.getHour();
+			for (int c = 0; c < typeOfStore.length; c++) {
+				int v = typeOfPlan[c];
+				stationFile.set(year, dayOfYear, hour, 1, typeOfStore[c],
+						readVolume(source, plan.getBaseColumnDir1(v), plan.getNrOfLanesDir1(), plan.getJumpLength(v)));
+				stationFile.set(year, dayOfYear, hour, 2, typeOfStore[c],
+						readVolume(source, plan.getBaseColumnDir2(v), plan.getNrOfLanesDir2(), plan.getJumpLength(v)));
+			}
+		}
+	}
+
+	/**
+	 * @return the sum of all lanes or NaN if one of the lanes is not valid
+	 */
+	private static double readVolume(BastRecordSource source, int baseColumn, int nrOfLanes, int jumpLength) {
+		double volume = 0;
+		for (int lane = 0; lane < nrOfLanes; lane++) {
+			volume += source.getVolume(baseColumn + lane * jumpLength);
+		}
+		return volume;
+	}
+
+	/**
+	 * @return hash of the paths, sizes and modification times of the count files
+	 */
+	static long createFingerprint(List<File> countFiles) {
+		long fingerprint = 17;
+		for (File countFile : countFiles) {
+			fingerprint = 31 * fingerprint + countFile.getAbsolutePath().hashCode();
+			fingerprint = 31 * fingerprint + countFile.length();
+			fingerprint = 31 * fingerprint + countFile.lastModified();
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Averages the volumes of every station per hour and direction over all days within the period, whose day of the
+	 * week is one of the given ones. An hour is only taken into account on days on which all vehicle types of the
+	 * combination have a valid volume. Hours without any valid volume get a volume of -1, like in the counts creator.
+	 * Stations without any valid volume in the period are left out.
+	 *
+	 * @param columnCombination vehicle types which are summed up, separated by ';', e.g. "Pkw;Mot"
+	 * @param linkIds links of the stations, keyed by the station id and direction, e.g. NW_5101_R1. Directions without
+	 *                a link are left out
+	 */
+	public Counts<Link> aggregate(LocalDate firstDay, LocalDate lastDay, Set<DayOfWeek> weekDays, String columnCombination,
+								  Map<String, Id<Link>> linkIds) {
+		int[] typesOfCombination = Arrays.stream(columnCombination.split(";")).mapToInt(vehicleType -> {
+			int index = vehicleTypes.indexOf(vehicleType);
+			if (index < 0) throw new IllegalArgumentException("vehicle type " + vehicleType + " is not part of the store. Vehicle types are " + vehicleTypes);
+			return index;
+		}).toArray();
+
+		Counts<Link> counts = new Counts<>();
+		counts.setDescription("--Nemo long period count data-- start date: " + firstDay + " end date: " + lastDay
+				+ " week days: " + new TreeSet<>(weekDays) + " vehicle types: " + columnCombination);
+		counts.setYear(lastDay.getYear());
+
+		for (Path file : listStationFiles()) {
+			StationFile stationFile;
+			try {
+				stationFile = StationFile.open(file, false);
+			} catch (IOException e) {
+				throw new UncheckedIOException("could not open " + file, e);
+			}
+			try {
+				if (!stationFile.hasLayout(firstYear, lastYear, vehicleTypes)) {
+					log.warning(file + " has a different layout than the store and is skipped");
+					continue;
+				}
+				aggregate(stationFile, firstDay, lastDay, weekDays, typesOfCombination, linkIds, counts);
+			} finally {
+				stationFile.close();
+			}
+		}
+		return counts;
+	}
+
+	private void aggregate(StationFile stationFile, LocalDate firstDay, LocalDate lastDay, Set<DayOfWeek> weekDays,
+						   int[] typesOfCombination, Map<String, Id<Link>> linkIds, Counts<Link> counts) {
+		double[][] sums = new double[DIRECTIONS][HOURS];
+		int[][] numberOfDays = new int[DIRECTIONS][HOURS];
+		LocalDate first = firstDay.getYear() < firstYear ? LocalDate.of(firstYear, 1, 1) : firstDay;
+		LocalDate last = lastDay.getYear() > lastYear ? LocalDate.of(lastYear, 12, 31) : lastDay;
+		for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+			if (!weekDays.contains(day.getDayOfWeek())) continue;
+			for (int direction = 1; direction <= DIRECTIONS; direction++) {
+				for (int hour = 1; hour <= HOURS; hour++) {
+					double volume = 0;
+					for (int vehicleType : typesOfCombination) {
+						volume += stationFile.get(day.getYear(), day.getDayOfYear(), hour, direction, vehicleType);
+					}
+					if (!Double.isNaN(volume)) {
+						sums[direction - 1][hour - 1] += volume;
+						numberOfDays[direction - 1][hour - 1]++;
+					}
+				}
+			}
+		}
+
+		for (int direction = 1; direction <= DIRECTIONS; direction++) {
+			Id<Link> linkId = linkIds.get(stationFile.getStationId() + "_R" + direction);
+			if (linkId == null || Arrays.stream(numberOfDays[direction - 1]).allMatch(n -> n == 0)) continue;
+
+			Count<Link> count = counts.createAndAddCount(linkId, stationFile.getName() + "_R" + direction);
+			if (count == null) {
+				log.warning("link " + linkId + " of station " + stationFile.getStationId() + " has already got a count. Direction " + direction + " is skipped.");
+				continue;
+			}
+			for (int hour = 1; hour <= HOURS; hour++) {
+				int n = numberOfDays[direction - 1][hour - 1];
+				count.createVolume(hour, n == 0 ? -1. : Math.ceil(sums[direction - 1][hour - 1] / n));
+			}
+		}
+	}
+
+	private List<Path> listStationFiles() {
+		List<Path> files = new ArrayList<>();
+		if (!Files.isDirectory(directory)) return files;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+			stream.forEach(files::add);
+		} catch (IOException e) {
+			throw new UncheckedIOException("could not list the station files of " + directory, e);
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * @param station name of the count files of the station, without the extension
+	 * @return the station file if it exists and has the layout of the store, otherwise null
+	 */
+	private StationFile open(String station) throws IOException {
+		Path file = directory.resolve(station + FILE_SUFFIX);
+		if (!Files.exists(file)) return null;
+		StationFile stationFile = StationFile.open(file, true);
+		if (stationFile.hasLayout(firstYear, lastYear, vehicleTypes)) {
+			return stationFile;
+		}
+		log.info("layout of " + file + " changed. Creating it anew.");
+		// the file is deleted before it is created anew, which requires it not to be mapped anymore
+		stationFile.close();
+		return null;
+	}
+
+	private StationFile create(String station, String headerOne) throws IOException {
+		String countId = headerOne.substring(5, 9);
+		String streetId = headerOne.substring(13, 20).replaceAll("\\s", "");
+		String name = headerOne.substring(21, Math.min(46, headerOne.length())).replaceAll("\\s", "");
+		Files.createDirectories(directory);
+		return StationFile.create(directory.resolve(station + FILE_SUFFIX), "NW_" + countId, countId + "_" + name + "_" + streetId,
+				firstYear, lastYear, vehicleTypes);
+	}
+
+	/**
+	 * The mapped file of one station. The mapping must not be used after {@link #close()}.
+	 */
+	private static final class StationFile implements Closeable {
+
+		private static final Method INVOKE_CLEANER = findInvokeCleaner();
+		private static final Object UNSAFE = findUnsafe();
+
+		private final MappedByteBuffer buffer;
+		private final String stationId;
+		private final String name;
+		private final int firstYear;
+		private final int numberOfYears;
+		private final List<String> vehicleTypes;
+		private final int fingerprintsStart;
+		private final int dataStart;
+
+		private StationFile(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+			ByteBuffer header = buffer.duplicate();
+			header.position(0);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IllegalStateException("not a station file of the time series store");
+			}
+			this.dataStart = header.getInt();
+			this.stationId = getString(header);
+			this.name = getString(header);
+			this.firstYear = header.getInt();
+			this.numberOfYears = header.getInt();
+			int numberOfVehicleTypes = header.getInt();
+			this.vehicleTypes = new ArrayList<>();
+			for (int i = 0; i < numberOfVehicleTypes; i++) {
+				vehicleTypes.add(getString(header));
+			}
+			this.fingerprintsStart = header.position();
+		}
+
+		static StationFile open(Path file, boolean writable) throws IOException {
+			try (FileChannel channel = writable
+					? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+					: FileChannel.open(file, StandardOpenOption.READ)) {
+				// the mapping stays valid after the channel is closed
+				return new StationFile(channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+		}
+
+		static StationFile create(Path file, String stationId, String name, int firstYear, int lastYear, List<String> vehicleTypes) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream header = new DataOutputStream(bytes);
+			putString(header, stationId);
+			putString(header, name);
+			header.writeInt(firstYear);
+			header.writeInt(lastYear - firstYear + 1);
+			header.writeInt(vehicleTypes.size());
+			for (String vehicleType : vehicleTypes) {
+				putString(header, vehicleType);
+			}
+			header.close();
+
+			int fingerprintsStart = 3 * Integer.BYTES + bytes.size();
+			int dataStart = fingerprintsStart + (lastYear - firstYear + 1) * Long.BYTES;
+			long size = dataStart + (long) (lastYear - firstYear + 1) * DAYS * HOURS * DIRECTIONS * vehicleTypes.size() * Float.BYTES;
+			if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("too many years or vehicle types for one station file");
+
+			Files.deleteIfExists(file);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				buffer.putInt(MAGIC);
+				buffer.putInt(VERSION);
+				buffer.putInt(dataStart);
+				buffer.put(bytes.toByteArray());
+				StationFile stationFile = new StationFile(buffer);
+				for (int year = firstYear; year <= lastYear; year++) {
+					stationFile.clear(year);
+				}
+				return stationFile;
+			}
+		}
+
+		boolean hasLayout(int firstYear, int lastYear, List<String> vehicleTypes) {
+			return this.firstYear == firstYear && this.numberOfYears == lastYear - firstYear + 1 && this.vehicleTypes.equals(vehicleTypes);
+		}
+
+		String getStationId() {
+			return stationId;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		long getFingerprint(int year) {
+			return buffer.getLong(fingerprintsStart + (year - firstYear) * Long.BYTES);
+		}
+
+		void setFingerprint(int year, long fingerprint) {
+			buffer.putLong(fingerprintsStart + (year - firstYear) * Long.BYTES, fingerprint);
+		}
+
+		/**
+		 * Sets all volumes of the year to NaN and resets its fingerprint.
+		 */
+		void clear(int year) {
+			int yearLength = DAYS * HOURS * DIRECTIONS * vehicleTypes.size();
+			int start = dataStart + (year - firstYear) * yearLength * Float.BYTES;
+			for (int slot = 0; slot < yearLength; slot++) {
+				buffer.putFloat(start + slot * Float.BYTES, Float.NaN);
+			}
+			setFingerprint(year, 0);
+		}
+
+		/**
+		 * @return the volume or NaN if there is no valid volume
+		 */
+		double get(int year, int dayOfYear, int hour, int direction, int vehicleType) {
+			return buffer.getFloat(getPosition(year, dayOfYear, hour, direction, vehicleType));
+		}
+
+		void set(int year, int dayOfYear, int hour, int direction, int vehicleType, double volume) {
+			buffer.putFloat(getPosition(year, dayOfYear, hour, direction, vehicleType), (float) volume);
+		}
+
+		private int getPosition(int year, int dayOfYear, int hour, int direction, int vehicleType) {
+			int slot = ((((year - firstYear) * DAYS + dayOfYear - 1) * HOURS + hour - 1) * DIRECTIONS + direction - 1) * vehicleTypes.size() + vehicleType;
+			return dataStart + slot * Float.BYTES;
+		}
+
+		void force() {
+			buffer.force();
+		}
+
+		/**
+		 * Releases the mapping right away instead of waiting for the garbage collector, so that the file can be deleted
+		 * and opened again, e.g. on Windows.
+		 */
+		@Override
+		public void close() {
+			if (INVOKE_CLEANER == null || UNSAFE == null) return;
+			try {
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			} catch (ReflectiveOperationException e) {
+				log.fine("could not release the mapping of a station file. Error message: " + e.getMessage());
+			}
+		}
+
+		private static Object findUnsafe() {
+			try {
+				Field theUnsafe = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				return theUnsafe.get(null);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * @return Unsafe.invokeCleaner or null if it is not available. The mappings are released by the garbage collector then
+		 */
+		private static Method findInvokeCleaner() {
+			try {
+				return Class.forName("sun.misc.Unsafe").getMethod("invokeCleaner", ByteBuffer.class);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return null;
+			}
+		}
+
+		private static void putString(DataOutputStream out, String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		private static String getString(ByteBuffer buffer) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
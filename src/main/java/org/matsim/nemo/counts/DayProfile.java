@@ -0,0 +1,85 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A type of day, e.g. working days or Sundays, for which separate counts are created. Each row of the count data is
+ * assigned to every profile which contains its date, so that all profiles are filled while reading the data once.
+ * <p>
+ * The name identifies the profile. It is used in the output and to decide whether stored data of an incremental update
+ * can be reused, so two profiles with different days must have different names.
+ */
+public final class DayProfile {
+
+	private final String name;
+	private final Predicate<LocalDate> days;
+
+	/**
+	 * @param name unique name of the profile
+	 * @param days the days which belong to the profile, e.g. from a custom calendar
+	 */
+	public DayProfile(String name, Predicate<LocalDate> days) {
+		this.name = name;
+		this.days = days;
+	}
+
+	/**
+	 * @return Monday to Friday, except holidays
+	 */
+	public static DayProfile weekdays(Collection<LocalDate> holidays) {
+		Set<LocalDate> holidaySet = new HashSet<>(holidays);
+		return new DayProfile("weekday", day -> day.getDayOfWeek().getValue() <= DayOfWeek.FRIDAY.getValue() && !holidaySet.contains(day));
+	}
+
+	/**
+	 * @return Saturdays, except holidays
+	 */
+	public static DayProfile saturdays(Collection<LocalDate> holidays) {
+		Set<LocalDate> holidaySet = new HashSet<>(holidays);
+		return new DayProfile("saturday", day -> day.getDayOfWeek() == DayOfWeek.SATURDAY && !holidaySet.contains(day));
+	}
+
+	/**
+	 * @return Sundays and holidays
+	 */
+	public static DayProfile sundaysAndHolidays(Collection<LocalDate> holidays) {
+		Set<LocalDate> holidaySet = new HashSet<>(holidays);
+		return new DayProfile("sundayHoliday", day -> day.getDayOfWeek() == DayOfWeek.SUNDAY || holidaySet.contains(day));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean contains(LocalDate day) {
+		return days.test(day);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -1,40 +1,85 @@
-
 package org.matsim.nemo.counts;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
+ * Aggregates the hourly volumes of one counting station for both directions. For every hour and direction the number
+ * of observations, the sum of the observed volumes and the sum of squared deviations from the mean (Welford's online
+ * algorithm) are kept in fixed size arrays, so adding a volume does not allocate anything.
+ * <p>
+ * The mean is derived from the sum instead of being updated incrementally. Since the observed volumes are vehicle
+ * counts, i.e. whole numbers, the sums are exact and partial results can be merged in any order without changing
+ * the mean.
+ * <p>
+ * Optionally, a {@link QuantileSketch} is filled per hour and direction in the same pass, which allows to derive the
+ * median or other percentiles of the volumes, e.g. to be less sensitive to outliers than the mean. The memory of a
+ * sketch is bounded, independent of the number of years which are read.
+ * <p>
+ * Partial results, e.g. of one count file read by another thread, may keep the added volumes in their order. Merging
+ * such a partial result adds its volumes one by one, so that the mean, the standard deviation and the quantile sketches
+ * are exactly the same as if all volumes had been added to one object.
+ * <p>
+ * Hours may either be given as 0-23 or as 1-24. Hour 24 and hour 0 share the same slot, so a single instance must
+ * only be fed with one of both conventions.
+ *
  * @author tschlenther
  */
 public class HourlyCountData{
-	
+
+	private static final int HOURS = 24;
+	private static final int DIRECTION_ONE = 0;
+	private static final int DIRECTION_TWO = 1;
+
 	private String id;
 	private Day representedDay;
-	
-	private Map<Integer,Integer> R1Divisors;
-	private Map<Integer,Integer> R2Divisors;
-	private HashMap<Integer,Double> R1VolumesPerHour;
-	private HashMap<Integer,Double> R2VolumesPerHour;
 
+	private final long[][] divisors = new long[2][HOURS];
+	private final double[][] sums = new double[2][HOURS];
+	private final double[][] squaredDeviations = new double[2][HOURS];
+	private final QuantileSketch[][] sketches;
+	private double[][][] addedValues;
+	private final int[][] numberOfAddedValues;
 
 	HourlyCountData(String id, Day representedDay) {
-		this.id = id;
-		this.representedDay = representedDay;
-		this.R1VolumesPerHour = new HashMap<>();
-		this.R2VolumesPerHour = new HashMap<>();
-		this.R1Divisors = new HashMap<>();
-		this.R2Divisors = new HashMap<>();
+		this(id, representedDay, false);
 	}
 
-	Map<Integer, Double> getR1Values() {
-		return this.R1VolumesPerHour;
+	/**
+	 * @param withQuantiles whether a quantile sketch is kept for every hour and direction
+	 */
+	HourlyCountData(String id, Day representedDay, boolean withQuantiles) {
+		this(id, representedDay, withQuantiles, false);
 	}
 
-	Map<Integer, Double> getR2Values() {
-		return this.R2VolumesPerHour;
+	/**
+	 * @param withQuantiles whether a quantile sketch is kept for every hour and direction
+	 * @param keepAddedValues whether the added volumes are kept for {@link #merge(HourlyCountData)}
+	 */
+	HourlyCountData(String id, Day representedDay, boolean withQuantiles, boolean keepAddedValues) {
+		this.id = id;
+		this.representedDay = representedDay;
+		if (withQuantiles) {
+			this.sketches = new QuantileSketch[2][HOURS];
+			for (QuantileSketch[] sketchesOfDirection : sketches) {
+				for (int slot = 0; slot < HOURS; slot++) {
+					sketchesOfDirection[slot] = new QuantileSketch();
+				}
+			}
+		} else {
+			this.sketches = null;
+		}
+		if (keepAddedValues) {
+			// about one value per day of a month
+			this.addedValues = new double[2][HOURS][32];
+			this.numberOfAddedValues = new int[2][HOURS];
+		} else {
+			this.addedValues = null;
+			this.numberOfAddedValues = null;
+		}
 	}
-	
 
 	public String getId() {
 		return this.id;
@@ -45,53 +90,194 @@ public class HourlyCountData{
 	}
 
 	void computeAndSetVolume(boolean direction1, int hour, double value) {
-		if(direction1){
-			Integer divisor = this.R1Divisors.get(hour); 
-			if(divisor != null){
-				Double volume = this.R1VolumesPerHour.get(hour); 
-				volume = ( ((volume * divisor) + value)  / (divisor+1) );
-				divisor ++;
-				this.R1Divisors.put(hour, divisor);
-				this.R1VolumesPerHour.put(hour,volume);
+		int direction = direction1 ? DIRECTION_ONE : DIRECTION_TWO;
+		int slot = hour % HOURS;
+
+		long divisor = divisors[direction][slot];
+		double deltaToOldMean = divisor == 0 ? 0 : value - sums[direction][slot] / divisor;
+
+		divisors[direction][slot] = divisor + 1;
+		sums[direction][slot] += value;
+		squaredDeviations[direction][slot] += deltaToOldMean * (value - sums[direction][slot] / (divisor + 1));
+		if (sketches != null) {
+			sketches[direction][slot].add(value);
+		}
+		if (addedValues != null) {
+			int n = numberOfAddedValues[direction][slot];
+			if (n == addedValues[direction][slot].length) {
+				addedValues[direction][slot] = Arrays.copyOf(addedValues[direction][slot], 2 * n);
 			}
-			else{
-				this.R1Divisors.put(hour, 1);
-				this.R1VolumesPerHour.put(hour, value);
+			addedValues[direction][slot][n] = value;
+			numberOfAddedValues[direction][slot] = n + 1;
+		}
+	}
+
+	/**
+	 * Adds all observations of the other object to this one. The id of this object is kept. If the other object kept
+	 * its added volumes, they are added one by one in their order. Otherwise, the squared deviations are combined with
+	 * the pairwise formula of Chan et al. and quantile sketches are merged if both objects keep them, which only
+	 * approximates adding the volumes one by one.
+	 */
+	void merge(HourlyCountData other) {
+		if (other.addedValues != null) {
+			for (int direction = 0; direction < 2; direction++) {
+				for (int slot = 0; slot < HOURS; slot++) {
+					for (int i = 0; i < other.numberOfAddedValues[direction][slot]; i++) {
+						computeAndSetVolume(direction == DIRECTION_ONE, slot, other.addedValues[direction][slot][i]);
+					}
+				}
 			}
+			return;
 		}
-		else{
-			Integer divisor = this.R2Divisors.get(hour); 
-			if(divisor != null){
-				Double volume = this.R2VolumesPerHour.get(hour); 
-				volume = ( ((volume*divisor) + value)  / (divisor+1) );
-				divisor ++;
-				this.R2Divisors.put(hour, divisor);
-				this.R2VolumesPerHour.put(hour,volume);
+		if (sketches != null && other.sketches != null) {
+			for (int direction = 0; direction < 2; direction++) {
+				for (int slot = 0; slot < HOURS; slot++) {
+					sketches[direction][slot].merge(other.sketches[direction][slot]);
+				}
 			}
-			else{
-				this.R2Divisors.put(hour, 1);
-				this.R2VolumesPerHour.put(hour, value);
+		}
+		for (int direction = 0; direction < 2; direction++) {
+			for (int slot = 0; slot < HOURS; slot++) {
+				long otherDivisor = other.divisors[direction][slot];
+				if (otherDivisor == 0) continue;
+
+				long divisor = divisors[direction][slot];
+				long combinedDivisor = divisor + otherDivisor;
+				if (divisor > 0) {
+					double delta = other.sums[direction][slot] / otherDivisor - sums[direction][slot] / divisor;
+					squaredDeviations[direction][slot] += other.squaredDeviations[direction][slot]
+							+ delta * delta * divisor * otherDivisor / combinedDivisor;
+				} else {
+					squaredDeviations[direction][slot] = other.squaredDeviations[direction][slot];
+				}
+				sums[direction][slot] += other.sums[direction][slot];
+				divisors[direction][slot] = combinedDivisor;
 			}
 		}
 	}
-	
-	
+
+	/**
+	 * Stops keeping the added volumes, e.g. once a partial result becomes the final result of a station.
+	 */
+	void discardAddedValues() {
+		addedValues = null;
+	}
+
+	/**
+	 * @return whether at least one volume was added for this hour and direction
+	 */
+	boolean hasVolume(boolean direction1, int hour) {
+		return getNumberOfObservations(direction1, hour) > 0;
+	}
+
+	long getNumberOfObservations(boolean direction1, int hour) {
+		return divisors[direction1 ? DIRECTION_ONE : DIRECTION_TWO][hour % HOURS];
+	}
+
+	/**
+	 * @return the average volume of this hour and direction or NaN if no volume was added
+	 */
+	double getAverageVolume(boolean direction1, int hour) {
+		int direction = direction1 ? DIRECTION_ONE : DIRECTION_TWO;
+		int slot = hour % HOURS;
+		return divisors[direction][slot] == 0 ? Double.NaN : sums[direction][slot] / divisors[direction][slot];
+	}
+
+	/**
+	 * @return the sample standard deviation of the volumes of this hour and direction or NaN if less than two volumes
+	 * were added
+	 */
+	double getStandardDeviation(boolean direction1, int hour) {
+		int direction = direction1 ? DIRECTION_ONE : DIRECTION_TWO;
+		int slot = hour % HOURS;
+		long divisor = divisors[direction][slot];
+		return divisor < 2 ? Double.NaN : Math.sqrt(squaredDeviations[direction][slot] / (divisor - 1));
+	}
+
+	/**
+	 * @param q quantile between 0 and 1, e.g. 0.5 for the median
+	 * @return the estimated quantile of the volumes of this hour and direction or NaN if no volume was added
+	 * @throws IllegalStateException if this object keeps no quantile sketches
+	 */
+	double getQuantile(boolean direction1, int hour, double q) {
+		if (sketches == null) throw new IllegalStateException("no quantiles are kept for station " + id);
+		return sketches[direction1 ? DIRECTION_ONE : DIRECTION_TWO][hour % HOURS].getQuantile(q);
+	}
+
+	boolean hasQuantiles() {
+		return sketches != null;
+	}
+
+	/**
+	 * Writes the complete aggregation state, so that more observations can be added after {@link #read(DataInput)}.
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeUTF(id);
+		out.writeUTF(representedDay == null ? "" : representedDay.name());
+		for (int direction = 0; direction < 2; direction++) {
+			for (int slot = 0; slot < HOURS; slot++) {
+				out.writeLong(divisors[direction][slot]);
+				out.writeDouble(sums[direction][slot]);
+				out.writeDouble(squaredDeviations[direction][slot]);
+			}
+		}
+		out.writeBoolean(sketches != null);
+		if (sketches != null) {
+			for (QuantileSketch[] sketchesOfDirection : sketches) {
+				for (QuantileSketch sketch : sketchesOfDirection) {
+					sketch.write(out);
+				}
+			}
+		}
+	}
+
+	static HourlyCountData read(DataInput in) throws IOException {
+		String id = in.readUTF();
+		String representedDay = in.readUTF();
+		long[][] divisors = new long[2][HOURS];
+		double[][] sums = new double[2][HOURS];
+		double[][] squaredDeviations = new double[2][HOURS];
+		for (int direction = 0; direction < 2; direction++) {
+			for (int slot = 0; slot < HOURS; slot++) {
+				divisors[direction][slot] = in.readLong();
+				sums[direction][slot] = in.readDouble();
+				squaredDeviations[direction][slot] = in.readDouble();
+			}
+		}
+		boolean withQuantiles = in.readBoolean();
+
+		HourlyCountData data = new HourlyCountData(id, representedDay.isEmpty() ? null : Day.valueOf(representedDay), withQuantiles);
+		for (int direction = 0; direction < 2; direction++) {
+			System.arraycopy(divisors[direction], 0, data.divisors[direction], 0, HOURS);
+			System.arraycopy(sums[direction], 0, data.sums[direction], 0, HOURS);
+			System.arraycopy(squaredDeviations[direction], 0, data.squaredDeviations[direction], 0, HOURS);
+			if (withQuantiles) {
+				for (int slot = 0; slot < HOURS; slot++) {
+					data.sketches[direction][slot] = QuantileSketch.read(in, QuantileSketch.DEFAULT_COMPRESSION);
+				}
+			}
+		}
+		return data;
+	}
+
 	protected enum Day{
 		WEEKDAY, WEEKEND
 	}
-	
+
 	@Override
 	public String toString(){
 		StringBuilder str = new StringBuilder("Zählstelle:\t" + this.id + "\n - RICHTUNG 1 - : \n");
-		for(Integer hour : this.R1VolumesPerHour.keySet()){
-			str.append("Std ").append(hour).append("\t").append(this.R1VolumesPerHour.get(hour)).append("\n");
-		}
+		appendVolumes(str, true);
 		str.append("\n -RICHTUNG 2 : \n");
-		for(Integer hour : this.R2VolumesPerHour.keySet()){
-			str.append("Std ").append(hour).append("\t").append(this.R2VolumesPerHour.get(hour)).append("\n");
-		}
+		appendVolumes(str, false);
 		return str.toString();
 	}
-	
-	
+
+	private void appendVolumes(StringBuilder str, boolean direction1) {
+		for (int hour = 0; hour < HOURS; hour++) {
+			if (hasVolume(direction1, hour)) {
+				str.append("Std ").append(hour).append("\t").append(getAverageVolume(direction1, hour)).append("\n");
+			}
+		}
+	}
 }
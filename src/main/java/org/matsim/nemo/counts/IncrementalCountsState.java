@@ -0,0 +1,258 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+
+/**
+ * Persists the aggregated data of the long term counts creator together with the list of count files which are
+ * contained in it. The next run loads the aggregated data and only reads the count files which were added since, e.g.
+ * a new month of data. The result is the same as reading all files again, since {@link HourlyCountData} can be merged.
+ * <p>
+ * The state is discarded and all files are read again if
+ * <ul>
+ *     <li>the settings of the counts creator changed (column combinations, first day, week days, ignored dates, ...)</li>
+ *     <li>one of the already read count files was changed or removed</li>
+ *     <li>the last day of analysis moved backwards, or moved forward from a day which is not the last day of a month.
+ *     Otherwise a month would be partially contained in the state</li>
+ * </ul>
+ * Count files which were not read completely, because they contain rows after the last day of analysis, are read
+ * again once the last day of analysis moves forward.
+ * <p>
+ * The rejected hours of the screening are not part of the settings, as a new month of data usually brings new
+ * rejections. Instead, the state keeps a fingerprint of the rejected hours of every station. The data of stations whose
+ * rejected hours changed is removed from the state, and all their count files are read again.
+ */
+final class IncrementalCountsState {
+
+	private static final Logger log = Logger.getLogger(IncrementalCountsState.class.getName());
+
+	private static final int MAGIC = 0x4e436e74;
+	private static final int VERSION = 3;
+
+	private final Path stateFile;
+	private final Map<String, ProcessedFile> processedFiles = new ConcurrentHashMap<>();
+
+	IncrementalCountsState(Path stateFile) {
+		this.stateFile = stateFile;
+	}
+
+	/**
+	 * Loads the state from disk, if it exists and matches the current settings.
+	 *
+	 * @param settings fingerprint of all settings which influence the aggregation
+	 * @param stationsData aggregated data per column combination, which is filled with the stored data
+	 * @param stationNames name of the last month directory per station, which is filled with the stored names
+	 * @param rejectionFingerprints current fingerprint of the rejected hours per station, see
+	 *                              {@link RejectionList#getFingerprint(String)}
+	 * @return whether a state was loaded
+	 */
+	boolean load(String settings, LocalDate lastDayOfAnalysis, Map<String, Map<String, HourlyCountData>> stationsData,
+				 Map<String, String> stationNames, ToLongFunction<String> rejectionFingerprints) {
+
+		processedFiles.clear();
+		if (Files.notExists(stateFile)) {
+			log.info("no counts state at " + stateFile + ". Reading all count files.");
+			return false;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.warning("counts state at " + stateFile + " has an unknown format. Reading all count files.");
+				return false;
+			}
+			if (!settings.equals(in.readUTF())) {
+				log.info("settings changed since the counts state was written. Reading all count files.");
+				return false;
+			}
+
+			LocalDate storedLastDay = LocalDate.ofEpochDay(in.readLong());
+			boolean lastDayMovedForward = lastDayOfAnalysis.isAfter(storedLastDay);
+			if (lastDayOfAnalysis.isBefore(storedLastDay)
+					|| (lastDayMovedForward && storedLastDay.getDayOfMonth() != storedLastDay.lengthOfMonth())) {
+				log.info("last day of analysis moved from " + storedLastDay + " to " + lastDayOfAnalysis + ". Reading all count files.");
+				return false;
+			}
+
+			Map<String, ProcessedFile> storedFiles = new HashMap<>();
+			int numberOfFiles = in.readInt();
+			for (int i = 0; i < numberOfFiles; i++) {
+				ProcessedFile file = new ProcessedFile(in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), in.readBoolean());
+				if (!file.isUnchanged()) {
+					log.info("count file " + file.path + " changed since the counts state was written. Reading all count files.");
+					return false;
+				}
+				// files which were cut at the old last day didn't contribute anything, as the old last day is the end of a month
+				if (file.readCompletely || !lastDayMovedForward) {
+					storedFiles.put(file.path, file);
+				}
+			}
+
+			Map<String, String> storedNames = new HashMap<>();
+			int numberOfNames = in.readInt();
+			for (int i = 0; i < numberOfNames; i++) {
+				storedNames.put(in.readUTF(), in.readUTF());
+			}
+
+			Map<String, Map<String, HourlyCountData>> storedData = new HashMap<>();
+			int numberOfCombinations = in.readInt();
+			for (int i = 0; i < numberOfCombinations; i++) {
+				String combination = in.readUTF();
+				Map<String, HourlyCountData> dataMap = new HashMap<>();
+				int numberOfStations = in.readInt();
+				for (int j = 0; j < numberOfStations; j++) {
+					dataMap.put(in.readUTF(), HourlyCountData.read(in));
+				}
+				storedData.put(combination, dataMap);
+			}
+
+			// stations whose rejected hours changed are read again completely
+			Set<String> changedStations = new HashSet<>();
+			int numberOfStations = in.readInt();
+			for (int i = 0; i < numberOfStations; i++) {
+				String station = in.readUTF();
+				if (in.readLong() != rejectionFingerprints.applyAsLong(station)) {
+					changedStations.add(station);
+				}
+			}
+			if (!changedStations.isEmpty()) {
+				log.info("rejected hours of " + changedStations.size() + " stations changed since the counts state was written. Reading their count files again.");
+				storedFiles.values().removeIf(file -> changedStations.contains(file.station));
+				storedData.values().forEach(dataMap -> dataMap.keySet().removeAll(changedStations));
+			}
+
+			processedFiles.putAll(storedFiles);
+			stationNames.putAll(storedNames);
+			storedData.forEach((combination, dataMap) -> stationsData.get(combination).putAll(dataMap));
+			log.info("loaded counts state of " + processedFiles.size() + " count files from " + stateFile);
+			return true;
+
+		} catch (IOException | RuntimeException e) {
+			log.warning("could not read counts state at " + stateFile + ". Reading all count files. Error message: " + e.getMessage());
+			processedFiles.clear();
+			return false;
+		}
+	}
+
+	boolean isProcessed(File countFile) {
+		return processedFiles.containsKey(countFile.getAbsolutePath());
+	}
+
+	/**
+	 * May be called by several threads at once.
+	 *
+	 * @param station id of the station in the header of the count file
+	 * @param readCompletely false if the file contains rows after the last day of analysis
+	 */
+	void markProcessed(File countFile, String station, boolean readCompletely) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(countFile.toPath(), BasicFileAttributes.class);
+		processedFiles.put(countFile.getAbsolutePath(), new ProcessedFile(countFile.getAbsolutePath(), station, attributes.size(),
+				attributes.lastModifiedTime().toMillis(), readCompletely));
+	}
+
+	/**
+	 * @param rejectionFingerprints fingerprint of the rejected hours per station, which were applied to the stations data
+	 */
+	void save(String settings, LocalDate lastDayOfAnalysis, Map<String, Map<String, HourlyCountData>> stationsData,
+			  Map<String, String> stationNames, ToLongFunction<String> rejectionFingerprints) {
+
+		try {
+			Path directory = stateFile.toAbsolutePath().getParent();
+			Files.createDirectories(directory);
+			Path temporaryFile = Files.createTempFile(directory, stateFile.getFileName().toString(), ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(settings);
+				out.writeLong(lastDayOfAnalysis.toEpochDay());
+
+				out.writeInt(processedFiles.size());
+				for (ProcessedFile file : processedFiles.values()) {
+					out.writeUTF(file.path);
+					out.writeUTF(file.station);
+					out.writeLong(file.size);
+					out.writeLong(file.lastModified);
+					out.writeBoolean(file.readCompletely);
+				}
+
+				out.writeInt(stationNames.size());
+				for (Map.Entry<String, String> name : stationNames.entrySet()) {
+					out.writeUTF(name.getKey());
+					out.writeUTF(name.getValue());
+				}
+
+				out.writeInt(stationsData.size());
+				for (Map.Entry<String, Map<String, HourlyCountData>> combination : stationsData.entrySet()) {
+					out.writeUTF(combination.getKey());
+					out.writeInt(combination.getValue().size());
+					for (Map.Entry<String, HourlyCountData> station : combination.getValue().entrySet()) {
+						out.writeUTF(station.getKey());
+						station.getValue().write(out);
+					}
+				}
+
+				Set<String> stations = new TreeSet<>();
+				processedFiles.values().forEach(file -> stations.add(file.station));
+				out.writeInt(stations.size());
+				for (String station : stations) {
+					out.writeUTF(station);
+					out.writeLong(rejectionFingerprints.applyAsLong(station));
+				}
+			}
+			Files.move(temporaryFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.info("wrote counts state of " + processedFiles.size() + " count files to " + stateFile);
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.severe("could not write counts state to " + stateFile + ". The next run will read all count files again.");
+		}
+	}
+
+	private static final class ProcessedFile {
+
+		private final String path;
+		private final String station;
+		private final long size;
+		private final long lastModified;
+		private final boolean readCompletely;
+
+		private ProcessedFile(String path, String station, long size, long lastModified, boolean readCompletely) {
+			this.path = path;
+			this.station = station;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.readCompletely = readCompletely;
+		}
+
+		private boolean isUnchanged() {
+			File file = new File(path);
+			return file.exists() && file.length() == size && file.lastModified() == lastModified;
+		}
+	}
+}
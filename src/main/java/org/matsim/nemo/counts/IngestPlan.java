@@ -0,0 +1,161 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes where the volumes of the needed vehicle types are located in the rows of one count file. The plan is
+ * compiled once from the header of a count file, so that reading the rows only needs array lookups.
+ * <p>
+ * The volumes of a vehicle type are spread over one column per lane. The columns of one vehicle type are
+ * {@link #getJumpLength(int)} columns apart, the lanes of direction 1 come first, followed by the lanes of direction 2.
+ */
+final class IngestPlan {
+
+	private final int nrOfLanesDir1;
+	private final int nrOfLanesDir2;
+	private final int[] baseColumns;
+	private final int[] jumpLengths;
+	private final String[] combinations;
+	private final int[][] vehicleTypesOfCombinations;
+
+	private IngestPlan(int nrOfLanesDir1, int nrOfLanesDir2, int[] baseColumns, int[] jumpLengths,
+					   String[] combinations, int[][] vehicleTypesOfCombinations) {
+		this.nrOfLanesDir1 = nrOfLanesDir1;
+		this.nrOfLanesDir2 = nrOfLanesDir2;
+		this.baseColumns = baseColumns;
+		this.jumpLengths = jumpLengths;
+		this.combinations = combinations;
+		this.vehicleTypesOfCombinations = vehicleTypesOfCombinations;
+	}
+
+	/**
+	 * @param headerThree third header line of the count file, which lists the vehicle types from the third token on
+	 * @param neededVehicleTypes vehicle types which are used by at least one column combination
+	 * @param vehicleTypesOfCombinations vehicle types of each column combination
+	 * @return a plan, which only contains the column combinations whose vehicle types are all present in the file
+	 */
+	static IngestPlan compile(String headerThree, int nrOfLanesDir1, int nrOfLanesDir2, int nrOfVehicleGroups, int nrOfVehicleTypes,
+							  Set<String> neededVehicleTypes, Map<String, String[]> vehicleTypesOfCombinations) {
+
+		//get column number for each header
+		Map<String, Integer> baseColumnsOfVehicleTypes = new HashMap<>();
+		String[] headerThreeArray = headerThree.split("\\s+");
+		for (int i = 2; i < headerThreeArray.length; i++) {
+			String vehicleType = headerThreeArray[i];
+			if (neededVehicleTypes.contains(vehicleType)) {
+				if (!vehicleType.equals(RawDataVehicleTypes.SV.toString())) {
+					baseColumnsOfVehicleTypes.put(vehicleType, nrOfVehicleGroups * (nrOfLanesDir1 + nrOfLanesDir2) + i - 2);
+				} else {
+					baseColumnsOfVehicleTypes.put(vehicleType, i);
+				}
+			}
+		}
+
+		//clarify which column combinations are contained in this file
+		List<String> vehicleTypes = new ArrayList<>();
+		List<String> containedCombinations = new ArrayList<>();
+		List<int[]> vehicleTypesOfContainedCombinations = new ArrayList<>();
+		for (Map.Entry<String, String[]> combination : vehicleTypesOfCombinations.entrySet()) {
+			String[] headers = combination.getValue();
+			boolean allHeadersInThisCountFile = true;
+			for (String header : headers) {
+				if (!baseColumnsOfVehicleTypes.containsKey(header)) {
+					allHeadersInThisCountFile = false;
+				}
+			}
+			if (allHeadersInThisCountFile) {
+				int[] indices = new int[headers.length];
+				for (int h = 0; h < headers.length; h++) {
+					if (!vehicleTypes.contains(headers[h])) {
+						vehicleTypes.add(headers[h]);
+					}
+					indices[h] = vehicleTypes.indexOf(headers[h]);
+				}
+				containedCombinations.add(combination.getKey());
+				vehicleTypesOfContainedCombinations.add(indices);
+			}
+		}
+
+		int[] baseColumns = new int[vehicleTypes.size()];
+		int[] jumpLengths = new int[vehicleTypes.size()];
+		for (int v = 0; v < vehicleTypes.size(); v++) {
+			String vehicleType = vehicleTypes.get(v);
+			baseColumns[v] = baseColumnsOfVehicleTypes.get(vehicleType);
+			// the heavy vehicles are counted per vehicle group, all other vehicle types per vehicle type
+			jumpLengths[v] = vehicleType.equals(RawDataVehicleTypes.SV.toString()) ? nrOfVehicleGroups : nrOfVehicleTypes;
+		}
+
+		return new IngestPlan(nrOfLanesDir1, nrOfLanesDir2, baseColumns, jumpLengths,
+				containedCombinations.toArray(new String[0]), vehicleTypesOfContainedCombinations.toArray(new int[0][]));
+	}
+
+	int getNrOfLanesDir1() {
+		return nrOfLanesDir1;
+	}
+
+	int getNrOfLanesDir2() {
+		return nrOfLanesDir2;
+	}
+
+	/**
+	 * @return number of distinct vehicle types which are read from this file
+	 */
+	int getNumberOfVehicleTypes() {
+		return baseColumns.length;
+	}
+
+	/**
+	 * @return token index of the first lane of direction 1
+	 */
+	int getBaseColumnDir1(int vehicleType) {
+		return baseColumns[vehicleType];
+	}
+
+	/**
+	 * @return token index of the first lane of direction 2
+	 */
+	int getBaseColumnDir2(int vehicleType) {
+		return baseColumns[vehicleType] + nrOfLanesDir1 * jumpLengths[vehicleType];
+	}
+
+	int getJumpLength(int vehicleType) {
+		return jumpLengths[vehicleType];
+	}
+
+	int getNumberOfCombinations() {
+		return combinations.length;
+	}
+
+	String getCombination(int combination) {
+		return combinations[combination];
+	}
+
+	/**
+	 * @return the indices of the vehicle types which are summed up for this combination
+	 */
+	int[] getVehicleTypesOfCombination(int combination) {
+		return vehicleTypesOfCombinations[combination];
+	}
+}
@@ -23,12 +23,11 @@ package org.matsim.nemo.counts;
 
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
+import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.Node;
-import org.matsim.core.utils.collections.Tuple;
-import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.gis.ShapeFileReader;
 import org.matsim.core.utils.io.tabularFileParser.TabularFileHandler;
 import org.matsim.core.utils.io.tabularFileParser.TabularFileParser;
@@ -36,11 +35,17 @@ import org.matsim.core.utils.io.tabularFileParser.TabularFileParserConfig;
 import org.matsim.counts.Count;
 import org.matsim.counts.Counts;
 import org.matsim.counts.Volume;
+import org.matsim.nemo.util.ZoneIndex;
 
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Formatter;
 import java.util.logging.*;
 import java.util.stream.Collectors;
@@ -51,7 +56,8 @@ import java.util.stream.Collectors;
  */
 public class LongTermCountsCreator {
 
-    final List<String> allNeededColumnHeaders = new ArrayList<>();
+    final Set<String> allNeededColumnHeaders = new LinkedHashSet<>();
+    final Map<String, String[]> vehicleTypesOfColumnCombinations = new LinkedHashMap<>();
     //elements of this array specify which columns of input data to consider and which ones to sum up
     private final Set<String> columnCombination;
 
@@ -61,11 +67,12 @@ public class LongTermCountsCreator {
 	private final String pathToCountData;
 	private final String pathToOSMMappingFile;
 	final Network network;
-	private Geometry filter;
+	private final ZoneIndex filter;
 	
 	private LocalDate firstDayOfAnalysis = null;
 	private LocalDate lastDayOfAnalysis = null;
-	private final List<LocalDate> datesToIgnore = new ArrayList<LocalDate>();
+	private final Set<LocalDate> datesToIgnore = new HashSet<LocalDate>();
+	private AnalysisCalendar analysisCalendar;
 	
 	private int monthRange_min = 1;
 	private int monthRange_max = 12;
@@ -75,15 +82,30 @@ public class LongTermCountsCreator {
 	
 	private static final boolean USE_DATA_WITH_LESS_THAN_9_VEHICLE_CLASSES = true;
 
+	int numberOfIngestionThreads = 1;
+	private RawCountsCache rawCountsCache = null;
+	private StationLinkCache stationLinkCache = null;
+	private IncrementalCountsState incrementalState = null;
+	private String rejectionListFile = null;
+	private RejectionList rejectionList = null;
+	private String timeSeriesStoreDir = null;
+	private CountsTimeSeriesStore timeSeriesStore = null;
+	// factors per station and hour which extrapolate the volumes to the annual average
+	Map<String, double[]> extrapolationFactors = null;
+	private double[] quantiles = new double[0];
+	private final Map<Double, Map<String, Counts<Link>>> quantileCounts = new HashMap<>();
+	private final List<DayProfile> dayProfiles = new ArrayList<>();
+	private final Map<String, Map<String, Counts<Link>>> profileCounts = new LinkedHashMap<>();
+
     Map<String, Map<String, HourlyCountData>> countingStationsData = new HashMap<>();
 	
 	private Map<String,String> countingStationNames = new HashMap<String,String>();
-	private Map<String,String> problemsPerCountingStation = new HashMap<String,String>();
-	private List<String> notLocatedCountingStations = new ArrayList<String>();
-	private final List<String> notMapMatchedStations = new ArrayList<String>();
+	CountsDiagnostics diagnostics;
+	private final Set<String> notLocatedCountingStations = new LinkedHashSet<String>();
+	private final Set<String> notMapMatchedStations = new HashSet<String>();
 	
-	private Map<String,Id<Link>> linkIDsOfCountingStations = new HashMap<String,Id<Link>>();
-	final List<Long> countingStationsToOmit = new ArrayList<Long>();
+	Map<String,Id<Link>> linkIDsOfCountingStations = new HashMap<String,Id<Link>>();
+	final Set<Long> countingStationsToOmit = new HashSet<Long>();
 
 	protected LongTermCountsCreator(Set<String> columnCombination, Network network, Geometry filter,
 									String countDataRootDirectory, String countsMapping,
@@ -93,7 +115,7 @@ public class LongTermCountsCreator {
 		this.outputPath = outputPath;
         this.pathToOSMMappingFile = countsMapping;
         this.columnCombination = columnCombination;
-		this.filter = filter;
+		this.filter = filter == null ? null : new ZoneIndex(Collections.singletonList(filter));
     }
 	
 	/**
@@ -106,31 +128,70 @@ public class LongTermCountsCreator {
     public Map<String, Counts<Link>> run() {
 
 		init();
-		readData();
+		try {
+			readData();
 
-		writeOutListOfAnalyzedCountStations();
-		if(network!=null){
-			log.info("Number of nodes in the link: "+network.getNodes().size());
-			log.info("Number of links in the link: "+network.getLinks().size());
+			writeOutListOfAnalyzedCountStations();
+			if(network!=null){
+				log.info("Number of nodes in the link: "+network.getNodes().size());
+				log.info("Number of links in the link: "+network.getLinks().size());
 
-			readNodeIDsOfCountingStationsAndGetLinkIDs();
+				readNodeIDsOfCountingStationsAndGetLinkIDs();
+			}
+
+			String description = "--Nemo long period count data-- start date: " + this.firstDayOfAnalysis.toString() + " end date:" + this.lastDayOfAnalysis.toString();
+			SimpleDateFormat format = new SimpleDateFormat("YY_MM_dd_HHmmss");
+			String now = format.format(Calendar.getInstance().getTime());
+			description += "\n created: " + now;
+			Map<String, Counts<Link>> result = convert(description);
+
+			// finish alters things in result but we won't change that now.
+			finish(result);
+			convertQuantiles(description, result);
+			convertProfiles(description);
+			return result;
+		} finally {
+			// the diagnostics writer is started in init(). It is closed only after all conversions, which report
+			// stations that could not be located, and must not outlive a failed run
+			diagnostics.close();
 		}
+	}
 
-		String description = "--Nemo long period count data-- start date: " + this.firstDayOfAnalysis.toString() + " end date:" + this.lastDayOfAnalysis.toString();
-		SimpleDateFormat format = new SimpleDateFormat("YY_MM_dd_HHmmss");
-		String now = format.format(Calendar.getInstance().getTime());
-	  	description += "\n created: " + now;
-		Map<String, Counts<Link>> result = convert(description);
+	/**
+	 * @param profileName name of one of the profiles set with {@link AbstractBuilder#withDayProfiles(DayProfile...)}
+	 * @return counts per column combination which only contain the days of the profile. Available after {@link #run()}
+	 */
+	public Map<String, Counts<Link>> getProfileCounts(String profileName) {
+		Map<String, Counts<Link>> counts = profileCounts.get(profileName);
+		if (counts == null) throw new IllegalArgumentException("no counts of profile " + profileName + ". Profiles are " + profileCounts.keySet());
+		return counts;
+	}
 
-        // finish alters things in result but we won't change that now.
-        finish(result);
-        return result;
+	/**
+	 * @param quantile one of the quantiles set with {@link AbstractBuilder#withQuantiles(double...)}
+	 * @return counts per column combination whose volumes are the given quantile of the hourly volumes instead of the
+	 * mean. Available after {@link #run()}
+	 */
+	public Map<String, Counts<Link>> getQuantileCounts(double quantile) {
+		Map<String, Counts<Link>> counts = quantileCounts.get(quantile);
+		if (counts == null) throw new IllegalArgumentException("quantile " + quantile + " was not computed. Computed quantiles are " + quantileCounts.keySet());
+		return counts;
 	}
 
 	protected void readData() {
+		this.analysisCalendar = new AnalysisCalendar(firstDayOfAnalysis, lastDayOfAnalysis, weekRange_min, weekRange_max, datesToIgnore, dayProfiles);
+
 		File rootDirectory = new File(this.pathToCountData);
 		if (! rootDirectory.exists()) throw new RuntimeException(this.pathToCountData + " does not exists.");
 
+		if (rejectionListFile != null) {
+			screenCountFiles(rootDirectory);
+		}
+
+		if (incrementalState != null) {
+			incrementalState.load(getSettingsFingerprint(), lastDayOfAnalysis, countingStationsData, countingStationNames, this::getRejectionFingerprint);
+		}
+
 		 File[] filesInRoot = rootDirectory.listFiles();
 		  if (filesInRoot != null) {
 		    for (File fileInRootDir : filesInRoot) {
@@ -145,6 +206,199 @@ public class LongTermCountsCreator {
 			  log.severe("the given root directory of input count data could not be accessed... aborting");
               throw new RuntimeException("Could not access root directory of count data");
 		  }
+
+		if (incrementalState != null) {
+			incrementalState.save(getSettingsFingerprint(), lastDayOfAnalysis, countingStationsData, countingStationNames, this::getRejectionFingerprint);
+		}
+
+		if (timeSeriesStoreDir != null) {
+			fillTimeSeriesStore(rootDirectory);
+		}
+	}
+
+	/**
+	 * Reads all months of the years of analysis into the time series store. Years whose count files did not change
+	 * since the last run are not read again.
+	 */
+	private void fillTimeSeriesStore(File rootDirectory) {
+		log.info("start filling the time series store " + timeSeriesStoreDir + "...");
+		timeSeriesStore = new CountsTimeSeriesStore(Paths.get(timeSeriesStoreDir), firstDayOfAnalysis.getYear(),
+				lastDayOfAnalysis.getYear(), new TreeSet<>(allNeededColumnHeaders));
+		timeSeriesStore.fill(listCountFilesPerStationYear(rootDirectory, false), rawCountsCache, numberOfIngestionThreads);
+	}
+
+	/**
+	 * Creates counts for another period or other week days from the hourly volumes in the time series store, without
+	 * reading the count files again. The volumes are averaged per hour like in {@link #run()}, but stations to omit are
+	 * the only filter which is applied, i.e. ignored dates and hours rejected by the screening are not left out. Must
+	 * be called after {@link #run()}, so that the stations are located.
+	 *
+	 * @param firstDay first day of the period. The period must lie within the years of analysis
+	 * @param lastDay last day of the period
+	 * @param weekDays days of the week which are taken into account
+	 * @param columnCombination one of the column combinations of the builder, e.g. "Pkw;Mot"
+	 * @see AbstractBuilder#withTimeSeriesStore(String)
+	 */
+	public Counts<Link> createCountsFromTimeSeries(LocalDate firstDay, LocalDate lastDay, Set<DayOfWeek> weekDays, String columnCombination) {
+		if (timeSeriesStore == null) throw new IllegalStateException("no time series store. Set one with the builder and call run() first");
+		if (firstDay.getYear() < timeSeriesStore.getFirstYear() || lastDay.getYear() > timeSeriesStore.getLastYear())
+			throw new IllegalArgumentException("the time series store holds the years " + timeSeriesStore.getFirstYear() + " to " + timeSeriesStore.getLastYear());
+
+		Map<String, Id<Link>> linkIds = new HashMap<>();
+		linkIDsOfCountingStations.forEach((station, linkId) -> {
+			// station ids look like NW_5101_R1
+			String countID = station.substring(3, station.lastIndexOf('_'));
+			if (notLocatedCountingStations.contains(station) || notMapMatchedStations.contains(station)
+					|| countingStationsToOmit.contains(Long.parseLong(countID))) return;
+			linkIds.put(station, linkId);
+		});
+		Counts<Link> counts = timeSeriesStore.aggregate(firstDay, lastDay, weekDays, columnCombination, linkIds);
+		log.info("created " + counts.getCounts().size() + " counts from the time series store for " + columnCombination
+				+ " between " + firstDay + " and " + lastDay);
+		return counts;
+	}
+
+	/**
+	 * Screens the count files within the analysis period for implausible hours, writes them to the rejection list file
+	 * and keeps them, so that they are left out while reading the count files. Station years whose count files did not
+	 * change since the last run are not screened again, see {@link CountsScreening#screen(Path, Map, RawCountsCache, int)}.
+	 */
+	private void screenCountFiles(File rootDirectory) {
+		log.info("start screening of the count files...");
+		Map<Integer, List<List<File>>> countFilesPerStationYear = listCountFilesPerStationYear(rootDirectory, true);
+
+		List<RejectionList.Rejection> rejections = new CountsScreening().screen(Paths.get(rejectionListFile), countFilesPerStationYear,
+				rawCountsCache, numberOfIngestionThreads);
+		this.rejectionList = new RejectionList(rejections);
+	}
+
+	/**
+	 * @param onlyMonthsToBeAnalyzed whether only the months within the month range are listed or all months
+	 * @return the count files of every station, grouped per year of analysis
+	 */
+	private Map<Integer, List<List<File>>> listCountFilesPerStationYear(File rootDirectory, boolean onlyMonthsToBeAnalyzed) {
+		// the files of one station are named alike in every month directory
+		Map<Integer, List<List<File>>> countFilesPerStationYear = new TreeMap<>();
+		File[] yearDirs = rootDirectory.listFiles();
+		if (yearDirs == null) throw new RuntimeException("Could not access root directory of count data");
+		for (File yearDir : yearDirs) {
+			if (!yearDir.isDirectory()) continue;
+			int year = Integer.parseInt(yearDir.getName().substring(yearDir.getName().length() - 4));
+			if (!checkIfYearIsToBeAnalyzed(year)) continue;
+
+			Map<String, List<File>> countFilesPerStation = new TreeMap<>();
+			File[] monthDirs = yearDir.listFiles();
+			if (monthDirs == null) continue;
+			for (File monthDir : monthDirs) {
+				if (monthDir.isDirectory() && (!onlyMonthsToBeAnalyzed || checkIfMonthIsToBeAnalyzed(monthDir.getName()))) {
+					for (File countFile : listCountFiles(monthDir)) {
+						countFilesPerStation.computeIfAbsent(countFile.getName(), name -> new ArrayList<>()).add(countFile);
+					}
+				}
+			}
+			countFilesPerStationYear.put(year, new ArrayList<>(countFilesPerStation.values()));
+		}
+		return countFilesPerStationYear;
+	}
+
+	/**
+	 * Reads all months of the years of analysis once more and computes the day of year and hour factors of the long
+	 * term stations, which extrapolate short term counts to the annual average. Stations to omit and hours rejected by
+	 * the screening are left out. Should be called after {@link #run()}, so that the stations are located.
+	 *
+	 * @see AbstractBuilder#withExtrapolation(SeasonalFactors)
+	 */
+	public SeasonalFactors computeSeasonalFactors() {
+		log.info("start computation of seasonal factors...");
+		Map<Integer, List<List<File>>> countFilesPerStationYear = listCountFilesPerStationYear(new File(pathToCountData), false);
+		List<StationYearVolumes> volumes = new ArrayList<>();
+		ForkJoinPool pool = new ForkJoinPool(numberOfIngestionThreads);
+		try {
+			for (Map.Entry<Integer, List<List<File>>> year : countFilesPerStationYear.entrySet()) {
+				volumes.addAll(pool.submit(() -> year.getValue().parallelStream()
+						.map(countFiles -> StationYearVolumes.read(year.getKey(), countFiles, rawCountsCache))
+						.filter(Objects::nonNull)
+						.filter(stationYear -> !countingStationsToOmit.contains(Long.parseLong(stationYear.getStation())))
+						.collect(Collectors.toList())
+				).get());
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Error while reading the count files for the seasonal factors", e);
+		} finally {
+			pool.shutdown();
+		}
+
+		Map<String, Coord> coords = new HashMap<>();
+		for (StationYearVolumes stationYear : volumes) {
+			removeRejectedHours(stationYear);
+			Coord coord = getCoordOfStation(stationYear.getStation());
+			if (coord != null) coords.put(stationYear.getStation(), coord);
+		}
+		return SeasonalFactors.compute(volumes, coords, weekRange_min, weekRange_max);
+	}
+
+	private void removeRejectedHours(StationYearVolumes stationYear) {
+		RejectionList.StationYear rejectedHours = rejectionList != null ? rejectionList.get(stationYear.getStation(), stationYear.getYear()) : null;
+		if (rejectedHours == null) return;
+
+		double[][] volumes = stationYear.getVolumes();
+		for (int d = 0; d < volumes[0].length / 24; d++) {
+			for (int hour = 1; hour <= 24; hour++) {
+				if (rejectedHours.isRejected(d + 1, hour, true)) volumes[0][d * 24 + hour - 1] = Double.NaN;
+				if (rejectedHours.isRejected(d + 1, hour, false)) volumes[1][d * 24 + hour - 1] = Double.NaN;
+			}
+		}
+	}
+
+	/**
+	 * @return coordinate of the link of direction one or, if that one is missing, of direction two. Null if the station
+	 * is not located in the network
+	 */
+	Coord getCoordOfStation(String countID) {
+		if (network == null) return null;
+		for (String direction : new String[]{"_R1", "_R2"}) {
+			Id<Link> linkId = linkIDsOfCountingStations.get("NW_" + countID + direction);
+			Link link = linkId != null ? network.getLinks().get(linkId) : null;
+			if (link != null) return link.getCoord();
+		}
+		return null;
+	}
+
+	/**
+	 * @return all settings which influence the aggregated data, except the last day of analysis and the rejected hours,
+	 * which are compared per station, see {@link #getRejectionFingerprint(String)}
+	 */
+	private String getSettingsFingerprint() {
+		return this.getClass().getName() + "|" + new File(pathToCountData).getAbsolutePath()
+				+ "|" + new TreeSet<>(columnCombination)
+				+ "|" + firstDayOfAnalysis
+				+ "|" + monthRange_min + "-" + monthRange_max
+				+ "|" + weekRange_min + "-" + weekRange_max
+				+ "|" + new TreeSet<>(datesToIgnore)
+				+ "|" + new TreeSet<>(countingStationsToOmit)
+				+ "|" + (quantiles.length > 0)
+				+ "|" + dayProfiles;
+	}
+
+	private long getRejectionFingerprint(String countID) {
+		return rejectionList == null ? 0 : rejectionList.getFingerprint(countID);
+	}
+
+	/**
+	 * @param profile null for the days of the analysis, otherwise one of the day profiles
+	 * @return key of the stations data of the profile and column combination
+	 */
+	String getDataKey(DayProfile profile, String combination) {
+		return profile == null ? combination : profile.getName() + "/" + combination;
+	}
+
+	/**
+	 * @param withQuantiles whether quantile sketches are kept, if quantiles are converted at all
+	 * @param stationsData the stations data the new object is put into. Objects of partial results keep their volumes,
+	 *                     so that merging them is the same as reading the files sequentially
+	 */
+	HourlyCountData createHourlyCountData(String id, boolean withQuantiles, Map<String, Map<String, HourlyCountData>> stationsData) {
+		return new HourlyCountData(id, null, withQuantiles && quantiles.length > 0, stationsData != this.countingStationsData);
 	}
 
     //--------------------------------------------------------------------------------------------------------------------------------------
@@ -153,10 +407,13 @@ public class LongTermCountsCreator {
         for (String combination : this.columnCombination) {
 			Map<String,HourlyCountData> dataMap = new HashMap<String,HourlyCountData>();
 			this.countingStationsData.put(combination, dataMap);
+			for (DayProfile profile : dayProfiles) {
+				this.countingStationsData.put(getDataKey(profile, combination), new HashMap<>());
+			}
 			String[] types = combination.split(";");
+			this.vehicleTypesOfColumnCombinations.put(combination, types);
 			for (String s : types){
-				if(!this.allNeededColumnHeaders.contains(s)){
-					this.allNeededColumnHeaders.add(s);
+				if(this.allNeededColumnHeaders.add(s)){
 					if(s.equals(RawDataVehicleTypes.Pkw.toString())) {
 						this.allNeededColumnHeaders.add("PLZ");
 						this.allNeededColumnHeaders.add("PkwÄ");
@@ -170,6 +427,7 @@ public class LongTermCountsCreator {
 			outPutDir.mkdirs();
 		}
 		initializeLogger();
+		diagnostics = new CountsDiagnostics(outputPath + "diagnostics_" + new SimpleDateFormat("YY_MM_dd_HHmmss").format(Calendar.getInstance().getTime()));
 	}
 
     protected Map<String, Counts<Link>> convert(String countsDescription) {
@@ -181,201 +439,314 @@ public class LongTermCountsCreator {
 			container.setYear(this.lastDayOfAnalysis.getYear());
 
 			log.info("start conversion of data for " + combination + "...");
-			convertDataToMatSimCounts(container, this.countingStationsData.get(combination));
+			convertDataToMatSimCounts(container, this.countingStationsData.get(combination), Double.NaN, true);
             countsPerColumnCombination.put(combination, container);
         }
         return countsPerColumnCombination;
 	}
 
+	/**
+	 * Creates a counts container per quantile and column combination. Only counts which are still contained in the
+	 * finished mean based counts are kept.
+	 */
+	protected void convertQuantiles(String countsDescription, Map<String, Counts<Link>> finishedCounts) {
+		quantileCounts.clear();
+		for (double quantile : quantiles) {
+			Map<String, Counts<Link>> countsPerColumnCombination = new HashMap<>();
+			for (String combination : this.columnCombination) {
+				Counts<Link> container = new Counts<>();
+				container.setDescription(container.getDescription() + countsDescription + "\n quantile of hourly volumes: " + quantile);
+				container.setYear(this.lastDayOfAnalysis.getYear());
+
+				log.info("start conversion of quantile " + quantile + " for " + combination + "...");
+				convertDataToMatSimCounts(container, this.countingStationsData.get(combination), quantile, false);
+				container.getCounts().keySet().retainAll(finishedCounts.get(combination).getCounts().keySet());
+				countsPerColumnCombination.put(combination, container);
+			}
+			quantileCounts.put(quantile, countsPerColumnCombination);
+		}
+	}
+
+	/**
+	 * Creates a counts container per day profile and column combination. Counts without any positive volume are removed,
+	 * like in {@link #finish(Map)}.
+	 */
+	void convertProfiles(String countsDescription) {
+		profileCounts.clear();
+		for (DayProfile profile : dayProfiles) {
+			Map<String, Counts<Link>> countsPerColumnCombination = new HashMap<>();
+			for (String combination : this.columnCombination) {
+				Counts<Link> container = new Counts<>();
+				container.setDescription(container.getDescription() + countsDescription + "\n day profile: " + profile.getName());
+				container.setYear(this.lastDayOfAnalysis.getYear());
+
+				log.info("start conversion of day profile " + profile.getName() + " for " + combination + "...");
+				convertDataToMatSimCounts(container, this.countingStationsData.get(getDataKey(profile, combination)), Double.NaN, false);
+				container.getCounts().values().removeIf(count -> count.getMaxVolume() == null || count.getMaxVolume().getValue() <= 0);
+				log.info("number of counts of day profile " + profile.getName() + " for " + combination + ": " + container.getCounts().size());
+				countsPerColumnCombination.put(combination, container);
+			}
+			profileCounts.put(profile.getName(), countsPerColumnCombination);
+		}
+	}
+
 	protected void analyzeYearDir(File rootDirOfYear, int currentYear) {
 		log.info("Start analysis of directory " + rootDirOfYear.getPath());
 
 		 File[] filesInRoot = rootDirOfYear.listFiles();
 		  if (filesInRoot != null) {
+			  List<File> monthDirs = new ArrayList<>();
 		    for (File fileInRootDir : filesInRoot) {
 		    	if(fileInRootDir.isDirectory() && checkIfMonthIsToBeAnalyzed(fileInRootDir.getName())){
-		    		analyzeMonth(fileInRootDir, currentYear);
+		    		monthDirs.add(fileInRootDir);
 		    	}
 		    }
+			  if (numberOfIngestionThreads > 1) {
+				  analyzeMonthsInParallel(monthDirs, currentYear);
+			  } else {
+				  monthDirs.forEach(monthDir -> analyzeMonth(monthDir, currentYear));
+			  }
 		  } else {
 			  log.severe("something is wrong with the input directory .... please look here: " + rootDirOfYear.getAbsolutePath());
               throw new RuntimeException("Didn't find expected data in root directory of counts");
 		  }
 	}
 
+	private void analyzeMonth(File monthDir, int currentYear) {
+		log.info("Start to analyze month " + monthDir.getName());
+
+		for (File countFile : listCountFiles(monthDir)) {
+			this.countingStationNames.put(getStationName(countFile), monthDir.getName());
+			if (incrementalState == null || !incrementalState.isProcessed(countFile)) {
+				analyzeCountFile(countFile, currentYear, this.countingStationsData);
+			}
+		}
+	}
+
+	/**
+	 * Same as calling {@link #analyzeMonth(File, int)} for every month directory, but the count files are parsed by
+	 * several threads. Each file is aggregated into its own partial result, which keeps the volumes in their order. The
+	 * partial results are merged into {@link #countingStationsData} in the same order in which the sequential path
+	 * visits the files, so that the means, standard deviations and quantiles are exactly the same.
+	 */
+	private void analyzeMonthsInParallel(List<File> monthDirs, int currentYear) {
+
+		List<File> countFiles = new ArrayList<>();
+		for (File monthDir : monthDirs) {
+			log.info("Start to analyze month " + monthDir.getName());
+			for (File countFile : listCountFiles(monthDir)) {
+				this.countingStationNames.put(getStationName(countFile), monthDir.getName());
+				if (incrementalState == null || !incrementalState.isProcessed(countFile)) {
+					countFiles.add(countFile);
+				}
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(numberOfIngestionThreads);
+		try {
+			// collecting an ordered parallel stream keeps the encounter order of the files
+			List<Map<String, Map<String, HourlyCountData>>> partialResults = pool.submit(() -> countFiles.parallelStream()
+					.map(countFile -> {
+						Map<String, Map<String, HourlyCountData>> partialResult = createEmptyStationsData();
+						analyzeCountFile(countFile, currentYear, partialResult);
+						return partialResult;
+					})
+					.collect(Collectors.toList())
+			).get();
+			partialResults.forEach(this::mergeIntoCountingStationsData);
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Error while reading the count files of year " + currentYear + " in parallel", e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private File[] listCountFiles(File monthDir) {
+		File[] countFiles = monthDir.listFiles();
+		if (countFiles == null) {
+			log.severe("the following directory is empty or cannot be accessed. Thus, it is skipped. Path = " + monthDir.getAbsolutePath());
+			throw new RuntimeException("Could not access directory: " + monthDir.getAbsolutePath());
+		}
+		return countFiles;
+	}
+
+	private static String getStationName(File countFile) {
+		String name = countFile.getName();
+		return name.substring(0, name.lastIndexOf("."));
+	}
+
+	Map<String, Map<String, HourlyCountData>> createEmptyStationsData() {
+		Map<String, Map<String, HourlyCountData>> stationsData = new HashMap<>();
+		for (String combination : this.columnCombination) {
+			stationsData.put(combination, new HashMap<>());
+			for (DayProfile profile : dayProfiles) {
+				stationsData.put(getDataKey(profile, combination), new HashMap<>());
+			}
+		}
+		return stationsData;
+	}
+
+	void mergeIntoCountingStationsData(Map<String, Map<String, HourlyCountData>> partialResult) {
+		partialResult.forEach((combination, partialData) -> {
+			Map<String, HourlyCountData> dataMap = this.countingStationsData.get(combination);
+			partialData.forEach((countID, data) -> {
+				HourlyCountData existing = dataMap.get(countID);
+				if (existing == null) {
+					data.discardAddedValues();
+					dataMap.put(countID, data);
+				} else {
+					existing.merge(data);
+				}
+			});
+		});
+	}
+
     /**
 	 * goes through the input data file that contains traffic data of one (long-period!) counting station for one month and aggregates the data in the previously defined way.
 	 * the first three rows of the input file define the layout of the file, for more information see the documentation file at
 	 * shared-svn\projects\nemo_mercator\40_Data\counts\LandesbetriebStrassenbauNRW_Verkehrszentrale\BASt-Bestandsbandformat_Version2004.pdf
+	 * <p>
+	 * This method may be called by several threads at once, as long as each thread passes its own stationsData map.
      *
 	 */
-	private void analyzeMonth(File monthDir, int currentYear) {
-		log.info("Start to analyze month " + monthDir.getName());
+	private void analyzeCountFile(File countFile, int currentYear, Map<String, Map<String, HourlyCountData>> stationsData) {
+		try {
+			readCountFile(countFile, currentYear, stationsData);
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			log.severe("could not access " + countFile.getAbsolutePath() + "\n the corresponding data is not taken into account");
+		}
+	}
 
-		File[] countFiles = monthDir.listFiles();
-		  if (countFiles != null) {
-			for(int ff = 0; ff<countFiles.length; ff++){
-				File countFile = countFiles[ff];
-				String name = countFile.getName();
-				this.countingStationNames.put(name.substring(0, name.lastIndexOf(".")) , monthDir.getName());
-				try {
-					//need this for proper encoding
-					BufferedReader reader = new BufferedReader( new InputStreamReader(new FileInputStream(countFile), "windows-1256"));
-					String headerOne = reader.readLine();
-					String headerTwo = reader.readLine();
-					String headerThree = reader.readLine();
-
-					String countID = headerOne.substring(5, 9);
-
-                    Long id = Long.parseLong(countID);
-					if(countingStationsToOmit.contains(id)){
-						log.info("skipping station " + id);
-						continue;
-					}
+	/**
+	 * @return false if the file contains rows after the last day of analysis, which were not read
+	 */
+	private boolean readCountFile(File countFile, int currentYear, Map<String, Map<String, HourlyCountData>> stationsData) throws IOException {
+		BastRecordSource scanner = rawCountsCache != null ? rawCountsCache.open(countFile.toPath()) : BastRecordScanner.open(countFile.toPath());
+		String headerOne = scanner.getHeaderOne();
+		String headerTwo = scanner.getHeaderTwo();
+		String headerThree = scanner.getHeaderThree();
+
+		String countID = headerOne.substring(5, 9);
+
+		Long id = Long.parseLong(countID);
+		if(countingStationsToOmit.contains(id)){
+			log.info("skipping station " + id);
+			return markProcessed(countFile, countID, true);
+		}
 
-					String streetID = headerOne.substring(13,20);
-					streetID = streetID.replaceAll("\\s", "");
-					String countName = headerOne.substring(21,46);
+		String streetID = headerOne.substring(13,20);
+		streetID = streetID.replaceAll("\\s", "");
+		String countName = headerOne.substring(21,46);
 
-					countName = countName.replaceAll("\\s", "");
-					countName = fixEncoding(countID + "_" + countName + "_" + streetID);
+		countName = countName.replaceAll("\\s", "");
+		countName = fixEncoding(countID + "_" + countName + "_" + streetID);
 
-					int nrOfLanesDir1 = Integer.parseInt(headerTwo.substring(1, 3));
-					int nrOfLanesDir2 = Integer.parseInt(headerTwo.substring(4, 6));
+		int nrOfLanesDir1 = Integer.parseInt(headerTwo.substring(1, 3));
+		int nrOfLanesDir2 = Integer.parseInt(headerTwo.substring(4, 6));
 
 
-                    int nrOfVehicleTypes = Integer.parseInt(headerThree.substring(4, 6));
-					if(nrOfVehicleTypes <9) {
-						log.warning("data of count " + countID + "" + countName + " is not differentiating Pkw from at least one other class");
-						if(!USE_DATA_WITH_LESS_THAN_9_VEHICLE_CLASSES) {
-							log.warning("skipping data set of station " + countID + " because accurancy is not high enough");
-						}
-					}
-					int nrOfVehicleGroups = Integer.parseInt(headerThree.substring(1, 3));	// either 1 => all vehicles in one class or 2 => distinction of heavy traffic
-					if(nrOfVehicleGroups == 1) {
-						log.info("skipping data set of station " + countID + "" + countName + " because it doesn't differentiate heavy vehicles from normal ones..");
-						continue;
-					}
+		int nrOfVehicleTypes = Integer.parseInt(headerThree.substring(4, 6));
+		if(nrOfVehicleTypes <9) {
+			diagnostics.report("NW_" + countID, CountsDiagnostics.Reason.FEW_VEHICLE_CLASSES, countFile.getName() + " has " + nrOfVehicleTypes + " vehicle classes"
+					+ (USE_DATA_WITH_LESS_THAN_9_VEHICLE_CLASSES ? "" : ", skipped"));
+		}
+		int nrOfVehicleGroups = Integer.parseInt(headerThree.substring(1, 3));	// either 1 => all vehicles in one class or 2 => distinction of heavy traffic
+		if(nrOfVehicleGroups == 1) {
+			diagnostics.report("NW_" + countID, CountsDiagnostics.Reason.NO_HEAVY_VEHICLES, countFile.getName() + " skipped");
+			return markProcessed(countFile, countID, true);
+		}
 
-					Map<String,Integer> baseColumnsOfVehicleTypes = new HashMap<String,Integer>();
-
-					//get column number for each header
-					String[] headerThreeArray = headerThree.split("\\s+");
-					for(int i = 2; i < headerThreeArray.length ; i++){
-						String vehicleType = headerThreeArray[i];
-						if(this.allNeededColumnHeaders.contains(vehicleType)){
-							if( !vehicleType.equals(RawDataVehicleTypes.SV.toString()) ){
-								baseColumnsOfVehicleTypes.put(vehicleType, nrOfVehicleGroups*(nrOfLanesDir1 + nrOfLanesDir2) + i -2);
-							}else{
-								baseColumnsOfVehicleTypes.put(vehicleType, i);
-							}
-						}
-					}
+		RejectionList.StationYear rejectedHours = rejectionList != null ? rejectionList.get(countID, currentYear) : null;
 
-					//clarify which column combinations are contained in this file
-					List<String> containedCombinationsInThisFile = new ArrayList<String>();
-                    for (String combination : this.columnCombination) {
-						boolean allHeadersInThisCountFile = true;
-						String[] headers = combination.split(";");
-						for(String header: headers){
-							if(!baseColumnsOfVehicleTypes.containsKey(header)){
-								allHeadersInThisCountFile = false;
-							}
-						}
-						if(allHeadersInThisCountFile){
-							containedCombinationsInThisFile.add(combination);
-						}
-					}
+		// resolve everything that only depends on the header once, so that the row loop only works on arrays
+		IngestPlan plan = IngestPlan.compile(headerThree, nrOfLanesDir1, nrOfLanesDir2, nrOfVehicleGroups, nrOfVehicleTypes,
+				allNeededColumnHeaders, vehicleTypesOfColumnCombinations);
+		// index 0 holds the data of the analysis days, index i the data of the i-th day profile
+		HourlyCountData[][] dataOfProfiles = new HourlyCountData[1 + dayProfiles.size()][plan.getNumberOfCombinations()];
+		double[] volumesDir1 = new double[plan.getNumberOfVehicleTypes()];
+		double[] volumesDir2 = new double[plan.getNumberOfVehicleTypes()];
 
-					String line;
-					String[] rowData;
-					while((line = reader.readLine()) != null) {
-						if(line.charAt(6) != 'i'){				//letter i stands for data that was somehow edited after investigation. we'll skip the row
-							rowData = line.split("\\s+");
+		while(scanner.next()) {
+			if(scanner.getEditFlag() != 'i'){				//letter i stands for data that was somehow edited after investigation. we'll skip the row
 
-							Integer currentMonth = Integer.parseInt(line.substring(2, 4));
-							Integer currentDay = Integer.parseInt(line.substring(4, 6));
+				int currentMonth = scanner.getMonth();
+				int currentDay = scanner.getDayOfMonth();
 
-							LocalDate currentDate = LocalDate.of(currentYear, currentMonth, currentDay);
-							if (currentDate.isAfter(lastDayOfAnalysis)){
-								break;
-							}
-							if( currentDate.isAfter(firstDayOfAnalysis.minusDays(1))
-									&& currentDate.getDayOfWeek().getValue() >= this.weekRange_min && currentDate.getDayOfWeek().getValue() <= this.weekRange_max
-									&& !this.datesToIgnore.contains(currentDate) ){
-
-								int hour = Integer.parseInt(rowData[1].substring(0, 2));
-
-								Map<String,Tuple<Double,Double>> trafficVolumesperVehicleType = new HashMap<String,Tuple<Double,Double>>();
-
-								//read traffic volumes for each needed vehicle type (summing up every lane per direction)
-								for(String header: baseColumnsOfVehicleTypes.keySet()){
-									int jumpLength;
-									if(header.equals(header.equals(RawDataVehicleTypes.SV.toString()))){
-										jumpLength = nrOfVehicleGroups;
-									}
-									else{
-										jumpLength = nrOfVehicleTypes;
-									}
-									double vol1 = readTrafficVolume(rowData, baseColumnsOfVehicleTypes.get(header), nrOfLanesDir1, jumpLength);
-									double vol2 = readTrafficVolume(rowData, baseColumnsOfVehicleTypes.get(header) + nrOfLanesDir1 * jumpLength, nrOfLanesDir2, jumpLength);
-									trafficVolumesperVehicleType.put(header, new Tuple<Double,Double>(vol1,vol2));
-								}
+				if (analysisCalendar.isAfterAnalysisWindow(currentYear, currentMonth, currentDay)){
+					return markProcessed(countFile, countID, false);
+				}
+				int profilesOfDay = analysisCalendar.getProfiles(currentYear, currentMonth, currentDay);
+				if (profilesOfDay != 0){
+
+					int hour = scanner.getHour();
+					boolean rejectedDir1 = rejectedHours != null && rejectedHours.isRejected(currentMonth, currentDay, hour, true);
+					boolean rejectedDir2 = rejectedHours != null && rejectedHours.isRejected(currentMonth, currentDay, hour, false);
+
+					//read traffic volumes for each needed vehicle type (summing up every lane per direction)
+					for (int v = 0; v < plan.getNumberOfVehicleTypes(); v++) {
+						volumesDir1[v] = readTrafficVolume(scanner, plan.getBaseColumnDir1(v), plan.getNrOfLanesDir1(), plan.getJumpLength(v));
+						volumesDir2[v] = readTrafficVolume(scanner, plan.getBaseColumnDir2(v), plan.getNrOfLanesDir2(), plan.getJumpLength(v));
+					}
 
-                                //calculate traffic volume for each combination, e.g. combination is. "Pkw+Rad"
-								for(String combination : containedCombinationsInThisFile){
-									String[] headers = combination.split(";");
-									Double sumDir1 = 0.;
-									Double sumDir2 = 0.;
-									for(String header : headers){
-										if(! trafficVolumesperVehicleType.get(header).getFirst().equals(Double.NaN) && !sumDir1.equals(Double.NaN)) {
-											sumDir1 += trafficVolumesperVehicleType.get(header).getFirst();
-										} else { // this means, exclude data which has low reliability (even for one of the mode in the combination)
-											sumDir1 = Double.NaN;
-										}
-										if(! trafficVolumesperVehicleType.get(header).getSecond().equals(Double.NaN)  && !sumDir2.equals(Double.NaN)) {
-											sumDir2 += trafficVolumesperVehicleType.get(header).getSecond();
-										} else {
-											sumDir2 = Double.NaN;
-										}
-									}
-
-                                    //get the HourlyCountData object and set volumes
-									HourlyCountData data = this.countingStationsData.get(combination).get(countID);
-									if(data == null){
-										data = new HourlyCountData(countName, null); //ID = countID_countName_streetID
-									}
-
-                                    if (!sumDir1.equals(Double.NaN)) {
-										data.computeAndSetVolume(true, hour, sumDir1);
-									}
-									if(!sumDir2.equals(Double.NaN)) {
-										data.computeAndSetVolume(false, hour, sumDir2);
-									}
-									this.countingStationsData.get(combination).put(countID,data);
+					//calculate traffic volume for each combination, e.g. combination is. "Pkw+Rad"
+					for (int c = 0; c < plan.getNumberOfCombinations(); c++) {
+						// a NaN of one vehicle type makes the whole sum NaN. this means, exclude data which has low reliability (even for one of the mode in the combination)
+						double sumDir1 = 0.;
+						double sumDir2 = 0.;
+						for (int vehicleType : plan.getVehicleTypesOfCombination(c)) {
+							sumDir1 += volumesDir1[vehicleType];
+							sumDir2 += volumesDir2[vehicleType];
+						}
+						// hours which were rejected by the screening are treated like invalid data
+						if (rejectedDir1) sumDir1 = Double.NaN;
+						if (rejectedDir2) sumDir2 = Double.NaN;
+
+						for (int p = 0; p < dataOfProfiles.length; p++) {
+							if ((profilesOfDay & (1 << p)) == 0) continue;
+
+							//get the HourlyCountData object and set volumes
+							HourlyCountData data = dataOfProfiles[p][c];
+							if (data == null) {
+								Map<String, HourlyCountData> dataMap = stationsData.get(getDataKey(p == 0 ? null : dayProfiles.get(p - 1), plan.getCombination(c)));
+								data = dataMap.get(countID);
+								if (data == null) {
+									// quantiles are only converted for the analysis days
+									data = createHourlyCountData(countName, p == 0, stationsData);	//ID = countID_countName_streetID
+									dataMap.put(countID, data);
 								}
-                            }
+								dataOfProfiles[p][c] = data;
+							}
+
+							if (!Double.isNaN(sumDir1)) {
+								data.computeAndSetVolume(true, hour, sumDir1);
+							}
+							if(!Double.isNaN(sumDir2)) {
+								data.computeAndSetVolume(false, hour, sumDir2);
+							}
 						}
 					}
-
-                    reader.close();
-				} catch (FileNotFoundException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-					log.severe("could not access " + countFile.getAbsolutePath() + "\n the corresponding data is not taken into account");
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
 				}
+			}
+		}
+		return markProcessed(countFile, countID, true);
+	}
 
-            }
-		  } else {
-			  log.severe("the following directory is empty or cannot be accessed. Thus, it is skipped. Path = " + monthDir.getAbsolutePath());
-              throw new RuntimeException("Could not access directory: " + monthDir.getAbsolutePath());
-		  }
+	private boolean markProcessed(File countFile, String countID, boolean readCompletely) throws IOException {
+		if (incrementalState != null) {
+			incrementalState.markProcessed(countFile, countID, readCompletely);
+		}
+		return readCompletely;
 	}
 
-    private void convertDataToMatSimCounts(Counts<Link> container, Map<String, HourlyCountData> dataMap) {
+    /**
+     * @param quantile quantile of the hourly volumes which is written to the counts or NaN for the mean
+     * @param reportProblems whether invalid hours are reported. Only done for one conversion of the same stations
+     */
+    private void convertDataToMatSimCounts(Counts<Link> container, Map<String, HourlyCountData> dataMap, double quantile,
+                                           boolean reportProblems) {
+        boolean useMean = Double.isNaN(quantile);
         int cnt = 0;
         for (String countNrString : dataMap.keySet()) {
             String stationID = "NW_" + countNrString;
@@ -385,10 +756,11 @@ public class LongTermCountsCreator {
             }
 
             cnt++;
-            if (cnt % 50 == 0) {
+            if (reportProblems && cnt % 50 == 0) {
                 log.info("converting station nr " + cnt);
             }
             HourlyCountData data = dataMap.get(countNrString);
+            double[] factors = extrapolationFactors != null ? extrapolationFactors.get(countNrString) : null;
 
             Id<Link> linkIDDirectionOne = this.linkIDsOfCountingStations.get(stationID + "_R1");
             Id<Link> linkIDDirectionTwo = this.linkIDsOfCountingStations.get(stationID + "_R2");
@@ -401,17 +773,11 @@ public class LongTermCountsCreator {
                 log.severe("can not access the basthourlycountdata... the countNrString was " + countNrString);
             }
 
-            if (linkIDDirectionOne == null && !this.notLocatedCountingStations.contains(stationID + "_R1")) {
-                String problem = "direction 1 of the counting station " + stationID + " was not localised in the given csv file";
-                log.severe(problem);
-                this.problemsPerCountingStation.put(stationID + "_R1", problem);
-                this.notLocatedCountingStations.add(stationID + "_R1");
+            if (linkIDDirectionOne == null && this.notLocatedCountingStations.add(stationID + "_R1")) {
+                diagnostics.report(stationID, 1, CountsDiagnostics.ALL_HOURS, CountsDiagnostics.Reason.NOT_LOCATED, "no entry in the mapping file");
             }
-            if (linkIDDirectionTwo == null && !this.notLocatedCountingStations.contains(stationID + "_R2")) {
-                String problem = "direction 2 of the counting station " + stationID + " was not localised in the given csv file";
-                log.severe(problem);
-                this.problemsPerCountingStation.put(stationID + "_R2", problem);
-                this.notLocatedCountingStations.add(stationID + "_R2");
+            if (linkIDDirectionTwo == null && this.notLocatedCountingStations.add(stationID + "_R2")) {
+                diagnostics.report(stationID, 2, CountsDiagnostics.ALL_HOURS, CountsDiagnostics.Reason.NOT_LOCATED, "no entry in the mapping file");
             }
 
             Count<Link> countDirOne = null;
@@ -425,25 +791,24 @@ public class LongTermCountsCreator {
                 }
 
                 for (int i = 1; i < 25; i++) {
-                    Double valueDirOne = data.getR1Values().get(i);
-                    Double valueDirTwo = data.getR2Values().get(i);
-
-                    if (valueDirOne == null) {
-                        String problem = "station " + stationID + " has a non-valid entry for hour " + i + " in direction one. Please check this. The value in the count file is set to -1.";
-                        log.severe(problem + " Error occured at creation nr " + cnt);
-                        if (this.problemsPerCountingStation.containsKey(stationID)) {
-                            problem = this.problemsPerCountingStation.get(stationID) + problem;
+                    double valueDirOne = useMean ? data.getAverageVolume(true, i) : data.getQuantile(true, i, quantile);
+                    double valueDirTwo = useMean ? data.getAverageVolume(false, i) : data.getQuantile(false, i, quantile);
+                    if (factors != null) {
+                        // the factor of hour i is at index i - 1, see SeasonalFactors.extrapolate
+                        valueDirOne *= factors[i - 1];
+                        valueDirTwo *= factors[i - 1];
+                    }
+
+                    if (!data.hasVolume(true, i)) {
+                        if (reportProblems && countDirOne != null) {
+                            diagnostics.report(stationID, 1, i, CountsDiagnostics.Reason.INVALID_HOUR, null);
                         }
-                        this.problemsPerCountingStation.put(stationID, problem);
                         valueDirOne = -1.;
                     }
-                    if (valueDirTwo == null) {
-                        String problem = "station " + stationID + " has a non-valid entry for hour " + i + " in direction two. Please check this. The value in the count file is set to -1.";
-                        log.severe(problem + " Error occured at creation nr " + cnt);
-                        if (this.problemsPerCountingStation.containsKey(stationID)) {
-                            problem = this.problemsPerCountingStation.get(stationID) + problem;
+                    if (!data.hasVolume(false, i)) {
+                        if (reportProblems && countDirTwo != null) {
+                            diagnostics.report(stationID, 2, i, CountsDiagnostics.Reason.INVALID_HOUR, null);
                         }
-                        this.problemsPerCountingStation.put(stationID, problem);
                         valueDirTwo = -1.0;
                     }
                     if (countDirOne != null) countDirOne.createVolume(i, Math.ceil(valueDirOne));
@@ -451,24 +816,79 @@ public class LongTermCountsCreator {
                 }
 
             } catch (Exception e) {
-                String str = "\n current station = " + stationID + ". the other station that is already on the link is station " + container.getCount(linkIDDirectionTwo) + " for R1 or station " + container.getCount(linkIDDirectionOne) + " for R2";
-                System.out.println(e.getMessage() + str);
+                String str = "current station = " + stationID + ". the other station that is already on the link is station " + container.getCount(linkIDDirectionTwo) + " for R1 or station " + container.getCount(linkIDDirectionOne) + " for R2";
                 e.printStackTrace();
 
-                this.problemsPerCountingStation.put(stationID, e.getMessage() + str);
+                if (reportProblems) {
+                    diagnostics.report(stationID, CountsDiagnostics.Reason.CONVERSION_FAILED, e.getMessage() + ". " + str);
+                }
             }
         }
     }
 
     protected void readNodeIDsOfCountingStationsAndGetLinkIDs() {
-        log.info("...start reading OSM-nodeID's from " + this.pathToOSMMappingFile);
+        Map<String, StationLinkCache.StationLink> stationLinks = null;
+        String fingerprint = null;
+        if (stationLinkCache != null) {
+            fingerprint = StationLinkCache.createFingerprint(network, Paths.get(pathToOSMMappingFile));
+            stationLinks = stationLinkCache.load(fingerprint);
+        }
+        if (stationLinks == null) {
+            stationLinks = matchCountingStations();
+            if (stationLinkCache != null) {
+                stationLinkCache.save(fingerprint, stationLinks);
+            }
+        }
 
         Map<String, Id<Link>> linkIDsOfCounts = new HashMap<String, Id<Link>>();
+        for (Map.Entry<String, StationLinkCache.StationLink> entry : stationLinks.entrySet()) {
+            String station = entry.getKey();
+            StationLinkCache.StationLink stationLink = entry.getValue();
+            switch (stationLink.getStatus()) {
+                case COMMENTED:
+                    // commented stations are assumed not to be map matched properly and are ignored during conversion
+                    diagnostics.report(station, CountsDiagnostics.Reason.COMMENTED, stationLink.getProblem());
+                    notMapMatchedStations.add(station);
+                    break;
+                case NODE_MISSING:
+                    // this means something went wrong in network creation
+                    diagnostics.report(station, CountsDiagnostics.Reason.NODE_MISSING, stationLink.getProblem());
+                    linkIDsOfCounts.put(station, stationLink.getLinkId());
+                    notLocatedCountingStations.add(station);
+                    break;
+                case NO_PATH:
+                    diagnostics.report(station, CountsDiagnostics.Reason.NO_PATH, stationLink.getProblem());
+                    notLocatedCountingStations.add(station);
+                    if (isWithinFilter(network.getLinks().get(stationLink.getLinkId())))
+                        linkIDsOfCounts.put(station, stationLink.getLinkId());
+                    break;
+                case MATCHED:
+                    if (isWithinFilter(network.getLinks().get(stationLink.getLinkId())))
+                        linkIDsOfCounts.put(station, stationLink.getLinkId());
+                    break;
+            }
+        }
+
+        log.info("-----------------------------------------------------");
+        log.info("read in " + linkIDsOfCounts.size() + " link-id's");
+        this.linkIDsOfCountingStations = linkIDsOfCounts;
+    }
+
+    /**
+     * Looks up the from and to node of every station in the mapping file and the link which connects them. If there is
+     * no direct link, the first link of the shortest path between both nodes is used.
+     */
+    private Map<String, StationLinkCache.StationLink> matchCountingStations() {
+        log.info("...start reading OSM-nodeID's from " + this.pathToOSMMappingFile);
+
+        Map<String, StationLinkCache.StationLink> stationLinks = new LinkedHashMap<>();
         TabularFileParserConfig config = new TabularFileParserConfig();
         config.setDelimiterTags(new String[]{";"});
         config.setFileName(pathToOSMMappingFile);
 
         CountLinkFinder linkFinder = new CountLinkFinder(network);
+        // stations whose nodes are not connected directly. their paths are searched in one batch after reading the file
+        Map<String, Node[]> stationsWithoutDirectLink = new LinkedHashMap<>();
 
         new TabularFileParser().parse(config, new TabularFileHandler() {
             private boolean header = true;
@@ -476,67 +896,53 @@ public class LongTermCountsCreator {
             @Override
             public void startRow(String[] row) {
                 if (!header) {
-                    Id<Link> countLinkID = null;
                     if (row.length >= 5) {
-                        log.severe("station " + row[0] + " is commented like this in the map matching csv file: " + row[4]);
-                        log.severe("it is assumed not to be mapmatched properly and thus gets ignored while data conversion...");
-                        notMapMatchedStations.add(row[0]);
+                        stationLinks.put(row[0], new StationLinkCache.StationLink(StationLinkCache.Status.COMMENTED, null, row[4]));
                     } else {
-                        boolean missingNodes = false;
                         Node fromNode = network.getNodes().get(Id.createNodeId(Long.parseLong(row[1])));
-                        if (fromNode == null) {
-                            String problem = "could not find fromNode " + row[1] + " of station " + row[0];
-                            log.severe(problem);
-                            log.severe("this means something went wrong in network creation");
-                            problemsPerCountingStation.put(row[0], problem);
-                            linkIDsOfCounts.put(row[0], Id.createLinkId("noFromNode_" + row[0]));
-                            header = false;
-                            notLocatedCountingStations.add(row[0]);
-                            missingNodes = true;
-                        }
                         Id<Node> toNodeID = Id.createNodeId(Long.parseLong(row[2]));
                         Node toNode = network.getNodes().get(toNodeID);
                         if (toNode == null) {
-                            String problem = "could not find toNode " + row[2] + " of station " + row[0];
-                            log.severe(problem);
-                            log.severe("this means something went wrong in network creation");
-                            problemsPerCountingStation.put(row[0], problem);
-                            linkIDsOfCounts.put(row[0], Id.createLinkId("noToNode_" + row[0]));
-                            header = false;
-                            notLocatedCountingStations.add(row[0]);
-                            missingNodes = true;
-                        }
-
-                        if (missingNodes) return;
-
-                        for (Link outlink : fromNode.getOutLinks().values()) {
-                            if (outlink.getToNode().getId().equals(toNodeID)) {
-                                countLinkID = outlink.getId();
+                            stationLinks.put(row[0], new StationLinkCache.StationLink(StationLinkCache.Status.NODE_MISSING,
+                                    Id.createLinkId("noToNode_" + row[0]), "could not find toNode " + row[2] + " of station " + row[0]));
+                        } else if (fromNode == null) {
+                            stationLinks.put(row[0], new StationLinkCache.StationLink(StationLinkCache.Status.NODE_MISSING,
+                                    Id.createLinkId("noFromNode_" + row[0]), "could not find fromNode " + row[1] + " of station " + row[0]));
+                        } else {
+                            Id<Link> countLinkID = null;
+                            for (Link outlink : fromNode.getOutLinks().values()) {
+                                if (outlink.getToNode().getId().equals(toNodeID)) {
+                                    countLinkID = outlink.getId();
+                                }
                             }
-                        }
-                        if (countLinkID == null) {
-                            String problem;
-
-                            countLinkID = linkFinder.getFirstLinkOnTheWayFromNodeToNode(fromNode, toNode);
                             if (countLinkID == null) {
-                                problem = "COULD FIND NO PATH LEADING FROM NODE " + fromNode.getId() + " TO NODE " + toNodeID;
-                                log.severe(problem);
-                                countLinkID = Id.createLinkId("pathCouldNotBeCreated_" + row[0]);
-                                problemsPerCountingStation.put(row[0], problem);
-                                notLocatedCountingStations.add(row[0]);
+                                stationsWithoutDirectLink.put(row[0], new Node[]{fromNode, toNode});
+                            } else {
+                                stationLinks.put(row[0], new StationLinkCache.StationLink(StationLinkCache.Status.MATCHED, countLinkID, null));
                             }
                         }
                     }
-					if (countLinkID != null && isWithinFilter(network.getLinks().get(countLinkID)))
-						linkIDsOfCounts.put(row[0], countLinkID);
                 }
                 header = false;
             }
 
         });
-        log.info("-----------------------------------------------------");
-        log.info("read in " + linkIDsOfCounts.size() + " link-id's");
-        this.linkIDsOfCountingStations = linkIDsOfCounts;
+
+        log.info("searching paths for " + stationsWithoutDirectLink.size() + " stations whose nodes are not connected directly");
+        Map<String, CountLinkFinder.Match> matches = linkFinder.findMatches(stationsWithoutDirectLink, numberOfIngestionThreads);
+        for (Map.Entry<String, CountLinkFinder.Match> stationMatch : matches.entrySet()) {
+            String station = stationMatch.getKey();
+            CountLinkFinder.Match match = stationMatch.getValue();
+            if (match == null) {
+                Node[] fromAndToNode = stationsWithoutDirectLink.get(station);
+                String problem = "COULD FIND NO PATH LEADING FROM NODE " + fromAndToNode[0].getId() + " TO NODE " + fromAndToNode[1].getId();
+                stationLinks.put(station, new StationLinkCache.StationLink(StationLinkCache.Status.NO_PATH,
+                        Id.createLinkId("pathCouldNotBeCreated_" + station), problem));
+            } else {
+                log.info("path of station " + station + ": " + match);
+                stationLinks.put(station, new StationLinkCache.StationLink(StationLinkCache.Status.MATCHED, match.getFirstLinkId(), null));
+            }
+        }
 
         log.info("number of OSM-Node-ID-mappings that were not directly connected by a link, but a path could be calculated: " + linkFinder.getNrOfFoundPaths());
 
@@ -545,14 +951,11 @@ public class LongTermCountsCreator {
             SimpleDateFormat format = new SimpleDateFormat("YY_MM_dd_HH_mm");
             linkFinder.writeNetworkThatShowsAllFoundPaths(outputPath + "visNetOfReconstructedPaths_" + format.format(Calendar.getInstance().getTime()) + ".xml");
         }
+        return stationLinks;
     }
 
 	private boolean isWithinFilter(Link link) {
-		try {
-			return (filter == null || link == null || filter.contains(MGC.coord2Point(link.getCoord())));
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+		return filter == null || link == null || filter.contains(link.getCoord());
 	}
 
     protected void finish(Map<String, Counts<Link>> countsPerColumnCombination) {
@@ -569,8 +972,6 @@ public class LongTermCountsCreator {
 				log.severe("currently str = " + str);
 			}
 
-        log.info("number of problems that occured while creating matsim counts: " + this.problemsPerCountingStation.size());
-
         for (String combination : this.columnCombination) {
 				log.info("checking data quality of counts for " + combination);
 
@@ -669,20 +1070,19 @@ public class LongTermCountsCreator {
         return string;
     }
 
-    private double readTrafficVolume(String[] rowData, int baseColumn, int nrOfLanes, int jumpLength) {
+    private double readTrafficVolume(BastRecordSource scanner, int baseColumn, int nrOfLanes, int jumpLength) {
         double trafficVolume = 0.;
         for (int lane = 1; lane <= nrOfLanes; lane++) {
-            String valueOfLaneString = rowData[baseColumn + (lane - 1) * jumpLength];
             double valueOfLane = 0;
             try {
-                if (valueOfLaneString.endsWith("-")) {
-                    valueOfLane = Double.parseDouble(valueOfLaneString.substring(0, valueOfLaneString.length() - 1));
-                } else {
+                valueOfLane = scanner.getVolume(baseColumn + (lane - 1) * jumpLength);
+                if (Double.isNaN(valueOfLane)) {
                     return Double.NaN;            //once data set for one lane is invalid, it is invalid for the whole direction
                 }
 
             } catch (NumberFormatException nfe) {
                 log.severe("could'nt read traffic volumes. error message: \n" + nfe.getMessage());
+                valueOfLane = 0;
             }
             trafficVolume += valueOfLane;
         }
@@ -738,6 +1138,48 @@ public class LongTermCountsCreator {
         this.countingStationsToOmit.addAll(stationIds);
     }
 
+    void setNumberOfIngestionThreads(int numberOfIngestionThreads) {
+        this.numberOfIngestionThreads = numberOfIngestionThreads;
+    }
+
+    void setIncrementalStateFile(String incrementalStateFile) {
+        this.incrementalState = incrementalStateFile != null ? new IncrementalCountsState(Paths.get(incrementalStateFile)) : null;
+    }
+
+    void setQuantiles(double... quantiles) {
+        for (double quantile : quantiles) {
+            if (quantile <= 0 || quantile >= 1) throw new IllegalArgumentException("quantiles must be between 0 and 1 but was " + quantile);
+        }
+        this.quantiles = quantiles.clone();
+    }
+
+    void setStationLinkCacheDir(String stationLinkCacheDir) {
+        this.stationLinkCache = stationLinkCacheDir != null && pathToOSMMappingFile != null
+                ? new StationLinkCache(Paths.get(stationLinkCacheDir, new File(pathToOSMMappingFile).getName() + ".links"))
+                : null;
+    }
+
+    void setDayProfiles(List<DayProfile> dayProfiles) {
+        Set<String> names = new HashSet<>();
+        for (DayProfile profile : dayProfiles) {
+            if (!names.add(profile.getName())) throw new IllegalArgumentException("day profile names must be unique: " + profile.getName());
+        }
+        this.dayProfiles.clear();
+        this.dayProfiles.addAll(dayProfiles);
+    }
+
+    void setRejectionListFile(String rejectionListFile) {
+        this.rejectionListFile = rejectionListFile;
+    }
+
+    void setTimeSeriesStoreDir(String timeSeriesStoreDir) {
+        this.timeSeriesStoreDir = timeSeriesStoreDir;
+    }
+
+    void setRawCountsCacheDir(String rawCountsCacheDir) {
+        this.rawCountsCache = rawCountsCacheDir != null ? new RawCountsCache(Paths.get(rawCountsCacheDir)) : null;
+    }
+
     void setMonthRangeMin(int monthRange_min) {
 		this.monthRange_min = monthRange_min;
 	}
@@ -765,6 +1207,16 @@ public class LongTermCountsCreator {
         int monthRangeMax = 12;
         int weekRangeMin = 1;
         int weekRangeMax = 5;
+        int numberOfIngestionThreads = 1;
+        String rawCountsCacheDir;
+        String stationLinkCacheDir;
+        boolean readArchivesWithoutExtracting = false;
+        String incrementalStateFile;
+        double[] quantiles = new double[0];
+        List<DayProfile> dayProfiles = new ArrayList<>();
+        String rejectionListFile;
+        String timeSeriesStoreDir;
+        SeasonalFactors seasonalFactors;
         Network network;
         Set<String> columnCombinations;
 		Geometry filter;
@@ -865,6 +1317,130 @@ public class LongTermCountsCreator {
             return this;
         }
 
+        /**
+         * Reads the count files of a year with several threads. The resulting counts are the same as with a single thread.
+         * @param numberOfThreads number of threads used to parse count files. Default is 1, which reads all files sequentially
+         * @return Current Builder instance
+         */
+        public AbstractBuilder<T> withParallelIngestion(int numberOfThreads) {
+            this.numberOfIngestionThreads = numberOfThreads;
+            return this;
+        }
+
+        /**
+         * Keeps a binary copy of every long term count file which was read. Later runs read the copies instead of parsing
+         * the raw files again, as long as the raw files are not changed. All other settings of the builder may change
+         * between runs. Short term count files are not cached.
+         * @param rawCountsCacheDir folder the binary copies are written to. Default is no cache
+         * @return Current Builder instance
+         */
+        public AbstractBuilder<T> withRawCountsCache(String rawCountsCacheDir) {
+            this.rawCountsCacheDir = rawCountsCacheDir;
+            return this;
+        }
+
+        /**
+         * Stores the link of every counting station, or the reason why none was found, after the map matching. Later
+         * runs load the stored links instead of matching the stations again, as long as neither the network nor the
+         * mapping file changed. Long and short term counts get separate files in the folder.
+         * @param stationLinkCacheDir folder the station links are written to. Default is no cache
+         * @return Current Builder instance
+         */
+        public AbstractBuilder<T> withStationLinkCache(String stationLinkCacheDir) {
+            this.stationLinkCacheDir = stationLinkCacheDir;
+            return this;
+        }
+
+        /**
+         * Reads the short term count files directly from the zip archives instead of extracting them to disk first. The
+         * archives are read by the number of threads set with {@link #withParallelIngestion(int)}. Long term count
+         * files are not archived, so this has no effect for them.
+         * @return Current Builder instance
+         */
+        public AbstractBuilder<T> readArchivesWithoutExtracting() {
+            this.readArchivesWithoutExtracting = true;
+            return this;
+        }
+
+        /**
+         * Stores the aggregated long term counts in a file after each run. The next run only reads the count files which
+         * were added in the meantime, e.g. a new month, and regenerates the counts from the stored and the new data. All
+         * files are read again if settings like the column combinations or the analysed days changed. The last day of
+         * analysis may move forward if it was the last day of a month. Short term counts are always read completely.
+         * @param incrementalStateFile file the aggregated counts are stored in. Default is no incremental update
+         * @return Current Builder instance
+         */
+        public AbstractBuilder<T> withIncrementalUpdate(String incrementalStateFile) {
+            this.incrementalStateFile = incrementalStateFile;
+            return this;
+        }
+
+        /**
+         * Keeps a streaming quantile sketch per station, direction and hour in addition to the mean. For every quantile
+         * another set of counts is created whose volumes are the quantile of the hourly volumes, e.g. the median, which
+         * is less sensitive to outliers than the mean. The memory per station does not grow with the number of days read.
+         * @param quantiles quantiles between 0 and 1, e.g. 0.5 for the median and 0.85 for the 85th percentile
+         * @return Current Builder instance
+         * @see LongTermCountsCreator#getQuantileCounts(double)
+         */
+        public AbstractBuilder<T> withQuantiles(double... quantiles) {
+            this.quantiles = quantiles;
+            return this;
+        }
+
+        /**
+         * Creates counts for several types of days, e.g. working days, Saturdays and Sundays, while reading the count data
+         * once. Each row is assigned to every profile its date belongs to. The profiles only depend on the analysis window
+         * and the months, not on the week days and ignored dates, which apply to the regular counts. Only long term counts
+         * are split into profiles.
+         * @param dayProfiles types of days to create separate counts for, see {@link DayProfile}
+         * @return Current Builder instance
+         * @see LongTermCountsCreator#getProfileCounts(String)
+         */
+        public AbstractBuilder<T> withDayProfiles(DayProfile... dayProfiles) {
+            this.dayProfiles = Arrays.asList(dayProfiles);
+            return this;
+        }
+
+        /**
+         * Screens the long term count files before they are aggregated. Hours with long runs of zeros, days with a strong
+         * imbalance between both directions and hours which are outliers compared to the same hour of similar days are
+         * left out. The rejected hours are written to the given file together with the reason, see {@link CountsScreening}.
+         * If the file exists, only station years whose count files changed are screened again and hand edits of the other
+         * station years are kept.
+         * @param rejectionListFile csv file the rejected hours are written to. Default is no screening
+         * @return Current Builder instance
+         */
+        public AbstractBuilder<T> withScreening(String rejectionListFile) {
+            this.rejectionListFile = rejectionListFile;
+            return this;
+        }
+
+        /**
+         * Extrapolates the volumes of short term counts, which only cover a few days, to the annual average. Each short
+         * term station is scaled with the day of year and hour factors of the nearest long term stations of the same
+         * road class. Only applies to short term counts.
+         * @param seasonalFactors factors of the long term stations, see {@link LongTermCountsCreator#computeSeasonalFactors()}
+         * @return Current Builder instance
+         */
+        public AbstractBuilder<T> withExtrapolation(SeasonalFactors seasonalFactors) {
+            this.seasonalFactors = seasonalFactors;
+            return this;
+        }
+
+        /**
+         * Keeps the hourly volumes of every long term station and vehicle type of the column combinations in one memory
+         * mapped file per station, see {@link CountsTimeSeriesStore}. Counts for other periods or week days within the
+         * years of analysis can then be created without reading the count files again. Only applies to long term counts.
+         * @param timeSeriesStoreDir folder the station files are written to. Default is no store
+         * @return Current Builder instance
+         * @see LongTermCountsCreator#createCountsFromTimeSeries(LocalDate, LocalDate, Set, String)
+         */
+        public AbstractBuilder<T> withTimeSeriesStore(String timeSeriesStoreDir) {
+            this.timeSeriesStoreDir = timeSeriesStoreDir;
+            return this;
+        }
+
 		public AbstractBuilder<T> useCountsWithinGeometry(Geometry filter) {
 			this.filter = filter;
 			return this;
@@ -908,6 +1484,14 @@ public class LongTermCountsCreator {
             creator.setMonthRangeMax(monthRangeMax);
             creator.setWeekRangeMin(weekRangeMin);
             creator.setWeekRangeMax(weekRangeMax);
+            creator.setNumberOfIngestionThreads(numberOfIngestionThreads);
+            creator.setRawCountsCacheDir(rawCountsCacheDir);
+            creator.setStationLinkCacheDir(stationLinkCacheDir);
+            creator.setIncrementalStateFile(incrementalStateFile);
+            creator.setQuantiles(quantiles);
+            creator.setDayProfiles(dayProfiles);
+            creator.setRejectionListFile(rejectionListFile);
+            creator.setTimeSeriesStoreDir(timeSeriesStoreDir);
             creator.setDatesToIgnore(datesToIgnore);
             creator.addToStationsToOmit(Arrays.asList(stationIdsToOmit));
             return creator;
@@ -0,0 +1,132 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The link ids of a MATSim network file, optionally with the ids of their from and to nodes. The file is scanned
+ * element by element and only the attributes of the link elements are kept, so no {@code Link} or {@code Node} objects
+ * are created. The ids are stored in a sorted array and looked up by binary search.
+ */
+final class NetworkLinkIds {
+
+	private final String[] linkIds;
+	private final String[] fromNodeIds;
+	private final String[] toNodeIds;
+
+	private NetworkLinkIds(String[] linkIds, String[] fromNodeIds, String[] toNodeIds) {
+		this.linkIds = linkIds;
+		this.fromNodeIds = fromNodeIds;
+		this.toNodeIds = toNodeIds;
+	}
+
+	/**
+	 * @param networkFile network file, compressed if the name ends with .gz
+	 * @param withNodes whether the from and to nodes of the links are kept
+	 */
+	static NetworkLinkIds read(String networkFile, boolean withNodes) {
+		List<String[]> links = new ArrayList<>();
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// the doctype of the network file refers to a dtd on the web, which is not needed to read the ids
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		try (InputStream in = open(networkFile)) {
+			XMLStreamReader reader = factory.createXMLStreamReader(in);
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("link")) {
+						links.add(withNodes
+								? new String[]{reader.getAttributeValue(null, "id"), reader.getAttributeValue(null, "from"), reader.getAttributeValue(null, "to")}
+								: new String[]{reader.getAttributeValue(null, "id")});
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("could not read network " + networkFile, e);
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("could not parse network " + networkFile, e);
+		}
+
+		links.sort(Comparator.comparing(link -> link[0]));
+		String[] linkIds = new String[links.size()];
+		String[] fromNodeIds = withNodes ? new String[links.size()] : null;
+		String[] toNodeIds = withNodes ? new String[links.size()] : null;
+		for (int i = 0; i < links.size(); i++) {
+			linkIds[i] = links.get(i)[0];
+			if (withNodes) {
+				fromNodeIds[i] = links.get(i)[1];
+				toNodeIds[i] = links.get(i)[2];
+			}
+		}
+		return new NetworkLinkIds(linkIds, fromNodeIds, toNodeIds);
+	}
+
+	private static InputStream open(String file) throws IOException {
+		InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(file)));
+		return file.endsWith(".gz") ? new GZIPInputStream(in) : in;
+	}
+
+	boolean contains(String linkId) {
+		return Arrays.binarySearch(linkIds, linkId) >= 0;
+	}
+
+	int size() {
+		return linkIds.length;
+	}
+
+	/**
+	 * @return the from node of the link or null if the link is not part of the network
+	 * @throws IllegalStateException if the nodes were not read
+	 */
+	String getFromNodeId(String linkId) {
+		return getNodeId(fromNodeIds, linkId);
+	}
+
+	/**
+	 * @return the to node of the link or null if the link is not part of the network
+	 * @throws IllegalStateException if the nodes were not read
+	 */
+	String getToNodeId(String linkId) {
+		return getNodeId(toNodeIds, linkId);
+	}
+
+	private String getNodeId(String[] nodeIds, String linkId) {
+		if (nodeIds == null) throw new IllegalStateException("the nodes of the links were not read");
+		int index = Arrays.binarySearch(linkIds, linkId);
+		return index >= 0 ? nodeIds[index] : null;
+	}
+}
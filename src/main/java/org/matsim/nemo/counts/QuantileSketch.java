@@ -0,0 +1,254 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming estimate of the quantiles of a series of values with constant memory, following the merging t-digest of
+ * Dunning and Ertl. The values are summarized by weighted centroids. Centroids near the tails only hold few values, so
+ * that the extreme quantiles stay accurate, while centroids near the median may hold many values.
+ * <p>
+ * New values are collected in a buffer first. Once the buffer is full, the buffer and the existing centroids are sorted
+ * and merged into at most about {@code compression} centroids. Two sketches can be merged, which gives the same
+ * accuracy as adding all values to one sketch.
+ */
+final class QuantileSketch {
+
+	static final double DEFAULT_COMPRESSION = 50;
+
+	private final double compression;
+
+	private double[] means;
+	private double[] weights;
+	private int numberOfCentroids = 0;
+
+	private final double[] buffer;
+	private int numberOfBufferedValues = 0;
+
+	private double totalWeight = 0;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	QuantileSketch() {
+		this(DEFAULT_COMPRESSION);
+	}
+
+	QuantileSketch(double compression) {
+		this.compression = compression;
+		// the k1 scale function yields at most ~compression centroids, a few more are needed for rounding
+		this.means = new double[(int) Math.ceil(compression) + 10];
+		this.weights = new double[means.length];
+		this.buffer = new double[(int) Math.ceil(2 * compression)];
+	}
+
+	void add(double value) {
+		if (numberOfBufferedValues == buffer.length) {
+			compress();
+		}
+		buffer[numberOfBufferedValues++] = value;
+		totalWeight++;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	void merge(QuantileSketch other) {
+		if (other.totalWeight == 0) return;
+		other.compress();
+		compress(other.means, other.weights, other.numberOfCentroids);
+		totalWeight += other.totalWeight;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	long getCount() {
+		return (long) totalWeight;
+	}
+
+	/**
+	 * @param q quantile between 0 and 1, e.g. 0.5 for the median
+	 * @return the estimated value at this quantile or NaN if no value was added
+	 */
+	double getQuantile(double q) {
+		if (q < 0 || q > 1) throw new IllegalArgumentException("quantile must be between 0 and 1 but was " + q);
+		compress();
+		if (numberOfCentroids == 0) return Double.NaN;
+		if (numberOfCentroids == 1) return means[0];
+
+		double index = q * totalWeight;
+		if (index < weights[0] / 2) {
+			return min + index / (weights[0] / 2) * (means[0] - min);
+		}
+		double cumulativeWeight = 0;
+		for (int i = 0; i < numberOfCentroids - 1; i++) {
+			double left = cumulativeWeight + weights[i] / 2;
+			double right = cumulativeWeight + weights[i] + weights[i + 1] / 2;
+			if (index <= right) {
+				return means[i] + (index - left) / (right - left) * (means[i + 1] - means[i]);
+			}
+			cumulativeWeight += weights[i];
+		}
+		int last = numberOfCentroids - 1;
+		double left = totalWeight - weights[last] / 2;
+		return means[last] + (index - left) / (weights[last] / 2) * (max - means[last]);
+	}
+
+	void write(DataOutput out) throws IOException {
+		compress();
+		out.writeDouble(totalWeight);
+		out.writeDouble(min);
+		out.writeDouble(max);
+		out.writeInt(numberOfCentroids);
+		for (int i = 0; i < numberOfCentroids; i++) {
+			out.writeDouble(means[i]);
+			out.writeDouble(weights[i]);
+		}
+	}
+
+	static QuantileSketch read(DataInput in, double compression) throws IOException {
+		QuantileSketch sketch = new QuantileSketch(compression);
+		sketch.totalWeight = in.readDouble();
+		sketch.min = in.readDouble();
+		sketch.max = in.readDouble();
+		int numberOfCentroids = in.readInt();
+		sketch.ensureCapacity(numberOfCentroids);
+		for (int i = 0; i < numberOfCentroids; i++) {
+			sketch.means[i] = in.readDouble();
+			sketch.weights[i] = in.readDouble();
+		}
+		sketch.numberOfCentroids = numberOfCentroids;
+		return sketch;
+	}
+
+	private void compress() {
+		compress(new double[0], new double[0], 0);
+	}
+
+	/**
+	 * Merges the buffered values, the existing centroids and the additional centroids into a new set of centroids.
+	 */
+	private void compress(double[] additionalMeans, double[] additionalWeights, int numberOfAdditionalCentroids) {
+		if (numberOfBufferedValues == 0 && numberOfAdditionalCentroids == 0) return;
+
+		int n = numberOfCentroids + numberOfBufferedValues + numberOfAdditionalCentroids;
+		double[] allMeans = new double[n];
+		double[] allWeights = new double[n];
+		System.arraycopy(means, 0, allMeans, 0, numberOfCentroids);
+		System.arraycopy(weights, 0, allWeights, 0, numberOfCentroids);
+		System.arraycopy(buffer, 0, allMeans, numberOfCentroids, numberOfBufferedValues);
+		Arrays.fill(allWeights, numberOfCentroids, numberOfCentroids + numberOfBufferedValues, 1);
+		System.arraycopy(additionalMeans, 0, allMeans, numberOfCentroids + numberOfBufferedValues, numberOfAdditionalCentroids);
+		System.arraycopy(additionalWeights, 0, allWeights, numberOfCentroids + numberOfBufferedValues, numberOfAdditionalCentroids);
+		sortByMean(allMeans, allWeights);
+
+		double weightOfAll = 0;
+		for (int i = 0; i < n; i++) {
+			weightOfAll += allWeights[i];
+		}
+
+		// merge neighbouring centroids as long as the merged centroid spans at most one unit of the scale function
+		double[] mergedMeans = new double[n];
+		double[] mergedWeights = new double[n];
+		int numberOfMergedCentroids = 0;
+		double weightSoFar = 0;
+		double kLeft = scale(0);
+		double currentMean = allMeans[0];
+		double currentWeight = allWeights[0];
+		for (int i = 1; i < n; i++) {
+			double proposedWeight = currentWeight + allWeights[i];
+			if (scale((weightSoFar + proposedWeight) / weightOfAll) - kLeft <= 1) {
+				currentMean += (allMeans[i] - currentMean) * allWeights[i] / proposedWeight;
+				currentWeight = proposedWeight;
+			} else {
+				mergedMeans[numberOfMergedCentroids] = currentMean;
+				mergedWeights[numberOfMergedCentroids] = currentWeight;
+				numberOfMergedCentroids++;
+				weightSoFar += currentWeight;
+				kLeft = scale(weightSoFar / weightOfAll);
+				currentMean = allMeans[i];
+				currentWeight = allWeights[i];
+			}
+		}
+		mergedMeans[numberOfMergedCentroids] = currentMean;
+		mergedWeights[numberOfMergedCentroids] = currentWeight;
+		numberOfMergedCentroids++;
+
+		ensureCapacity(numberOfMergedCentroids);
+		System.arraycopy(mergedMeans, 0, means, 0, numberOfMergedCentroids);
+		System.arraycopy(mergedWeights, 0, weights, 0, numberOfMergedCentroids);
+		numberOfCentroids = numberOfMergedCentroids;
+		numberOfBufferedValues = 0;
+	}
+
+	/**
+	 * The k1 scale function of the t-digest
+	 */
+	private double scale(double q) {
+		return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, Math.max(0, q)) - 1);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (means.length < capacity) {
+			means = Arrays.copyOf(means, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+		}
+	}
+
+	/**
+	 * Quicksort of both arrays by the means
+	 */
+	private static void sortByMean(double[] means, double[] weights) {
+		sortByMean(means, weights, 0, means.length - 1);
+	}
+
+	private static void sortByMean(double[] means, double[] weights, int from, int to) {
+		while (from < to) {
+			double pivot = means[(from + to) >>> 1];
+			int i = from;
+			int j = to;
+			while (i <= j) {
+				while (means[i] < pivot) i++;
+				while (means[j] > pivot) j--;
+				if (i <= j) {
+					swap(means, i, j);
+					swap(weights, i, j);
+					i++;
+					j--;
+				}
+			}
+			// recurse into the smaller part to keep the stack small
+			if (j - from < to - i) {
+				sortByMean(means, weights, from, j);
+				from = i;
+			} else {
+				sortByMean(means, weights, i, to);
+				to = j;
+			}
+		}
+	}
+
+	private static void swap(double[] values, int i, int j) {
+		double value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+}
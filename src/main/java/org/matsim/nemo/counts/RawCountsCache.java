@@ -0,0 +1,280 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a binary copy of every BASt count file (one station, one month) which was read once. The copy holds all rows of
+ * the file with the date, hour, edit flag and the volume of every lane and vehicle class as plain integers, so that
+ * later runs don't have to parse the text files again. Filtering by date, week day, vehicle class etc. is still done by
+ * the counts creator on every run, which means the cache stays valid if the analysis settings change.
+ * <p>
+ * A cache entry is keyed by the absolute path, the size and the last modification time of the original file. If one
+ * of those doesn't match anymore, the file is read again and the entry is replaced. Entries are written to a temporary
+ * file first and then moved into place, so several threads or processes may share one cache directory.
+ */
+final class RawCountsCache {
+
+	private static final Logger log = Logger.getLogger(RawCountsCache.class.getName());
+
+	private static final int MAGIC = 0x42615374;
+	private static final int VERSION = 1;
+
+	// markers for tokens which are not a valid volume
+	private static final int NOT_VALID = -1;
+	private static final int NOT_A_NUMBER = -2;
+
+	private final Path cacheDirectory;
+
+	RawCountsCache(Path cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * @param countFile count file in BASt format
+	 * @return the rows of the count file, read from the cache if possible
+	 */
+	BastRecordSource open(Path countFile) throws IOException {
+
+		Path absolutePath = countFile.toAbsolutePath();
+		BasicFileAttributes attributes = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+		long size = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		Path entry = getEntry(absolutePath);
+
+		if (Files.exists(entry)) {
+			ByteBuffer buffer = map(entry);
+			if (isValid(buffer, absolutePath.toString(), size, lastModified)) {
+				return new CachedRecords(buffer);
+			}
+			log.info("cache entry of " + absolutePath + " is outdated. Reading the count file again.");
+		}
+
+		byte[] data;
+		try {
+			data = convert(BastRecordScanner.open(absolutePath), absolutePath.toString(), size, lastModified);
+		} catch (RuntimeException e) {
+			// the counts creator only reads rows up to the end of the analysis period. If a row after that can't be
+			// converted, we don't want to fail here. Read the file directly instead and don't cache it.
+			log.warning("could not cache " + absolutePath + ". Reading it without cache. Error message: " + e.getMessage());
+			return BastRecordScanner.open(absolutePath);
+		}
+
+		Files.createDirectories(cacheDirectory);
+		Path temporaryFile = Files.createTempFile(cacheDirectory, entry.getFileName().toString(), ".tmp");
+		Files.write(temporaryFile, data);
+		Files.move(temporaryFile, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		isValid(buffer, absolutePath.toString(), size, lastModified);
+		return new CachedRecords(buffer);
+	}
+
+	private Path getEntry(Path countFile) {
+		return cacheDirectory.resolve(countFile.getFileName() + "_" + Integer.toHexString(countFile.toString().hashCode()) + ".bin");
+	}
+
+	private static ByteBuffer map(Path entry) throws IOException {
+		try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Checks the preamble of a cache entry and leaves the position of the buffer right behind it.
+	 */
+	private static boolean isValid(ByteBuffer buffer, String path, long size, long lastModified) {
+		try {
+			return buffer.getInt() == MAGIC && buffer.getInt() == VERSION
+					&& path.equals(getString(buffer))
+					&& buffer.getLong() == size
+					&& buffer.getLong() == lastModified;
+		} catch (RuntimeException e) {
+			// a truncated entry, e.g. if the disk was full
+			return false;
+		}
+	}
+
+	private static byte[] convert(BastRecordScanner scanner, String path, long size, long lastModified) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		putString(out, path);
+		out.writeLong(size);
+		out.writeLong(lastModified);
+		putString(out, scanner.getHeaderOne());
+		putString(out, scanner.getHeaderTwo());
+		putString(out, scanner.getHeaderThree());
+
+		while (scanner.next()) {
+			out.writeByte(scanner.getMonth());
+			out.writeByte(scanner.getDayOfMonth());
+			out.writeByte(scanner.getHour());
+			out.writeByte(scanner.getEditFlag());
+			out.writeShort(scanner.getNumberOfTokens());
+			for (int token = 2; token < scanner.getNumberOfTokens(); token++) {
+				out.writeInt(toCachedVolume(scanner, token));
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static int toCachedVolume(BastRecordScanner scanner, int token) {
+		try {
+			double volume = scanner.getVolume(token);
+			if (Double.isNaN(volume)) {
+				return NOT_VALID;
+			}
+			return volume > Integer.MAX_VALUE ? NOT_A_NUMBER : (int) volume;
+		} catch (NumberFormatException e) {
+			return NOT_A_NUMBER;
+		}
+	}
+
+	private static void putString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the rows of a cache entry. The position of the buffer must be right behind the preamble.
+	 */
+	private static final class CachedRecords implements BastRecordSource {
+
+		private final ByteBuffer buffer;
+		private final String headerOne;
+		private final String headerTwo;
+		private final String headerThree;
+
+		private int month;
+		private int dayOfMonth;
+		private int hour;
+		private char editFlag;
+		private int numberOfTokens;
+		private int volumesStart;
+
+		private CachedRecords(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.headerOne = getString(buffer);
+			this.headerTwo = getString(buffer);
+			this.headerThree = getString(buffer);
+		}
+
+		@Override
+		public String getHeaderOne() {
+			return headerOne;
+		}
+
+		@Override
+		public String getHeaderTwo() {
+			return headerTwo;
+		}
+
+		@Override
+		public String getHeaderThree() {
+			return headerThree;
+		}
+
+		@Override
+		public boolean next() {
+			if (!buffer.hasRemaining()) {
+				return false;
+			}
+			month = buffer.get();
+			dayOfMonth = buffer.get();
+			hour = buffer.get();
+			editFlag = (char) (buffer.get() & 0xff);
+			numberOfTokens = buffer.getShort();
+			volumesStart = buffer.position();
+			buffer.position(volumesStart + Math.max(0, numberOfTokens - 2) * Integer.BYTES);
+			return true;
+		}
+
+		@Override
+		public char getEditFlag() {
+			return editFlag;
+		}
+
+		@Override
+		public int getMonth() {
+			return month;
+		}
+
+		@Override
+		public int getDayOfMonth() {
+			return dayOfMonth;
+		}
+
+		@Override
+		public int getHour() {
+			return hour;
+		}
+
+		@Override
+		public int getNumberOfTokens() {
+			return numberOfTokens;
+		}
+
+		@Override
+		public double getVolume(int token) {
+			if (token < 2 || token >= numberOfTokens) {
+				throw new ArrayIndexOutOfBoundsException("Row has volumes in tokens 2 to " + (numberOfTokens - 1) + ". Requested token " + token);
+			}
+			int volume = buffer.getInt(volumesStart + (token - 2) * Integer.BYTES);
+			if (volume == NOT_VALID) {
+				return Double.NaN;
+			}
+			if (volume == NOT_A_NUMBER) {
+				throw new NumberFormatException("Token " + token + " is marked as valid but contains something else than digits");
+			}
+			return volume;
+		}
+	}
+}
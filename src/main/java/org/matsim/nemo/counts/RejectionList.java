@@ -0,0 +1,293 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Hourly volumes of counting stations which must not be used, e.g. because the screening found them implausible. The
+ * list is written as csv file with the columns
+ * <pre>
+ *     station;date;hour;direction;reason
+ * </pre>
+ * where the station is the id of the count file header, the date is given as yyyy-mm-dd, the hour from 1 to 24 like in
+ * the count files and the direction is 1 or 2. The file may be edited by hand before it is read again. Next to it, the
+ * fingerprints of the screened count files are written to a second file, see {@link #getFingerprintFile(Path)}, so
+ * that only station years with changed count files have to be screened again.
+ */
+final class RejectionList {
+
+	private static final String HEADER = "station;date;hour;direction;reason";
+	private static final String FINGERPRINT_HEADER = "year;countFile;station;fingerprint";
+
+	private final Map<String, Map<Integer, StationYear>> stations = new HashMap<>();
+	private final Map<String, Long> fingerprintsOfStations = new HashMap<>();
+	private long fingerprint = 0;
+	private int size = 0;
+
+	RejectionList(Collection<Rejection> rejections) {
+		for (Rejection rejection : rejections) {
+			StationYear stationYear = stations.computeIfAbsent(rejection.station, id -> new HashMap<>())
+					.computeIfAbsent(rejection.date.getYear(), StationYear::new);
+			int index = index(rejection.date.getDayOfYear(), rejection.hour, rejection.direction == 1);
+			if (!stationYear.rejectedHours.get(index)) {
+				stationYear.rejectedHours.set(index);
+				size++;
+				// sum of the hashes, so that the order of the rejections doesn't matter
+				long hash = (rejection.station.hashCode() * 31L + rejection.date.getYear() * 20_000L + index) * 0x9e3779b97f4a7c15L;
+				fingerprint += hash;
+				fingerprintsOfStations.merge(rejection.station, hash, Long::sum);
+			}
+		}
+	}
+
+	static RejectionList read(Path file) throws IOException {
+		return new RejectionList(readRejections(file));
+	}
+
+	static List<Rejection> readRejections(Path file) throws IOException {
+		List<Rejection> rejections = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) continue;
+				String[] columns = line.split(";", 5);
+				rejections.add(new Rejection(columns[0], LocalDate.parse(columns[1]), Integer.parseInt(columns[2]),
+						Integer.parseInt(columns[3]), columns.length > 4 ? columns[4] : ""));
+			}
+		}
+		return rejections;
+	}
+
+	/**
+	 * Writes the rejections sorted by station, date, hour and direction.
+	 */
+	static void write(Path file, List<Rejection> rejections) throws IOException {
+		List<Rejection> sorted = new ArrayList<>(rejections);
+		sorted.sort(Comparator.comparing((Rejection rejection) -> rejection.station)
+				.thenComparing(rejection -> rejection.date)
+				.thenComparingInt(rejection -> rejection.hour)
+				.thenComparingInt(rejection -> rejection.direction));
+
+		Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			for (Rejection rejection : sorted) {
+				writer.write(rejection.station + ";" + rejection.date + ";" + rejection.hour + ";" + rejection.direction + ";" + rejection.reason);
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * @return the file next to the rejection list, which holds the fingerprints of the screened count files
+	 */
+	static Path getFingerprintFile(Path file) {
+		return file.resolveSibling(file.getFileName() + ".fingerprints");
+	}
+
+	/**
+	 * @return the screened count files by {@link ScreenedCountFiles#getKey()}
+	 */
+	static Map<String, ScreenedCountFiles> readFingerprints(Path file) throws IOException {
+		Map<String, ScreenedCountFiles> screenedCountFiles = new HashMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) continue;
+				String[] columns = line.split(";", 4);
+				ScreenedCountFiles countFiles = new ScreenedCountFiles(Integer.parseInt(columns[0]), columns[1], columns[2],
+						Long.parseUnsignedLong(columns[3], 16));
+				screenedCountFiles.put(countFiles.getKey(), countFiles);
+			}
+		}
+		return screenedCountFiles;
+	}
+
+	static void writeFingerprints(Path file, Collection<ScreenedCountFiles> screenedCountFiles) throws IOException {
+		List<ScreenedCountFiles> sorted = new ArrayList<>(screenedCountFiles);
+		sorted.sort(Comparator.comparingInt((ScreenedCountFiles countFiles) -> countFiles.year)
+				.thenComparing(countFiles -> countFiles.name));
+
+		Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write(FINGERPRINT_HEADER);
+			writer.newLine();
+			for (ScreenedCountFiles countFiles : sorted) {
+				writer.write(countFiles.year + ";" + countFiles.name + ";" + countFiles.station + ";" + Long.toHexString(countFiles.fingerprint));
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * @return the rejected hours of the station within the year or null if all of these hours may be used
+	 */
+	StationYear get(String station, int year) {
+		Map<Integer, StationYear> years = stations.get(station);
+		return years != null ? years.get(year) : null;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return hash of all rejected hours, which does not depend on their order
+	 */
+	long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @return hash of the rejected hours of one station, which does not depend on their order, or 0 if the station has
+	 * no rejected hours
+	 */
+	long getFingerprint(String station) {
+		return fingerprintsOfStations.getOrDefault(station, 0L);
+	}
+
+	/**
+	 * @param hour hour from 1 to 24, like in the count files. Hour 0 is the same as hour 24
+	 */
+	private static int index(int dayOfYear, int hour, boolean direction1) {
+		return ((dayOfYear - 1) * 24 + hour % 24) * 2 + (direction1 ? 0 : 1);
+	}
+
+	/**
+	 * The rejected hours of one station within one year as a bit set, so that a lookup does not allocate anything.
+	 */
+	static final class StationYear {
+
+		private final int year;
+		private final BitSet rejectedHours = new BitSet(366 * 24 * 2);
+
+		private StationYear(int year) {
+			this.year = year;
+		}
+
+		/**
+		 * @param dayOfYear day of the year, starting with 1
+		 * @param hour hour from 1 to 24, like in the count files. Hour 0 is the same as hour 24
+		 */
+		boolean isRejected(int dayOfYear, int hour, boolean direction1) {
+			return rejectedHours.get(index(dayOfYear, hour, direction1));
+		}
+
+		/**
+		 * @param hour hour from 1 to 24, like in the count files. Hour 0 is the same as hour 24
+		 */
+		boolean isRejected(int month, int dayOfMonth, int hour, boolean direction1) {
+			return isRejected(AnalysisCalendar.getDayOfYear(year, month, dayOfMonth), hour, direction1);
+		}
+	}
+
+	/**
+	 * The count files of one station and year, e.g. the months of the year, at the time they were screened.
+	 */
+	static final class ScreenedCountFiles {
+
+		private final int year;
+		private final String name;
+		private final String station;
+		private final long fingerprint;
+
+		/**
+		 * @param name name of the count files, which is the same in every month directory
+		 * @param station id of the count file header
+		 */
+		ScreenedCountFiles(int year, String name, String station, long fingerprint) {
+			this.year = year;
+			this.name = name;
+			this.station = station;
+			this.fingerprint = fingerprint;
+		}
+
+		static String createKey(int year, String name) {
+			return year + ";" + name;
+		}
+
+		String getKey() {
+			return createKey(year, name);
+		}
+
+		int getYear() {
+			return year;
+		}
+
+		String getStation() {
+			return station;
+		}
+
+		long getFingerprint() {
+			return fingerprint;
+		}
+	}
+
+	static final class Rejection {
+
+		private final String station;
+		private final LocalDate date;
+		private final int hour;
+		private final int direction;
+		private final String reason;
+
+		/**
+		 * @param hour hour from 1 to 24, like in the count files
+		 * @param direction 1 or 2
+		 */
+		Rejection(String station, LocalDate date, int hour, int direction, String reason) {
+			this.station = station;
+			this.date = date;
+			this.hour = hour;
+			this.direction = direction;
+			this.reason = reason;
+		}
+
+		String getStation() {
+			return station;
+		}
+
+		LocalDate getDate() {
+			return date;
+		}
+
+		int getHour() {
+			return hour;
+		}
+
+		int getDirection() {
+			return direction;
+		}
+
+		String getReason() {
+			return reason;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Day of year and hour factors of the long term counting stations, which are used to extrapolate the few days of a
+ * short term count to the annual average.
+ * <p>
+ * For every long term station, the mean volume per day of the year and hour and the annual mean volume per hour are
+ * kept in primitive arrays. The days of the year are numbered like in a leap year, so that the same date of several
+ * years falls onto the same day. Only days within the range of week days are taken into account, as the short term
+ * counts only contain these days as well. The volumes are the sum of both directions and of all vehicles, so the same
+ * factor is applied to both directions and all column combinations of a short term station.
+ * <p>
+ * A short term station is compared with the {@link #NUMBER_OF_REFERENCE_STATIONS} nearest long term stations of the
+ * same road class, e.g. all motorways, which have data on most of the days of the campaign. The factor of an hour is
+ * the mean of the reference stations' annual mean divided by their mean on the days of the campaign.
+ */
+public final class SeasonalFactors {
+
+	private static final Logger log = Logger.getLogger(SeasonalFactors.class.getName());
+
+	static final int NUMBER_OF_REFERENCE_STATIONS = 3;
+	// a reference station must have data for at least this share of the campaign's hours
+	private static final double MIN_COVERAGE = 0.5;
+
+	private static final int DAYS = 366;
+	private static final int HOURS = StationYearVolumes.HOURS;
+	private static final int LEAP_YEAR = 2016;
+
+	private final String[] stations;
+	private final String[] roadClasses;
+	private final Coord[] coords;
+	// [station][(day of year - 1) * 24 + hour - 1] with the hour from 1 to 24 like in the count files, NaN if there is no data
+	private final float[][] dayMeans;
+	// [station][hour - 1]
+	private final double[][] annualMeans;
+
+	private SeasonalFactors(String[] stations, String[] roadClasses, Coord[] coords, float[][] dayMeans, double[][] annualMeans) {
+		this.stations = stations;
+		this.roadClasses = roadClasses;
+		this.coords = coords;
+		this.dayMeans = dayMeans;
+		this.annualMeans = annualMeans;
+	}
+
+	/**
+	 * @param volumes volumes of the long term stations. A station may have several years
+	 * @param coordsOfStations location of the stations or no entry if the station was not located
+	 * @param weekDayMin first day of the week to include. 1 = Monday, 2 = Tuesday, etc.
+	 * @param weekDayMax last day of the week to include
+	 */
+	static SeasonalFactors compute(Collection<StationYearVolumes> volumes, Map<String, Coord> coordsOfStations, int weekDayMin, int weekDayMax) {
+		Map<String, List<StationYearVolumes>> volumesPerStation = new TreeMap<>();
+		for (StationYearVolumes stationYear : volumes) {
+			volumesPerStation.computeIfAbsent(stationYear.getStation(), station -> new ArrayList<>()).add(stationYear);
+		}
+
+		int numberOfStations = volumesPerStation.size();
+		String[] stations = new String[numberOfStations];
+		String[] roadClasses = new String[numberOfStations];
+		Coord[] coords = new Coord[numberOfStations];
+		float[][] dayMeans = new float[numberOfStations][];
+		double[][] annualMeans = new double[numberOfStations][];
+
+		double[] sums = new double[DAYS * HOURS];
+		int[] observations = new int[DAYS * HOURS];
+		int s = 0;
+		for (Map.Entry<String, List<StationYearVolumes>> entry : volumesPerStation.entrySet()) {
+			Arrays.fill(sums, 0);
+			Arrays.fill(observations, 0);
+			for (StationYearVolumes stationYear : entry.getValue()) {
+				addToSums(stationYear, weekDayMin, weekDayMax, sums, observations);
+			}
+
+			float[] dayMeansOfStation = new float[DAYS * HOURS];
+			double[] annualSums = new double[HOURS];
+			int[] annualObservations = new int[HOURS];
+			for (int index = 0; index < DAYS * HOURS; index++) {
+				if (observations[index] == 0) {
+					dayMeansOfStation[index] = Float.NaN;
+				} else {
+					dayMeansOfStation[index] = (float) (sums[index] / observations[index]);
+					annualSums[index % HOURS] += sums[index];
+					annualObservations[index % HOURS] += observations[index];
+				}
+			}
+			double[] annualMeansOfStation = new double[HOURS];
+			for (int hour = 0; hour < HOURS; hour++) {
+				annualMeansOfStation[hour] = annualObservations[hour] == 0 ? Double.NaN : annualSums[hour] / annualObservations[hour];
+			}
+
+			stations[s] = entry.getKey();
+			roadClasses[s] = getRoadClass(entry.getValue().get(0).getStreetId());
+			coords[s] = coordsOfStations.get(entry.getKey());
+			dayMeans[s] = dayMeansOfStation;
+			annualMeans[s] = annualMeansOfStation;
+			s++;
+		}
+		log.info("computed seasonal factors of " + numberOfStations + " long term stations");
+		return new SeasonalFactors(stations, roadClasses, coords, dayMeans, annualMeans);
+	}
+
+	private static void addToSums(StationYearVolumes stationYear, int weekDayMin, int weekDayMax, double[] sums, int[] observations) {
+		double[][] volumes = stationYear.getVolumes();
+		LocalDate day = LocalDate.of(stationYear.getYear(), 1, 1);
+		for (int d = 0; d < volumes[0].length / HOURS; d++, day = day.plusDays(1)) {
+			int dayOfWeek = day.getDayOfWeek().getValue();
+			if (dayOfWeek < weekDayMin || dayOfWeek > weekDayMax) continue;
+
+			int offset = (getDayIndex(day.getMonthValue(), day.getDayOfMonth()) - 1) * HOURS;
+			for (int hour = 0; hour < HOURS; hour++) {
+				double volume = volumes[0][d * HOURS + hour] + volumes[1][d * HOURS + hour];
+				if (!Double.isNaN(volume)) {
+					sums[offset + hour] += volume;
+					observations[offset + hour]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the extrapolation factors of all short term stations at once.
+	 *
+	 * @param campaignDays days of every short term station with data, numbered by {@link #getDayIndex(int, int)}
+	 * @param streetIds street ids of the short term stations, e.g. A1 or B224. Stations without street id are compared
+	 *                  with long term stations of all road classes
+	 * @param coordsOfStations location of the short term stations or no entry if the station was not located
+	 * @return factor per short term station and hour of the count data, where index h holds the factor of hour h + 1
+	 * like in {@link StationYearVolumes}, i.e. index 0 holds the factor of hour 1 (0:00 - 1:00) and index 23 the factor
+	 * of hour 24 (23:00 - 24:00). Stations without any reference station are missing
+	 */
+	Map<String, double[]> extrapolate(Map<String, BitSet> campaignDays, Map<String, String> streetIds, Map<String, Coord> coordsOfStations) {
+		Map<String, double[]> factors = new HashMap<>();
+		double[][] campaignMeans = new double[stations.length][HOURS];
+		int[] coverage = new int[stations.length];
+
+		for (Map.Entry<String, BitSet> entry : campaignDays.entrySet()) {
+			BitSet days = entry.getValue();
+			if (days.isEmpty()) continue;
+
+			computeCampaignMeans(days, campaignMeans, coverage);
+			String roadClass = getRoadClass(streetIds.get(entry.getKey()));
+			List<Integer> references = findReferenceStations(roadClass, coordsOfStations.get(entry.getKey()), coverage, days.cardinality());
+			if (references.isEmpty()) {
+				log.warning("no long term station to extrapolate the short term station " + entry.getKey() + ". Its volumes are not changed.");
+				continue;
+			}
+
+			double[] factorsOfStation = new double[HOURS];
+			for (int hour = 0; hour < HOURS; hour++) {
+				double sum = 0;
+				int n = 0;
+				for (int reference : references) {
+					double factor = annualMeans[reference][hour] / campaignMeans[reference][hour];
+					if (!Double.isNaN(factor) && !Double.isInfinite(factor)) {
+						sum += factor;
+						n++;
+					}
+				}
+				factorsOfStation[hour] = n == 0 ? 1 : sum / n;
+			}
+			factors.put(entry.getKey(), factorsOfStation);
+		}
+		log.info("computed extrapolation factors of " + factors.size() + " of " + campaignDays.size() + " short term stations");
+		return factors;
+	}
+
+	/**
+	 * Sets the mean volume of every long term station on the given days per hour and the number of hours with data.
+	 */
+	private void computeCampaignMeans(BitSet days, double[][] campaignMeans, int[] coverage) {
+		for (int s = 0; s < stations.length; s++) {
+			float[] dayMeansOfStation = dayMeans[s];
+			double[] campaignMeansOfStation = campaignMeans[s];
+			int hoursWithData = 0;
+			for (int hour = 0; hour < HOURS; hour++) {
+				double sum = 0;
+				int n = 0;
+				for (int day = days.nextSetBit(1); day >= 0 && day <= DAYS; day = days.nextSetBit(day + 1)) {
+					float volume = dayMeansOfStation[(day - 1) * HOURS + hour];
+					if (!Float.isNaN(volume)) {
+						sum += volume;
+						n++;
+					}
+				}
+				campaignMeansOfStation[hour] = n == 0 ? Double.NaN : sum / n;
+				hoursWithData += n;
+			}
+			coverage[s] = hoursWithData;
+		}
+	}
+
+	private List<Integer> findReferenceStations(String roadClass, Coord coord, int[] coverage, int numberOfDays) {
+		List<Integer> candidates = new ArrayList<>();
+		List<Integer> candidatesOfRoadClass = new ArrayList<>();
+		for (int s = 0; s < stations.length; s++) {
+			if (coverage[s] >= MIN_COVERAGE * numberOfDays * HOURS) {
+				candidates.add(s);
+				if (roadClass != null && roadClass.equals(roadClasses[s])) {
+					candidatesOfRoadClass.add(s);
+				}
+			}
+		}
+		// other road classes are only used if there is no long term station of the same road class
+		if (!candidatesOfRoadClass.isEmpty()) {
+			candidates = candidatesOfRoadClass;
+		}
+		if (coord != null) {
+			candidates.sort(Comparator.comparingDouble(s -> coords[s] == null ? Double.POSITIVE_INFINITY : CoordUtils.calcEuclideanDistance(coord, coords[s])));
+		}
+		return candidates.subList(0, Math.min(NUMBER_OF_REFERENCE_STATIONS, candidates.size()));
+	}
+
+	/**
+	 * @return day of the year like in a leap year, i.e. from 1 to 366
+	 */
+	static int getDayIndex(int month, int dayOfMonth) {
+		return AnalysisCalendar.getDayOfYear(LEAP_YEAR, month, dayOfMonth);
+	}
+
+	/**
+	 * @param streetId street id like A1, B224 or L663
+	 * @return the letters at the start of the street id in upper case or null if there are none
+	 */
+	static String getRoadClass(String streetId) {
+		if (streetId == null) return null;
+		int end = 0;
+		while (end < streetId.length() && Character.isLetter(streetId.charAt(end))) {
+			end++;
+		}
+		return end == 0 ? null : streetId.substring(0, end).toUpperCase(Locale.ROOT);
+	}
+
+	public int getNumberOfStations() {
+		return stations.length;
+	}
+}
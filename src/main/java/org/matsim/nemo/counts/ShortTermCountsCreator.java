@@ -22,13 +22,8 @@
 package org.matsim.nemo.counts;
 
 
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.poifs.filesystem.POIFSFileSystem;
-import org.apache.poi.ss.usermodel.CellType;
 import org.locationtech.jts.geom.Geometry;
+import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.core.utils.collections.Tuple;
@@ -36,8 +31,8 @@ import org.matsim.counts.Counts;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -46,6 +41,12 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import static java.nio.file.FileVisitResult.CONTINUE;
 import static java.nio.file.FileVisitResult.TERMINATE;
@@ -56,6 +57,12 @@ import static java.nio.file.FileVisitResult.TERMINATE;
  */
 public class ShortTermCountsCreator extends LongTermCountsCreator {
 
+	private boolean readArchivesWithoutExtracting = false;
+	private SeasonalFactors seasonalFactors = null;
+	// days with data and street ids per station, filled by several threads while reading
+	private final Map<String, BitSet> campaignDays = new ConcurrentHashMap<>();
+	private final Map<String, String> streetIds = new ConcurrentHashMap<>();
+
 	protected ShortTermCountsCreator(Set<String> columnCombination,
 									 Network network,
 									 Geometry filter,
@@ -98,39 +105,60 @@ public class ShortTermCountsCreator extends LongTermCountsCreator {
 	@Override
     public Map<String, Counts<Link>> run() {
 		super.init();
-		super.readData();
-		  
-		if(network!=null){
-			readNodeIDsOfCountingStationsAndGetLinkIDs();
-		}
+		try {
+			super.readData();
 
-		String description = "--Nemo short period count data--";
-		SimpleDateFormat format = new SimpleDateFormat("YY_MM_dd_HHmmss");
-		String now = format.format(Calendar.getInstance().getTime());
-		description += "\n created: " + now;
+			if(network!=null){
+				readNodeIDsOfCountingStationsAndGetLinkIDs();
+			}
+			if (seasonalFactors != null) {
+				extrapolate();
+			}
 
-		Map<String, Counts<Link>> result = convert(description);
+			String description = "--Nemo short period count data--";
+			SimpleDateFormat format = new SimpleDateFormat("YY_MM_dd_HHmmss");
+			String now = format.format(Calendar.getInstance().getTime());
+			description += "\n created: " + now;
 
-        finish(result);
-        return result;
+			Map<String, Counts<Link>> result = convert(description);
+
+			finish(result);
+			convertQuantiles(description, result);
+			return result;
+		} finally {
+			diagnostics.close();
+		}
 	}
 	
+	private void extrapolate() {
+		Map<String, Coord> coords = new HashMap<>();
+		for (String countID : campaignDays.keySet()) {
+			Coord coord = getCoordOfStation(countID);
+			if (coord != null) coords.put(countID, coord);
+		}
+		this.extrapolationFactors = seasonalFactors.extrapolate(campaignDays, streetIds, coords);
+	}
+
 	@Override
 	protected void analyzeYearDir(File rootDirOfYear, int currentYear) {
 		log.info("Start analysis of directory " + rootDirOfYear.getPath());
+		if (readArchivesWithoutExtracting) {
+			analyzeYearDirWithoutExtracting(rootDirOfYear, currentYear);
+			return;
+		}
 		List<String> alreadyHandledCounts = new ArrayList<String>();
 		UnZipFile unzipper = new UnZipFile();
 		 File[] filesInRoot = rootDirOfYear.listFiles();
 		 if (filesInRoot != null) {
 		    for (File fileInRootDir : filesInRoot) {
 		    	if(fileInRootDir.isDirectory() && !alreadyHandledCounts.contains(fileInRootDir.getName())){
-		    		analyzeCountDirectory(fileInRootDir, currentYear);
+		    		analyzeCountDirectory(fileInRootDir, currentYear, this.countingStationsData);
 		    	} else if(fileInRootDir.getName().endsWith("zip")){
     				String countID = fileInRootDir.getName().substring(0,fileInRootDir.getName().lastIndexOf("."));
     				if(!alreadyHandledCounts.contains(countID)){
     					try {
     						File unzippedFolder = unzipper.unZipFile(fileInRootDir);
-    						analyzeCountDirectory(unzippedFolder, currentYear);
+    						analyzeCountDirectory(unzippedFolder, currentYear, this.countingStationsData);
 
     						deleteFileOrFolder(unzippedFolder.toPath());
     					} catch (Exception e) {
@@ -147,14 +175,78 @@ public class ShortTermCountsCreator extends LongTermCountsCreator {
 		
 	}
 
-	private void analyzeCountDirectory(File countDir, int currentYear) {
+	/**
+	 * Reads the excel files directly from the zip archives instead of extracting them to disk first. The archives and
+	 * directories of a year are read by {@link #numberOfIngestionThreads} threads. Each archive is aggregated into its own
+	 * partial result and the partial results are merged in the order of the directory listing, so the resulting counts
+	 * don't depend on the number of threads.
+	 */
+	private void analyzeYearDirWithoutExtracting(File rootDirOfYear, int currentYear) {
+
+		File[] filesInRoot = rootDirOfYear.listFiles();
+		if (filesInRoot == null) {
+			log.severe("something is wrong with the year directory .... please look here: " + rootDirOfYear.getAbsolutePath());
+			throw new RuntimeException("the year direction has an error. loog at folder: " + rootDirOfYear.getAbsolutePath());
+		}
+		List<File> countSources = Arrays.stream(filesInRoot)
+				.filter(file -> file.isDirectory() || file.getName().endsWith("zip"))
+				.collect(Collectors.toList());
+
+		ForkJoinPool pool = new ForkJoinPool(numberOfIngestionThreads);
+		try {
+			// collecting an ordered parallel stream keeps the encounter order of the archives
+			List<Map<String, Map<String, HourlyCountData>>> partialResults = pool.submit(() -> countSources.parallelStream()
+					.map(countSource -> {
+						Map<String, Map<String, HourlyCountData>> partialResult = createEmptyStationsData();
+						if (countSource.isDirectory()) {
+							analyzeCountDirectory(countSource, currentYear, partialResult);
+						} else {
+							analyzeCountArchive(countSource, currentYear, partialResult);
+						}
+						return partialResult;
+					})
+					.collect(Collectors.toList())
+			).get();
+			partialResults.forEach(this::mergeIntoCountingStationsData);
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Error while reading the count archives of year " + currentYear, e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private void analyzeCountArchive(File archive, int currentYear, Map<String, Map<String, HourlyCountData>> stationsData) {
+		try (ZipFile zipFile = new ZipFile(archive)) {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				// like the extracted archives, only the excel files on the top level of an archive are taken into account
+				if (!entry.isDirectory() && !entry.getName().contains("/") && entry.getName().endsWith("xls")) {
+					if (!this.countingStationsToOmit.contains(Long.parseLong(entry.getName().substring(0, 8)))) {
+						try (InputStream inputStream = zipFile.getInputStream(entry)) {
+							readExcel(inputStream, entry.getName().substring(0, 8), currentYear, stationsData);
+						}
+					}
+				}
+			}
+		} catch (Exception e) {
+			// like with extracted archives, a malformed archive or record only skips this archive
+			e.printStackTrace();
+			log.severe("could not read archive " + archive.getAbsolutePath() + "\n the corresponding data is not taken into account");
+			diagnostics.report(archive.getName(), CountsDiagnostics.Reason.READ_FAILED, e.toString());
+		}
+	}
+
+	private void analyzeCountDirectory(File countDir, int currentYear, Map<String, Map<String, HourlyCountData>> stationsData) {
 			File[] countData = countDir.listFiles();
 			if(countData != null){
 				try {
 					for(File data : countData){
 						if(data.getName().endsWith("xls")){
 							if(!this.countingStationsToOmit.contains(Long.parseLong(data.getName().substring(0,8)))){
-								readExcel(new FileInputStream(data), data.getName().substring(0, 8),currentYear);
+								try (InputStream inputStream = new FileInputStream(data)) {
+									readExcel(inputStream, data.getName().substring(0, 8), currentYear, stationsData);
+								}
 							}
 						}
 					}
@@ -169,118 +261,138 @@ public class ShortTermCountsCreator extends LongTermCountsCreator {
 		
 	}
 
-	private void readExcel(FileInputStream fileInputStream, String countID, int year) {
-		POIFSFileSystem fs;
-		
+	/**
+	 * This method may be called by several threads at once, as long as each thread passes its own stationsData map.
+	 */
+	private void readExcel(InputStream inputStream, String countID, int year, Map<String, Map<String, HourlyCountData>> stationsData) {
 		try {
-			fs = new POIFSFileSystem(fileInputStream);
-			HSSFWorkbook wb = new HSSFWorkbook(fs);
-			HSSFSheet sheet = wb.getSheetAt(0);
-			HSSFRow row;
-			HSSFCell cell;
-			
-			String streetID = sheet.getRow(3).getCell(1).getStringCellValue();
-			String name;
-			if(!streetID.equals("")){
-				name = countID + "_" + streetID ;
-			}
-			else{
-				name = countID;
-			}
-			name = fixEncoding(name);
-			
-			row= sheet.getRow(20);
-			Map<String,Integer> baseColumnsOfVehicleTypes = new HashMap<String,Integer>();
-			for(int clm = row.getFirstCellNum(); clm < row.getLastCellNum(); clm++){
-				cell = row.getCell(clm);
-				if(this.allNeededColumnHeaders.contains(cell.getStringCellValue()) && !baseColumnsOfVehicleTypes.containsKey(cell.getStringCellValue())){
-					baseColumnsOfVehicleTypes.put(cell.getStringCellValue(), clm);
+			XlsRowReader.readFirstSheet(inputStream, new ExcelSheetHandler(countID, year, stationsData));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Receives the rows of a short term count file one by one and adds the hourly volumes to the stations data. Row 3
+	 * holds the street id, row 20 the column headers and all following rows one hour of data each.
+	 */
+	private final class ExcelSheetHandler implements XlsRowReader.RowHandler {
+
+		private final String countID;
+		private final int year;
+		private final Map<String, Map<String, HourlyCountData>> stationsData;
+
+		private String name;
+		private final Map<String,Integer> baseColumnsOfVehicleTypes = new HashMap<String,Integer>();
+
+		private ExcelSheetHandler(String countID, int year, Map<String, Map<String, HourlyCountData>> stationsData) {
+			this.countID = countID;
+			this.year = year;
+			this.stationsData = stationsData;
+			this.name = fixEncoding(countID);
+		}
+
+		@Override
+		public void handleRow(XlsRowReader.Row row) {
+			if (row.getIndex() == 3) {
+				String streetID = row.getText(1);
+				if(!streetID.equals("")){
+					name = fixEncoding(countID + "_" + streetID);
+					streetIds.put(countID, streetID.replaceAll("\\s", ""));
+				}
+			} else if (row.getIndex() == 20) {
+				for(int clm = 0; clm <= row.getLastColumn(); clm++){
+					if(row.isText(clm) && allNeededColumnHeaders.contains(row.getText(clm)) && !baseColumnsOfVehicleTypes.containsKey(row.getText(clm))){
+						baseColumnsOfVehicleTypes.put(row.getText(clm), clm);
+					}
 				}
+				//need to do this manually for KFZ and SV, as they are written in small letters in the short term excel files
+				if(allNeededColumnHeaders.contains(RawDataVehicleTypes.SV.toString())){
+					baseColumnsOfVehicleTypes.put(RawDataVehicleTypes.SV.toString(), 6);
+				}
+			} else if (row.getIndex() > 20) {
+				handleDataRow(row);
 			}
-			//need to do this manually for KFZ and SV, as they are written in small letters in the short term excel files
-			if(allNeededColumnHeaders.contains(RawDataVehicleTypes.SV.toString())){
-				baseColumnsOfVehicleTypes.put(RawDataVehicleTypes.SV.toString(), 6);
+		}
+
+		private void handleDataRow(XlsRowReader.Row row) {
+			int dayOfMonth = Integer.parseInt(row.getText(0).substring(0, 2));
+			int month = Integer.parseInt(row.getText(0).substring(3, 5));
+
+			LocalDate currentDate = LocalDate.of(year, month, dayOfMonth);
+
+			boolean isValidData = false;
+			if (row.isText(4)) {
+				if(row.getText(4).equals("-")){
+					isValidData = true;
+				}
+			} else if (!row.isNumeric(4)) {
+				log.fine("cell 4 of row " + row.getIndex() + " of station " + countID + " is empty. The row is not taken into account.");
 			}
-			
-			for(int currentRow = 21; currentRow <= sheet.getLastRowNum(); currentRow ++){
-				row = sheet.getRow(currentRow);
-				
-				int dayOfMonth = Integer.parseInt(row.getCell(0).getStringCellValue().substring(0, 2));
-				int month = Integer.parseInt(row.getCell(0).getStringCellValue().substring(3, 5));
-				
-				LocalDate currentDate = LocalDate.of(year, month, dayOfMonth);
-				
-				cell = row.getCell(4);
-				boolean isValidData = false;
-				if (cell.getCellType() == CellType.NUMERIC) {
-//					System.out.println("cell type is numeric: value=" + cell.getNumericCellValue());
-
-				} else if (cell.getCellType() == CellType.STRING) {
-					if(cell.getStringCellValue().equals("-")){
-						isValidData = true;
+
+			if(weekRange_min <= currentDate.getDayOfWeek().getValue() && currentDate.getDayOfWeek().getValue() <= weekRange_max
+					&& isValidData){
+
+				Map<String,Tuple<Integer,Integer>> trafficVolumesPerVehicleType = new HashMap<String,Tuple<Integer,Integer>>();
+				int hour = Integer.parseInt(row.getText(1).substring(0,2));
+				int dayIndex = SeasonalFactors.getDayIndex(month, dayOfMonth);
+				campaignDays.compute(countID, (id, days) -> {
+					BitSet daysOfStation = days != null ? days : new BitSet();
+					daysOfStation.set(dayIndex);
+					return daysOfStation;
+				});
+
+				for(String header: baseColumnsOfVehicleTypes.keySet()){
+					int vlmDir1 = getIntegerValue(row, baseColumnsOfVehicleTypes.get(header));
+					int vlmDir2;
+					if(header.equals(RawDataVehicleTypes.SV.toString())){
+						vlmDir2 = getIntegerValue(row, baseColumnsOfVehicleTypes.get(header) + 2);
+					} else{
+						vlmDir2 = getIntegerValue(row, baseColumnsOfVehicleTypes.get(header) + 10);
 					}
-				} else{
-					System.out.println("cell type = " + cell.getCellType());
+					trafficVolumesPerVehicleType.put(header, new Tuple<Integer,Integer>(vlmDir1,vlmDir2));
 				}
-				
-				if(this.weekRange_min <= currentDate.getDayOfWeek().getValue() && currentDate.getDayOfWeek().getValue() <= this.weekRange_max
-						&& isValidData){
-					
-					Map<String,Tuple<Integer,Integer>> trafficVolumesPerVehicleType = new HashMap<String,Tuple<Integer,Integer>>();
-					int hour = Integer.parseInt(row.getCell(1).getStringCellValue().substring(0,2));
-					
-					for(String header: baseColumnsOfVehicleTypes.keySet()){
-						int vlmDir1 = getIntegerValue(row.getCell(baseColumnsOfVehicleTypes.get(header)));
-						int vlmDir2;
-						if(header.equals(header.equals(RawDataVehicleTypes.SV))){
-							vlmDir2 = getIntegerValue(row.getCell(baseColumnsOfVehicleTypes.get(header) + 2));
-						} else{
-							vlmDir2 = getIntegerValue(row.getCell(baseColumnsOfVehicleTypes.get(header) + 10));
-						}
-						trafficVolumesPerVehicleType.put(header, new Tuple<Integer,Integer>(vlmDir1,vlmDir2));
+
+				//calculate traffic volume for each combination, e.g. combination is. "Pkw+Rad"
+				for(String combination : stationsData.keySet()){
+					String[] headers = combination.split(";");
+					double sumDir1 = 0.;
+					double sumDir2 = 0.;
+					for(String header : headers){
+						sumDir1 += trafficVolumesPerVehicleType.get(header).getFirst();
+						sumDir2 += trafficVolumesPerVehicleType.get(header).getSecond();
 					}
-					
-					//calculate traffic volume for each combination, e.g. combination is. "Pkw+Rad"
-					for(String combination : this.countingStationsData.keySet()){
-						String[] headers = combination.split(";");
-						Double sumDir1 = 0.;
-						Double sumDir2 = 0.;
-						for(String header : headers){
-							sumDir1 += trafficVolumesPerVehicleType.get(header).getFirst();
-							sumDir2 += trafficVolumesPerVehicleType.get(header).getSecond();
-						}
-						
-						//get the HourlyCountData object and set volumes
-						HourlyCountData data = this.countingStationsData.get(combination).get(countID);
-						if(data == null){
-							data = new HourlyCountData(name, null); //ID = countID_countName_streetID
-						}
-						
-						data.computeAndSetVolume(true, hour, sumDir1);
-						data.computeAndSetVolume(false, hour, sumDir2);
-						this.countingStationsData.get(combination).put(countID,data);
+
+					//get the HourlyCountData object and set volumes
+					HourlyCountData data = stationsData.get(combination).get(countID);
+					if(data == null){
+						data = createHourlyCountData(name, true, stationsData); //ID = countID_countName_streetID
+						stationsData.get(combination).put(countID, data);
 					}
 
+					data.computeAndSetVolume(true, hour, sumDir1);
+					data.computeAndSetVolume(false, hour, sumDir2);
 				}
 			}
-			wb.close();
-			
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
-		
-		
 	}
-	int getIntegerValue (HSSFCell cell){
-		if (cell.getCellType() == CellType.NUMERIC) {
-			return (int) cell.getNumericCellValue();
+
+	int getIntegerValue(XlsRowReader.Row row, int column){
+		if (row.isNumeric(column)) {
+			return (int) row.getNumber(column);
 		}else{
-			return Integer.parseInt(cell.getStringCellValue());
+			return Integer.parseInt(row.getText(column));
 		}
 	}
 
+	void setSeasonalFactors(SeasonalFactors seasonalFactors) {
+		this.seasonalFactors = seasonalFactors;
+	}
+
+	void setReadArchivesWithoutExtracting(boolean readArchivesWithoutExtracting) {
+		this.readArchivesWithoutExtracting = readArchivesWithoutExtracting;
+	}
+
 	public static class Builder extends LongTermCountsCreator.AbstractBuilder<ShortTermCountsCreator> {
 
 
@@ -299,6 +411,11 @@ public class ShortTermCountsCreator extends LongTermCountsCreator {
             creator.setMonthRangeMax(monthRangeMax);
             creator.setWeekRangeMin(weekRangeMin);
             creator.setWeekRangeMax(weekRangeMax);
+            creator.setNumberOfIngestionThreads(numberOfIngestionThreads);
+            creator.setReadArchivesWithoutExtracting(readArchivesWithoutExtracting);
+            creator.setStationLinkCacheDir(stationLinkCacheDir);
+            creator.setQuantiles(quantiles);
+            creator.setSeasonalFactors(seasonalFactors);
             creator.setDatesToIgnore(datesToIgnore);
             creator.addToStationsToOmit(Arrays.asList(stationIdsToOmit));
             return creator;
@@ -0,0 +1,215 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Stores the result of the map matching of counting stations, i.e. the link of every station or the reason why no
+ * link was found. The result is keyed by a fingerprint of the network and of the mapping file. As long as both don't
+ * change, later runs load the stored links instead of looking up the nodes and searching paths again.
+ * <p>
+ * The fingerprint of the network consists of the number of nodes and links and a hash of all node ids and coordinates
+ * and all link ids with their from and to node. The hash does not depend on the order of nodes and links.
+ */
+final class StationLinkCache {
+
+	private static final Logger log = Logger.getLogger(StationLinkCache.class.getName());
+
+	private static final int MAGIC = 0x53744c6b;
+	private static final int VERSION = 2;
+
+	enum Status {
+		/** a link was found, either directly or as first link of a path */
+		MATCHED,
+		/** the station is commented in the mapping file and thus not map matched */
+		COMMENTED,
+		/** the from or to node of the station is not part of the network */
+		NODE_MISSING,
+		/** no path leads from the from node to the to node */
+		NO_PATH
+	}
+
+	private final Path cacheFile;
+
+	StationLinkCache(Path cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * @return the stored station links or null if there are none for this fingerprint
+	 */
+	Map<String, StationLink> load(String fingerprint) {
+		if (Files.notExists(cacheFile)) return null;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !fingerprint.equals(in.readUTF())) {
+				log.info("station links at " + cacheFile + " belong to another network or mapping file. Matching the stations again.");
+				return null;
+			}
+			Map<String, StationLink> stationLinks = new LinkedHashMap<>();
+			int numberOfStations = in.readInt();
+			for (int i = 0; i < numberOfStations; i++) {
+				String station = in.readUTF();
+				Status status = Status.values()[in.readByte()];
+				String linkId = in.readUTF();
+				String problem = in.readUTF();
+				stationLinks.put(station, new StationLink(status, linkId.isEmpty() ? null : Id.createLinkId(linkId), problem.isEmpty() ? null : problem));
+			}
+			log.info("loaded links of " + stationLinks.size() + " stations from " + cacheFile);
+			return stationLinks;
+
+		} catch (IOException | RuntimeException e) {
+			log.warning("could not read station links at " + cacheFile + ". Matching the stations again. Error message: " + e.getMessage());
+			return null;
+		}
+	}
+
+	void save(String fingerprint, Map<String, StationLink> stationLinks) {
+		try {
+			Path directory = cacheFile.toAbsolutePath().getParent();
+			Files.createDirectories(directory);
+			Path temporaryFile = Files.createTempFile(directory, cacheFile.getFileName().toString(), ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(fingerprint);
+				out.writeInt(stationLinks.size());
+				for (Map.Entry<String, StationLink> entry : stationLinks.entrySet()) {
+					StationLink stationLink = entry.getValue();
+					out.writeUTF(entry.getKey());
+					out.writeByte(stationLink.getStatus().ordinal());
+					out.writeUTF(stationLink.getLinkId() == null ? "" : stationLink.getLinkId().toString());
+					out.writeUTF(stationLink.getProblem() == null ? "" : stationLink.getProblem());
+				}
+			}
+			Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.info("wrote links of " + stationLinks.size() + " stations to " + cacheFile);
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.severe("could not write station links to " + cacheFile + ". The next run will match the stations again.");
+		}
+	}
+
+	/**
+	 * @return fingerprint of the network, the mapping file and the maximum search distance of the path search
+	 */
+	static String createFingerprint(Network network, Path mappingFile) {
+		return createFingerprint(network) + "|" + hashFile(mappingFile) + "|" + CountLinkFinder.DEFAULT_MAX_SEARCH_DISTANCE;
+	}
+
+	static String createFingerprint(Network network) {
+		// the hashes of single nodes and links are summed up, so that the order of the network's maps doesn't matter
+		long hash = 0;
+		for (Node node : network.getNodes().values()) {
+			long nodeHash = hash(node.getId().toString());
+			nodeHash = mix(nodeHash ^ Double.doubleToLongBits(node.getCoord().getX()));
+			nodeHash = mix(nodeHash ^ Double.doubleToLongBits(node.getCoord().getY()));
+			hash += nodeHash;
+		}
+		for (Link link : network.getLinks().values()) {
+			long linkHash = hash(link.getId().toString());
+			linkHash = mix(linkHash ^ hash(link.getFromNode().getId().toString()));
+			linkHash = mix(linkHash ^ hash(link.getToNode().getId().toString()));
+			hash += linkHash;
+		}
+		return network.getNodes().size() + ";" + network.getLinks().size() + ";" + Long.toHexString(hash);
+	}
+
+	private static String hashFile(Path file) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(Files.readAllBytes(file));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : hash) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (IOException | NoSuchAlgorithmException e) {
+			throw new RuntimeException("could not hash " + file, e);
+		}
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the string, followed by a final mix
+	 */
+	private static long hash(String string) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : string.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b;
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * finalizer of splitmix64
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+
+	static final class StationLink {
+
+		private final Status status;
+		private final Id<Link> linkId;
+		private final String problem;
+
+		/**
+		 * @param linkId the matched link, a placeholder id for stations which were not located or null for commented
+		 *               stations
+		 * @param problem reason why the station was not matched or null if it was matched
+		 */
+		StationLink(Status status, Id<Link> linkId, String problem) {
+			this.status = status;
+			this.linkId = linkId;
+			this.problem = problem;
+		}
+
+		Status getStatus() {
+			return status;
+		}
+
+		Id<Link> getLinkId() {
+			return linkId;
+		}
+
+		String getProblem() {
+			return problem;
+		}
+	}
+}
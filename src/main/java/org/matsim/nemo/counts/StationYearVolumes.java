@@ -0,0 +1,116 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Year;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The total volume of all vehicles per direction and hour of one long term counting station within one year. Index 0
+ * of each direction is hour 1 of January 1st. Hours without valid data are NaN.
+ */
+final class StationYearVolumes {
+
+	private static final Logger log = Logger.getLogger(StationYearVolumes.class.getName());
+
+	static final int HOURS = 24;
+
+	private final String station;
+	private final String streetId;
+	private final int year;
+	private final double[][] volumes;
+
+	StationYearVolumes(String station, String streetId, int year, double[][] volumes) {
+		this.station = station;
+		this.streetId = streetId;
+		this.year = year;
+		this.volumes = volumes;
+	}
+
+	/**
+	 * Reads all count files of one station and year, e.g. the months of the year. Rows which were edited after
+	 * investigation are left out, like in the counts creator.
+	 *
+	 * @param rawCountsCache cache to read the count files from or null to parse them
+	 * @return the volumes or null if none of the files could be read
+	 */
+	static StationYearVolumes read(int year, List<File> countFiles, RawCountsCache rawCountsCache) {
+		double[][] volumes = new double[2][Year.of(year).length() * HOURS];
+		Arrays.fill(volumes[0], Double.NaN);
+		Arrays.fill(volumes[1], Double.NaN);
+		String station = null;
+		String streetId = null;
+
+		for (File countFile : countFiles) {
+			try {
+				BastRecordSource source = rawCountsCache != null ? rawCountsCache.open(countFile.toPath()) : BastRecordScanner.open(countFile.toPath());
+				station = source.getHeaderOne().substring(5, 9);
+				streetId = source.getHeaderOne().substring(13, 20).replaceAll("\\s", "");
+				int nrOfLanesDir1 = Integer.parseInt(source.getHeaderTwo().substring(1, 3));
+				int nrOfLanesDir2 = Integer.parseInt(source.getHeaderTwo().substring(4, 6));
+				int nrOfVehicleGroups = Integer.parseInt(source.getHeaderThree().substring(1, 3));
+
+				while (source.next()) {
+					if (source.getEditFlag() == 'i') continue;
+					int index = (AnalysisCalendar.getDayOfYear(year, source.getMonth(), source.getDayOfMonth()) - 1) * HOURS + source.getHour() - 1;
+					// the first column of each lane holds the volume of all vehicles
+					volumes[0][index] = readTotalVolume(source, 2, nrOfLanesDir1, nrOfVehicleGroups);
+					volumes[1][index] = readTotalVolume(source, 2 + nrOfLanesDir1 * nrOfVehicleGroups, nrOfLanesDir2, nrOfVehicleGroups);
+				}
+			} catch (IOException | RuntimeException e) {
+				log.warning("could not read " + countFile.getAbsolutePath() + ". Error message: " + e.getMessage());
+			}
+		}
+		return station == null ? null : new StationYearVolumes(station, streetId, year, volumes);
+	}
+
+	private static double readTotalVolume(BastRecordSource source, int baseColumn, int nrOfLanes, int jumpLength) {
+		double volume = 0;
+		for (int lane = 0; lane < nrOfLanes; lane++) {
+			volume += source.getVolume(baseColumn + lane * jumpLength);
+		}
+		return volume;
+	}
+
+	String getStation() {
+		return station;
+	}
+
+	/**
+	 * @return the street id of the count file header without white space, e.g. A1 or B224
+	 */
+	String getStreetId() {
+		return streetId;
+	}
+
+	int getYear() {
+		return year;
+	}
+
+	/**
+	 * @return the volumes per direction and hour of the year. The arrays may be modified
+	 */
+	double[][] getVolumes() {
+		return volumes;
+	}
+}
@@ -0,0 +1,243 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.counts;
+
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.MulRKRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.RKRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the first sheet of an xls file row by row with the event model of POI. The records of the file are passed to
+ * this reader one after the other, so the object model of the workbook is never built. Only numeric and text cells are
+ * taken into account. Reading stops at the end of the first sheet.
+ * <p>
+ * Cell records of a sheet are ordered by row, so a row is passed to the {@link RowHandler} as soon as the first cell of
+ * the next row is read. Rows without any cell are skipped. The {@link Row} object is reused for all rows.
+ */
+final class XlsRowReader extends AbortableHSSFListener {
+
+	private static final byte EMPTY = 0;
+	private static final byte NUMERIC = 1;
+	private static final byte TEXT = 2;
+
+	private static final short CONTINUE = 0;
+	private static final short STOP = 1;
+
+	interface RowHandler {
+		void handleRow(Row row);
+	}
+
+	private final RowHandler handler;
+	private final Row row = new Row();
+
+	private SSTRecord sharedStrings;
+	private boolean inFirstSheet = false;
+
+	// a formula with a text result is followed by a string record which holds the result
+	private int formulaRow = -1;
+	private int formulaColumn = -1;
+
+	private XlsRowReader(RowHandler handler) {
+		this.handler = handler;
+	}
+
+	static void readFirstSheet(InputStream inputStream, RowHandler handler) throws IOException {
+		HSSFRequest request = new HSSFRequest();
+		request.addListenerForAllRecords(new XlsRowReader(handler));
+		try (POIFSFileSystem fs = new POIFSFileSystem(inputStream)) {
+			new HSSFEventFactory().abortableProcessWorkbookEvents(request, fs);
+		} catch (HSSFUserException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public short abortableProcessRecord(Record record) {
+		switch (record.getSid()) {
+			case SSTRecord.sid:
+				sharedStrings = (SSTRecord) record;
+				break;
+			case BOFRecord.sid:
+				if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+					inFirstSheet = true;
+				}
+				break;
+			case EOFRecord.sid:
+				if (inFirstSheet) {
+					flushRow();
+					return STOP;
+				}
+				break;
+			default:
+				if (inFirstSheet) {
+					processCell(record);
+				}
+		}
+		return CONTINUE;
+	}
+
+	private void processCell(Record record) {
+		switch (record.getSid()) {
+			case LabelSSTRecord.sid:
+				LabelSSTRecord label = (LabelSSTRecord) record;
+				setText(label.getRow(), label.getColumn(), sharedStrings.getString(label.getSSTIndex()).getString());
+				break;
+			case LabelRecord.sid:
+				LabelRecord oldLabel = (LabelRecord) record;
+				setText(oldLabel.getRow(), oldLabel.getColumn(), oldLabel.getValue());
+				break;
+			case NumberRecord.sid:
+				NumberRecord number = (NumberRecord) record;
+				setNumber(number.getRow(), number.getColumn(), number.getValue());
+				break;
+			case RKRecord.sid:
+				RKRecord rk = (RKRecord) record;
+				setNumber(rk.getRow(), rk.getColumn(), rk.getRKNumber());
+				break;
+			case MulRKRecord.sid:
+				MulRKRecord mulRk = (MulRKRecord) record;
+				for (int i = 0; i < mulRk.getNumColumns(); i++) {
+					setNumber(mulRk.getRow(), mulRk.getFirstColumn() + i, mulRk.getRKNumberAt(i));
+				}
+				break;
+			case FormulaRecord.sid:
+				FormulaRecord formula = (FormulaRecord) record;
+				if (formula.hasCachedResultString()) {
+					formulaRow = formula.getRow();
+					formulaColumn = formula.getColumn();
+				} else {
+					setNumber(formula.getRow(), formula.getColumn(), formula.getValue());
+				}
+				break;
+			case StringRecord.sid:
+				if (formulaRow >= 0) {
+					setText(formulaRow, formulaColumn, ((StringRecord) record).getString());
+					formulaRow = -1;
+				}
+				break;
+			default:
+				// blank cells, formatting and everything else are not of interest
+		}
+	}
+
+	private void setNumber(int rowIndex, int column, double value) {
+		startRow(rowIndex);
+		row.set(column, NUMERIC, value, null);
+	}
+
+	private void setText(int rowIndex, int column, String value) {
+		startRow(rowIndex);
+		row.set(column, TEXT, 0, value);
+	}
+
+	private void startRow(int rowIndex) {
+		if (row.index != rowIndex) {
+			flushRow();
+			row.index = rowIndex;
+		}
+	}
+
+	private void flushRow() {
+		if (row.index >= 0) {
+			handler.handleRow(row);
+			row.clear();
+		}
+	}
+
+	/**
+	 * Cells of one row. Missing cells are empty, i.e. neither numeric nor text.
+	 */
+	static final class Row {
+
+		private int index = -1;
+		private int lastColumn = -1;
+		private byte[] types = new byte[32];
+		private double[] numbers = new double[32];
+		private String[] texts = new String[32];
+
+		int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return the index of the last column with a cell or -1 if the row is empty
+		 */
+		int getLastColumn() {
+			return lastColumn;
+		}
+
+		boolean isNumeric(int column) {
+			return column <= lastColumn && types[column] == NUMERIC;
+		}
+
+		boolean isText(int column) {
+			return column <= lastColumn && types[column] == TEXT;
+		}
+
+		double getNumber(int column) {
+			if (!isNumeric(column)) throw new IllegalStateException("cell " + index + "/" + column + " is not numeric");
+			return numbers[column];
+		}
+
+		/**
+		 * @return the text of the cell, or an empty string for an empty cell like the user model of POI
+		 */
+		String getText(int column) {
+			if (isNumeric(column)) throw new IllegalStateException("cell " + index + "/" + column + " is numeric");
+			return isText(column) ? texts[column] : "";
+		}
+
+		private void set(int column, byte type, double number, String text) {
+			if (column >= types.length) {
+				int length = Math.max(column + 1, 2 * types.length);
+				types = Arrays.copyOf(types, length);
+				numbers = Arrays.copyOf(numbers, length);
+				texts = Arrays.copyOf(texts, length);
+			}
+			types[column] = type;
+			numbers[column] = number;
+			texts[column] = text;
+			lastColumn = Math.max(lastColumn, column);
+		}
+
+		private void clear() {
+			Arrays.fill(types, 0, lastColumn + 1, EMPTY);
+			Arrays.fill(texts, 0, lastColumn + 1, null);
+			lastColumn = -1;
+			index = -1;
+		}
+	}
+}
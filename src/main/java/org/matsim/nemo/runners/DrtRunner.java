@@ -3,9 +3,6 @@ package org.matsim.nemo.runners;
 import ch.sbb.matsim.config.SwissRailRaptorConfigGroup;
 import ch.sbb.matsim.routing.pt.raptor.RaptorIntermodalAccessEgress;
 import org.apache.log4j.Logger;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.Point;
-import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.av.robotaxi.fares.drt.DrtFareModule;
@@ -21,19 +18,16 @@ import org.matsim.contrib.dvrp.run.DvrpModule;
 import org.matsim.contrib.dvrp.run.DvrpQSimComponents;
 import org.matsim.core.config.CommandLine;
 import org.matsim.core.controler.AbstractModule;
-import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.gis.ShapeFileReader;
 import org.matsim.drtSpeedUp.DrtSpeedUpConfigGroup;
 import org.matsim.drtSpeedUp.DrtSpeedUpModule;
+import org.matsim.nemo.util.ZoneIndex;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public class DrtRunner {
 
@@ -65,9 +59,7 @@ public class DrtRunner {
 
         logger.info("creating drt service area. Start reading in ruhr shape file");
         var shapePath = commandLine.getOptionStrict(shapeFileOption);
-        var serviceArea = ShapeFileReader.getAllFeatures(new URL(shapePath)).stream()
-                .map(feature -> (Geometry) feature.getDefaultGeometry())
-                .collect(Collectors.toList());
+        var serviceArea = ZoneIndex.fromFeatures(ShapeFileReader.getAllFeatures(new URL(shapePath)));
 
         logger.info("apply service area marker to all links");
         addDrtModeAndMarkServiceArea(scenario.getNetwork(), DrtConfigGroup.getSingleModeDrtConfig(config).getMode());
@@ -113,16 +105,10 @@ public class DrtRunner {
         logger.info("Added drt mode to allowed modes and marked links with service area attribute");
     }
 
-    private static void tagTransitStopsInServiceArea(List<Geometry> area, TransitSchedule schedule) {
+    private static void tagTransitStopsInServiceArea(ZoneIndex area, TransitSchedule schedule) {
 
         schedule.getFacilities().values().parallelStream()
-                .filter(facility -> isInGeometry(facility.getCoord(), area))
+                .filter(facility -> area.contains(facility.getCoord()))
                 .forEach(facility -> facility.getAttributes().putAttribute("drt-stop", "true"));
     }
-
-    private static boolean isInGeometry(Coord coord, Collection<org.locationtech.jts.geom.Geometry> geometry) {
-
-        Point point = MGC.coord2Point(coord);
-        return geometry.stream().anyMatch(geometry1 -> geometry1.contains(point));
-    }
 }
@@ -0,0 +1,143 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.util;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.matsim.api.core.v01.Coord;
+
+import java.util.Collection;
+
+/**
+ * Answers whether a coordinate lies within one of several geometries with a raster over their bounding box. Each cell
+ * of the raster is either completely inside one of the geometries, completely outside of all of them or on a boundary.
+ * Only coordinates in boundary cells are tested against the geometries with a {@link ZoneIndex}. The result is the
+ * same as calling {@code geometry.contains(point)} for every geometry.
+ * <p>
+ * The cells are classified from large blocks down to single cells, so only blocks which intersect a boundary are
+ * divided further.
+ */
+public final class GeometryRasterMask {
+
+	private static final byte OUTSIDE = 0;
+	private static final byte INSIDE = 1;
+	private static final byte BOUNDARY = 2;
+
+	private final ZoneIndex zones;
+	private final GeometryFactory factory = new GeometryFactory();
+	private final double cellSize;
+	private final double minX;
+	private final double minY;
+	private final int columns;
+	private final int rows;
+	private final byte[] cells;
+
+	/**
+	 * @param cellSize edge length of the cells in the unit of the coordinate system, e.g. 100 for 100 m
+	 */
+	public GeometryRasterMask(Collection<Geometry> geometries, double cellSize) {
+		this.cellSize = cellSize;
+		this.zones = new ZoneIndex(geometries);
+		Envelope envelope = new Envelope();
+		for (Geometry geometry : geometries) {
+			envelope.expandToInclude(geometry.getEnvelopeInternal());
+		}
+
+		if (envelope.isNull()) {
+			this.minX = 0;
+			this.minY = 0;
+			this.columns = 0;
+			this.rows = 0;
+		} else {
+			this.minX = envelope.getMinX();
+			this.minY = envelope.getMinY();
+			// one additional cell, so that the maximum coordinates are within the raster as well
+			this.columns = (int) (envelope.getWidth() / cellSize) + 1;
+			this.rows = (int) (envelope.getHeight() / cellSize) + 1;
+		}
+		if ((long) columns * rows > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("cell size " + cellSize + " is too small for the extent of the geometries");
+		this.cells = new byte[columns * rows];
+		classify(0, 0, columns, rows);
+	}
+
+	/**
+	 * Classifies the block of cells from the first column and row (inclusive) to the last ones (exclusive).
+	 */
+	private void classify(int firstColumn, int firstRow, int lastColumn, int lastRow) {
+		Geometry block = factory.toGeometry(new Envelope(minX + firstColumn * cellSize, minX + lastColumn * cellSize,
+				minY + firstRow * cellSize, minY + lastRow * cellSize));
+
+		boolean intersects = false;
+		for (PreparedGeometry geometry : zones.getPreparedZones()) {
+			// a coordinate on the boundary of a geometry is not contained, so the block must not touch it
+			if (geometry.containsProperly(block)) {
+				fill(firstColumn, firstRow, lastColumn, lastRow, INSIDE);
+				return;
+			}
+			intersects |= geometry.intersects(block);
+		}
+		if (!intersects) return;
+
+		if (lastColumn - firstColumn == 1 && lastRow - firstRow == 1) {
+			cells[firstRow * columns + firstColumn] = BOUNDARY;
+		} else {
+			int middleColumn = firstColumn + Math.max(1, (lastColumn - firstColumn) / 2);
+			int middleRow = firstRow + Math.max(1, (lastRow - firstRow) / 2);
+			classify(firstColumn, firstRow, middleColumn, middleRow);
+			if (middleColumn < lastColumn) classify(middleColumn, firstRow, lastColumn, middleRow);
+			if (middleRow < lastRow) classify(firstColumn, middleRow, middleColumn, lastRow);
+			if (middleColumn < lastColumn && middleRow < lastRow) classify(middleColumn, middleRow, lastColumn, lastRow);
+		}
+	}
+
+	private void fill(int firstColumn, int firstRow, int lastColumn, int lastRow, byte state) {
+		for (int row = firstRow; row < lastRow; row++) {
+			for (int column = firstColumn; column < lastColumn; column++) {
+				cells[row * columns + column] = state;
+			}
+		}
+	}
+
+	public boolean contains(Coord coord) {
+		double column = Math.floor((coord.getX() - minX) / cellSize);
+		double row = Math.floor((coord.getY() - minY) / cellSize);
+		if (column < 0 || row < 0 || column >= columns || row >= rows) return false;
+
+		byte state = cells[(int) row * columns + (int) column];
+		if (state != BOUNDARY) return state == INSIDE;
+
+		return zones.contains(coord);
+	}
+
+	/**
+	 * @return share of cells on a boundary, for which coordinates are tested against the geometries
+	 */
+	public double getShareOfBoundaryCells() {
+		if (cells.length == 0) return 0;
+		int boundaryCells = 0;
+		for (byte cell : cells) {
+			if (cell == BOUNDARY) boundaryCells++;
+		}
+		return (double) boundaryCells / cells.length;
+	}
+}
@@ -0,0 +1,171 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2020 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.nemo.util;
+
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.ItemVisitor;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.gis.ShapeFileReader;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Answers in which of several zones, e.g. the features of a shape file, a coordinate lies. The zones are prepared for
+ * point in polygon tests and indexed by their envelopes, so a coordinate is only tested against the zones whose envelope
+ * contains it. A coordinate lies within a zone if {@code zone.contains(point)}, i.e. coordinates on the boundary of a
+ * zone are not within it.
+ * <p>
+ * Lookups don't change the index and may run in parallel. Polygonal zones are tested with a point locator against the
+ * coordinate itself, and every thread reuses its own query envelope and coordinate, so that a lookup doesn't create
+ * any geometries.
+ */
+public final class ZoneIndex {
+
+	private final List<PreparedGeometry> zones = new ArrayList<>();
+	// null for zones which are not polygonal. These are tested with the prepared geometry
+	private final List<PointOnGeometryLocator> locators = new ArrayList<>();
+	private final STRtree tree = new STRtree();
+	private final GeometryFactory factory = new GeometryFactory();
+	private final ThreadLocal<Lookup> lookups = ThreadLocal.withInitial(Lookup::new);
+
+	public ZoneIndex(Collection<? extends Geometry> zones) {
+		for (Geometry zone : zones) {
+			tree.insert(zone.getEnvelopeInternal(), this.zones.size());
+			this.zones.add(PreparedGeometryFactory.prepare(zone));
+			PointOnGeometryLocator locator = zone instanceof Polygonal ? new IndexedPointInAreaLocator(zone) : null;
+			if (locator != null) {
+				// the index of the locator is built lazily by the first lookup otherwise
+				locator.locate(new Coordinate(zone.getEnvelopeInternal().getMinX(), zone.getEnvelopeInternal().getMinY()));
+			}
+			locators.add(locator);
+		}
+		// the tree is built lazily by the first query otherwise, which is not thread safe
+		tree.build();
+	}
+
+	/**
+	 * @return index of the default geometries of the features, in the order of the features
+	 */
+	public static ZoneIndex fromFeatures(Collection<? extends SimpleFeature> features) {
+		return new ZoneIndex(features.stream()
+				.map(feature -> (Geometry) feature.getDefaultGeometry())
+				.collect(Collectors.toList()));
+	}
+
+	public static ZoneIndex fromShapeFile(String shapeFile) {
+		return fromFeatures(ShapeFileReader.getAllFeatures(shapeFile));
+	}
+
+	public boolean contains(Coord coord) {
+		return contains(coord.getX(), coord.getY());
+	}
+
+	public boolean contains(double x, double y) {
+		return zoneOf(x, y) >= 0;
+	}
+
+	/**
+	 * @return index of the zone the coordinate lies in or -1 if it is outside of all zones. If zones overlap, the
+	 * smallest index is returned.
+	 */
+	public int zoneOf(double x, double y) {
+		return lookups.get().zoneOf(x, y);
+	}
+
+	public int zoneOf(Coord coord) {
+		return zoneOf(coord.getX(), coord.getY());
+	}
+
+	/**
+	 * Looks up the zones of many coordinates in parallel.
+	 *
+	 * @return the zone of every coordinate, like {@link #zoneOf(double, double)}
+	 */
+	public int[] classify(double[] xs, double[] ys) {
+		if (xs.length != ys.length)
+			throw new IllegalArgumentException("got " + xs.length + " x values but " + ys.length + " y values");
+
+		int[] result = new int[xs.length];
+		IntStream.range(0, xs.length).parallel().forEach(i -> result[i] = zoneOf(xs[i], ys[i]));
+		return result;
+	}
+
+	public Geometry getZone(int zone) {
+		return zones.get(zone).getGeometry();
+	}
+
+	public int size() {
+		return zones.size();
+	}
+
+	List<PreparedGeometry> getPreparedZones() {
+		return Collections.unmodifiableList(zones);
+	}
+
+	/**
+	 * The query envelope and coordinate of one thread. The tree passes the candidates to {@link #visitItem(Object)}
+	 * instead of collecting them in a list.
+	 */
+	private final class Lookup implements ItemVisitor {
+
+		private final Envelope envelope = new Envelope();
+		private final Coordinate coordinate = new Coordinate();
+		private int result;
+
+		int zoneOf(double x, double y) {
+			envelope.init(x, x, y, y);
+			coordinate.x = x;
+			coordinate.y = y;
+			result = -1;
+			tree.query(envelope, this);
+			return result;
+		}
+
+		@Override
+		public void visitItem(Object item) {
+			int zone = (Integer) item;
+			if (result >= 0 && zone > result) return;
+			PointOnGeometryLocator locator = locators.get(zone);
+			// a point on the boundary is not contained by a zone
+			boolean contains = locator != null
+					? locator.locate(coordinate) == Location.INTERIOR
+					: zones.get(zone).contains(factory.createPoint(coordinate));
+			if (contains) {
+				result = zone;
+			}
+		}
+	}
+}
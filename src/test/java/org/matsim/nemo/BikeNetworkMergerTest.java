@@ -0,0 +1,99 @@
+package org.matsim.nemo;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BikeNetworkMergerTest {
+
+	@Test
+	public void mergingTwiceLeadsToIdenticalNetworks() {
+		Network first = mergeTwoBikeHighways();
+		Network second = mergeTwoBikeHighways();
+
+		assertEquals(first.getNodes().keySet(), second.getNodes().keySet());
+		for (Node node : first.getNodes().values()) {
+			Node other = second.getNodes().get(node.getId());
+			assertEquals(node.getCoord().getX(), other.getCoord().getX(), 0);
+			assertEquals(node.getCoord().getY(), other.getCoord().getY(), 0);
+		}
+		assertEquals(first.getLinks().keySet(), second.getLinks().keySet());
+		for (Link link : first.getLinks().values()) {
+			Link other = second.getLinks().get(link.getId());
+			assertEquals(link.getFromNode().getId(), other.getFromNode().getId());
+			assertEquals(link.getToNode().getId(), other.getToNode().getId());
+		}
+	}
+
+	@Test
+	public void secondMergeIntoTheSameNetworkGetsNewIds() {
+		Network network = createNetwork();
+		int carLinks = network.getLinks().size();
+
+		new BikeNetworkMerger(network, true).mergeBikeHighways(createBikeHighway("first", 50, 1000));
+		Set<Id<Link>> linksOfFirstMerge = new HashSet<>(network.getLinks().keySet());
+		new BikeNetworkMerger(network, true).mergeBikeHighways(createBikeHighway("second", 550, 800));
+
+		// the first highway is broken up into 5 pieces, the second one into 4. Every piece is added in both directions
+		// and every end of a piece is connected to the car node next to it in both directions
+		assertEquals(carLinks + 2 * 5 + 2 * 6 + 2 * 4 + 2 * 5, network.getLinks().size());
+		assertTrue(network.getLinks().keySet().containsAll(linksOfFirstMerge));
+		for (Link link : network.getLinks().values()) {
+			if (linksOfFirstMerge.contains(link.getId())) continue;
+			assertTrue(link.getId().toString().startsWith("bike-highway_"));
+			assertEquals(Collections.singleton(TransportMode.bike), link.getAllowedModes());
+		}
+	}
+
+	private static Network mergeTwoBikeHighways() {
+		Network network = createNetwork();
+		new BikeNetworkMerger(network, true).mergeBikeHighways(createBikeHighway("first", 50, 1000));
+		new BikeNetworkMerger(network, true).mergeBikeHighways(createBikeHighway("second", 550, 800));
+		return network;
+	}
+
+	/**
+	 * A row of car nodes every 100m along y = 0 and y = 500
+	 */
+	private static Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		for (int y : new int[]{0, 500}) {
+			Node previous = null;
+			for (int x = 0; x <= 1000; x += 100) {
+				Node node = network.getFactory().createNode(Id.createNodeId("car_" + x + "_" + y), new Coord(x, y));
+				network.addNode(node);
+				if (previous != null) {
+					Link link = network.getFactory().createLink(Id.createLinkId(previous.getId() + "-" + node.getId()), previous, node);
+					link.setAllowedModes(Collections.singleton(TransportMode.car));
+					network.addLink(link);
+				}
+				previous = node;
+			}
+		}
+		return network;
+	}
+
+	/**
+	 * One straight bike highway from x = 0 to x = length, which is longer than the pieces of 200m of the merger
+	 */
+	private static Network createBikeHighway(String name, double y, double length) {
+		Network bikeHighway = NetworkUtils.createNetwork();
+		Node from = bikeHighway.getFactory().createNode(Id.createNodeId(name + "_from"), new Coord(0, y));
+		Node to = bikeHighway.getFactory().createNode(Id.createNodeId(name + "_to"), new Coord(length, y));
+		bikeHighway.addNode(from);
+		bikeHighway.addNode(to);
+		bikeHighway.addLink(bikeHighway.getFactory().createLink(Id.createLinkId(name), from, to));
+		return bikeHighway;
+	}
+}
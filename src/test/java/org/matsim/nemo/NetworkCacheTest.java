@@ -0,0 +1,138 @@
+package org.matsim.nemo;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class NetworkCacheTest {
+
+	@Test
+	public void networkIsTheSameAfterSavingAndLoading() throws IOException {
+		Path directory = Files.createTempDirectory("network_cache");
+		NetworkCache cache = new NetworkCache(directory);
+		Network network = createNetwork();
+
+		assertNull(cache.load("key"));
+		cache.save("key", network);
+		Network loaded = cache.load("key");
+
+		assertNotNull(loaded);
+		assertEquals(network.getCapacityPeriod(), loaded.getCapacityPeriod(), 0);
+		assertEquals(network.getEffectiveLaneWidth(), loaded.getEffectiveLaneWidth(), 0);
+		assertEquals(network.getNodes().keySet(), loaded.getNodes().keySet());
+		for (Node node : network.getNodes().values()) {
+			Node loadedNode = loaded.getNodes().get(node.getId());
+			assertEquals(node.getCoord().getX(), loadedNode.getCoord().getX(), 0);
+			assertEquals(node.getCoord().getY(), loadedNode.getCoord().getY(), 0);
+		}
+		assertEquals(network.getLinks().keySet(), loaded.getLinks().keySet());
+		for (Link link : network.getLinks().values()) {
+			Link loadedLink = loaded.getLinks().get(link.getId());
+			assertEquals(link.getFromNode().getId(), loadedLink.getFromNode().getId());
+			assertEquals(link.getToNode().getId(), loadedLink.getToNode().getId());
+			assertEquals(link.getLength(), loadedLink.getLength(), 0);
+			assertEquals(link.getFreespeed(), loadedLink.getFreespeed(), 0);
+			assertEquals(link.getCapacity(), loadedLink.getCapacity(), 0);
+			assertEquals(link.getNumberOfLanes(), loadedLink.getNumberOfLanes(), 0);
+			assertEquals(link.getAllowedModes(), loadedLink.getAllowedModes());
+			// the values must keep their type
+			assertEquals(link.getAttributes().getAsMap(), loadedLink.getAttributes().getAsMap());
+		}
+
+		// links which shared a set of modes get their own copy
+		Link car = loaded.getLinks().get(Id.createLinkId("car"));
+		Link carBack = loaded.getLinks().get(Id.createLinkId("car_back"));
+		car.getAllowedModes().remove(TransportMode.ride);
+		assertTrue(carBack.getAllowedModes().contains(TransportMode.ride));
+
+		assertNull(cache.load("other_key"));
+	}
+
+	@Test
+	public void invalidEntriesAreNotLoaded() throws IOException {
+		Path directory = Files.createTempDirectory("network_cache");
+		NetworkCache cache = new NetworkCache(directory);
+		cache.save("key", createNetwork());
+		Path entry;
+		try (Stream<Path> files = Files.list(directory)) {
+			entry = files.filter(file -> file.getFileName().toString().endsWith(".bin")).findFirst().orElseThrow(AssertionError::new);
+		}
+
+		// e.g. a disk which was full while writing
+		byte[] content = Files.readAllBytes(entry);
+		Files.write(entry, Arrays.copyOf(content, content.length / 2));
+		assertNull(cache.load("key"));
+
+		// an entry of another version of the format
+		content[7]++;
+		Files.write(entry, content);
+		assertNull(cache.load("key"));
+
+		// the entry can be written again
+		cache.save("key", createNetwork());
+		assertNotNull(cache.load("key"));
+	}
+
+	@Test
+	public void keyDependsOnContentAndSettings() throws IOException {
+		Path file = Files.createTempFile("input", ".osm");
+		Files.write(file, Collections.singletonList("<osm/>"));
+		String key = NetworkCache.createKey(Collections.singletonList(file.toString()), "version=1");
+
+		assertEquals(key, NetworkCache.createKey(Collections.singletonList(file.toString()), "version=1"));
+		assertNotEquals(key, NetworkCache.createKey(Collections.singletonList(file.toString()), "version=2"));
+		Files.write(file, Collections.singletonList("<osm></osm>"));
+		assertNotEquals(key, NetworkCache.createKey(Collections.singletonList(file.toString()), "version=1"));
+	}
+
+	private static Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		network.setCapacityPeriod(3600);
+		network.setEffectiveLaneWidth(3.5);
+		NetworkFactory factory = network.getFactory();
+		Node a = factory.createNode(Id.createNodeId("a"), new Coord(0, 0));
+		Node b = factory.createNode(Id.createNodeId("b"), new Coord(100.5, -20.25));
+		Node c = factory.createNode(Id.createNodeId("c"), new Coord(1e6, 5.7e6));
+		network.addNode(a);
+		network.addNode(b);
+		network.addNode(c);
+
+		Link car = addLink(network, "car", a, b, TransportMode.car, TransportMode.ride);
+		car.getAttributes().putAttribute("type", "primary");
+		car.getAttributes().putAttribute("maxspeed", 13.89);
+		car.getAttributes().putAttribute("lanes", 2);
+		car.getAttributes().putAttribute("osm_id", 4711L);
+		car.getAttributes().putAttribute("oneway", false);
+		addLink(network, "car_back", b, a, TransportMode.car, TransportMode.ride);
+		Link bike = addLink(network, "bike", b, c, TransportMode.bike);
+		bike.getAttributes().putAttribute("surface", "äsphalt");
+		return network;
+	}
+
+	private static Link addLink(Network network, String id, Node from, Node to, String... modes) {
+		Link link = network.getFactory().createLink(Id.createLinkId(id), from, to);
+		link.setLength(from.getCoord().getX() + to.getCoord().getY() + 1.5);
+		link.setFreespeed(13.89);
+		link.setCapacity(1800.5);
+		link.setNumberOfLanes(1.5);
+		link.setAllowedModes(new HashSet<>(Arrays.asList(modes)));
+		network.addLink(link);
+		return link;
+	}
+}
@@ -0,0 +1,66 @@
+package org.matsim.nemo;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class NetworkModificationPipelineTest {
+
+	@Test
+	public void stagesOfOnePassSeeLinksCreatedByEarlierStages() throws IOException {
+
+		Network network = NetworkUtils.createNetwork();
+		NetworkFactory factory = network.getFactory();
+		Node from = factory.createNode(Id.createNodeId("from"), new Coord(0, 0));
+		Node to = factory.createNode(Id.createNodeId("to"), new Coord(100, 0));
+		network.addNode(from);
+		network.addNode(to);
+		Link residential = addLink(network, "residential", from, to, 1500);
+		Link primary = addLink(network, "primary", to, from, 2500);
+
+		Path overrides = Files.createTempFile("overrides", ".csv");
+		Files.write(overrides, Arrays.asList("linkId,numberOfLanes,surface", "primary_bike,2,asphalt"));
+
+		new NetworkModificationPipeline.Builder()
+				.addLinkStage(NetworkModifications.banModes(NetworkModifications.hasType("residential"), TransportMode.car))
+				.addLinkStage(NetworkModifications.splitBikeCapacity(NetworkModifications.allows(TransportMode.car)))
+				.addLinkStage(NetworkModifications.overrideFromCsv(overrides.toString()))
+				.build()
+				.run(network);
+
+		assertEquals(new HashSet<>(Arrays.asList(TransportMode.bike)), residential.getAllowedModes());
+		assertEquals(1500, residential.getCapacity(), 0);
+		assertFalse(network.getLinks().containsKey(Id.createLinkId("residential_bike")));
+
+		assertEquals(new HashSet<>(Arrays.asList(TransportMode.car)), primary.getAllowedModes());
+		assertEquals(1500, primary.getCapacity(), 0);
+		Link bikeLink = network.getLinks().get(Id.createLinkId("primary_bike"));
+		assertNotNull(bikeLink);
+		assertEquals(1000, bikeLink.getCapacity(), 0);
+		assertEquals(2, bikeLink.getNumberOfLanes(), 0);
+		assertEquals("asphalt", bikeLink.getAttributes().getAttribute("surface"));
+	}
+
+	private static Link addLink(Network network, String type, Node from, Node to, double capacity) {
+		Link link = network.getFactory().createLink(Id.createLinkId(type), from, to);
+		link.setCapacity(capacity);
+		link.setAllowedModes(new HashSet<>(Arrays.asList(TransportMode.car, TransportMode.bike)));
+		link.getAttributes().putAttribute("type", type);
+		network.addLink(link);
+		return link;
+	}
+}
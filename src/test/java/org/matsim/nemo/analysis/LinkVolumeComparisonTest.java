@@ -0,0 +1,86 @@
+package org.matsim.nemo.analysis;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.counts.Count;
+import org.matsim.counts.Counts;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class LinkVolumeComparisonTest {
+
+	private static final Id<Link> COUNTED_LINK = Id.createLinkId("counted");
+	private static final Id<Link> OTHER_LINK = Id.createLinkId("other");
+
+	@Test
+	public void volumesAreCountedPerModeAndHour() {
+
+		CountedLinkVolumes volumes = new CountedLinkVolumes(Collections.singleton(COUNTED_LINK), Arrays.asList(TransportMode.car, TransportMode.bike));
+		Id<Vehicle> car = Id.createVehicleId("car");
+		Id<Vehicle> bike = Id.createVehicleId("bike");
+		Id<Vehicle> truck = Id.createVehicleId("truck");
+
+		volumes.handleEvent(new VehicleEntersTrafficEvent(7 * 3600, null, OTHER_LINK, car, TransportMode.car, 1.0));
+		volumes.handleEvent(new VehicleEntersTrafficEvent(7 * 3600, null, OTHER_LINK, bike, TransportMode.bike, 1.0));
+		volumes.handleEvent(new VehicleEntersTrafficEvent(7 * 3600, null, OTHER_LINK, truck, "truck", 1.0));
+		volumes.handleEvent(new LinkEnterEvent(7 * 3600 + 10, car, COUNTED_LINK));
+		volumes.handleEvent(new LinkEnterEvent(7 * 3600 + 20, bike, COUNTED_LINK));
+		volumes.handleEvent(new LinkEnterEvent(7 * 3600 + 30, truck, COUNTED_LINK));
+		volumes.handleEvent(new LinkEnterEvent(7 * 3600 + 40, car, OTHER_LINK));
+		volumes.handleEvent(new LinkEnterEvent(8 * 3600 + 10, car, COUNTED_LINK));
+		volumes.handleEvent(new VehicleLeavesTrafficEvent(9 * 3600, null, COUNTED_LINK, car, TransportMode.car, 1.0));
+		// the car is not in traffic anymore
+		volumes.handleEvent(new LinkEnterEvent(9 * 3600 + 10, car, COUNTED_LINK));
+		volumes.handleEvent(new LinkEnterEvent(25 * 3600, bike, COUNTED_LINK));
+
+		assertEquals(1, volumes.getVolume(TransportMode.car, COUNTED_LINK, 8));
+		assertEquals(1, volumes.getVolume(TransportMode.car, COUNTED_LINK, 9));
+		assertEquals(0, volumes.getVolume(TransportMode.car, COUNTED_LINK, 10));
+		assertEquals(1, volumes.getVolume(TransportMode.bike, COUNTED_LINK, 8));
+		assertEquals(1, volumes.getLinkEntersAfterLastHour());
+	}
+
+	@Test
+	public void gehRatioAndRmse() {
+
+		CountedLinkVolumes volumes = new CountedLinkVolumes(Collections.singleton(COUNTED_LINK), Collections.singleton(TransportMode.car));
+		Id<Vehicle> car = Id.createVehicleId("car");
+		volumes.handleEvent(new VehicleEntersTrafficEvent(0, null, OTHER_LINK, car, TransportMode.car, 1.0));
+		for (int i = 0; i < 3; i++) {
+			volumes.handleEvent(new LinkEnterEvent(7 * 3600 + i, car, COUNTED_LINK));
+		}
+
+		Counts<Link> counts = new Counts<>();
+		Count<Link> count = counts.createAndAddCount(COUNTED_LINK, "station");
+		count.createVolume(8, 200);
+		count.createVolume(9, 0);
+		count.createVolume(10, -1);
+		Map<String, Counts<Link>> countsPerMode = Collections.singletonMap(TransportMode.car, counts);
+
+		List<LinkVolumeComparison.HourComparison> hours = LinkVolumeComparison.compare(countsPerMode, volumes, 100);
+		// the invalid hour is left out
+		assertEquals(2, hours.size());
+		assertEquals(300, hours.get(0).getSimulated(), 0);
+		assertEquals(1.5, hours.get(0).getRatio(), 1e-9);
+		assertEquals(Math.sqrt(2 * 100 * 100 / 500.), hours.get(0).getGeh(), 1e-9);
+		assertEquals(0, hours.get(1).getSimulated(), 0);
+		assertEquals(Double.NaN, hours.get(1).getRatio(), 0);
+
+		List<LinkVolumeComparison.StationComparison> stations = LinkVolumeComparison.summarize(hours);
+		assertEquals(1, stations.size());
+		assertEquals(2, stations.get(0).getNumberOfHours());
+		assertEquals(1.5, stations.get(0).getRatio(), 1e-9);
+		assertEquals(100 / Math.sqrt(2), stations.get(0).getRootMeanSquaredError(), 1e-9);
+		assertEquals(0.5, stations.get(0).getShareOfGehBelowThreshold(), 1e-9);
+
+		assertEquals(0, LinkVolumeComparison.geh(0, 0), 0);
+	}
+}
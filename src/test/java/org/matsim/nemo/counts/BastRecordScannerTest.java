@@ -0,0 +1,49 @@
+package org.matsim.nemo.counts;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class BastRecordScannerTest {
+
+	private static final String FILE = "header one\r\n" +
+			" 01 01\r\n" +
+			" 02 03  Pkw Lkw\r\n" +
+			"170214  0100 12- 7 003-\r\n" +
+			"\r\n" +
+			"170215i 2400 1x-\n";
+
+	@Test
+	public void scanRows() {
+
+		BastRecordScanner scanner = new BastRecordScanner(ByteBuffer.wrap(FILE.getBytes(StandardCharsets.US_ASCII)));
+		assertEquals("header one", scanner.getHeaderOne());
+		assertEquals(" 02 03  Pkw Lkw", scanner.getHeaderThree());
+
+		assertTrue(scanner.next());
+		assertEquals(' ', scanner.getEditFlag());
+		assertEquals(2, scanner.getMonth());
+		assertEquals(14, scanner.getDayOfMonth());
+		assertEquals(1, scanner.getHour());
+		assertEquals(5, scanner.getNumberOfTokens());
+		assertEquals(12, scanner.getVolume(2), 0);
+		assertTrue(Double.isNaN(scanner.getVolume(3)));
+		assertEquals(3, scanner.getVolume(4), 0);
+
+		// the empty line is skipped
+		assertTrue(scanner.next());
+		assertEquals('i', scanner.getEditFlag());
+		assertEquals(24, scanner.getHour());
+		try {
+			scanner.getVolume(2);
+			fail("token with a non digit character must not be parsed");
+		} catch (NumberFormatException e) {
+			// expected
+		}
+
+		assertFalse(scanner.next());
+	}
+}
@@ -0,0 +1,104 @@
+package org.matsim.nemo.counts;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.counts.Count;
+import org.matsim.counts.Counts;
+import org.matsim.counts.MatsimCountsReader;
+import org.matsim.counts.Volume;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CombinedCountsWriterTest {
+
+	private static final String COMBINATION = "Pkw";
+
+	@Test
+	public void mergedCountsAreSortedAndLastContainerWins() {
+		Counts<Link> first = createCounts("first", "b", "d", "a");
+		Counts<Link> second = createCounts("second", "c", "d");
+		Counts<Link> third = createCounts("third", "d", "e", "a");
+		Counts<Link> empty = new Counts<>();
+
+		List<Count<Link>> merged = new ArrayList<>();
+		CombinedCountsWriter.mergeSorted(Arrays.asList(first, empty, second, third)).forEachRemaining(merged::add);
+
+		// the same as putting all counts into one map
+		Map<Id<Link>, Count<Link>> expected = new TreeMap<>();
+		for (Counts<Link> counts : Arrays.asList(first, empty, second, third)) {
+			expected.putAll(counts.getCounts());
+		}
+		assertEquals(expected.size(), merged.size());
+		Iterator<Count<Link>> expectedCounts = expected.values().iterator();
+		for (int i = 0; i < merged.size(); i++) {
+			if (i > 0) assertTrue(merged.get(i - 1).getId().compareTo(merged.get(i).getId()) < 0);
+			assertSame(expectedCounts.next(), merged.get(i));
+		}
+		assertEquals("third_a", merged.get(0).getCsLabel());
+		assertEquals("first_b", merged.get(1).getCsLabel());
+		assertEquals("third_d", merged.get(3).getCsLabel());
+
+		assertFalse(CombinedCountsWriter.mergeSorted(Collections.<Counts<Link>>emptyList()).hasNext());
+	}
+
+	@Test
+	public void streamedFilesAreTheSameAsWrittenFiles() throws IOException {
+		Path directory = Files.createTempDirectory("counts");
+		Map<String, Counts<Link>> longTerm = Collections.singletonMap(COMBINATION, createCounts("longTerm", "10", "2", "300"));
+		Map<String, Counts<Link>> shortTerm = Collections.singletonMap(COMBINATION, createCounts("shortTerm", "2", "40"));
+		Set<String> combinations = Collections.singleton(COMBINATION);
+
+		CombinedCountsWriter.writeCounts(directory, "written", combinations, longTerm, shortTerm);
+		CombinedCountsWriter.writeCountsInParallel(directory, "streamed", combinations, false, longTerm, shortTerm);
+		CombinedCountsWriter.writeCountsInParallel(directory, "compressed", combinations, true, longTerm, shortTerm);
+
+		Counts<Link> written = read(directory.resolve("nemo_written_counts_" + COMBINATION + ".xml"));
+		assertEquals(4, written.getCounts().size());
+		assertEquals("shortTerm_2", written.getCount(Id.createLinkId("2")).getCsLabel());
+		assertSameCounts(written, read(directory.resolve("nemo_streamed_counts_" + COMBINATION + ".xml")));
+		assertSameCounts(written, read(directory.resolve("nemo_compressed_counts_" + COMBINATION + ".xml.gz")));
+	}
+
+	private static void assertSameCounts(Counts<Link> expected, Counts<Link> actual) {
+		assertEquals(expected.getYear(), actual.getYear());
+		assertEquals(new ArrayList<>(expected.getCounts().keySet()), new ArrayList<>(actual.getCounts().keySet()));
+		for (Count<Link> count : expected.getCounts().values()) {
+			Count<Link> other = actual.getCount(count.getId());
+			assertEquals(count.getCsLabel(), other.getCsLabel());
+			assertEquals(count.getCoord().getX(), other.getCoord().getX(), 0);
+			assertEquals(count.getCoord().getY(), other.getCoord().getY(), 0);
+			assertEquals(count.getVolumes().keySet(), other.getVolumes().keySet());
+			for (Volume volume : count.getVolumes().values()) {
+				assertEquals(volume.getValue(), other.getVolume(volume.getHourOfDayStartingWithOne()).getValue(), 0);
+			}
+		}
+	}
+
+	private static Counts<Link> read(Path file) {
+		Counts<Link> counts = new Counts<>();
+		new MatsimCountsReader(counts).readFile(file.toString());
+		return counts;
+	}
+
+	/**
+	 * @return counts with the cs label {@code <name>_<link id>} and volumes which depend on the name and the link
+	 */
+	private static Counts<Link> createCounts(String name, String... linkIds) {
+		Counts<Link> counts = new Counts<>();
+		for (String linkId : linkIds) {
+			Count<Link> count = counts.createAndAddCount(Id.createLinkId(linkId), name + "_" + linkId);
+			count.setCoord(new Coord(linkId.hashCode(), name.hashCode()));
+			for (int hour = 1; hour <= 24; hour++) {
+				count.createVolume(hour, name.length() * 100 + hour + 0.5);
+			}
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,41 @@
+package org.matsim.nemo.counts;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class CountsDiagnosticsTest {
+
+	@Test
+	public void problemsOfSeveralThreadsAreWrittenAndSummarized() throws IOException {
+		Path directory = Files.createTempDirectory("diagnostics");
+		CountsDiagnostics diagnostics = new CountsDiagnostics(directory.resolve("diagnostics").toString());
+
+		IntStream.range(0, 1000).parallel().forEach(station -> {
+			for (int hour = 1; hour <= 24; hour++) {
+				diagnostics.report("NW_" + station, 1 + hour % 2, hour, CountsDiagnostics.Reason.INVALID_HOUR, null);
+			}
+		});
+		diagnostics.report("NW_1", CountsDiagnostics.Reason.NO_PATH, "no path; from node 1 to node 2");
+		diagnostics.close();
+
+		assertEquals(24000, diagnostics.getNumberOfProblems(CountsDiagnostics.Reason.INVALID_HOUR));
+		assertEquals(1000, diagnostics.getNumberOfStations(CountsDiagnostics.Reason.INVALID_HOUR));
+		assertEquals(1, diagnostics.getNumberOfProblems(CountsDiagnostics.Reason.NO_PATH));
+		assertEquals(0, diagnostics.getNumberOfProblems(CountsDiagnostics.Reason.COMMENTED));
+
+		List<String> report = Files.readAllLines(directory.resolve("diagnostics.csv"));
+		assertEquals(1 + 24000 + 1, report.size());
+		assertEquals("NW_1;;;NO_PATH;no path, from node 1 to node 2", report.get(report.size() - 1));
+
+		List<String> summary = Files.readAllLines(directory.resolve("diagnostics_summary.csv"));
+		assertEquals(1 + CountsDiagnostics.Reason.values().length, summary.size());
+		assertEquals("INVALID_HOUR;24000;1000", summary.get(1));
+	}
+}
@@ -0,0 +1,135 @@
+package org.matsim.nemo.counts;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for the ingestion of long term count files, based on synthetic data of {@link SyntheticBastDataGenerator}.
+ * All benchmarks are normalized to one data row, so the score is rows per second and 'gc.alloc.rate.norm' of the gc
+ * profiler is the allocation per row.
+ * <p>
+ * Run with 'mvn -Pbenchmark -DskipTests verify' or start the main method from the ide.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CountsIngestionBenchmark {
+
+	private static final int NUMBER_OF_STATIONS = 20;
+	private static final int YEAR = 2015;
+	private static final int ROWS_PER_FILE = 31 * 24;
+	private static final int ROWS_PER_YEAR = 365 * 24 * NUMBER_OF_STATIONS;
+
+	private ByteBuffer countFile;
+	private double[] volumes;
+	private Path countData;
+	private Path output;
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(CountsIngestionBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		SyntheticBastDataGenerator generator = new SyntheticBastDataGenerator(NUMBER_OF_STATIONS, 2, 9, YEAR, YEAR, 4711);
+		countFile = ByteBuffer.wrap(generator.createFile(5000, YEAR, 1));
+
+		Random random = new Random(4711);
+		volumes = new double[ROWS_PER_FILE];
+		for (int i = 0; i < volumes.length; i++) {
+			volumes[i] = random.nextInt(2000);
+		}
+
+		countData = Files.createTempDirectory("synthetic-bast-data");
+		generator.write(countData);
+		output = Files.createTempDirectory("counts-benchmark-output");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		delete(countData);
+		delete(output);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS_PER_FILE)
+	public void parseRows(Blackhole blackhole) {
+		BastRecordScanner scanner = new BastRecordScanner(countFile.duplicate());
+		while (scanner.next()) {
+			blackhole.consume(scanner.getEditFlag());
+			blackhole.consume(scanner.getDayOfMonth());
+			blackhole.consume(scanner.getHour());
+			for (int token = 2; token < scanner.getNumberOfTokens(); token++) {
+				blackhole.consume(scanner.getVolume(token));
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS_PER_FILE)
+	public HourlyCountData aggregateRows() {
+		HourlyCountData data = new HourlyCountData("benchmark", null);
+		for (int row = 0; row < volumes.length; row++) {
+			int hour = row % 24 + 1;
+			data.computeAndSetVolume(true, hour, volumes[row]);
+			data.computeAndSetVolume(false, hour, volumes[row]);
+		}
+		return data;
+	}
+
+	/**
+	 * The whole run without map matching, i.e. without a network
+	 */
+	@Benchmark
+	@OperationsPerInvocation(ROWS_PER_YEAR)
+	public Object runWithoutMapMatching() {
+		LongTermCountsCreator creator = new LongTermCountsCreator(
+				Collections.singleton(RawDataVehicleTypes.Pkw.toString()), null, null,
+				countData.toString(), null, output.toString() + "/");
+		creator.setFirstDayOfAnalysis(LocalDate.of(YEAR, 1, 1));
+		creator.setLastDayOfAnalysis(LocalDate.of(YEAR, 12, 31));
+		creator.setWeekRangeMin(1);
+		creator.setWeekRangeMax(7);
+		try {
+			return creator.run();
+		} finally {
+			// each run adds its own log handlers
+			for (Handler handler : LongTermCountsCreator.log.getHandlers()) {
+				handler.close();
+				LongTermCountsCreator.log.removeHandler(handler);
+			}
+		}
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package org.matsim.nemo.counts;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class CountsScreeningTest {
+
+	private static final int YEAR = 2015;
+
+	@Test
+	public void plausibleVolumesAreNotRejected() {
+		List<RejectionList.Rejection> rejections = new CountsScreening().screen("1234", YEAR, createVolumes());
+		assertTrue(rejections.isEmpty());
+	}
+
+	@Test
+	public void implausibleVolumesAreRejected() throws IOException {
+		double[][] volumes = createVolumes();
+		// zero run of 8 hours in direction 1 on January 5th
+		for (int hour = 8; hour < 16; hour++) {
+			volumes[0][4 * 24 + hour] = 0;
+		}
+		// almost no vehicles in direction 2 on March 3rd
+		for (int hour = 0; hour < 24; hour++) {
+			volumes[1][61 * 24 + hour] *= 0.1;
+		}
+		// a single peak in direction 2 on Wednesday June 3rd at 17:00 - 18:00
+		volumes[1][153 * 24 + 17] *= 3;
+
+		List<RejectionList.Rejection> rejections = new CountsScreening().screen("1234", YEAR, volumes);
+		assertEquals(8 + 48 + 1, rejections.size());
+
+		RejectionList.StationYear station = new RejectionList(rejections).get("1234", YEAR);
+		assertTrue(station.isRejected(1, 5, 9, true));
+		assertTrue(station.isRejected(1, 5, 16, true));
+		assertFalse(station.isRejected(1, 5, 17, true));
+		assertFalse(station.isRejected(1, 5, 9, false));
+		assertTrue(station.isRejected(3, 3, 1, true));
+		assertTrue(station.isRejected(3, 3, 24, false));
+		assertTrue(station.isRejected(6, 3, 18, false));
+		assertFalse(station.isRejected(6, 3, 18, true));
+		// March 3rd is day 62 of the year
+		assertTrue(station.isRejected(62, 24, false));
+		assertNull(new RejectionList(rejections).get("1234", YEAR + 1));
+
+		// the list is the same after writing and reading it
+		Path file = Files.createTempFile("rejections", ".csv");
+		try {
+			RejectionList.write(file, rejections);
+			RejectionList read = RejectionList.read(file);
+			assertEquals(rejections.size(), read.size());
+			assertEquals(new RejectionList(rejections).getFingerprint(), read.getFingerprint());
+			assertNull(read.get("4321", YEAR));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void onlyChangedStationYearsAreScreenedAgain() throws IOException {
+		Path root = Files.createTempDirectory("counts");
+		new SyntheticBastDataGenerator(2, 1, 9, YEAR, YEAR, 4711).write(root);
+		Map<Integer, List<List<File>>> countFilesPerStationYear = new TreeMap<>();
+		for (String station : new String[]{"5000.txt", "5001.txt"}) {
+			List<File> countFiles = new ArrayList<>();
+			for (int month = 1; month <= 12; month++) {
+				countFiles.add(root.resolve("counts_" + YEAR).resolve(String.format(YEAR + "_%02d", month)).resolve(station).toFile());
+			}
+			countFilesPerStationYear.computeIfAbsent(YEAR, year -> new ArrayList<>()).add(countFiles);
+		}
+		Path file = root.resolve("rejections.csv");
+
+		List<RejectionList.Rejection> screened = new CountsScreening().screen(file, countFilesPerStationYear, null, 2);
+		assertTrue(Files.exists(RejectionList.getFingerprintFile(file)));
+		assertEquals(new RejectionList(screened).getFingerprint(), RejectionList.read(file).getFingerprint());
+
+		// edit the list by hand and change the count file of one station
+		List<String> lines = new ArrayList<>(Files.readAllLines(file));
+		lines.add("5000;" + YEAR + "-02-01;8;1;by hand");
+		lines.add("5001;" + YEAR + "-02-01;8;1;by hand");
+		Files.write(file, lines);
+		File changed = countFilesPerStationYear.get(YEAR).get(1).get(5);
+		assertTrue(changed.setLastModified(changed.lastModified() - 60_000));
+
+		RejectionList rejections = new RejectionList(new CountsScreening().screen(file, countFilesPerStationYear, null, 2));
+		assertTrue(rejections.get("5000", YEAR).isRejected(2, 1, 8, true));
+		RejectionList.StationYear rescreened = rejections.get("5001", YEAR);
+		assertTrue(rescreened == null || !rescreened.isRejected(2, 1, 8, true));
+		assertEquals(rejections.getFingerprint(), RejectionList.read(file).getFingerprint());
+	}
+
+	private static double[][] createVolumes() {
+		Random random = new Random(4711);
+		int numberOfDays = LocalDate.of(YEAR, 12, 31).getDayOfYear();
+		double[][] volumes = new double[2][numberOfDays * 24];
+		for (int day = 0; day < numberOfDays; day++) {
+			for (int hour = 0; hour < 24; hour++) {
+				// few vehicles at night, most in the afternoon
+				double mean = 100 + 900 * Math.sin(Math.PI * hour / 24);
+				volumes[0][day * 24 + hour] = Math.round(mean * (0.95 + 0.1 * random.nextDouble()));
+				volumes[1][day * 24 + hour] = Math.round(mean * (0.95 + 0.1 * random.nextDouble()));
+			}
+		}
+		return volumes;
+	}
+}
@@ -0,0 +1,176 @@
+package org.matsim.nemo.counts;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.counts.Count;
+import org.matsim.counts.Counts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class CountsTimeSeriesStoreTest {
+
+	// one lane per direction, two vehicle groups and three vehicle types. The Pkw column of the lane of direction 1
+	// follows the group columns of both lanes, the one of direction 2 follows the three vehicle types of direction 1
+	private static final int PKW_DIR_1 = 6;
+	private static final int PKW_DIR_2 = 9;
+
+	@Test
+	public void aggregatesPeriodAndWeekDays() throws IOException {
+		Path root = Files.createTempDirectory("timeSeries");
+		new SyntheticBastDataGenerator(2, 1, 3, 2016, 2016, 42).write(root);
+
+		Map<Integer, List<List<File>>> countFilesPerStationYear = new HashMap<>();
+		List<List<File>> countFilesOfYear = new ArrayList<>();
+		for (String station : new String[]{"5000.txt", "5001.txt"}) {
+			List<File> countFiles = new ArrayList<>();
+			for (int month = 1; month <= 12; month++) {
+				countFiles.add(root.resolve("counts_2016").resolve(String.format("2016_%02d", month)).resolve(station).toFile());
+			}
+			countFilesOfYear.add(countFiles);
+		}
+		countFilesPerStationYear.put(2016, countFilesOfYear);
+
+		CountsTimeSeriesStore store = new CountsTimeSeriesStore(root.resolve("store"), 2016, 2016, Arrays.asList("Pkw", "SV"));
+		store.fill(countFilesPerStationYear, null, 2);
+
+		Map<String, Id<Link>> linkIds = new HashMap<>();
+		linkIds.put("NW_5000_R1", Id.createLinkId("a"));
+		linkIds.put("NW_5000_R2", Id.createLinkId("b"));
+		LocalDate firstDay = LocalDate.of(2016, 1, 1);
+		LocalDate lastDay = LocalDate.of(2016, 3, 31);
+		Set<DayOfWeek> weekDays = EnumSet.of(DayOfWeek.TUESDAY, DayOfWeek.THURSDAY);
+
+		Counts<Link> counts = store.aggregate(firstDay, lastDay, weekDays, "Pkw", linkIds);
+		assertEquals(2, counts.getCounts().size());
+		double[][] expected = averagePkw(root, firstDay, lastDay, weekDays);
+		Count<Link> countDirOne = counts.getCount(Id.createLinkId("a"));
+		Count<Link> countDirTwo = counts.getCount(Id.createLinkId("b"));
+		assertTrue(countDirOne.getCsLabel().startsWith("5000_"));
+		for (int hour = 1; hour <= 24; hour++) {
+			assertEquals(Math.ceil(expected[0][hour - 1]), countDirOne.getVolume(hour).getValue(), 0);
+			assertEquals(Math.ceil(expected[1][hour - 1]), countDirTwo.getVolume(hour).getValue(), 0);
+		}
+
+		// the files did not change, so filling the store again must not even open them. Blank them without changing
+		// their size and modification time, which would clear the year if they were read
+		for (List<File> countFiles : countFilesOfYear) {
+			for (File countFile : countFiles) {
+				long lastModified = countFile.lastModified();
+				byte[] blank = new byte[(int) countFile.length()];
+				Arrays.fill(blank, (byte) ' ');
+				Files.write(countFile.toPath(), blank);
+				assertTrue(countFile.setLastModified(lastModified));
+			}
+		}
+		List<LogRecord> warnings = new ArrayList<>();
+		Logger log = Logger.getLogger(CountsTimeSeriesStore.class.getName());
+		Handler handler = new Handler() {
+			@Override
+			public synchronized void publish(LogRecord record) {
+				if (record.getLevel() == Level.WARNING) warnings.add(record);
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		log.addHandler(handler);
+		try {
+			store.fill(countFilesPerStationYear, null, 1);
+		} finally {
+			log.removeHandler(handler);
+		}
+		assertTrue(warnings.isEmpty());
+		Counts<Link> countsOfSecondFill = store.aggregate(firstDay, lastDay, weekDays, "Pkw", linkIds);
+		assertEquals(countDirOne.getVolume(8).getValue(), countsOfSecondFill.getCount(Id.createLinkId("a")).getVolume(8).getValue(), 0);
+
+		try {
+			store.aggregate(firstDay, lastDay, weekDays, "Rad", linkIds);
+			fail("Rad is not part of the store");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void hourZeroIsStoredAsHour24() throws IOException {
+		Path root = Files.createTempDirectory("timeSeries");
+		new SyntheticBastDataGenerator(1, 1, 3, 2016, 2016, 42).write(root);
+		LocalDate firstDay = LocalDate.of(2016, 1, 1);
+		LocalDate lastDay = LocalDate.of(2016, 1, 31);
+		Set<DayOfWeek> weekDays = EnumSet.allOf(DayOfWeek.class);
+		double[][] expected = averagePkw(root, firstDay, lastDay, weekDays);
+
+		// the same file with the last hour of every day given as hour 0
+		Path countFile = root.resolve("counts_2016").resolve("2016_01").resolve("5000.txt");
+		List<String> lines = new ArrayList<>();
+		for (String line : Files.readAllLines(countFile)) {
+			lines.add(line.replaceFirst("^(\\d{6}.) 2400", "$1 0000"));
+		}
+		Files.write(countFile, lines);
+
+		Map<Integer, List<List<File>>> countFilesPerStationYear = new HashMap<>();
+		countFilesPerStationYear.put(2016, Collections.singletonList(Collections.singletonList(countFile.toFile())));
+		CountsTimeSeriesStore store = new CountsTimeSeriesStore(root.resolve("store"), 2016, 2016, Arrays.asList("Pkw", "SV"));
+		store.fill(countFilesPerStationYear, null, 1);
+
+		Map<String, Id<Link>> linkIds = new HashMap<>();
+		linkIds.put("NW_5000_R1", Id.createLinkId("a"));
+		linkIds.put("NW_5000_R2", Id.createLinkId("b"));
+		Counts<Link> counts = store.aggregate(firstDay, lastDay, weekDays, "Pkw", linkIds);
+		for (int hour = 1; hour <= 24; hour++) {
+			assertEquals(Math.ceil(expected[0][hour - 1]), counts.getCount(Id.createLinkId("a")).getVolume(hour).getValue(), 0);
+			assertEquals(Math.ceil(expected[1][hour - 1]), counts.getCount(Id.createLinkId("b")).getVolume(hour).getValue(), 0);
+		}
+
+		// the station file is created anew with another layout, while the old one was mapped
+		CountsTimeSeriesStore otherStore = new CountsTimeSeriesStore(root.resolve("store"), 2016, 2016, Collections.singletonList("Pkw"));
+		otherStore.fill(countFilesPerStationYear, null, 1);
+		Counts<Link> countsOfOtherStore = otherStore.aggregate(firstDay, lastDay, weekDays, "Pkw", linkIds);
+		assertEquals(counts.getCount(Id.createLinkId("a")).getVolume(24).getValue(),
+				countsOfOtherStore.getCount(Id.createLinkId("a")).getVolume(24).getValue(), 0);
+	}
+
+	private static double[][] averagePkw(Path root, LocalDate firstDay, LocalDate lastDay, Set<DayOfWeek> weekDays) throws IOException {
+		double[][] sums = new double[2][24];
+		int[][] numberOfDays = new int[2][24];
+		for (int month = firstDay.getMonthValue(); month <= lastDay.getMonthValue(); month++) {
+			BastRecordScanner scanner = BastRecordScanner.open(root.resolve("counts_2016").resolve(String.format("2016_%02d", month)).resolve("5000.txt"));
+			while (scanner.next()) {
+				if (scanner.getEditFlag() == 'i') continue;
+				LocalDate day = LocalDate.of(2016, scanner.getMonth(), scanner.getDayOfMonth());
+				if (!weekDays.contains(day.getDayOfWeek())) continue;
+				int hour = scanner.getHour();
+				double[] volumes = {scanner.getVolume(PKW_DIR_1), scanner.getVolume(PKW_DIR_2)};
+				for (int direction = 0; direction < 2; direction++) {
+					if (Double.isNaN(volumes[direction])) continue;
+					sums[direction][hour - 1] += volumes[direction];
+					numberOfDays[direction][hour - 1]++;
+				}
+			}
+		}
+		for (int direction = 0; direction < 2; direction++) {
+			for (int hour = 0; hour < 24; hour++) {
+				sums[direction][hour] /= numberOfDays[direction][hour];
+			}
+		}
+		return sums;
+	}
+}
@@ -0,0 +1,102 @@
+package org.matsim.nemo.counts;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HourlyCountDataTest {
+
+	private static final double[] VOLUMES = new double[]{120, 80, 95, 130, 101, 99, 87, 143};
+
+	@Test
+	public void averageAndStandardDeviation() {
+
+		HourlyCountData data = new HourlyCountData("test", null);
+		for (double volume : VOLUMES) {
+			data.computeAndSetVolume(true, 8, volume);
+		}
+		data.computeAndSetVolume(false, 8, 42);
+
+		assertEquals(8, data.getNumberOfObservations(true, 8));
+		assertEquals(106.875, data.getAverageVolume(true, 8), 0);
+		assertEquals(expectedStandardDeviation(VOLUMES), data.getStandardDeviation(true, 8), 1e-9);
+
+		assertEquals(42, data.getAverageVolume(false, 8), 0);
+		assertTrue(Double.isNaN(data.getStandardDeviation(false, 8)));
+
+		assertFalse(data.hasVolume(true, 9));
+		assertTrue(Double.isNaN(data.getAverageVolume(true, 9)));
+	}
+
+	@Test
+	public void hour24SharesSlotWithHour0() {
+
+		HourlyCountData data = new HourlyCountData("test", null);
+		data.computeAndSetVolume(true, 24, 10);
+
+		assertTrue(data.hasVolume(true, 24));
+		assertEquals(10, data.getAverageVolume(true, 0), 0);
+	}
+
+	@Test
+	public void mergeEqualsSequentialAggregation() {
+
+		HourlyCountData sequential = new HourlyCountData("sequential", null);
+		HourlyCountData firstHalf = new HourlyCountData("first", null);
+		HourlyCountData secondHalf = new HourlyCountData("second", null);
+
+		for (int i = 0; i < VOLUMES.length; i++) {
+			sequential.computeAndSetVolume(true, 17, VOLUMES[i]);
+			sequential.computeAndSetVolume(false, 17, VOLUMES[i] * 2);
+			HourlyCountData half = i < 3 ? firstHalf : secondHalf;
+			half.computeAndSetVolume(true, 17, VOLUMES[i]);
+			half.computeAndSetVolume(false, 17, VOLUMES[i] * 2);
+		}
+		// an hour which is only present in the merged object
+		secondHalf.computeAndSetVolume(true, 3, 5);
+
+		firstHalf.merge(secondHalf);
+
+		assertEquals("first", firstHalf.getId());
+		assertEquals(sequential.getNumberOfObservations(true, 17), firstHalf.getNumberOfObservations(true, 17));
+		assertEquals(sequential.getAverageVolume(true, 17), firstHalf.getAverageVolume(true, 17), 0);
+		assertEquals(sequential.getAverageVolume(false, 17), firstHalf.getAverageVolume(false, 17), 0);
+		assertEquals(sequential.getStandardDeviation(true, 17), firstHalf.getStandardDeviation(true, 17), 1e-9);
+		assertEquals(sequential.getStandardDeviation(false, 17), firstHalf.getStandardDeviation(false, 17), 1e-9);
+		assertEquals(5, firstHalf.getAverageVolume(true, 3), 0);
+	}
+
+	@Test
+	public void mergeOfKeptValuesIsExactlySequentialAggregation() {
+
+		HourlyCountData sequential = new HourlyCountData("sequential", null, true);
+		HourlyCountData merged = new HourlyCountData("merged", null, true);
+		// more values than fit into the buffer of a quantile sketch, so that the sketches are compressed
+		for (int part = 0; part < 4; part++) {
+			HourlyCountData partial = new HourlyCountData("partial", null, true, true);
+			for (int i = 0; i < 150; i++) {
+				double volume = VOLUMES[(part * 7 + i) % VOLUMES.length] + i % 13;
+				sequential.computeAndSetVolume(true, 17, volume);
+				partial.computeAndSetVolume(true, 17, volume);
+			}
+			merged.merge(partial);
+		}
+
+		assertEquals(sequential.getNumberOfObservations(true, 17), merged.getNumberOfObservations(true, 17));
+		assertEquals(sequential.getAverageVolume(true, 17), merged.getAverageVolume(true, 17), 0);
+		assertEquals(sequential.getStandardDeviation(true, 17), merged.getStandardDeviation(true, 17), 0);
+		for (double q : new double[]{0.1, 0.5, 0.85, 0.99}) {
+			assertEquals(sequential.getQuantile(true, 17, q), merged.getQuantile(true, 17, q), 0);
+		}
+		assertFalse(merged.hasVolume(false, 17));
+	}
+
+	private static double expectedStandardDeviation(double[] values) {
+		double mean = 0;
+		for (double value : values) mean += value;
+		mean /= values.length;
+		double squares = 0;
+		for (double value : values) squares += (value - mean) * (value - mean);
+		return Math.sqrt(squares / (values.length - 1));
+	}
+}
@@ -0,0 +1,71 @@
+package org.matsim.nemo.counts;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class IncrementalCountsStateTest {
+
+	private static final String SETTINGS = "settings";
+	private static final LocalDate LAST_DAY = LocalDate.of(2015, 12, 31);
+
+	@Test
+	public void onlyStationsWithChangedRejectionsAreReadAgain() throws IOException {
+		Path directory = Files.createTempDirectory("counts-state");
+		File fileOfFirstStation = Files.write(directory.resolve("1234.txt"), new byte[]{1}).toFile();
+		File fileOfSecondStation = Files.write(directory.resolve("5678.txt"), new byte[]{2}).toFile();
+
+		IncrementalCountsState state = new IncrementalCountsState(directory.resolve("state.bin"));
+		Map<String, Map<String, HourlyCountData>> stationsData = createStationsData("1234", "5678");
+		state.markProcessed(fileOfFirstStation, "1234", true);
+		state.markProcessed(fileOfSecondStation, "5678", true);
+		state.save(SETTINGS, LAST_DAY, stationsData, new HashMap<>(), station -> 0);
+
+		// a new rejection of the second station
+		Map<String, Map<String, HourlyCountData>> loadedData = createStationsData();
+		IncrementalCountsState loadedState = new IncrementalCountsState(directory.resolve("state.bin"));
+		assertTrue(loadedState.load(SETTINGS, LAST_DAY, loadedData, new HashMap<>(), station -> station.equals("5678") ? 42 : 0));
+
+		assertTrue(loadedState.isProcessed(fileOfFirstStation));
+		assertFalse(loadedState.isProcessed(fileOfSecondStation));
+		assertTrue(loadedData.get("Pkw").containsKey("1234"));
+		assertFalse(loadedData.get("Pkw").containsKey("5678"));
+		assertEquals(10, loadedData.get("Pkw").get("1234").getAverageVolume(true, 8), 0);
+	}
+
+	@Test
+	public void changedSettingsDiscardTheState() throws IOException {
+		Path directory = Files.createTempDirectory("counts-state");
+		File countFile = Files.write(directory.resolve("1234.txt"), new byte[]{1}).toFile();
+
+		IncrementalCountsState state = new IncrementalCountsState(directory.resolve("state.bin"));
+		state.markProcessed(countFile, "1234", true);
+		state.save(SETTINGS, LAST_DAY, createStationsData("1234"), new HashMap<>(), station -> 0);
+
+		Map<String, Map<String, HourlyCountData>> loadedData = createStationsData();
+		IncrementalCountsState loadedState = new IncrementalCountsState(directory.resolve("state.bin"));
+		assertFalse(loadedState.load("other settings", LAST_DAY, loadedData, new HashMap<>(), station -> 0));
+		assertFalse(loadedState.isProcessed(countFile));
+		assertTrue(loadedData.get("Pkw").isEmpty());
+	}
+
+	private static Map<String, Map<String, HourlyCountData>> createStationsData(String... stations) {
+		Map<String, HourlyCountData> dataMap = new HashMap<>();
+		for (String station : stations) {
+			HourlyCountData data = new HourlyCountData(station, null, false);
+			data.computeAndSetVolume(true, 8, 10);
+			dataMap.put(station, data);
+		}
+		Map<String, Map<String, HourlyCountData>> stationsData = new HashMap<>();
+		stationsData.put("Pkw", dataMap);
+		return stationsData;
+	}
+}
@@ -0,0 +1,207 @@
+package org.matsim.nemo.counts;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.counts.Count;
+import org.matsim.counts.Counts;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.logging.Handler;
+
+import static org.junit.Assert.*;
+
+public class LongTermCountsCreatorTest {
+
+	private static final int YEAR = 2015;
+	private static final double[] QUANTILES = {0.5, 0.85};
+	private static final DayProfile[] PROFILES = {
+			DayProfile.weekdays(Collections.singletonList(LocalDate.of(YEAR, 5, 1))),
+			DayProfile.sundaysAndHolidays(Collections.singletonList(LocalDate.of(YEAR, 5, 1)))
+	};
+
+	@Test
+	public void parallelIngestionIsTheSameAsSequentialIngestion() throws IOException {
+		Path countData = Files.createTempDirectory("counts");
+		new SyntheticBastDataGenerator(3, 2, 9, YEAR, YEAR, 4711).write(countData);
+
+		Result sequential = ingest(countData, 1);
+		Result parallel = ingest(countData, 4);
+
+		Map<String, Map<String, HourlyCountData>> sequentialData = sequential.countingStationsData;
+		Map<String, Map<String, HourlyCountData>> parallelData = parallel.countingStationsData;
+		assertEquals(sequentialData.keySet(), parallelData.keySet());
+		for (Map.Entry<String, Map<String, HourlyCountData>> combination : sequentialData.entrySet()) {
+			assertEquals(3, combination.getValue().size());
+			assertEquals(combination.getValue().keySet(), parallelData.get(combination.getKey()).keySet());
+			for (Map.Entry<String, HourlyCountData> station : combination.getValue().entrySet()) {
+				HourlyCountData expected = station.getValue();
+				HourlyCountData actual = parallelData.get(combination.getKey()).get(station.getKey());
+				assertEquals(expected.getId(), actual.getId());
+				for (boolean direction1 : new boolean[]{true, false}) {
+					for (int hour = 1; hour <= 24; hour++) {
+						String message = combination.getKey() + ", station " + station.getKey() + ", hour " + hour;
+						assertEquals(message, expected.getNumberOfObservations(direction1, hour), actual.getNumberOfObservations(direction1, hour));
+						// the volumes are added in the same order, so even the standard deviations must be exactly the same
+						assertEquals(message, expected.getAverageVolume(direction1, hour), actual.getAverageVolume(direction1, hour), 0);
+						assertEquals(message, expected.getStandardDeviation(direction1, hour), actual.getStandardDeviation(direction1, hour), 0);
+					}
+				}
+			}
+		}
+
+		assertSameCounts(sequential.meanCounts, parallel.meanCounts);
+		for (double quantile : QUANTILES) {
+			assertSameCounts(sequential.getQuantileCounts(quantile), parallel.getQuantileCounts(quantile));
+		}
+		for (DayProfile profile : PROFILES) {
+			assertSameCounts(sequential.getProfileCounts(profile.getName()), parallel.getProfileCounts(profile.getName()));
+		}
+		assertEquals(3, sequential.extrapolationFactors.size());
+		assertSameCounts(sequential.extrapolatedCounts, parallel.extrapolatedCounts);
+	}
+
+	@Test
+	public void stationsWhichAreNotLocatedAfterFinishAreReported() throws IOException {
+		Path countData = Files.createTempDirectory("counts");
+		new SyntheticBastDataGenerator(3, 2, 9, YEAR, YEAR, 4711).write(countData);
+
+		LongTermCountsCreator creator = createCreator(countData, 1);
+		try {
+			creator.init();
+			creator.readData();
+			locateAllStations(creator);
+			Map<String, Counts<Link>> meanCounts = creator.convert("test");
+			creator.finish(meanCounts);
+
+			// like stations which only have data on the days of a profile
+			creator.linkIDsOfCountingStations.clear();
+			creator.convertProfiles("test");
+		} finally {
+			closeCreator(creator);
+		}
+		assertEquals(3, creator.diagnostics.getNumberOfStations(CountsDiagnostics.Reason.NOT_LOCATED));
+	}
+
+	private static void assertSameCounts(Map<String, Counts<Link>> expected, Map<String, Counts<Link>> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (String combination : expected.keySet()) {
+			assertEquals(6, expected.get(combination).getCounts().size());
+			assertSameCounts(expected.get(combination), actual.get(combination));
+		}
+	}
+
+	private static void assertSameCounts(Counts<Link> expected, Counts<Link> actual) {
+		assertEquals(expected.getCounts().keySet(), actual.getCounts().keySet());
+		for (Count<Link> count : expected.getCounts().values()) {
+			Count<Link> other = actual.getCount(count.getId());
+			assertEquals(count.getCsLabel(), other.getCsLabel());
+			for (int hour = 1; hour <= 24; hour++) {
+				assertEquals(count.getId() + ", hour " + hour, count.getVolume(hour).getValue(), other.getVolume(hour).getValue(), 0);
+			}
+		}
+	}
+
+	/**
+	 * The counts of all outputs of the creator
+	 */
+	private static final class Result {
+
+		private final Map<String, Map<String, HourlyCountData>> countingStationsData;
+		private final Map<String, Counts<Link>> meanCounts;
+		private final Map<Double, Map<String, Counts<Link>>> quantileCounts = new HashMap<>();
+		private final Map<String, Map<String, Counts<Link>>> profileCounts = new HashMap<>();
+		private final Map<String, double[]> extrapolationFactors;
+		private final Map<String, Counts<Link>> extrapolatedCounts;
+
+		private Result(LongTermCountsCreator creator, Map<String, Counts<Link>> meanCounts, Map<String, Counts<Link>> extrapolatedCounts) {
+			this.countingStationsData = creator.countingStationsData;
+			this.meanCounts = meanCounts;
+			for (double quantile : QUANTILES) {
+				quantileCounts.put(quantile, creator.getQuantileCounts(quantile));
+			}
+			for (DayProfile profile : PROFILES) {
+				profileCounts.put(profile.getName(), creator.getProfileCounts(profile.getName()));
+			}
+			this.extrapolationFactors = creator.extrapolationFactors;
+			this.extrapolatedCounts = extrapolatedCounts;
+		}
+
+		private Map<String, Counts<Link>> getQuantileCounts(double quantile) {
+			return quantileCounts.get(quantile);
+		}
+
+		private Map<String, Counts<Link>> getProfileCounts(String profile) {
+			return profileCounts.get(profile);
+		}
+	}
+
+	/**
+	 * Reads the data and converts it into all kinds of counts. Every station is located on the links
+	 * {@code <station>_R1} and {@code <station>_R2}. The extrapolated counts treat the stations like short term
+	 * stations which were counted in the first two weeks of April.
+	 */
+	private static Result ingest(Path countData, int numberOfThreads) throws IOException {
+		LongTermCountsCreator creator = createCreator(countData, numberOfThreads);
+		try {
+			creator.init();
+			creator.readData();
+			locateAllStations(creator);
+			Map<String, Counts<Link>> meanCounts = creator.convert("test");
+			creator.convertQuantiles("test", meanCounts);
+			creator.convertProfiles("test");
+
+			SeasonalFactors seasonalFactors = creator.computeSeasonalFactors();
+			Map<String, BitSet> campaignDays = new HashMap<>();
+			for (String countID : creator.countingStationsData.get(RawDataVehicleTypes.Pkw.toString()).keySet()) {
+				BitSet days = new BitSet();
+				for (int day = 1; day <= 14; day++) {
+					days.set(SeasonalFactors.getDayIndex(4, day));
+				}
+				campaignDays.put(countID, days);
+			}
+			creator.extrapolationFactors = seasonalFactors.extrapolate(campaignDays, new HashMap<>(), new HashMap<>());
+			return new Result(creator, meanCounts, creator.convert("extrapolated"));
+		} finally {
+			closeCreator(creator);
+		}
+	}
+
+	private static LongTermCountsCreator createCreator(Path countData, int numberOfThreads) throws IOException {
+		Path output = Files.createTempDirectory("counts-output");
+		LongTermCountsCreator creator = new LongTermCountsCreator(
+				new HashSet<>(Arrays.asList(RawDataVehicleTypes.Pkw.toString(), "Lfw;Bus")), null, null,
+				countData.toString(), null, output.toString() + "/");
+		creator.setFirstDayOfAnalysis(LocalDate.of(YEAR, 1, 1));
+		creator.setLastDayOfAnalysis(LocalDate.of(YEAR, 12, 31));
+		creator.setWeekRangeMin(1);
+		creator.setWeekRangeMax(7);
+		creator.setNumberOfIngestionThreads(numberOfThreads);
+		creator.setQuantiles(QUANTILES);
+		creator.setDayProfiles(Arrays.asList(PROFILES));
+		return creator;
+	}
+
+	private static void locateAllStations(LongTermCountsCreator creator) {
+		for (Map<String, HourlyCountData> stations : creator.countingStationsData.values()) {
+			for (String countID : stations.keySet()) {
+				for (String direction : new String[]{"_R1", "_R2"}) {
+					creator.linkIDsOfCountingStations.put("NW_" + countID + direction, Id.createLinkId(countID + direction));
+				}
+			}
+		}
+	}
+
+	private static void closeCreator(LongTermCountsCreator creator) {
+		creator.diagnostics.close();
+		// each run adds its own log handlers
+		for (Handler handler : LongTermCountsCreator.log.getHandlers()) {
+			handler.close();
+			LongTermCountsCreator.log.removeHandler(handler);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.matsim.nemo.counts;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class NetworkLinkIdsTest {
+
+	private static final String NETWORK = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+			"<!DOCTYPE network SYSTEM \"http://www.matsim.org/files/dtd/network_v2.dtd\">\n" +
+			"<network>\n" +
+			"\t<nodes>\n" +
+			"\t\t<node id=\"1\" x=\"0.0\" y=\"0.0\" />\n" +
+			"\t\t<node id=\"2\" x=\"100.0\" y=\"0.0\" />\n" +
+			"\t</nodes>\n" +
+			"\t<links capperiod=\"01:00:00\" effectivecellsize=\"7.5\" effectivelanewidth=\"3.75\">\n" +
+			"\t\t<link id=\"b\" from=\"2\" to=\"1\" length=\"100.0\" freespeed=\"13.9\" capacity=\"1000.0\" permlanes=\"1.0\" modes=\"car\" >\n" +
+			"\t\t\t<attributes>\n" +
+			"\t\t\t\t<attribute name=\"type\" class=\"java.lang.String\">primary</attribute>\n" +
+			"\t\t\t</attributes>\n" +
+			"\t\t</link>\n" +
+			"\t\t<link id=\"a\" from=\"1\" to=\"2\" length=\"100.0\" freespeed=\"13.9\" capacity=\"1000.0\" permlanes=\"1.0\" modes=\"car\" />\n" +
+			"\t</links>\n" +
+			"</network>\n";
+
+	@Test
+	public void linkIdsOfCompressedNetwork() throws IOException {
+		Path file = Files.createTempFile("network", ".xml.gz");
+		try {
+			try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+				out.write(NETWORK.getBytes(StandardCharsets.UTF_8));
+			}
+
+			NetworkLinkIds linkIds = NetworkLinkIds.read(file.toString(), true);
+			assertEquals(2, linkIds.size());
+			assertTrue(linkIds.contains("a"));
+			assertTrue(linkIds.contains("b"));
+			assertFalse(linkIds.contains("c"));
+			assertEquals("2", linkIds.getFromNodeId("b"));
+			assertEquals("1", linkIds.getToNodeId("b"));
+			assertNull(linkIds.getFromNodeId("c"));
+
+			NetworkLinkIds withoutNodes = NetworkLinkIds.read(file.toString(), false);
+			assertTrue(withoutNodes.contains("a"));
+			try {
+				withoutNodes.getFromNodeId("a");
+				fail("nodes were not read");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
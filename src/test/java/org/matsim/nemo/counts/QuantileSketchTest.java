@@ -0,0 +1,70 @@
+package org.matsim.nemo.counts;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuantileSketchTest {
+
+	@Test
+	public void quantilesOfSkewedVolumes() {
+		Random random = new Random(4711);
+		double[] volumes = new double[20000];
+		QuantileSketch sketch = new QuantileSketch();
+		QuantileSketch firstHalf = new QuantileSketch();
+		QuantileSketch secondHalf = new QuantileSketch();
+		for (int i = 0; i < volumes.length; i++) {
+			volumes[i] = Math.round(Math.exp(6 + 0.5 * random.nextGaussian()));
+			sketch.add(volumes[i]);
+			if (i % 2 == 0) firstHalf.add(volumes[i]);
+			else secondHalf.add(volumes[i]);
+		}
+		firstHalf.merge(secondHalf);
+		Arrays.sort(volumes);
+
+		assertEquals(volumes.length, sketch.getCount());
+		assertEquals(volumes.length, firstHalf.getCount());
+		for (double q : new double[]{0.1, 0.5, 0.85}) {
+			double exact = volumes[(int) (q * (volumes.length - 1))];
+			assertEquals(exact, sketch.getQuantile(q), 0.01 * exact);
+			assertEquals(exact, firstHalf.getQuantile(q), 0.01 * exact);
+		}
+		assertEquals(volumes[0], sketch.getQuantile(0), 0);
+		assertEquals(volumes[volumes.length - 1], sketch.getQuantile(1), 0);
+	}
+
+	@Test
+	public void emptyAndSingleValue() {
+		QuantileSketch sketch = new QuantileSketch();
+		assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+		sketch.add(42);
+		assertEquals(42, sketch.getQuantile(0.5), 0);
+	}
+
+	@Test
+	public void hourlyCountDataKeepsSketchesWhenWrittenAndRead() throws IOException {
+		HourlyCountData data = new HourlyCountData("station", null, true);
+		for (int volume = 1; volume <= 99; volume++) {
+			data.computeAndSetVolume(true, 8, volume);
+		}
+		data.computeAndSetVolume(true, 8, 100000);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		data.write(new DataOutputStream(bytes));
+		HourlyCountData read = HourlyCountData.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		// the outlier dominates the mean but not the median
+		assertTrue(read.getAverageVolume(true, 8) > 1000);
+		assertEquals(50.5, read.getQuantile(true, 8, 0.5), 1);
+		assertTrue(Double.isNaN(read.getQuantile(false, 8, 0.5)));
+	}
+}
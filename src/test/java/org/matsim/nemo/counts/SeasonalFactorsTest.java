@@ -0,0 +1,119 @@
+package org.matsim.nemo.counts;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SeasonalFactorsTest {
+
+	@Test
+	public void campaignsAreExtrapolatedWithNearestStationOfSameRoadClass() {
+		List<StationYearVolumes> volumes = Arrays.asList(
+				// motorway with 50% more traffic in summer, far away
+				createStation("1001", "A1", 2014, 0.5),
+				createStation("1001", "A1", 2015, 0.5),
+				// motorway without seasonal variation, close to the short term station
+				createStation("1002", "A43", 2015, 0),
+				// federal road with 20% more traffic in summer
+				createStation("1003", "B224", 2015, 0.2));
+		Map<String, Coord> coords = new HashMap<>();
+		coords.put("1001", new Coord(100000, 0));
+		coords.put("1002", new Coord(1000, 0));
+		coords.put("1003", new Coord(0, 0));
+		SeasonalFactors factors = SeasonalFactors.compute(volumes, coords, 1, 5);
+		assertEquals(3, factors.getNumberOfStations());
+
+		// one week in the middle of July
+		BitSet summer = new BitSet();
+		for (int day = 13; day <= 17; day++) {
+			summer.set(SeasonalFactors.getDayIndex(7, day));
+		}
+		Map<String, BitSet> campaignDays = new HashMap<>();
+		campaignDays.put("80001111", summer);
+		campaignDays.put("80002222", summer);
+		campaignDays.put("80003333", new BitSet());
+		Map<String, String> streetIds = new HashMap<>();
+		streetIds.put("80001111", "B224");
+		streetIds.put("80002222", "A2");
+		Map<String, Coord> shortTermCoords = new HashMap<>();
+		shortTermCoords.put("80002222", new Coord(0, 0));
+
+		Map<String, double[]> result = factors.extrapolate(campaignDays, streetIds, shortTermCoords);
+		assertEquals(2, result.size());
+		assertFalse(result.containsKey("80003333"));
+
+		// the only federal road has 1.2 times the annual mean in summer
+		double annualMeanB = 1 + 0.2 * annualMeanOfSeason();
+		assertEquals(annualMeanB / 1.2, result.get("80001111")[8], 0.02);
+		// the three nearest motorways are 1002 and 1001, other road classes are not used
+		double annualMeanA = 1 + 0.5 * annualMeanOfSeason();
+		assertEquals((1 + annualMeanA / 1.5) / 2, result.get("80002222")[17], 0.02);
+	}
+
+	@Test
+	public void factorsAreIndexedByHourOfCountData() {
+		// volumes of 10 vehicles per hour, but the morning peak from 7:00 to 8:00, i.e. hour 8 of the count files, is
+		// twice as high in summer
+		int year = 2015;
+		int numberOfDays = LocalDate.of(year, 12, 31).getDayOfYear();
+		double[][] volumes = new double[2][numberOfDays * 24];
+		LocalDate day = LocalDate.of(year, 1, 1);
+		for (int d = 0; d < numberOfDays; d++, day = day.plusDays(1)) {
+			for (int hour = 1; hour <= 24; hour++) {
+				double volume = hour == 8 && isSummer(day) ? 10 : 5;
+				volumes[0][d * 24 + hour - 1] = volume;
+				volumes[1][d * 24 + hour - 1] = volume;
+			}
+		}
+		SeasonalFactors factors = SeasonalFactors.compute(Collections.singletonList(new StationYearVolumes("1001", "A1", year, volumes)),
+				Collections.emptyMap(), 1, 7);
+
+		BitSet summer = new BitSet();
+		summer.set(SeasonalFactors.getDayIndex(7, 15));
+		double[] result = factors.extrapolate(Collections.singletonMap("80001111", summer), Collections.singletonMap("80001111", "A2"),
+				Collections.emptyMap()).get("80001111");
+
+		assertEquals(24, result.length);
+		double annualMeanOfHour8 = 10 + 10 * annualMeanOfSeason();
+		assertEquals(annualMeanOfHour8 / 20, result[7], 1e-6);
+		for (int hour = 1; hour <= 24; hour++) {
+			if (hour != 8) assertEquals("factor of hour " + hour, 1, result[hour - 1], 1e-6);
+		}
+	}
+
+	@Test
+	public void roadClassOfStreetId() {
+		assertEquals("A", SeasonalFactors.getRoadClass("A1"));
+		assertEquals("B", SeasonalFactors.getRoadClass("b224"));
+		assertEquals("L", SeasonalFactors.getRoadClass("L663"));
+		assertNull(SeasonalFactors.getRoadClass("123"));
+		assertNull(SeasonalFactors.getRoadClass(null));
+	}
+
+	/**
+	 * Volumes are 1 per hour and direction, raised by the amplitude from June to August
+	 */
+	private static StationYearVolumes createStation(String station, String streetId, int year, double amplitude) {
+		int numberOfDays = LocalDate.of(year, 12, 31).getDayOfYear();
+		double[][] volumes = new double[2][numberOfDays * 24];
+		LocalDate day = LocalDate.of(year, 1, 1);
+		for (int d = 0; d < numberOfDays; d++, day = day.plusDays(1)) {
+			double volume = 0.5 * (1 + (isSummer(day) ? amplitude : 0));
+			Arrays.fill(volumes[0], d * 24, (d + 1) * 24, volume);
+			Arrays.fill(volumes[1], d * 24, (d + 1) * 24, volume);
+		}
+		return new StationYearVolumes(station, streetId, year, volumes);
+	}
+
+	private static boolean isSummer(LocalDate day) {
+		return day.getMonthValue() >= 6 && day.getMonthValue() <= 8;
+	}
+
+	private static double annualMeanOfSeason() {
+		return 92. / 365;
+	}
+}
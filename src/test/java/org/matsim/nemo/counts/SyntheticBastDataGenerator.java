@@ -0,0 +1,124 @@
+package org.matsim.nemo.counts;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Random;
+
+/**
+ * Writes synthetic long term count files in BASt format, laid out like the raw data in the shared-svn:
+ * <pre>
+ *     root/counts_&lt;year&gt;/&lt;year&gt;_&lt;month&gt;/&lt;station&gt;.txt
+ * </pre>
+ * Every file holds one row per day and hour. Per row and lane the file contains the volumes of the two vehicle groups
+ * (KFZ and SV) followed by the volumes of the vehicle types. Roughly one percent of the rows is marked as edited and
+ * one percent of the volumes is marked as invalid, so that the skipping logic of the counts creator is exercised as well.
+ */
+public class SyntheticBastDataGenerator {
+
+	private static final Charset CHARSET = Charset.forName("windows-1256");
+	private static final String[] VEHICLE_TYPES = {"Pkw", "Lfw", "Mot", "PmA", "Bus", "LoA", "Lzg", "Sat", "Son", "Rad"};
+	private static final int NUMBER_OF_VEHICLE_GROUPS = 2;
+	private static final int FIRST_STATION_ID = 5000;
+
+	private final int numberOfStations;
+	private final int lanesPerDirection;
+	private final int numberOfVehicleTypes;
+	private final int firstYear;
+	private final int lastYear;
+	private final long seed;
+
+	/**
+	 * @param numberOfVehicleTypes number of vehicle types per lane, at most 10. 'Pkw' is always the first one
+	 */
+	public SyntheticBastDataGenerator(int numberOfStations, int lanesPerDirection, int numberOfVehicleTypes, int firstYear, int lastYear, long seed) {
+		if (numberOfVehicleTypes < 1 || numberOfVehicleTypes > VEHICLE_TYPES.length)
+			throw new IllegalArgumentException("number of vehicle types must be between 1 and " + VEHICLE_TYPES.length);
+		this.numberOfStations = numberOfStations;
+		this.lanesPerDirection = lanesPerDirection;
+		this.numberOfVehicleTypes = numberOfVehicleTypes;
+		this.firstYear = firstYear;
+		this.lastYear = lastYear;
+		this.seed = seed;
+	}
+
+	public static void main(String[] args) throws IOException {
+		// root numberOfStations lanesPerDirection numberOfVehicleTypes firstYear lastYear
+		new SyntheticBastDataGenerator(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				Integer.parseInt(args[4]), Integer.parseInt(args[5]), 4711).write(Path.of(args[0]));
+	}
+
+	/**
+	 * @return number of data rows of all files
+	 */
+	public long write(Path root) throws IOException {
+		long numberOfRows = 0;
+		for (int year = firstYear; year <= lastYear; year++) {
+			for (int month = 1; month <= 12; month++) {
+				Path monthDir = root.resolve("counts_" + year).resolve(year + "_" + String.format("%02d", month));
+				Files.createDirectories(monthDir);
+				for (int station = 0; station < numberOfStations; station++) {
+					int stationId = FIRST_STATION_ID + station;
+					Files.write(monthDir.resolve(stationId + ".txt"), createFile(stationId, year, month));
+					numberOfRows += YearMonth.of(year, month).lengthOfMonth() * 24;
+				}
+			}
+		}
+		return numberOfRows;
+	}
+
+	/**
+	 * @return the content of the count file of one station and month
+	 */
+	public byte[] createFile(int stationId, int year, int month) {
+
+		Random random = new Random(seed + stationId * 1000L + year * 12L + month);
+		StringBuilder file = new StringBuilder();
+
+		file.append(String.format("%-5s%04d    %-7s %-25s%n", "DZ", stationId, "A" + (stationId % 100), "Station " + stationId));
+		file.append(String.format(" %02d %02d%n", lanesPerDirection, lanesPerDirection));
+		file.append(String.format("G%02d %02d KFZ SV", NUMBER_OF_VEHICLE_GROUPS, numberOfVehicleTypes));
+		for (int type = 0; type < numberOfVehicleTypes; type++) {
+			file.append(' ').append(VEHICLE_TYPES[type]);
+		}
+		file.append(System.lineSeparator());
+
+		for (int day = 1; day <= YearMonth.of(year, month).lengthOfMonth(); day++) {
+			LocalDate date = LocalDate.of(year, month, day);
+			for (int hour = 1; hour <= 24; hour++) {
+				char editFlag = random.nextInt(100) == 0 ? 'i' : ' ';
+				file.append(String.format("%02d%02d%02d%c %02d00", date.getYear() % 100, month, day, editFlag, hour));
+
+				int[][] typeVolumes = new int[2 * lanesPerDirection][numberOfVehicleTypes];
+				for (int lane = 0; lane < 2 * lanesPerDirection; lane++) {
+					int sum = 0;
+					int heavy = 0;
+					for (int type = 0; type < numberOfVehicleTypes; type++) {
+						typeVolumes[lane][type] = random.nextInt(type == 0 ? 1200 : 80);
+						sum += typeVolumes[lane][type];
+						if (type >= 4) heavy += typeVolumes[lane][type];
+					}
+					appendVolume(file, random, sum);
+					appendVolume(file, random, heavy);
+				}
+				for (int lane = 0; lane < 2 * lanesPerDirection; lane++) {
+					for (int type = 0; type < numberOfVehicleTypes; type++) {
+						appendVolume(file, random, typeVolumes[lane][type]);
+					}
+				}
+				file.append(System.lineSeparator());
+			}
+		}
+		return file.toString().getBytes(CHARSET);
+	}
+
+	private static void appendVolume(StringBuilder file, Random random, int volume) {
+		file.append(' ').append(volume);
+		if (random.nextInt(100) != 0) {
+			file.append('-');
+		}
+	}
+}
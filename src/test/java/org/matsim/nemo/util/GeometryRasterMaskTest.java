@@ -0,0 +1,138 @@
+package org.matsim.nemo.util;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import org.matsim.api.core.v01.Coord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GeometryRasterMaskTest {
+
+	private final GeometryFactory factory = new GeometryFactory();
+
+	@Test
+	public void maskIsTheSameAsContains() {
+		List<Geometry> geometries = createGeometries();
+		// edges of the square and its hole lie on cell edges with 100, but not with 37
+		for (double cellSize : new double[]{100, 37}) {
+			GeometryRasterMask mask = new GeometryRasterMask(geometries, cellSize);
+			for (Coord coord : createCoords(geometries, cellSize)) {
+				assertEquals("cell size " + cellSize + ", coordinate " + coord, containedByAny(geometries, coord), mask.contains(coord));
+			}
+		}
+		// only cells along the edges of the geometries are tested against them
+		assertTrue(new GeometryRasterMask(geometries, 10).getShareOfBoundaryCells() < 0.1);
+	}
+
+	@Test
+	public void holesAndGapsBetweenPartsAreOutside() {
+		GeometryRasterMask mask = new GeometryRasterMask(createGeometries(), 100);
+
+		assertTrue(mask.contains(new Coord(150, 150)));
+		assertFalse(mask.contains(new Coord(500, 500)));
+		assertFalse(mask.contains(new Coord(300, 500)));
+		assertTrue(mask.contains(new Coord(299.999, 500)));
+		assertTrue(mask.contains(new Coord(2100, 100)));
+		assertTrue(mask.contains(new Coord(2900, 800)));
+		assertFalse(mask.contains(new Coord(2550, 300)));
+		// the boundary of a geometry is not within it
+		assertFalse(mask.contains(new Coord(0, 500)));
+		assertFalse(mask.contains(new Coord(-1, 500)));
+		assertFalse(mask.contains(new Coord(5000, 500)));
+	}
+
+	@Test
+	public void emptyMaskContainsNothing() {
+		GeometryRasterMask mask = new GeometryRasterMask(new ArrayList<>(), 100);
+		assertFalse(mask.contains(new Coord(0, 0)));
+		assertEquals(0, mask.getShareOfBoundaryCells(), 0);
+	}
+
+	/**
+	 * A square with a hole, a concave polygon and a multipolygon of two triangles
+	 */
+	private List<Geometry> createGeometries() {
+		LinearRing shell = factory.createLinearRing(coordinates(0, 0, 1000, 0, 1000, 1000, 0, 1000, 0, 0));
+		LinearRing hole = factory.createLinearRing(coordinates(300, 300, 700, 300, 700, 700, 300, 700, 300, 300));
+		Polygon squareWithHole = factory.createPolygon(shell, new LinearRing[]{hole});
+		Polygon concave = factory.createPolygon(coordinates(1200, 100, 1900, 150, 1500, 900, 1450, 400, 1200, 100));
+		Geometry triangles = factory.createMultiPolygon(new Polygon[]{
+				factory.createPolygon(coordinates(2000, 0, 2500, 0, 2000, 500, 2000, 0)),
+				factory.createPolygon(coordinates(2600, 600, 3000, 600, 3000, 1000, 2600, 600))
+		});
+		return Arrays.asList(squareWithHole, concave, triangles);
+	}
+
+	/**
+	 * Random coordinates within and around the geometries, coordinates on cell edges and coordinates on and close to
+	 * the edges of the geometries
+	 */
+	private static List<Coord> createCoords(List<Geometry> geometries, double cellSize) {
+		Random random = new Random(4711);
+		List<Coord> coords = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			coords.add(new Coord(-100 + 3200 * random.nextDouble(), -100 + 1200 * random.nextDouble()));
+		}
+		for (int i = 0; i < 2000; i++) {
+			double x = Math.floor(3000 * random.nextDouble() / cellSize) * cellSize;
+			double y = Math.floor(1000 * random.nextDouble() / cellSize) * cellSize;
+			coords.add(new Coord(x, 1000 * random.nextDouble()));
+			coords.add(new Coord(3000 * random.nextDouble(), y));
+			coords.add(new Coord(x, y));
+		}
+		for (Geometry geometry : geometries) {
+			for (Coordinate[] ring : getRings(geometry)) {
+				for (int i = 0; i + 1 < ring.length; i++) {
+					for (int j = 0; j < 50; j++) {
+						double t = random.nextDouble();
+						double x = ring[i].x + t * (ring[i + 1].x - ring[i].x);
+						double y = ring[i].y + t * (ring[i + 1].y - ring[i].y);
+						coords.add(new Coord(x, y));
+						coords.add(new Coord(x + 1e-6, y));
+						coords.add(new Coord(x - 1e-6, y));
+						coords.add(new Coord(x, y + 1e-6));
+						coords.add(new Coord(x, y - 1e-6));
+					}
+					coords.add(new Coord(ring[i].x, ring[i].y));
+				}
+			}
+		}
+		return coords;
+	}
+
+	private static List<Coordinate[]> getRings(Geometry geometry) {
+		List<Coordinate[]> rings = new ArrayList<>();
+		for (int n = 0; n < geometry.getNumGeometries(); n++) {
+			Polygon polygon = (Polygon) geometry.getGeometryN(n);
+			rings.add(polygon.getExteriorRing().getCoordinates());
+			for (int hole = 0; hole < polygon.getNumInteriorRing(); hole++) {
+				rings.add(polygon.getInteriorRingN(hole).getCoordinates());
+			}
+		}
+		return rings;
+	}
+
+	private boolean containedByAny(List<Geometry> geometries, Coord coord) {
+		for (Geometry geometry : geometries) {
+			if (geometry.contains(factory.createPoint(new Coordinate(coord.getX(), coord.getY())))) return true;
+		}
+		return false;
+	}
+
+	private static Coordinate[] coordinates(double... xy) {
+		Coordinate[] coordinates = new Coordinate[xy.length / 2];
+		for (int i = 0; i < coordinates.length; i++) {
+			coordinates[i] = new Coordinate(xy[2 * i], xy[2 * i + 1]);
+		}
+		return coordinates;
+	}
+}
@@ -0,0 +1,99 @@
+package org.matsim.nemo.util;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.matsim.api.core.v01.Coord;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ZoneIndexTest {
+
+	private final GeometryFactory factory = new GeometryFactory();
+
+	@Test
+	public void smallestIndexWinsForOverlappingZones() {
+		ZoneIndex index = new ZoneIndex(createZones());
+
+		assertEquals(4, index.size());
+		// only within the large square
+		assertEquals(0, index.zoneOf(100, 100));
+		// within the large square and both rectangles
+		assertEquals(0, index.zoneOf(550, 550));
+		// within both rectangles, the first one is listed first
+		assertEquals(1, index.zoneOf(1050, 550));
+		// only within the second rectangle
+		assertEquals(2, index.zoneOf(1450, 550));
+		assertEquals(2, index.zoneOf(new Coord(1450, 550)));
+		assertTrue(index.contains(new Coord(1450, 550)));
+		assertEquals(3, index.zoneOf(1900, 100));
+	}
+
+	@Test
+	public void coordinatesOutsideOfAllZones() {
+		ZoneIndex index = new ZoneIndex(createZones());
+
+		// outside of all envelopes
+		assertEquals(-1, index.zoneOf(-500, -500));
+		assertEquals(-1, index.zoneOf(5000, 550));
+		assertFalse(index.contains(5000, 550));
+		// within the envelope of the triangle, but not within the triangle
+		assertEquals(-1, index.zoneOf(1650, 900));
+		// on the boundary of a zone
+		assertEquals(-1, index.zoneOf(0, 500));
+
+		assertEquals(-1, new ZoneIndex(Collections.emptyList()).zoneOf(0, 0));
+	}
+
+	@Test
+	public void classifyIsTheSameAsZoneOf() {
+		ZoneIndex index = new ZoneIndex(createZones());
+		Random random = new Random(4711);
+		double[] xs = new double[50000];
+		double[] ys = new double[xs.length];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = -100 + 2300 * random.nextDouble();
+			ys[i] = -100 + 1300 * random.nextDouble();
+		}
+		// a few coordinates on the boundaries
+		xs[0] = 0;
+		ys[0] = 500;
+		xs[1] = 1000;
+		ys[1] = 1000;
+
+		int[] zones = index.classify(xs, ys);
+		for (int i = 0; i < xs.length; i++) {
+			assertEquals(index.zoneOf(xs[i], ys[i]), zones[i]);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void classifyNeedsAsManyXAsYValues() {
+		new ZoneIndex(createZones()).classify(new double[2], new double[3]);
+	}
+
+	/**
+	 * A large square, two smaller rectangles which overlap each other and the large square, and a triangle
+	 */
+	private List<Geometry> createZones() {
+		return Arrays.asList(
+				factory.createPolygon(coordinates(0, 0, 1000, 0, 1000, 1000, 0, 1000, 0, 0)),
+				factory.createPolygon(coordinates(500, 500, 1200, 500, 1200, 600, 500, 600, 500, 500)),
+				factory.createPolygon(coordinates(400, 400, 1500, 400, 1500, 700, 400, 700, 400, 400)),
+				factory.createPolygon(coordinates(1600, 0, 2000, 1000, 2000, 0, 1600, 0)));
+	}
+
+	private static Coordinate[] coordinates(double... xy) {
+		Coordinate[] coordinates = new Coordinate[xy.length / 2];
+		for (int i = 0; i < coordinates.length; i++) {
+			coordinates[i] = new Coordinate(xy[2 * i], xy[2 * i + 1]);
+		}
+		return coordinates;
+	}
+}